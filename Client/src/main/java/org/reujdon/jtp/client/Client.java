@@ -1,11 +1,26 @@
 package org.reujdon.jtp.client;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
+import org.reujdon.jtp.shared.Batch;
+import org.reujdon.jtp.shared.Chunk;
+import org.reujdon.jtp.shared.Demand;
+import org.reujdon.jtp.shared.Hello;
 import org.reujdon.jtp.shared.MessageType;
-import org.reujdon.jtp.shared.Parse;
 import org.reujdon.jtp.shared.PropertiesUtil;
 import org.reujdon.jtp.shared.Request;
-import reujdon.async.Async;
+import org.reujdon.jtp.shared.codec.BinaryCodec;
+import org.reujdon.jtp.shared.codec.CodecRegistry;
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+import org.reujdon.jtp.shared.codec.KeyTable;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+import org.reujdon.jtp.shared.transport.Compression;
+import org.reujdon.jtp.shared.transport.Frame;
+import org.reujdon.jtp.shared.transport.FrameDecoder;
+import org.reujdon.jtp.shared.transport.Framing;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+import org.reujdon.jtp.shared.transport.StreamAssembler;
+import org.reujdon.jtp.shared.transport.StreamScheduler;
 import reujdon.async.Task;
 
 import javax.net.ssl.SSLContext;
@@ -13,9 +28,23 @@ import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.*;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
 /**
  * A secure client that connects to a server over SSL/TLS.
@@ -24,10 +53,55 @@ import java.util.Map;
  * <ul>
  *   <li>Secure communication using SSL/TLS protocol</li>
  *   <li>Asynchronous handling of server responses</li>
- *   <li>Timeout management for requests</li>
+ *   <li>Timeout management for requests, with all deadlines kept by a single timer thread</li>
+ *   <li>Requests written in batches by a dedicated writer thread, so sending never blocks on the socket</li>
  *   <li>Ability to send custom commands to the server using the {@link #sendCommand(Request)} method</li>
+ *   <li>Calls returning a {@link CompletableFuture}, or blocking until the response, through
+ *       {@link #call(String, Map)} and {@link #callBlocking(String, Map)}</li>
+ *   <li>Many commands sent and answered in one message with {@link #callBatch(Batch)}</li>
+ *   <li>Results of streaming commands received chunk by chunk, as the subscriber asks for them,
+ *       through {@link #stream(String, Map)}</li>
+ *   <li>Large request bodies uploaded chunk by chunk, as the server asks for them, through
+ *       {@link #upload(String, Map, InputStream)}</li>
+ *   <li>Files sent by the server's {@code File} command written to a stream and checked as they
+ *       arrive, through {@link #download(String, OutputStream)}</li>
+ *   <li>A local cache of responses to requests that declare a {@link Request#getCacheTtl() cache TTL}</li>
+ *   <li>Raw byte attachments sent with a {@link Request} and received with its response, without
+ *       Base64, see {@link Request#onSuccess(Map, List)}</li>
  * </ul>
  *
+ * <p>The {@code client.framing} setting selects how messages are delimited on the wire and
+ * {@code client.codec} how they are encoded. When framing is not {@code line}, the client opens
+ * with a {@link Hello} and falls back to line framing and JSON if the server does not support
+ * negotiation.</p>
+ *
+ * <p>With {@code client.framing = mux} each request is sent on a stream of its own and answered on
+ * it, and large messages are split into frames and interleaved with other requests under flow
+ * control, so they do not hold back small ones.</p>
+ *
+ * <p>{@code client.compression = deflate} asks the server to compress messages, which needs
+ * {@code length} or {@code mux} framing. If the server accepts, both sides compress payloads of
+ * at least their threshold, {@code client.compression.threshold} bytes for requests, see
+ * {@link Compression}.</p>
+ *
+ * <p>{@code client.keyTable} asks a server using the binary codec for a {@link KeyTable} of that
+ * many entries, {@code 0} for none, with which repeated map keys and short values such as command
+ * names and tokens are sent as small indices.</p>
+ *
+ * <p>Requests are sent under ids numbered from 1 on each connection, not the id of the
+ * {@link Request} object. {@code client.maxPending} bounds the requests awaiting a response;
+ * further requests fail with {@link Request#onError(String)} until responses or timeouts free
+ * room.</p>
+ *
+ * <p>{@code client.cache.maxEntries} bounds the response cache, {@code 0} disables it.
+ * {@code client.timeout} is the timeout in milliseconds of calls that do not give one.</p>
+ *
+ * <p>{@code client.batch.window} is how long in microseconds the writer waits for more requests
+ * before writing, {@code 0} to only batch requests sent while a write is in progress, and
+ * {@code client.batch.maxRequests} the most requests written at once.</p>
+ *
+ * <p>{@code client.upload.chunkSize} is the size in bytes of the chunks uploaded bodies are sent in.</p>
+ *
  * @see SSLContext
  */
 public class Client {
@@ -36,16 +110,52 @@ public class Client {
 
     private final String HOST;
     private final int PORT;
+    private final Framing FRAMING;
+    private final MessageCodec CODEC;
+    private final String COMPRESSION;
+    private final int COMPRESSION_THRESHOLD;
+    private final int KEY_TABLE;
+    private final long TIMEOUT;
+    private final int BATCH_WINDOW;
+    private final int BATCH_SIZE;
+    private final int UPLOAD_CHUNK_SIZE;
 
     private SSLSocket sslSocket;
 
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private RequestWriter out;
+
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final byte[] readBuffer = new byte[16 * 1024];
+    private volatile Framing framing = Framing.LINE;
+    private volatile MessageCodec codec = CodecRegistry.getDefault();
+    private volatile Compression compression;
+    private volatile KeyTable keyTable;
+
+    // Multiplexing state, set up when MUX framing is negotiated
+    private volatile StreamScheduler scheduler;
+    private StreamAssembler assembler;
 
     private volatile boolean running = false;
     private Thread listeningThread;
 
-    private final HashMap<String, Request> pendingResponses = new HashMap<>();
+    // Resolution of request timeouts in milliseconds, and buckets in the timer wheel
+    private static final int TIMEOUT_TICK = 10;
+    private static final int TIMEOUT_WHEEL_SIZE = 512;
+
+    // Requests awaiting a response, keyed by the ids they were sent under
+    private final AtomicLong nextId = new AtomicLong();
+    private final PendingTable<Pending> pendingResponses;
+    private final HashedWheelTimer timer = new HashedWheelTimer(TIMEOUT_TICK, TIMEOUT_WHEEL_SIZE);
+
+    // Signal ending a streamed response, queued after its chunks
+    private static final Object STREAM_COMPLETE = new Object();
+
+    // Chunks of a download requested ahead of those written
+    private static final int DOWNLOAD_WINDOW = 16;
+
+    // Cached responses of requests with a cache TTL, null if disabled
+    private final ResponseCache cache;
 
     /**
      * Constructs a new {@code Client} with default connection parameters.
@@ -91,7 +201,11 @@ public class Client {
      * @param host the hostname or IP address of the server
      * @param port the port number on which the server is listening (0–65536)
      * @param configFile the path to the configFile
-     * @throws IllegalArgumentException if the port is out of range or the host is {@code null} or empty
+     * @throws IllegalArgumentException if the port is out of range, the host is {@code null} or empty,
+     *         the configured codec or compression is unknown or requires a framing that is not
+     *         configured, the cache size, default timeout, batch window or compression threshold is
+     *         negative, the pending request limit, batch size or upload chunk size is not positive,
+     *         or the key table size is out of range or configured without the binary codec
      */
     public Client(String host, int port, String configFile) {
         if(port < 0 || port > 65536)
@@ -110,6 +224,66 @@ public class Client {
         TRUSTSTORE_PATH = PropertiesUtil.getProperty(configFile, "client.path");
         TRUSTSTORE_PASSWORD = PropertiesUtil.getProperty(configFile, "client.password");
 
+        FRAMING = Framing.parse(PropertiesUtil.getProperty(configFile, "client.framing", "line"));
+
+        String codecName = PropertiesUtil.getProperty(configFile, "client.codec", CodecRegistry.getDefault().getName());
+        CODEC = CodecRegistry.getCodec(codecName);
+        if (CODEC == null)
+            throw new IllegalArgumentException("Unknown codec: " + codecName);
+
+        if (CODEC.isBinary() && FRAMING == Framing.LINE)
+            throw new IllegalArgumentException("Codec " + codecName + " requires " + Framing.LENGTH + " framing");
+
+        String compressionName = PropertiesUtil.getProperty(configFile, "client.compression", "none").trim();
+        if (compressionName.equalsIgnoreCase("none"))
+            COMPRESSION = null;
+        else if (Compression.isSupported(compressionName))
+            COMPRESSION = Compression.DEFLATE;
+        else
+            throw new IllegalArgumentException("Unknown compression: " + compressionName);
+
+        if (COMPRESSION != null && FRAMING == Framing.LINE)
+            throw new IllegalArgumentException("Compression requires " + Framing.LENGTH + " or " + Framing.MUX + " framing");
+
+        COMPRESSION_THRESHOLD = PropertiesUtil.getIntProperty(configFile, "client.compression.threshold", Compression.DEFAULT_THRESHOLD);
+        if (COMPRESSION_THRESHOLD < 0)
+            throw new IllegalArgumentException(String.format("Invalid compression threshold: %d. Must not be negative", COMPRESSION_THRESHOLD));
+
+        KEY_TABLE = PropertiesUtil.getIntProperty(configFile, "client.keyTable", 0);
+        if (KEY_TABLE < 0 || KEY_TABLE > KeyTable.MAX_SIZE)
+            throw new IllegalArgumentException(String.format("Invalid key table size: %d. Must be between 0 and %d", KEY_TABLE, KeyTable.MAX_SIZE));
+
+        if (KEY_TABLE > 0 && !(CODEC instanceof BinaryCodec))
+            throw new IllegalArgumentException("Key table requires the " + BinaryCodec.NAME + " codec");
+
+        int cacheEntries = PropertiesUtil.getIntProperty(configFile, "client.cache.maxEntries", 256);
+        if (cacheEntries < 0)
+            throw new IllegalArgumentException(String.format("Invalid cache size: %d. Must not be negative", cacheEntries));
+
+        cache = cacheEntries > 0 ? new ResponseCache(cacheEntries) : null;
+
+        int maxPending = PropertiesUtil.getIntProperty(configFile, "client.maxPending", 4096);
+        if (maxPending <= 0)
+            throw new IllegalArgumentException(String.format("Invalid pending request limit: %d. Must be positive", maxPending));
+
+        pendingResponses = new PendingTable<>(maxPending);
+
+        TIMEOUT = PropertiesUtil.getIntProperty(configFile, "client.timeout", 5000);
+        if (TIMEOUT < 0)
+            throw new IllegalArgumentException(String.format("Invalid timeout: %d. Must not be negative", TIMEOUT));
+
+        BATCH_WINDOW = PropertiesUtil.getIntProperty(configFile, "client.batch.window", 0);
+        if (BATCH_WINDOW < 0)
+            throw new IllegalArgumentException(String.format("Invalid batch window: %d. Must not be negative", BATCH_WINDOW));
+
+        BATCH_SIZE = PropertiesUtil.getIntProperty(configFile, "client.batch.maxRequests", 64);
+        if (BATCH_SIZE <= 0)
+            throw new IllegalArgumentException(String.format("Invalid batch size: %d. Must be positive", BATCH_SIZE));
+
+        UPLOAD_CHUNK_SIZE = PropertiesUtil.getIntProperty(configFile, "client.upload.chunkSize", 64 * 1024);
+        if (UPLOAD_CHUNK_SIZE <= 0)
+            throw new IllegalArgumentException(String.format("Invalid upload chunk size: %d. Must be positive", UPLOAD_CHUNK_SIZE));
+
         start();
     }
 
@@ -134,11 +308,17 @@ public class Client {
 
             sslSocket.setEnabledCipherSuites(sslSocket.getSupportedCipherSuites());
 
-            in = new BufferedReader(new InputStreamReader(sslSocket.getInputStream()));
-            out = new PrintWriter(sslSocket.getOutputStream(), true);
+            // The writer already batches requests, delaying small frames such as demand and window updates only stalls the server
+            sslSocket.setTcpNoDelay(true);
+
+            in = sslSocket.getInputStream();
+            out = new RequestWriter(sslSocket.getOutputStream(), BATCH_WINDOW, BATCH_SIZE, this::handleWriteFailure);
 
             System.out.println("Connected to server at " + HOST + ":" + PORT + "\n");
 
+            if (FRAMING != Framing.LINE)
+                negotiate();
+
             running = true;
         } catch (Exception e) {
             System.err.println("Failed to start client: " + e.getMessage());
@@ -150,6 +330,86 @@ public class Client {
         listeningThread.start();
     }
 
+    /**
+     * Requests the configured framing and codec from the server and waits for its reply.
+     * <p>
+     * Runs before the listening thread is started, so the reply is the first message read.
+     *
+     * @throws IOException if the connection fails or closes before the server replies
+     */
+    private void negotiate() throws IOException {
+        Hello hello = new Hello(FRAMING, CODEC.getName(), COMPRESSION, KEY_TABLE);
+        out.enqueue(0, Frame.encode(framing, MessageType.HELLO, codec.encode(hello)));
+
+        Frame frame = readFrame();
+        if (frame == null)
+            throw new IOException("Connection closed during negotiation");
+
+        DecodedMessage reply = codec.decode(frame.getPayload());
+        if (reply.getType() != MessageType.HELLO || !hello.getId().equals(reply.getId())) {
+            System.out.println("Server does not support negotiation, using " + framing + " framing with " + codec.getName() + " codec");
+            return;
+        }
+
+        MessageCodec accepted = CodecRegistry.getCodec(Hello.codecOf(reply.getParams()));
+        if (accepted == null)
+            throw new IOException("Server accepted unknown codec: " + Hello.codecOf(reply.getParams()));
+
+        Framing acceptedFraming = Hello.framingOf(reply.getParams());
+        if (acceptedFraming == Framing.MUX) {
+            assembler = new StreamAssembler(FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+            scheduler = new StreamScheduler();
+        }
+
+        // Servers that do not compress leave compression out of their reply
+        if (COMPRESSION != null && Compression.isSupported(Hello.compressionOf(reply.getParams())))
+            compression = new Compression(COMPRESSION_THRESHOLD, FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+
+        // Servers that do not support key tables leave the size out of their reply
+        int keys;
+        try {
+            keys = Hello.keyTableOf(reply.getParams());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Server accepted " + e.getMessage().toLowerCase());
+        }
+
+        if (keys > KEY_TABLE || keys > 0 && !(accepted instanceof BinaryCodec))
+            throw new IOException("Server accepted a key table that was not requested: " + keys);
+
+        if (keys > 0) {
+            keyTable = new KeyTable(keys);
+            accepted = new BinaryCodec(keyTable);
+        }
+
+        framing = acceptedFraming;
+        codec = accepted;
+        decoder.setFraming(framing);
+
+        System.out.println("Negotiated " + framing + " framing with " + codec.getName() + " codec"
+                + (compression != null ? " and " + Compression.DEFLATE + " compression" : "")
+                + (keyTable != null ? " and a key table of " + keys + " entries" : ""));
+    }
+
+    /**
+     * Reads from the server until a complete frame is decoded.
+     *
+     * @return the next frame, or {@code null} if the server closed the connection
+     * @throws IOException if reading fails or the received bytes violate the framing
+     */
+    private Frame readFrame() throws IOException {
+        Frame frame;
+
+        while ((frame = decoder.next()) == null) {
+            int read = in.read(readBuffer);
+            if (read < 0)
+                return null;
+
+            decoder.feed(readBuffer, 0, read);
+        }
+
+        return frame;
+    }
+
     /**
      * Creates and initializes an SSLContext for secure communication using TLS protocol.
      * The SSLContext is configured with trust managers loaded from a JKS truststore.
@@ -195,21 +455,48 @@ public class Client {
      * Listens for and processes pending responses from the server.
      */
     private void handlePendingResponses() {
-        String line;
+        Frame frame;
 
         try {
-            while (running && (line = in.readLine()) != null) {
-                JSONObject response = new JSONObject(line);
-                String id = response.optString("id", null);
+            while (running && (frame = readFrame()) != null) {
+                if (decoder.getFraming() == Framing.MUX && (frame = demultiplex(frame)) == null)
+                    continue;
+
+                if (frame.isCompressed()) {
+                    if (compression == null)
+                        throw new ProtocolException("Compressed message on a connection without compression");
+                    frame = compression.decompress(frame);
+                }
 
-                if (id != null && pendingResponses.containsKey(id)) {
-                    Request request = pendingResponses.get(id);
-                    if (request == null)
-                        throw new RuntimeException("Request missing: " + id);
+                DecodedMessage response = codec.decode(frame.getMessage());
+                if (frame.hasAttachments())
+                    response.setAttachments(frame.getAttachments());
+                long id = parseId(response.getId());
 
-                    Task.of(() -> handleResponse(response, request)).run();
+                // Chunks leave the request pending until its stream ends, late ones after a cancel are dropped
+                if (response.getType() == MessageType.CHUNK) {
+                    Pending pending = pendingResponses.get(id);
+                    if (pending != null && pending.callback instanceof StreamCallback stream)
+                        stream.onChunk(response.getParams());
+                    continue;
+                }
+
+                // As does demand for more of an uploaded body
+                if (response.getType() == MessageType.DEMAND) {
+                    Pending pending = pendingResponses.get(id);
+                    if (pending != null && pending.callback instanceof UploadCallback upload)
+                        upload.onDemand(pending, Demand.of(response.getParams()));
+                    continue;
+                }
+
+                Pending pending = pendingResponses.remove(id);
 
-                    pendingResponses.remove(id);
+                if (pending != null) {
+                    HashedWheelTimer.Timeout timeout = pending.timeout;
+                    if (timeout != null)
+                        timeout.cancel();
+
+                    Task.of(() -> handleResponse(response, pending)).run();
                 } else
                     System.err.println("Unmatched response: " + response);
             }
@@ -224,29 +511,102 @@ public class Client {
     }
 
     /**
-     * Handles the response from the server and passes to suitable {@link Request} function.
+     * Handles a received {@link Framing#MUX} frame on the listening thread.
+     * <p>
+     * Window updates release queued request frames. Other frames are added to the response of
+     * their stream, and the credit they use is granted back to the server.
+     *
+     * @param frame the received frame
+     * @return the complete response, or {@code null} if the frame did not complete one
+     * @throws ProtocolException if the server violated the framing or flow control
+     */
+    private Frame demultiplex(Frame frame) throws ProtocolException {
+        if (frame.getType() == MessageType.WINDOW_UPDATE) {
+            scheduler.windowUpdate(frame);
+            scheduler.pump(this::writeFrames);
+            return null;
+        }
+
+        Frame message = assembler.accept(frame);
+
+        byte[] updates = assembler.takeWindowUpdates();
+        if (updates != null)
+            writeFrames(updates);
+
+        return message;
+    }
+
+    /**
+     * Hands multiplexed frames to the writer. They are not tied to one request, so a failed write
+     * leaves the requests in them to time out.
+     */
+    private void writeFrames(byte[] frames) {
+        out.enqueue(0, frames);
+    }
+
+    /**
+     * Maps the id a request was sent under to the stream it is sent on in {@link Framing#MUX} framing.
+     */
+    private static int streamOf(long id) {
+        return (int) ((id - 1) % Integer.MAX_VALUE) + 1;
+    }
+
+    /**
+     * Parses the id of a response back into the number its request was sent under.
+     *
+     * @param id the response id
+     * @return the number, or {@code 0} if the id is not one this client sent
+     */
+    private static long parseId(String id) {
+        if (id == null || id.isEmpty() || id.length() > 18)
+            return 0;
+
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9')
+                return 0;
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Handles the response from the server and passes it to the callback of its request.
      *
-     * @param response the {@link JSONObject} containing the server's response data
-     * @param request  the {@link Request} associated with the response
-     * @throws IllegalArgumentException if {@code response} or {@code request} is null
+     * @param response the {@link DecodedMessage} containing the server's response data
+     * @param pending  the pending request the response answers
+     * @throws IllegalArgumentException if {@code response} or {@code pending} is null
      */
-    private void handleResponse(JSONObject response, Request request){
+    private void handleResponse(DecodedMessage response, Pending pending){
         if (response == null)
             throw new IllegalArgumentException("Response cannot be null");
 
-        if (request == null)
-            throw new IllegalArgumentException("Request cannot be null");
+        if (pending == null)
+            throw new IllegalArgumentException("Pending request cannot be null");
 
-        MessageType type = response.getEnum(MessageType.class, "type");
+        Callback callback = pending.callback;
 
-        Map<String, Object> params = Parse.Params(response);
+        MessageType type = response.getType();
+
+        Map<String, Object> params = response.getParams();
 
         switch (type) {
             case ERROR ->
-                request.onError(params.get("message").toString());
+                callback.onError(params.get("message").toString());
+
+            case RESPONSE -> {
+                // Attachments are not cached, a response carrying some is passed on as it is
+                if (pending.cacheKey != null && response.getAttachments().isEmpty())
+                    params = cache.put(pending.cacheKey, params);
 
-            case RESPONSE ->
-                request.onSuccess(params);
+                callback.onSuccess(params, response.getAttachments());
+            }
+
+            case BATCH ->
+                callback.onSuccess(params);
 
             case null, default ->
                 System.err.println("Unsupported message type: " + response);
@@ -255,9 +615,17 @@ public class Client {
 
     /**
      * Sends a command to the server and stores the associated request for later response handling.
+     * <p>
+     * If the request declares a {@link Request#getCacheTtl() cache TTL} and a response to the same
+     * command and parameters is cached, {@link Request#onSuccess(Map)} is completed from it instead.
+     * A stale cached response is refreshed in the background.
+     * <p>
+     * The {@link Request#getAttachments() attachments} of the request are sent after it in the same
+     * frame. Requests with attachments are never answered from the cache.
      *
      * @param request the {@link Request} object containing the command to be sent
      * @throws IllegalArgumentException if the request is {@code null} or request id is {@code null}
+     * @throws IllegalStateException if the request has attachments and the connection uses line framing
      */
     public void sendCommand(Request request) {
         if (request == null)
@@ -267,73 +635,1289 @@ public class Client {
         if (id == null || id.trim().isEmpty())
             throw new IllegalArgumentException("Request id cannot be null or empty");
 
-        JSONObject json = request.toJSON();
+        List<ByteBuffer> attachments = request.getAttachments();
+        if (!attachments.isEmpty()) {
+            if (framing == Framing.LINE)
+                throw new IllegalStateException("Attachments need " + Framing.LENGTH + " or " + Framing.MUX + " framing");
 
-        pendingResponses.put(id, request);
+            send(nextId.incrementAndGet(), MessageType.REQUEST, request.getParams(), attachments, request.getTimeout(), new RequestCallback(request), null);
+            return;
+        }
+
+        String cacheKey = null;
+
+        if (cache != null && request.getCacheTtl() > 0) {
+            cacheKey = ResponseCache.keyOf(request);
+            ResponseCache.Hit hit = cache.lookup(cacheKey, request);
+
+            if (hit != null) {
+                Task.of(() -> request.onSuccess(hit.response(), List.of())).run();
 
-        out.println(json);
-        out.flush();
+                if (hit.revalidate())
+                    send(MessageType.REQUEST, request.getParams(), request.getTimeout(), new Revalidation(cacheKey, request.getParam("command")), cacheKey);
 
-        Task<Void> timeout = Task.of(() -> handleTimeout(request, id));
-        timeout.run();
+                return;
+            }
+        }
+
+        send(MessageType.REQUEST, request.getParams(), request.getTimeout(), new RequestCallback(request), cacheKey);
     }
 
     /**
-     * Handles the timeout for a request if a response is not received within the specified timeout period.
+     * Sends a command to the server with the default timeout, see {@link #call(String, Map, long)}.
      *
-     * @param request the {@link Request} object that timed out
-     * @param id the unique identifier of the request
-     * @throws IllegalArgumentException if request or id is null or empty
+     * @param command the command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @return a future completed with the response
+     * @throws IllegalArgumentException if the command is null or empty or params contain {@code command}
      */
-    private void handleTimeout(Request request, String id) {
-        if (request == null)
-            throw new IllegalArgumentException("Request cannot be null");
+    public CompletableFuture<Map<String, Object>> call(String command, Map<String, Object> params) {
+        return call(command, params, TIMEOUT);
+    }
 
-        if (id == null || id.trim().isEmpty())
-            throw new IllegalArgumentException("Id cannot be null or empty");
+    /**
+     * Sends a command to the server without a {@link Request} subclass.
+     * <p>
+     * The returned future is completed with the response parameters, or exceptionally with a
+     * {@link CommandException} if the server answers with an error or the command cannot be sent,
+     * or a {@link TimeoutException} if no response arrives in time. It is completed on a task
+     * thread, so dependent stages should not block. The parameters are encoded before this method
+     * returns and are not kept.
+     *
+     * @param command the command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @param timeout the timeout in milliseconds
+     * @return a future completed with the response
+     * @throws IllegalArgumentException if the command is null or empty, params contain
+     *         {@code command} or the timeout is negative
+     */
+    public CompletableFuture<Map<String, Object>> call(String command, Map<String, Object> params, long timeout) {
+        if (command == null || command.trim().isEmpty())
+            throw new IllegalArgumentException("Command must not be empty");
 
-        Async.waitFor(request.getTimeout());
+        if (params != null && params.containsKey("command"))
+            throw new IllegalArgumentException("Params cannot contain command");
 
-        if (pendingResponses.containsKey(id))
-            request.onTimeout();
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must be a positive integer");
+
+        Map<String, Object> message = params == null ? new HashMap<>() : new HashMap<>(params);
+        message.put("command", command);
 
-        pendingResponses.remove(id);
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        send(MessageType.REQUEST, message, timeout, new FutureCallback(command, timeout, future), null);
+        return future;
     }
 
     /**
-     * Closes the client connection and associated resources.
+     * Sends a command to the server with the default timeout and waits for the response,
+     * see {@link #callBlocking(String, Map, long)}.
+     *
+     * @param command the command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @return the response parameters
+     * @throws CommandException if the server answers with an error or the command cannot be sent
+     * @throws TimeoutException if no response arrives in time
+     * @throws InterruptedException if the calling thread is interrupted while waiting
      */
-    public void close() {
-        System.out.println("\nClosing connection...");
+    public Map<String, Object> callBlocking(String command, Map<String, Object> params) throws TimeoutException, InterruptedException {
+        return callBlocking(command, params, TIMEOUT);
+    }
 
-        running = false;
+    /**
+     * Sends a command to the server and waits for the response.
+     * <p>
+     * The caller parks without holding a monitor, so many calls can wait at once on virtual threads.
+     *
+     * @param command the command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @param timeout the timeout in milliseconds
+     * @return the response parameters
+     * @throws IllegalArgumentException if the command is null or empty, params contain
+     *         {@code command} or the timeout is negative
+     * @throws CommandException if the server answers with an error or the command cannot be sent
+     * @throws TimeoutException if no response arrives in time
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public Map<String, Object> callBlocking(String command, Map<String, Object> params, long timeout) throws TimeoutException, InterruptedException {
+        try {
+            return call(command, params, timeout).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CommandException commandException)
+                throw commandException;
+
+            if (e.getCause() instanceof TimeoutException timeoutException)
+                throw timeoutException;
+
+            throw new RuntimeException("Call to " + command + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Sends the commands of a batch with the default timeout, see {@link #callBatch(Batch, long)}.
+     *
+     * @param batch the commands to execute
+     * @return a future for each command, in the order they were added
+     * @throws IllegalArgumentException if the batch is null or empty
+     */
+    public List<CompletableFuture<Map<String, Object>>> callBatch(Batch batch) {
+        return callBatch(batch, TIMEOUT);
+    }
+
+    /**
+     * Sends the commands of a batch to the server in one message. The server executes them
+     * concurrently and answers them together.
+     * <p>
+     * Each future completes like those of {@link #call(String, Map, long)}, with the result of its
+     * command or a {@link CommandException}. If the whole batch is rejected or not answered in
+     * time, every future fails.
+     *
+     * @param batch   the commands to execute
+     * @param timeout the timeout of the whole batch in milliseconds
+     * @return a future for each command, in the order they were added
+     * @throws IllegalArgumentException if the batch is null or empty or the timeout is negative
+     */
+    public List<CompletableFuture<Map<String, Object>>> callBatch(Batch batch, long timeout) {
+        if (batch == null || batch.size() == 0)
+            throw new IllegalArgumentException("Batch cannot be null or empty");
+
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must be a positive integer");
+
+        List<String> commands = new ArrayList<>(batch.size());
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            commands.add(batch.getCommand(i));
+            futures.add(new CompletableFuture<>());
+        }
+
+        send(MessageType.BATCH, batch.getParams(), timeout, new BatchCallback(commands, timeout, futures), null);
+        return List.copyOf(futures);
+    }
+
+    /**
+     * Streams the result of a command with the default timeout, see {@link #stream(String, Map, long)}.
+     *
+     * @param command the streaming command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @return a publisher of the chunks of the result
+     * @throws IllegalArgumentException if the command is null or empty or params contain
+     *         {@code command} or {@code demand}
+     */
+    public Flow.Publisher<Map<String, Object>> stream(String command, Map<String, Object> params) {
+        return stream(command, params, TIMEOUT);
+    }
+
+    /**
+     * Streams the result of a command that the server produces in chunks.
+     * <p>
+     * Each subscription executes the command once. Nothing is sent until the subscriber first calls
+     * {@link Flow.Subscription#request(long)}, and the server sends at most as many chunks as have
+     * been requested, so the subscriber controls how much of the result is in flight. The
+     * subscriber then receives the chunks in order and {@code onComplete} at the end of the
+     * result, or {@code onError} with a {@link CommandException} or {@link TimeoutException}.
+     * Cancelling stops the server from producing more.
+     * <p>
+     * The timeout applies to the wait for each chunk that has been requested, not to the whole
+     * stream. Signals are delivered on task threads, one at a time.
+     *
+     * @param command the streaming command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @param timeout the timeout in milliseconds
+     * @return a publisher of the chunks of the result
+     * @throws IllegalArgumentException if the command is null or empty, params contain
+     *         {@code command} or {@code demand} or the timeout is negative
+     */
+    public Flow.Publisher<Map<String, Object>> stream(String command, Map<String, Object> params, long timeout) {
+        if (command == null || command.trim().isEmpty())
+            throw new IllegalArgumentException("Command must not be empty");
+
+        if (params != null && (params.containsKey("command") || params.containsKey(Demand.PARAM)))
+            throw new IllegalArgumentException("Params cannot contain command or " + Demand.PARAM);
+
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must be a positive integer");
+
+        return subscriber -> {
+            if (subscriber == null)
+                throw new NullPointerException("Subscriber cannot be null");
+
+            Map<String, Object> message = params == null ? new HashMap<>() : new HashMap<>(params);
+            message.put("command", command);
+
+            subscriber.onSubscribe(new StreamCallback(command, message, timeout, subscriber));
+        };
+    }
+
+    /**
+     * Uploads a request body with the default timeout, see {@link #upload(String, Map, InputStream, long)}.
+     *
+     * @param command the upload command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @param body    the body to upload
+     * @return a future completed with the response
+     * @throws IllegalArgumentException if the command is null or empty, params contain
+     *         {@code command} or {@code upload} or the body is null
+     */
+    public CompletableFuture<Map<String, Object>> upload(String command, Map<String, Object> params, InputStream body) {
+        return upload(command, params, body, TIMEOUT);
+    }
+
+    /**
+     * Sends a command followed by a request body of any size, read from a stream as it is sent.
+     * <p>
+     * The request announces the upload and the body follows it in chunks of
+     * {@code client.upload.chunkSize} bytes, each read and sent only once the server has asked for
+     * it, so neither side holds more than a few chunks of the body at a time. The body is read on
+     * task threads and closed once it has been sent or the upload ends.
+     * <p>
+     * The returned future completes like that of {@link #call(String, Map, long)}. The server may
+     * answer before reading the whole body, in which case the rest is not sent. If the body cannot
+     * be read the upload is cancelled and the future fails with a {@link CommandException}. The
+     * timeout is restarted whenever a chunk is sent or the server asks for more, so it bounds how
+     * long the upload may stall rather than how long it takes.
+     *
+     * @param command the upload command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @param body    the body to upload
+     * @param timeout the timeout in milliseconds
+     * @return a future completed with the response
+     * @throws IllegalArgumentException if the command is null or empty, params contain
+     *         {@code command} or {@code upload}, the body is null or the timeout is negative
+     */
+    public CompletableFuture<Map<String, Object>> upload(String command, Map<String, Object> params, InputStream body, long timeout) {
+        if (command == null || command.trim().isEmpty())
+            throw new IllegalArgumentException("Command must not be empty");
+
+        if (params != null && (params.containsKey("command") || params.containsKey(Chunk.UPLOAD)))
+            throw new IllegalArgumentException("Params cannot contain command or " + Chunk.UPLOAD);
+
+        if (body == null)
+            throw new IllegalArgumentException("Body cannot be null");
+
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must be a positive integer");
+
+        Map<String, Object> message = params == null ? new HashMap<>() : new HashMap<>(params);
+        message.put("command", command);
+        message.put(Chunk.UPLOAD, true);
+
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        UploadCallback callback = new UploadCallback(command, body, timeout, future);
+        send(callback.id, MessageType.REQUEST, message, timeout, callback, null);
+        return future;
+    }
+
+    /**
+     * Downloads a file with the {@code File} command and the default timeout, see
+     * {@link #download(String, Map, OutputStream, long)}.
+     *
+     * @param path   the path of the file under the server's file root
+     * @param target the stream to write the file to
+     * @return a future completed with the size and checksum of the file
+     * @throws IllegalArgumentException if the path is null or empty or the target is null
+     */
+    public CompletableFuture<Map<String, Object>> download(String path, OutputStream target) {
+        if (path == null || path.trim().isEmpty())
+            throw new IllegalArgumentException("Path must not be empty");
+
+        return download("File", Map.of("path", path), target, TIMEOUT);
+    }
+
+    /**
+     * Writes a file the server sends in chunks, such as with its {@code File} command, to a stream.
+     * <p>
+     * The file is streamed as with {@link #stream(String, Map, long)}, {@value #DOWNLOAD_WINDOW}
+     * chunks ahead of those written, and each chunk is written to the target on a task thread as it
+     * arrives. The CRC32C of the written bytes is computed along the way and compared with the
+     * {@code checksum} the last chunk carries. An interrupted download is resumed by passing the
+     * number of bytes already written as {@code offset}; the checksum then covers the rest only.
+     * <p>
+     * The returned future completes with the params of the last chunk other than its data, which
+     * include the {@code size} of the file and the {@code checksum}. It fails with a
+     * {@link CommandException} if the server fails the command, a chunk is missing or the checksum
+     * does not match, or if the target cannot be written, in which case the download is cancelled,
+     * and with a {@link TimeoutException} if the server sends no chunk for the timeout. The target
+     * is not closed.
+     *
+     * @param command the command sending the file
+     * @param params  the command parameters, such as {@code path} and {@code offset} (can be null)
+     * @param target  the stream to write the file to
+     * @param timeout the timeout in milliseconds
+     * @return a future completed with the params of the last chunk
+     * @throws IllegalArgumentException if the command is null or empty, params contain
+     *         {@code command} or {@code demand}, the target is null or the timeout is negative
+     */
+    public CompletableFuture<Map<String, Object>> download(String command, Map<String, Object> params, OutputStream target, long timeout) {
+        if (target == null)
+            throw new IllegalArgumentException("Target cannot be null");
+
+        Flow.Publisher<Map<String, Object>> chunks = stream(command, params, timeout);
+
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        chunks.subscribe(new DownloadSubscriber(command, target, future));
+        return future;
+    }
+
+    /**
+     * Writes a request to the server under the next id of this connection and starts its timeout.
+     * <p>
+     * The request is encoded before it is registered, and only the callback and cache key are kept
+     * until the response arrives.
+     *
+     * @param type     the message type, {@link MessageType#REQUEST} or {@link MessageType#BATCH}
+     * @param params   the request parameters, including the command
+     * @param timeout  the timeout in milliseconds
+     * @param callback the callback to complete with the response
+     * @param cacheKey the key to cache the response under, or {@code null} if it is not cached
+     */
+    private void send(MessageType type, Map<String, Object> params, long timeout, Callback callback, String cacheKey) {
+        send(nextId.incrementAndGet(), type, params, timeout, callback, cacheKey);
+    }
+
+    /**
+     * Writes a request to the server under the given id, see {@link #send(MessageType, Map, long, Callback, String)}.
+     *
+     * @param id the id to send the request under, taken from {@link #nextId}
+     * @return the pending request, or {@code null} if it could not be sent and the callback is failed on a task
+     */
+    private Pending send(long id, MessageType type, Map<String, Object> params, long timeout, Callback callback, String cacheKey) {
+        return send(id, type, params, List.of(), timeout, callback, cacheKey);
+    }
+
+    /**
+     * Writes a request with attachments to the server under the given id, see
+     * {@link #send(MessageType, Map, long, Callback, String)}.
+     * <p>
+     * If the request cannot be sent its callback is failed on a task once the key table is
+     * released, so it never runs while the table is held.
+     *
+     * @param id          the id to send the request under, taken from {@link #nextId}
+     * @param attachments the attachments to send after the request, empty for none
+     * @return the pending request, or {@code null} if it could not be sent and the callback is failed on a task
+     */
+    private Pending send(long id, MessageType type, Map<String, Object> params, List<ByteBuffer> attachments, long timeout, Callback callback, String cacheKey) {
+        // Held until the request is queued, so the definitions it makes reach the server first
+        KeyTable keyTable = this.keyTable;
+        if (keyTable != null)
+            keyTable.lock();
+
+        String failure = null;
 
         try {
-            if (out != null) {
-                out.close();
-                System.out.println("Output stream closed.");
-            }
-            if (in != null) {
-                in.close();
-                System.out.println("Input stream closed.");
-            }
-            if (sslSocket != null && !sslSocket.isClosed()) {
-                sslSocket.close();
-                System.out.println("SSL socket closed.");
+            int flags = attachments.isEmpty() ? 0 : Frame.FLAG_ATTACHMENTS;
+            byte[] bytes = encode(id, type, params, attachments);
+            Pending pending = new Pending(callback, cacheKey);
+
+            try {
+                pendingResponses.put(id, pending);
+            } catch (IllegalStateException e) {
+                failure = e.getMessage();
+                return null;
             }
-        } catch (IOException e) {
-            System.err.println("Error while closing the client SSL socket or streams: " + e.getMessage());
-        }
 
-        if (listeningThread != null && listeningThread.isAlive()) {
             try {
-                listeningThread.join(1000); // Optional: wait for the thread to clean up
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.err.println("Interrupted while waiting for listening thread to stop.");
+                // Armed before writing, so a response always finds the timeout it has to cancel
+                pending.timeout = timer.schedule(() -> handleTimeout(id), timeout);
+                write(id, type, flags, bytes);
+                return pending;
+            } catch (IllegalStateException e) {
+                if (pendingResponses.remove(id) != null) {
+                    HashedWheelTimer.Timeout scheduled = pending.timeout;
+                    if (scheduled != null)
+                        scheduled.cancel();
+
+                    failure = e.getMessage();
+                }
+                return null;
+            }
+        } finally {
+            if (keyTable != null)
+                keyTable.unlock();
+
+            if (failure != null) {
+                String message = "Failed to send command: " + failure;
+                Task.of(() -> callback.onError(message)).run();
             }
         }
+    }
 
-        System.out.println("\nClient resources closed successfully.");
+    /**
+     * Encodes and frames a message in the connection's codec and framing.
+     *
+     * @param id     the id of the message
+     * @param type   the message type
+     * @param params the message parameters
+     * @return the bytes to pass to {@link #write(long, MessageType, byte[])}
+     */
+    private byte[] encode(long id, MessageType type, Map<String, Object> params) {
+        return encode(id, type, params, List.of());
+    }
+
+    /**
+     * Encodes and frames a message followed by its attachments, flagged with
+     * {@link Frame#FLAG_ATTACHMENTS} unless there are none.
+     *
+     * @param attachments the attachments to send after the message, empty for none
+     * @see #encode(long, MessageType, Map)
+     */
+    private byte[] encode(long id, MessageType type, Map<String, Object> params, List<ByteBuffer> attachments) {
+        OutputBuffer buffer = new OutputBuffer(256);
+        Framing framing = this.framing;
+
+        int start = Frame.begin(framing, type, attachments.isEmpty() ? 0 : Frame.FLAG_ATTACHMENTS, buffer);
+        codec.encode(type, Long.toString(id), params, buffer);
+        if (!attachments.isEmpty())
+            Frame.writeAttachments(buffer, attachments);
+        Frame.end(framing, buffer, start);
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes and queues a message that belongs to a request, such as a chunk or a demand,
+     * holding the key table in between.
+     *
+     * @param id     the id of the request the message belongs to
+     * @param type   the message type
+     * @param params the message parameters
+     * @throws IllegalStateException if the writer has been closed or a write failed
+     */
+    private void write(long id, MessageType type, Map<String, Object> params) {
+        KeyTable keyTable = this.keyTable;
+        if (keyTable != null)
+            keyTable.lock();
+
+        try {
+            write(id, type, encode(id, type, params));
+        } finally {
+            if (keyTable != null)
+                keyTable.unlock();
+        }
+    }
+
+    /**
+     * Queues an encoded message for the writer, or in {@link Framing#MUX} framing schedules it on
+     * the stream of its request.
+     *
+     * @param id    the id of the request the message belongs to
+     * @param type  the message type
+     * @param bytes the encoded message from {@link #encode(long, MessageType, Map)}
+     * @throws IllegalStateException if the writer has been closed or a write failed
+     */
+    private void write(long id, MessageType type, byte[] bytes) {
+        write(id, type, 0, bytes);
+    }
+
+    /**
+     * Queues an encoded message started with the given header flags, see {@link #write(long, MessageType, byte[])}.
+     * <p>
+     * If the connection negotiated compression, payloads of at least its threshold are
+     * compressed first, on the calling thread, and flagged with {@link Frame#FLAG_COMPRESSED}.
+     * Key table entries the message defined can be referred to once it is queued, or in
+     * {@link Framing#MUX} framing once its last frame is scheduled.
+     *
+     * @param flags the header flags the message was encoded with
+     */
+    private void write(long id, MessageType type, int flags, byte[] bytes) {
+        Compression compression = this.compression;
+        int header = framing == Framing.LENGTH ? Frame.HEADER_SIZE : 0;
+        byte[] packed = compression == null ? null : compression.compress(bytes, header, bytes.length - header);
+
+        KeyTable keyTable = this.keyTable;
+        Runnable defined = keyTable == null ? () -> {} : keyTable.takeDefinitions();
+
+        if (framing == Framing.MUX) {
+            if (packed == null)
+                scheduler.enqueue(streamOf(id), type, flags, bytes, defined);
+            else
+                scheduler.enqueue(streamOf(id), type, flags | Frame.FLAG_COMPRESSED, packed, defined);
+            scheduler.pump(this::writeFrames);
+        } else {
+            out.enqueue(id, packed == null ? bytes : Frame.encode(framing, type, flags | Frame.FLAG_COMPRESSED, packed));
+            defined.run();
+        }
+    }
+
+    /**
+     * Drops all responses cached by this client.
+     */
+    public void clearCache() {
+        if (cache != null)
+            cache.clear();
+    }
+
+    /**
+     * Fails a request the writer could not send.
+     * <p>
+     * Runs on the writer thread, so {@link Request#onError(String)} is handed off to a task.
+     *
+     * @param e  the write error
+     * @param id the id the request was sent under
+     */
+    private void handleWriteFailure(IOException e, long id) {
+        Pending pending = pendingResponses.remove(id);
+
+        if (pending != null) {
+            HashedWheelTimer.Timeout timeout = pending.timeout;
+            if (timeout != null)
+                timeout.cancel();
+
+            Task.of(() -> pending.callback.onError("Failed to send command: " + e.getMessage())).run();
+        }
+    }
+
+    /**
+     * Handles the timeout for a request if a response is not received within the specified timeout period.
+     * <p>
+     * Runs on the timer thread, so {@link Request#onTimeout()} is handed off to a task.
+     *
+     * @param id the id the request was sent under
+     */
+    private void handleTimeout(long id) {
+        Pending pending = pendingResponses.remove(id);
+
+        if (pending != null)
+            Task.of(() -> pending.callback.onTimeout()).run();
+    }
+
+    /**
+     * Closes the client connection and associated resources.
+     * <p>
+     * Requests still waiting for a response fail with {@link Request#onError(String)}, as no
+     * response or timeout can complete them once the connection and timer are stopped.
+     */
+    public void close() {
+        System.out.println("\nClosing connection...");
+
+        running = false;
+        timer.stop();
+
+        try {
+            if (out != null) {
+                out.close();
+                System.out.println("Output stream closed.");
+            }
+            if (in != null) {
+                in.close();
+                System.out.println("Input stream closed.");
+            }
+            if (sslSocket != null && !sslSocket.isClosed()) {
+                sslSocket.close();
+                System.out.println("SSL socket closed.");
+            }
+        } catch (IOException e) {
+            System.err.println("Error while closing the client SSL socket or streams: " + e.getMessage());
+        }
+
+        if (listeningThread != null && listeningThread.isAlive()) {
+            try {
+                listeningThread.join(1000); // Optional: wait for the thread to clean up
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Interrupted while waiting for listening thread to stop.");
+            }
+        }
+
+        // Requests sent from now on fail to be written, so no new ones are left waiting
+        pendingResponses.removeAll(pending -> {
+            HashedWheelTimer.Timeout timeout = pending.timeout;
+            if (timeout != null)
+                timeout.cancel();
+
+            Task.of(() -> pending.callback.onError("Connection closed")).run();
+        });
+
+        if (compression != null)
+            compression.close();
+
+        System.out.println("\nClient resources closed successfully.");
+    }
+
+    /**
+     * The outcome handlers of a sent request.
+     */
+    private interface Callback {
+        void onSuccess(Map<String, Object> response);
+
+        default void onSuccess(Map<String, Object> response, List<ByteBuffer> attachments) {
+            onSuccess(response);
+        }
+
+        void onError(String error);
+
+        void onTimeout();
+    }
+
+    /**
+     * Completes a caller's {@link Request}.
+     */
+    private record RequestCallback(Request request) implements Callback {
+        @Override
+        public void onSuccess(Map<String, Object> response) {
+            request.onSuccess(response);
+        }
+
+        @Override
+        public void onSuccess(Map<String, Object> response, List<ByteBuffer> attachments) {
+            request.onSuccess(response, attachments);
+        }
+
+        @Override
+        public void onError(String error) {
+            request.onError(error);
+        }
+
+        @Override
+        public void onTimeout() {
+            request.onTimeout();
+        }
+    }
+
+    /**
+     * Completes the future returned by {@link #call(String, Map, long)}.
+     */
+    private record FutureCallback(String command, long timeout, CompletableFuture<Map<String, Object>> future) implements Callback {
+        @Override
+        public void onSuccess(Map<String, Object> response) {
+            future.complete(response);
+        }
+
+        @Override
+        public void onError(String error) {
+            future.completeExceptionally(new CommandException(command, error));
+        }
+
+        @Override
+        public void onTimeout() {
+            future.completeExceptionally(new TimeoutException(command + " timed out after " + timeout + "ms"));
+        }
+    }
+
+    /**
+     * Completes the futures returned by {@link #callBatch(Batch, long)} from the results of a batch reply.
+     */
+    private record BatchCallback(List<String> commands, long timeout, List<CompletableFuture<Map<String, Object>>> futures) implements Callback {
+        @Override
+        public void onSuccess(Map<String, Object> response) {
+            JSONArray results = Batch.resultsOf(response);
+
+            for (int i = 0; i < futures.size(); i++) {
+                CompletableFuture<Map<String, Object>> future = futures.get(i);
+                JSONObject result = results == null ? null : results.optJSONObject(i);
+
+                if (result == null)
+                    future.completeExceptionally(new CommandException(commands.get(i), "No result in batch reply"));
+                else if (result.has("error"))
+                    future.completeExceptionally(new CommandException(commands.get(i), result.optString("error")));
+                else {
+                    JSONObject data = result.optJSONObject("result");
+                    Map<String, Object> params = new HashMap<>();
+                    if (data != null)
+                        for (String key : data.keySet())
+                            params.put(key, data.get(key));
+
+                    future.complete(params);
+                }
+            }
+        }
+
+        @Override
+        public void onError(String error) {
+            for (int i = 0; i < futures.size(); i++)
+                futures.get(i).completeExceptionally(new CommandException(commands.get(i), error));
+        }
+
+        @Override
+        public void onTimeout() {
+            for (int i = 0; i < futures.size(); i++)
+                futures.get(i).completeExceptionally(new TimeoutException("Batch timed out after " + timeout + "ms"));
+        }
+    }
+
+    /**
+     * Delivers a streamed response to a subscriber of {@link #stream(String, Map, long)} and sends
+     * its demand to the server.
+     * <p>
+     * The request is sent on the first demand, carrying it, and later demand follows as
+     * {@link Demand} messages. Signals are queued as they arrive and delivered one at a time on a
+     * task thread, in order. The timeout is restarted by every chunk and only runs while requested
+     * chunks are outstanding.
+     * <p>
+     * The state is guarded by a lock that is never held while writing, as the listening thread
+     * takes it for every chunk. Demand requested while the request itself is being sent is sent
+     * after it.
+     */
+    private final class StreamCallback implements Callback, Flow.Subscription {
+        private final String command;
+        private final Map<String, Object> params;
+        private final long timeout;
+        private final Flow.Subscriber<? super Map<String, Object>> subscriber;
+        private final long id = nextId.incrementAndGet();
+
+        // Chunk params, a Throwable, or STREAM_COMPLETE
+        private final Queue<Object> signals = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private boolean terminated = false;
+
+        // Guarded by lock
+        private final ReentrantLock lock = new ReentrantLock();
+        private Pending pending;
+        private boolean started = false;
+        private boolean sending = false;
+        private boolean stopped = false;
+        private long outstanding = 0;
+        private long unsent = 0;
+
+        private volatile boolean cancelled = false;
+
+        private StreamCallback(String command, Map<String, Object> params, long timeout, Flow.Subscriber<? super Map<String, Object>> subscriber) {
+            this.command = command;
+            this.params = params;
+            this.timeout = timeout;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                stop();
+                signal(new IllegalArgumentException("Demand must be positive: " + n));
+                return;
+            }
+
+            boolean first;
+
+            lock.lock();
+            try {
+                if (stopped)
+                    return;
+
+                outstanding = add(outstanding, n);
+
+                first = !started;
+                if (first) {
+                    started = true;
+                    sending = true;
+                } else if (sending) {
+                    unsent = add(unsent, n);
+                    return;
+                } else if (pending == null) {
+                    return;
+                } else {
+                    restartTimeout();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (first)
+                start(n);
+            else
+                sendDemand(n);
+        }
+
+        /**
+         * Sends the request carrying the first demand, then any demand requested meanwhile, or
+         * cancels it if the stream was stopped meanwhile.
+         */
+        private void start(long n) {
+            params.put(Demand.PARAM, n);
+            Pending sent = send(id, MessageType.REQUEST, params, timeout, this, null);
+
+            long more;
+            boolean cancel;
+
+            lock.lock();
+            try {
+                pending = sent;
+                sending = false;
+                more = unsent;
+                unsent = 0;
+
+                cancel = sent != null && stopped;
+                if (sent == null || stopped)
+                    more = 0;
+                else if (more > 0)
+                    restartTimeout();
+            } finally {
+                lock.unlock();
+            }
+
+            if (cancel)
+                cancelRequest();
+            else if (more > 0)
+                sendDemand(more);
+        }
+
+        private void sendDemand(long n) {
+            try {
+                write(id, MessageType.DEMAND, new Demand(Long.toString(id), n).getParams());
+            } catch (IllegalStateException e) {
+                stop();
+                signal(new CommandException(command, "Failed to send demand: " + e.getMessage()));
+            }
+        }
+
+        private static long add(long current, long n) {
+            return current + n < 0 ? Long.MAX_VALUE : current + n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            stop();
+        }
+
+        /**
+         * Counts a received chunk against the demand and queues it. Runs on the listening thread.
+         */
+        private void onChunk(Map<String, Object> chunk) {
+            lock.lock();
+            try {
+                if (outstanding != Long.MAX_VALUE && outstanding > 0)
+                    outstanding--;
+
+                if (!stopped && pending != null)
+                    restartTimeout();
+            } finally {
+                lock.unlock();
+            }
+
+            signal(chunk);
+        }
+
+        @Override
+        public void onSuccess(Map<String, Object> response) {
+            signal(STREAM_COMPLETE);
+        }
+
+        @Override
+        public void onError(String error) {
+            signal(new CommandException(command, error));
+        }
+
+        @Override
+        public void onTimeout() {
+            stop();
+            signal(new TimeoutException(command + " sent no chunk for " + timeout + "ms"));
+        }
+
+        /**
+         * Replaces the running timeout with one for the next chunk, if any are outstanding.
+         * Called holding the lock.
+         */
+        private void restartTimeout() {
+            HashedWheelTimer.Timeout current = pending.timeout;
+            if (current != null)
+                current.cancel();
+
+            try {
+                pending.timeout = outstanding > 0 ? timer.schedule(() -> handleTimeout(id), timeout) : null;
+            } catch (IllegalStateException e) {
+                pending.timeout = null;
+            }
+        }
+
+        /**
+         * Stops the stream on this side and asks the server to stop producing it.
+         */
+        private void stop() {
+            lock.lock();
+            try {
+                if (stopped)
+                    return;
+
+                stopped = true;
+
+                // A request still being sent is cancelled once it is
+                if (!started || sending)
+                    return;
+            } finally {
+                lock.unlock();
+            }
+
+            cancelRequest();
+        }
+
+        /**
+         * Forgets the sent request and tells the server to stop producing the stream.
+         */
+        private void cancelRequest() {
+            // Already removed if the stream timed out, the server is told to stop either way
+            Pending removed = pendingResponses.remove(id);
+            if (removed != null && removed.timeout != null)
+                removed.timeout.cancel();
+
+            try {
+                write(id, MessageType.DEMAND, Demand.cancel(Long.toString(id)).getParams());
+            } catch (IllegalStateException ignored) {
+                // The connection is gone, so is the stream
+            }
+        }
+
+        private void signal(Object signal) {
+            signals.add(signal);
+
+            if (wip.getAndIncrement() == 0)
+                Task.of(this::drain).run();
+        }
+
+        /**
+         * Delivers queued signals until none are left, while this thread holds the delivery role.
+         */
+        private void drain() {
+            int missed = 1;
+
+            do {
+                Object signal;
+                while ((signal = signals.poll()) != null)
+                    deliver(signal);
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void deliver(Object signal) {
+            if (terminated || cancelled)
+                return;
+
+            try {
+                if (signal instanceof Throwable error) {
+                    terminated = true;
+                    subscriber.onError(error);
+                } else if (signal == STREAM_COMPLETE) {
+                    terminated = true;
+                    subscriber.onComplete();
+                } else
+                    subscriber.onNext((Map<String, Object>) signal);
+            } catch (RuntimeException e) {
+                System.err.println("Stream subscriber of " + command + " failed: " + e.getMessage());
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Sends the body of an {@link #upload(String, Map, InputStream, long)} as the server asks for it
+     * and completes its future with the response.
+     * <p>
+     * Demand from the server adds to the chunks that may be sent. Chunks are read and written by
+     * one task thread at a time, which also closes the body once nothing more is to be sent.
+     */
+    private final class UploadCallback implements Callback {
+        private final String command;
+        private final InputStream body;
+        private final long timeout;
+        private final CompletableFuture<Map<String, Object>> future;
+        private final long id = nextId.incrementAndGet();
+
+        private final AtomicLong credit = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean finished = false;
+        private volatile Pending pending;
+
+        // Only touched by the thread holding wip
+        private boolean closed = false;
+
+        // Guards replacing the timeout, which the listening and sending threads both do
+        private final ReentrantLock timeoutLock = new ReentrantLock();
+
+        private UploadCallback(String command, InputStream body, long timeout, CompletableFuture<Map<String, Object>> future) {
+            this.command = command;
+            this.body = body;
+            this.timeout = timeout;
+            this.future = future;
+        }
+
+        /**
+         * Adds demand from the server and sends the chunks it allows. Runs on the listening thread.
+         */
+        private void onDemand(Pending pending, long n) {
+            this.pending = pending;
+            credit.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+
+            restartTimeout();
+            pump();
+        }
+
+        @Override
+        public void onSuccess(Map<String, Object> response) {
+            finish();
+            future.complete(response);
+        }
+
+        @Override
+        public void onError(String error) {
+            finish();
+            future.completeExceptionally(new CommandException(command, error));
+        }
+
+        @Override
+        public void onTimeout() {
+            finish();
+            cancelUpload();
+            future.completeExceptionally(new TimeoutException(command + " upload stalled for " + timeout + "ms"));
+        }
+
+        /**
+         * Stops sending the body, leaving it to the sending thread to close it.
+         */
+        private void finish() {
+            finished = true;
+            pump();
+        }
+
+        private void pump() {
+            if (wip.getAndIncrement() == 0)
+                Task.of(this::drain).run();
+        }
+
+        /**
+         * Sends chunks while there is demand, then closes the body if nothing more is to be sent.
+         */
+        private void drain() {
+            int missed = 1;
+
+            do {
+                while (!finished && credit.get() > 0)
+                    sendChunk();
+
+                if (finished && !closed) {
+                    closed = true;
+                    try {
+                        body.close();
+                    } catch (IOException e) {
+                        System.err.println("Failed to close upload body of " + command + ": " + e.getMessage());
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void sendChunk() {
+            byte[] data;
+            try {
+                data = body.readNBytes(UPLOAD_CHUNK_SIZE);
+            } catch (IOException e) {
+                abort("Failed to read upload body: " + e.getMessage());
+                return;
+            }
+
+            // A short read is the end of the body, a full one is followed by an empty last chunk at worst
+            boolean last = data.length < UPLOAD_CHUNK_SIZE;
+            if (credit.get() != Long.MAX_VALUE)
+                credit.decrementAndGet();
+
+            try {
+                Chunk chunk = new Chunk(Long.toString(id), data, codec.isBinary(), last);
+                write(id, MessageType.CHUNK, chunk.getParams());
+            } catch (IllegalStateException e) {
+                abort("Failed to send upload: " + e.getMessage());
+                return;
+            }
+
+            if (last)
+                finished = true;
+            else
+                restartTimeout();
+        }
+
+        /**
+         * Fails the upload on this side and asks the server to stop waiting for the body.
+         */
+        private void abort(String error) {
+            finished = true;
+
+            Pending removed = pendingResponses.remove(id);
+            if (removed == null)
+                return;
+
+            if (removed.timeout != null)
+                removed.timeout.cancel();
+
+            cancelUpload();
+            future.completeExceptionally(new CommandException(command, error));
+        }
+
+        private void cancelUpload() {
+            try {
+                write(id, MessageType.DEMAND, Demand.cancel(Long.toString(id)).getParams());
+            } catch (IllegalStateException ignored) {
+                // The connection is gone, so is the upload
+            }
+        }
+
+        /**
+         * Replaces the running timeout with a new one, as the upload has made progress.
+         */
+        private void restartTimeout() {
+            Pending pending = this.pending;
+            if (pending == null)
+                return;
+
+            timeoutLock.lock();
+            try {
+                HashedWheelTimer.Timeout current = pending.timeout;
+                if (current != null)
+                    current.cancel();
+
+                try {
+                    pending.timeout = timer.schedule(() -> handleTimeout(id), timeout);
+                } catch (IllegalStateException e) {
+                    pending.timeout = null;
+                }
+            } finally {
+                timeoutLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the chunks of a {@link #download(String, Map, OutputStream, long)} to its target and
+     * checks them, asking for more as they are written.
+     * <p>
+     * Signals arrive one at a time on task threads, so the state needs no locking.
+     */
+    private static final class DownloadSubscriber implements Flow.Subscriber<Map<String, Object>> {
+        private final String command;
+        private final OutputStream target;
+        private final CompletableFuture<Map<String, Object>> future;
+
+        private final CRC32C checksum = new CRC32C();
+        private Flow.Subscription subscription;
+        private Map<String, Object> summary;
+        private long next = -1;
+        private int written = 0;
+
+        private DownloadSubscriber(String command, OutputStream target, CompletableFuture<Map<String, Object>> future) {
+            this.command = command;
+            this.target = target;
+            this.future = future;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(DOWNLOAD_WINDOW);
+        }
+
+        @Override
+        public void onNext(Map<String, Object> chunk) {
+            if (future.isDone())
+                return;
+
+            byte[] data;
+            try {
+                data = Chunk.dataOf(chunk);
+            } catch (IllegalArgumentException e) {
+                fail("Invalid chunk: " + e.getMessage());
+                return;
+            }
+
+            long offset = chunk.get("offset") instanceof Number number ? number.longValue() : -1;
+            if (summary != null || offset < 0 || (next >= 0 && offset != next)) {
+                fail("Chunk at offset " + offset + " out of order, expected " + next);
+                return;
+            }
+
+            try {
+                target.write(data);
+            } catch (IOException e) {
+                fail("Failed to write download: " + e.getMessage());
+                return;
+            }
+
+            checksum.update(data);
+            next = offset + data.length;
+
+            if (Chunk.isLast(chunk)) {
+                String expected = String.valueOf(chunk.get("checksum"));
+                String actual = String.format("%08x", checksum.getValue());
+
+                if (!expected.equals(actual)) {
+                    fail("Checksum mismatch, expected " + expected + " but received " + actual);
+                    return;
+                }
+
+                summary = new HashMap<>(chunk);
+                summary.remove(Chunk.DATA);
+                return;
+            }
+
+            // Ask for as many chunks as have been written once half the window is used up
+            if (++written == DOWNLOAD_WINDOW / 2) {
+                written = 0;
+                subscription.request(DOWNLOAD_WINDOW / 2);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (summary != null)
+                future.complete(summary);
+            else
+                future.completeExceptionally(new CommandException(command, "Download ended before its last chunk"));
+        }
+
+        /**
+         * Cancels the download and fails its future.
+         */
+        private void fail(String message) {
+            subscription.cancel();
+            future.completeExceptionally(new CommandException(command, message));
+        }
+    }
+
+    /**
+     * A request awaiting its response. Whichever of the response and the timeout removes it from
+     * {@link #pendingResponses} first handles it.
+     */
+    private static final class Pending {
+        private final Callback callback;
+        private final String cacheKey;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private Pending(Callback callback, String cacheKey) {
+            this.callback = callback;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    /**
+     * Refreshes a stale cached response in the background. The response is stored by
+     * {@link #handleResponse}; failures leave the stale response in place and allow the next hit
+     * to try again.
+     */
+    private final class Revalidation implements Callback {
+        private final String cacheKey;
+        private final Object command;
+
+        private Revalidation(String cacheKey, Object command) {
+            this.cacheKey = cacheKey;
+            this.command = command;
+        }
+
+        @Override
+        public void onSuccess(Map<String, Object> response) {
+        }
+
+        @Override
+        public void onError(String error) {
+            System.err.println("Failed to refresh cached " + command + ": " + error);
+            cache.revalidationFailed(cacheKey);
+        }
+
+        @Override
+        public void onTimeout() {
+            cache.revalidationFailed(cacheKey);
+        }
     }
 }
@@ -0,0 +1,27 @@
+package org.reujdon.jtp.client;
+
+/**
+ * Thrown when a command sent through {@link Client#call} fails, either because the server
+ * answered with an error or because the request could not be sent.
+ */
+public class CommandException extends RuntimeException {
+    private final String command;
+
+    /**
+     * Constructs a new {@code CommandException}.
+     *
+     * @param command the command that failed
+     * @param message the error reported for it
+     */
+    public CommandException(String command, String message) {
+        super(command + ": " + message);
+        this.command = command;
+    }
+
+    /**
+     * @return the command that failed
+     */
+    public String getCommand() {
+        return command;
+    }
+}
@@ -0,0 +1,255 @@
+package org.reujdon.jtp.client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A timer for many short, mostly cancelled deadlines, such as request timeouts.
+ * <p>
+ * Deadlines are kept in a wheel of buckets, one per tick, and a single thread advances the wheel
+ * one bucket per tick, running the tasks in it that are due. Scheduling and cancelling only touch
+ * lock-free queues, and a deadline costs one small object, regardless of its length. Deadlines
+ * further away than one turn of the wheel wait in their bucket for the remaining turns.
+ * <p>
+ * Tasks run on the timer thread and are fired up to one tick late. They must be short and hand
+ * off any slow work, such as user callbacks, to another thread.
+ */
+final class HashedWheelTimer {
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    /**
+     * A scheduled task that can be cancelled until it has run.
+     */
+    final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+
+        // Turns of the wheel left before the deadline, and the bucket links; used by the timer thread only
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Prevents the task from running.
+         *
+         * @return {@code true} if the task was cancelled, {@code false} if it already ran or was cancelled
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED))
+                return false;
+
+            cancelled.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(INIT, EXPIRED))
+                return;
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Timer task failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts that fall into one tick of the wheel.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+
+            if (head == null)
+                head = tail = timeout;
+            else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.previous != null)
+                timeout.previous.next = timeout.next;
+            if (timeout.next != null)
+                timeout.next.previous = timeout.previous;
+
+            if (timeout == head)
+                head = timeout.next;
+            if (timeout == tail)
+                tail = timeout.previous;
+
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * Runs the due timeouts of this bucket and counts down the rounds of the others.
+         */
+        private void expire(long now) {
+            Timeout timeout = head;
+
+            while (timeout != null) {
+                Timeout next = timeout.next;
+
+                if (timeout.isCancelled())
+                    remove(timeout);
+                else if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.remainingRounds > 0)
+                    timeout.remainingRounds--;
+
+                timeout = next;
+            }
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final long startTime = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * Constructs and starts a new {@code HashedWheelTimer}.
+     *
+     * @param tick      the duration of one tick in milliseconds, the resolution of the timer
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     * @throws IllegalArgumentException if tick or wheelSize is not positive
+     */
+    HashedWheelTimer(long tick, int wheelSize) {
+        if (tick <= 0)
+            throw new IllegalArgumentException("Tick must be positive");
+
+        if (wheelSize <= 0 || wheelSize > 1 << 20)
+            throw new IllegalArgumentException("Wheel size must be between 1 and " + (1 << 20));
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+
+        int size = 1;
+        while (size < wheelSize)
+            size <<= 1;
+
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new Bucket();
+        this.mask = size - 1;
+
+        this.worker = new Thread(this::run, "jtp-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param task  the task to run
+     * @param delay the delay in milliseconds, {@code 0} to run on the next tick
+     * @return the handle to cancel the task with
+     * @throws IllegalArgumentException if task is null or delay is negative
+     * @throws IllegalStateException if the timer has been stopped
+     */
+    Timeout schedule(Runnable task, long delay) {
+        if (task == null)
+            throw new IllegalArgumentException("Task cannot be null");
+
+        if (delay < 0)
+            throw new IllegalArgumentException("Delay must not be negative");
+
+        if (!running)
+            throw new IllegalStateException("Timer is stopped");
+
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delay));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread. Tasks that have not run yet never will.
+     */
+    void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * Advances the wheel one bucket per tick until stopped.
+     */
+    private void run() {
+        long tick = 0;
+
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep = deadline - (System.nanoTime() - startTime);
+
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running)
+                        return;
+                }
+                continue;
+            }
+
+            removeCancelled();
+            transferScheduled(tick);
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Unlinks cancelled timeouts so their memory is released before their deadline.
+     */
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null)
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+    }
+
+    /**
+     * Places newly scheduled timeouts in the bucket of their deadline.
+     */
+    private void transferScheduled(long tick) {
+        Timeout timeout;
+
+        // Bounded, so a flood of new timeouts cannot stall the wheel
+        for (int i = 0; i < 100_000 && (timeout = scheduled.poll()) != null; i++) {
+            if (timeout.isCancelled())
+                continue;
+
+            long ticks = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.reujdon.jtp.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A lock-free, fixed-capacity map from request ids to the handlers waiting for their responses.
+ * <p>
+ * Ids must be positive and unique, such as the sequence numbers a client gives its requests.
+ * Entries are stored by open addressing in a pair of flat arrays, starting at the slot given by
+ * the low bits of the id and probing linearly from there. As ids are handed out in order, each
+ * request usually lands in its own slot and is found on the first probe.
+ * <p>
+ * A slot is claimed by setting its value first and published by setting its key after, and freed
+ * by clearing its key first and its value after, so a value is only ever visible under its own key
+ * and each entry is removed exactly once, by whichever thread clears its key.
+ *
+ * @param <V> the type of the stored handlers
+ */
+final class PendingTable<V> {
+    private static final long EMPTY = 0;
+
+    private final AtomicLongArray keys;
+    private final AtomicReferenceArray<V> values;
+    private final int mask;
+
+    /**
+     * Constructs a new {@code PendingTable}.
+     *
+     * @param capacity the most entries held at once, rounded up to a power of two
+     * @throws IllegalArgumentException if capacity is not between 1 and 2^30
+     */
+    PendingTable(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Capacity must be between 1 and " + (1 << 30));
+
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        this.keys = new AtomicLongArray(size);
+        this.values = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param id    the request id, which must not already be in the table
+     * @param value the handler
+     * @throws IllegalArgumentException if id is not positive or value is null
+     * @throws IllegalStateException if the table is full
+     */
+    void put(long id, V value) {
+        if (id <= 0)
+            throw new IllegalArgumentException("Id must be positive");
+
+        if (value == null)
+            throw new IllegalArgumentException("Value cannot be null");
+
+        for (int i = 0; i <= mask; i++) {
+            int slot = (int) (id + i) & mask;
+
+            if (values.get(slot) == null && values.compareAndSet(slot, null, value)) {
+                keys.set(slot, id);
+                return;
+            }
+        }
+
+        throw new IllegalStateException("Too many pending requests: " + (mask + 1));
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param id the request id
+     * @return the handler, or {@code null} if the id is not in the table or was removed already
+     */
+    V remove(long id) {
+        if (id <= 0)
+            return null;
+
+        for (int i = 0; i <= mask; i++) {
+            int slot = (int) (id + i) & mask;
+
+            if (keys.get(slot) == id) {
+                if (!keys.compareAndSet(slot, id, EMPTY))
+                    return null;
+
+                return values.getAndSet(slot, null);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes every entry, handing each to the action. Entries removed concurrently by another
+     * thread are skipped, so each is still handled once.
+     *
+     * @param action called with each removed handler
+     */
+    void removeAll(Consumer<? super V> action) {
+        for (int i = 0; i <= mask; i++) {
+            long id = keys.get(i);
+            if (id == EMPTY || !keys.compareAndSet(i, id, EMPTY))
+                continue;
+
+            V value = values.getAndSet(i, null);
+            if (value != null)
+                action.accept(value);
+        }
+    }
+
+    /**
+     * Looks up an entry without removing it.
+     *
+     * @param id the request id
+     * @return the handler, or {@code null} if the id is not in the table
+     */
+    V get(long id) {
+        if (id <= 0)
+            return null;
+
+        for (int i = 0; i <= mask; i++) {
+            int slot = (int) (id + i) & mask;
+
+            if (keys.get(slot) == id)
+                return values.get(slot);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the number of entries, which may be stale if the table is changing
+     */
+    int size() {
+        int size = 0;
+
+        for (int i = 0; i <= mask; i++)
+            if (keys.get(i) != EMPTY)
+                size++;
+
+        return size;
+    }
+
+    /**
+     * @return the most entries held at once
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
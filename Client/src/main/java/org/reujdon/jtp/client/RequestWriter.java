@@ -0,0 +1,168 @@
+package org.reujdon.jtp.client;
+
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Writes the outgoing requests of a client on a dedicated thread, in batches.
+ * <p>
+ * {@link #enqueue} only adds a request to a lock-free queue and returns, so callers never wait for
+ * the socket. The writer thread sleeps until a request arrives, then waits up to the batch window
+ * for more, stopping early once the batch is full, and writes all of them with one call and one
+ * flush, so concurrent requests share TLS records and system calls. With a window of {@code 0}
+ * only requests that queued up during the previous write are batched.
+ * <p>
+ * If a write fails the writer stops: the requests of the failed batch and any still queued are
+ * handed to the failure handler, and later calls to {@link #enqueue} throw.
+ */
+final class RequestWriter {
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private record Outgoing(long id, byte[] bytes) {}
+
+    private final OutputStream out;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final ObjLongConsumer<IOException> onFailed;
+
+    private final Queue<Outgoing> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final OutputBuffer buffer = new OutputBuffer(16 * 1024);
+    private final long[] batchIds;
+
+    private final Thread worker;
+    private volatile boolean waiting = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs a new {@code RequestWriter} and starts its thread.
+     *
+     * @param out      the unbuffered stream of the connection
+     * @param window   how long to wait for more requests after the first, in microseconds
+     * @param maxBatch the most requests written at once
+     * @param onFailed called on the writer thread with the error and id of each request that
+     *                 could not be written
+     * @throws IllegalArgumentException if out or onFailed is null, window is negative or
+     *                                  maxBatch is not positive
+     */
+    RequestWriter(OutputStream out, long window, int maxBatch, ObjLongConsumer<IOException> onFailed) {
+        if (out == null)
+            throw new IllegalArgumentException("Output stream must not be null");
+
+        if (window < 0)
+            throw new IllegalArgumentException("Batch window must not be negative");
+
+        if (maxBatch <= 0)
+            throw new IllegalArgumentException("Batch size must be positive");
+
+        if (onFailed == null)
+            throw new IllegalArgumentException("Failure handler must not be null");
+
+        this.out = out;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(window);
+        this.maxBatch = maxBatch;
+        this.onFailed = onFailed;
+        this.batchIds = new long[maxBatch];
+
+        this.worker = new Thread(this::run, "jtp-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a serialized request to be written.
+     *
+     * @param id    the id the request was sent under, passed to the failure handler
+     * @param bytes the complete bytes of the request, including any framing
+     * @throws IllegalStateException if the writer has been closed or a write failed
+     */
+    void enqueue(long id, byte[] bytes) {
+        if (closed)
+            throw new IllegalStateException("Request writer is closed");
+
+        queue.add(new Outgoing(id, bytes));
+
+        // A full batch cuts the window short
+        if (queued.incrementAndGet() >= maxBatch || waiting)
+            LockSupport.unpark(worker);
+    }
+
+    /**
+     * @return the number of requests waiting to be written
+     */
+    int size() {
+        return queued.get();
+    }
+
+    /**
+     * Stops the writer thread and discards any requests that have not been written.
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Waits for requests and writes them in batches until closed or a write fails.
+     */
+    private void run() {
+        while (!closed) {
+            if (queue.isEmpty()) {
+                waiting = true;
+                if (queue.isEmpty() && !closed)
+                    LockSupport.park(this);
+                waiting = false;
+                continue;
+            }
+
+            long deadline = System.nanoTime() + windowNanos;
+            long remaining;
+            while (!closed && queued.get() < maxBatch && (remaining = deadline - System.nanoTime()) > 0)
+                LockSupport.parkNanos(this, remaining);
+
+            int count = 0;
+
+            try {
+                Outgoing outgoing;
+                while (count < maxBatch && buffer.size() < MAX_BATCH_BYTES && (outgoing = queue.poll()) != null) {
+                    queued.decrementAndGet();
+                    batchIds[count++] = outgoing.id;
+                    buffer.write(outgoing.bytes);
+                }
+
+                buffer.writeTo(out);
+                out.flush();
+            } catch (IOException e) {
+                fail(e, count);
+                return;
+            } finally {
+                buffer.reset();
+            }
+        }
+
+        queue.clear();
+    }
+
+    /**
+     * Stops accepting requests and reports the failed batch and everything still queued.
+     */
+    private void fail(IOException e, int count) {
+        closed = true;
+        System.err.println("Failed to write requests: " + e.getMessage());
+
+        for (int i = 0; i < count; i++)
+            onFailed.accept(e, batchIds[i]);
+
+        Outgoing outgoing;
+        while ((outgoing = queue.poll()) != null)
+            onFailed.accept(e, outgoing.id);
+    }
+}
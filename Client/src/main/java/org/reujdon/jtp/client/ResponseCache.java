@@ -0,0 +1,201 @@
+package org.reujdon.jtp.client;
+
+import org.reujdon.jtp.shared.Parse;
+import org.reujdon.jtp.shared.Request;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, least recently used cache of responses to {@link Request}s that declare a
+ * {@link Request#getCacheTtl() cache TTL}.
+ * <p>
+ * Responses are keyed by all request parameters, including the command and token, in their
+ * {@link Parse#Canonical canonical form}. A response younger than the request's TTL is a fresh
+ * hit. Within the following {@link Request#getStaleTtl() stale period} it is still served, and the
+ * first such hit is told to revalidate it; later hits are not until the revalidation completes
+ * or {@link #revalidationFailed(Request)} is called. Older responses are dropped.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class ResponseCache {
+    /**
+     * A cached response.
+     *
+     * @param response   the response parameters
+     * @param revalidate if the caller should fetch a fresh response in the background
+     */
+    record Hit(Map<String, Object> response, boolean revalidate) {}
+
+    private static final class Entry {
+        private final Map<String, Object> response;
+        private final long created;
+        private boolean revalidating = false;
+
+        private Entry(Map<String, Object> response, long created) {
+            this.response = response;
+            this.created = created;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Constructs a new {@code ResponseCache}.
+     *
+     * @param maxEntries the most responses kept
+     * @throws IllegalArgumentException if maxEntries is not positive
+     */
+    ResponseCache(int maxEntries) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("Max entries must be positive");
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Looks up a usable response to a request.
+     *
+     * @param request the request about to be sent
+     * @return the cached response, or {@code null} if the request must be sent
+     */
+    Hit lookup(Request request) {
+        return lookup(keyOf(request), request);
+    }
+
+    /**
+     * Looks up a usable response to a request whose key was already built by {@link #keyOf(Request)}.
+     *
+     * @param key     the key of the request
+     * @param request the request about to be sent
+     * @return the cached response, or {@code null} if the request must be sent
+     */
+    Hit lookup(String key, Request request) {
+        long now = System.nanoTime();
+
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null)
+                return null;
+
+            long age = now - entry.created;
+            long ttl = TimeUnit.MILLISECONDS.toNanos(request.getCacheTtl());
+
+            if (age < ttl)
+                return new Hit(entry.response, false);
+
+            if (age < ttl + TimeUnit.MILLISECONDS.toNanos(request.getStaleTtl())) {
+                boolean revalidate = !entry.revalidating;
+                entry.revalidating = true;
+                return new Hit(entry.response, revalidate);
+            }
+
+            entries.remove(key);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a successful response to a request.
+     *
+     * @param request  the request that was answered
+     * @param response the response parameters
+     * @return the read-only copy of the response that was stored
+     */
+    Map<String, Object> put(Request request, Map<String, Object> response) {
+        return put(keyOf(request), response);
+    }
+
+    /**
+     * Stores a successful response under a key built by {@link #keyOf(Request)}.
+     *
+     * @param key      the key of the request that was answered
+     * @param response the response parameters
+     * @return the read-only copy of the response that was stored
+     */
+    Map<String, Object> put(String key, Map<String, Object> response) {
+        Entry entry = new Entry(Collections.unmodifiableMap(new HashMap<>(response)), System.nanoTime());
+
+        lock.lock();
+        try {
+            entries.put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+
+        return entry.response;
+    }
+
+    /**
+     * Allows the next stale hit for a request to revalidate again, after a refresh failed.
+     *
+     * @param request the request whose revalidation failed
+     */
+    void revalidationFailed(Request request) {
+        revalidationFailed(keyOf(request));
+    }
+
+    /**
+     * Allows the next stale hit for a key built by {@link #keyOf(Request)} to revalidate again.
+     *
+     * @param key the key of the request whose revalidation failed
+     */
+    void revalidationFailed(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null)
+                entry.revalidating = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all cached responses.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Builds the cache key of a request, so it can be kept instead of the request's parameters
+     * while the request is pending.
+     *
+     * @param request the request
+     * @return the key
+     */
+    static String keyOf(Request request) {
+        return Parse.Canonical(request.getParams());
+    }
+}
@@ -9,6 +9,19 @@ public class HelpCommand extends Request {
         super("Help", 500);
     }
 
+    /**
+     * The command list only changes when the server registers new commands, so it is reused for a minute.
+     */
+    @Override
+    public long getCacheTtl() {
+        return 60_000;
+    }
+
+    @Override
+    public long getStaleTtl() {
+        return 10 * 60_000;
+    }
+
     @Override
     public void onSuccess(Map<String, Object> response) {
         System.out.println("Commands available:\n");
@@ -0,0 +1,161 @@
+package org.reujdon.jtp.client;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.Request;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Calls against a TLS peer that answers {@code Echo} and never answers anything else.
+ */
+class ClientCallTest {
+    private static final String PASSWORD = "changeit";
+
+    @TempDir
+    Path dir;
+
+    private SSLServerSocket serverSocket;
+    private Client client;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Path keystore = dir.resolve("test.jks");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "test", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=localhost", "-storetype", "JKS", "-keystore", keystore.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+        assertEquals(0, keytool.waitFor(), "keytool failed");
+
+        KeyStore store = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystore.toFile())) {
+            store.load(in, PASSWORD.toCharArray());
+        }
+
+        KeyManagerFactory keys = KeyManagerFactory.getInstance("SunX509");
+        keys.init(store, PASSWORD.toCharArray());
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), null, null);
+
+        serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0);
+        Thread peer = new Thread(this::answer);
+        peer.setDaemon(true);
+        peer.start();
+
+        Path config = dir.resolve("client.properties");
+        Files.writeString(config, "client.path = " + keystore + "\nclient.password = " + PASSWORD);
+
+        client = new Client("localhost", serverSocket.getLocalPort(), config.toString());
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        client.close();
+        serverSocket.close();
+    }
+
+    @Test
+    void testCallBlockingReturnsResponse() throws Exception {
+        Map<String, Object> response = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> client.callBlocking("Echo", Map.of("value", 42), 60000));
+
+        assertEquals(42, response.get("value"));
+    }
+
+    @Test
+    void testCloseFailsPendingCalls() {
+        CompletableFuture<Map<String, Object>> pending = client.call("Slow", null, 60000);
+
+        client.close();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> pending.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CommandException.class, e.getCause());
+    }
+
+    @Test
+    void testCallBlockingAfterCloseFails() {
+        client.close();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(CommandException.class, () -> client.callBlocking("Slow", null, 60000)));
+    }
+
+    @Test
+    void testFailedSendReportedOnTask() throws Exception {
+        client.close();
+
+        CompletableFuture<Thread> reported = new CompletableFuture<>();
+        client.sendCommand(new Request("Slow", 60000) {
+            @Override
+            public void onSuccess(Map<String, Object> response) {
+                reported.completeExceptionally(new AssertionError("Unexpected response"));
+            }
+
+            @Override
+            public void onError(String error) {
+                reported.complete(Thread.currentThread());
+            }
+
+            @Override
+            public void onTimeout() {
+                reported.completeExceptionally(new AssertionError("Unexpected timeout"));
+            }
+        });
+
+        assertNotSame(Thread.currentThread(), reported.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Answers each {@code Echo} request with its own params, until the connection closes.
+     */
+    private void answer() {
+        try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject request = new JSONObject(line);
+                JSONObject params = request.getJSONObject("params");
+                if (!params.optString("command").equals("Echo"))
+                    continue;
+
+                JSONObject response = new JSONObject()
+                        .put("type", "RESPONSE")
+                        .put("id", request.get("id"))
+                        .put("params", params);
+                out.write((response + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client closed the connection
+        }
+    }
+}
\ No newline at end of file
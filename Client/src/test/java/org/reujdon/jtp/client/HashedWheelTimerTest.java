@@ -0,0 +1,115 @@
+package org.reujdon.jtp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedWheelTimerTest {
+    @Test
+    void testInitializationInvalidArgumentsThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(0, 8));
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(10, 0));
+    }
+
+    @Test
+    void testScheduleInvalidArgumentsThrow() {
+        HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+
+        assertThrows(IllegalArgumentException.class, () -> timer.schedule(null, 10));
+        assertThrows(IllegalArgumentException.class, () -> timer.schedule(() -> {}, -1));
+
+        timer.stop();
+    }
+
+    @Test
+    void testTaskRunsAfterDelay() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer(5, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+        timer.schedule(latch::countDown, 50);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        timer.stop();
+    }
+
+    @Test
+    void testDelayLongerThanWheel() throws InterruptedException {
+        // 4 buckets of 5ms, so 60ms takes three turns
+        HashedWheelTimer timer = new HashedWheelTimer(5, 4);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+        timer.schedule(latch::countDown, 60);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+
+        timer.stop();
+    }
+
+    @Test
+    void testCancelledTaskDoesNotRun() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer(5, 8);
+        AtomicInteger runs = new AtomicInteger();
+
+        HashedWheelTimer.Timeout timeout = timer.schedule(runs::incrementAndGet, 20);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+
+        Thread.sleep(100);
+        assertEquals(0, runs.get());
+
+        timer.stop();
+    }
+
+    @Test
+    void testCannotCancelAfterRun() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer(5, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        HashedWheelTimer.Timeout timeout = timer.schedule(latch::countDown, 0);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+
+        timer.stop();
+    }
+
+    @Test
+    void testManyTasksEachRunOnce() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer(1, 16);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(500);
+
+        for (int i = 0; i < 1000; i++) {
+            HashedWheelTimer.Timeout timeout = timer.schedule(() -> {
+                runs.incrementAndGet();
+                latch.countDown();
+            }, i % 50);
+
+            if (i % 2 == 1)
+                timeout.cancel();
+        }
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Thread.sleep(60);
+        assertEquals(500, runs.get());
+
+        timer.stop();
+    }
+
+    @Test
+    void testScheduleAfterStopThrows() {
+        HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+        timer.stop();
+
+        assertThrows(IllegalStateException.class, () -> timer.schedule(() -> {}, 10));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+package org.reujdon.jtp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingTableTest {
+    @Test
+    void testInitializationInvalidCapacityThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new PendingTable<String>(0));
+    }
+
+    @Test
+    void testCapacityRoundedToPowerOfTwo() {
+        assertEquals(8, new PendingTable<String>(5).capacity());
+    }
+
+    @Test
+    void testPutAndRemove() {
+        PendingTable<String> table = new PendingTable<>(4);
+
+        table.put(1, "a");
+        table.put(2, "b");
+        assertEquals(2, table.size());
+
+        assertEquals("a", table.remove(1));
+        assertNull(table.remove(1));
+        assertNull(table.remove(3));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void testRemoveAllHandsOutEachEntryOnce() {
+        PendingTable<String> table = new PendingTable<>(4);
+        table.put(1, "a");
+        table.put(2, "b");
+        table.put(6, "c");
+        assertEquals("b", table.remove(2));
+
+        List<String> removed = new ArrayList<>();
+        table.removeAll(removed::add);
+
+        assertEquals(2, removed.size());
+        assertTrue(removed.containsAll(List.of("a", "c")));
+        assertEquals(0, table.size());
+        assertNull(table.remove(1));
+
+        table.removeAll(removed::add);
+        assertEquals(2, removed.size());
+    }
+
+    @Test
+    void testGetKeepsEntry() {
+        PendingTable<String> table = new PendingTable<>(4);
+        table.put(5, "a");
+
+        assertEquals("a", table.get(5));
+        assertEquals("a", table.get(5));
+        assertNull(table.get(6));
+        assertNull(table.get(0));
+
+        assertEquals("a", table.remove(5));
+        assertNull(table.get(5));
+    }
+
+    @Test
+    void testInvalidArgumentsThrow() {
+        PendingTable<String> table = new PendingTable<>(4);
+
+        assertThrows(IllegalArgumentException.class, () -> table.put(0, "a"));
+        assertThrows(IllegalArgumentException.class, () -> table.put(1, null));
+        assertNull(table.remove(0));
+    }
+
+    @Test
+    void testCollidingIdsProbe() {
+        PendingTable<String> table = new PendingTable<>(4);
+
+        // 1, 5 and 9 share a slot
+        table.put(1, "a");
+        table.put(5, "b");
+        table.put(9, "c");
+
+        assertEquals("b", table.remove(5));
+        assertEquals("c", table.remove(9));
+        assertEquals("a", table.remove(1));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void testFullTableThrows() {
+        PendingTable<String> table = new PendingTable<>(2);
+        table.put(1, "a");
+        table.put(2, "b");
+
+        assertThrows(IllegalStateException.class, () -> table.put(3, "c"));
+
+        table.remove(1);
+        table.put(3, "c");
+        assertEquals("c", table.remove(3));
+    }
+
+    @Test
+    void testConcurrentRemoveHandsOutEachEntryOnce() throws InterruptedException {
+        PendingTable<Integer> table = new PendingTable<>(1024);
+        for (int i = 1; i <= 1000; i++)
+            table.put(i, i);
+
+        AtomicInteger removed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 1000; i++)
+                    if (table.remove(i) != null)
+                        removed.incrementAndGet();
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(1000, removed.get());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void testConcurrentPutAndRemove() throws InterruptedException {
+        PendingTable<Long> table = new PendingTable<>(64);
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            long base = t * 1_000_000L;
+            Thread thread = new Thread(() -> {
+                for (long i = 1; i <= 10_000; i++) {
+                    table.put(base + i, base + i);
+
+                    Long value = table.remove(base + i);
+                    if (value == null || value != base + i)
+                        mismatches.incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(0, mismatches.get());
+        assertEquals(0, table.size());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,152 @@
+package org.reujdon.jtp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestWriterTest {
+    @Test
+    void testInitializationInvalidArgumentsThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new RequestWriter(null, 0, 1, (e, id) -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new RequestWriter(new ByteArrayOutputStream(), -1, 1, (e, id) -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new RequestWriter(new ByteArrayOutputStream(), 0, 0, (e, id) -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new RequestWriter(new ByteArrayOutputStream(), 0, 1, null));
+    }
+
+    @Test
+    void testEnqueueWritesInBackground() throws InterruptedException {
+        CountingStream stream = new CountingStream();
+        RequestWriter writer = new RequestWriter(stream, 0, 64, (e, id) -> {});
+
+        writer.enqueue(1, "hello\n".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(stream.awaitSize(6));
+        assertEquals("hello\n", stream.toString(StandardCharsets.UTF_8));
+        writer.close();
+    }
+
+    @Test
+    void testWindowBatchesRequests() throws InterruptedException {
+        CountingStream stream = new CountingStream();
+        RequestWriter writer = new RequestWriter(stream, 200_000, 64, (e, id) -> {});
+
+        for (int i = 0; i < 10; i++)
+            writer.enqueue(i + 1, (i + "\n").getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(stream.awaitSize(20));
+        assertEquals(1, stream.flushes.get());
+        assertEquals("0\n1\n2\n3\n4\n5\n6\n7\n8\n9\n", stream.toString(StandardCharsets.UTF_8));
+        writer.close();
+    }
+
+    @Test
+    void testFullBatchCutsWindowShort() throws InterruptedException {
+        CountingStream stream = new CountingStream();
+        RequestWriter writer = new RequestWriter(stream, 60_000_000, 4, (e, id) -> {});
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++)
+            writer.enqueue(i + 1, "x".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(stream.awaitSize(4));
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+        writer.close();
+    }
+
+    @Test
+    void testConcurrentEnqueueWritesEveryRequestOnce() throws InterruptedException {
+        CountingStream stream = new CountingStream();
+        RequestWriter writer = new RequestWriter(stream, 100, 16, (e, id) -> {});
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 250; i++)
+                    writer.enqueue(thread * 1000 + i + 1, (thread + ":" + i + "\n").getBytes(StandardCharsets.UTF_8));
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        int expected = 0;
+        for (int t = 0; t < threads.length; t++)
+            for (int i = 0; i < 250; i++)
+                expected += (t + ":" + i + "\n").length();
+
+        assertTrue(stream.awaitSize(expected));
+
+        Set<String> lines = ConcurrentHashMap.newKeySet();
+        lines.addAll(List.of(stream.toString(StandardCharsets.UTF_8).split("\n")));
+        assertEquals(1000, lines.size());
+        assertTrue(stream.flushes.get() < 1000);
+        writer.close();
+    }
+
+    @Test
+    void testWriteFailureReportsRequestsAndCloses() throws InterruptedException {
+        List<Long> failed = new CopyOnWriteArrayList<>();
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("broken");
+            }
+        };
+
+        RequestWriter writer = new RequestWriter(broken, 50_000, 64, (e, id) -> failed.add(id));
+        writer.enqueue(1, "a".getBytes(StandardCharsets.UTF_8));
+        writer.enqueue(2, "b".getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < 200 && failed.size() < 2; i++)
+            Thread.sleep(10);
+
+        assertEquals(List.of(1L, 2L), failed);
+        assertThrows(IllegalStateException.class, () -> writer.enqueue(3, "c".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testEnqueueAfterCloseThrows() {
+        RequestWriter writer = new RequestWriter(new ByteArrayOutputStream(), 0, 1, (e, id) -> {});
+        writer.close();
+
+        assertThrows(IllegalStateException.class, () -> writer.enqueue(1, new byte[1]));
+    }
+
+    private static class CountingStream extends ByteArrayOutputStream {
+        private final AtomicInteger flushes = new AtomicInteger();
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+
+        private boolean awaitSize(int size) throws InterruptedException {
+            for (int i = 0; i < 500; i++) {
+                // Data is written before the flush that ends its batch
+                if (size() >= size && flushes.get() > 0)
+                    return true;
+
+                Thread.sleep(10);
+            }
+
+            return false;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+package org.reujdon.jtp.client;
+
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.Request;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+    @Test
+    void testInitializationInvalidSizeThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new ResponseCache(0));
+    }
+
+    @Test
+    void testFreshHit() {
+        ResponseCache cache = new ResponseCache(4);
+
+        assertNull(cache.lookup(new CachedRequest("Get", 1, 60_000, 0)));
+        cache.put(new CachedRequest("Get", 1, 60_000, 0), Map.of("value", "a"));
+
+        ResponseCache.Hit hit = cache.lookup(new CachedRequest("Get", 1, 60_000, 0));
+        assertEquals("a", hit.response().get("value"));
+        assertFalse(hit.revalidate());
+        assertThrows(UnsupportedOperationException.class, () -> hit.response().put("value", "b"));
+
+        assertNull(cache.lookup(new CachedRequest("Get", 2, 60_000, 0)));
+        assertNull(cache.lookup(new CachedRequest("Other", 1, 60_000, 0)));
+    }
+
+    @Test
+    void testStaleWhileRevalidate() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(4);
+        cache.put(new CachedRequest("Get", 1, 10, 60_000), Map.of("value", "a"));
+        Thread.sleep(20);
+
+        assertTrue(cache.lookup(new CachedRequest("Get", 1, 10, 60_000)).revalidate());
+        assertFalse(cache.lookup(new CachedRequest("Get", 1, 10, 60_000)).revalidate());
+
+        cache.revalidationFailed(new CachedRequest("Get", 1, 10, 60_000));
+        assertTrue(cache.lookup(new CachedRequest("Get", 1, 10, 60_000)).revalidate());
+
+        cache.put(new CachedRequest("Get", 1, 60_000, 60_000), Map.of("value", "b"));
+        ResponseCache.Hit hit = cache.lookup(new CachedRequest("Get", 1, 60_000, 60_000));
+        assertEquals("b", hit.response().get("value"));
+        assertFalse(hit.revalidate());
+    }
+
+    @Test
+    void testExpiredDropped() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(4);
+        cache.put(new CachedRequest("Get", 1, 10, 0), Map.of("value", "a"));
+        Thread.sleep(20);
+
+        assertNull(cache.lookup(new CachedRequest("Get", 1, 10, 0)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEvicted() {
+        ResponseCache cache = new ResponseCache(2);
+        cache.put(new CachedRequest("Get", 1, 60_000, 0), Map.of());
+        cache.put(new CachedRequest("Get", 2, 60_000, 0), Map.of());
+        cache.lookup(new CachedRequest("Get", 1, 60_000, 0));
+        cache.put(new CachedRequest("Get", 3, 60_000, 0), Map.of());
+
+        assertNotNull(cache.lookup(new CachedRequest("Get", 1, 60_000, 0)));
+        assertNull(cache.lookup(new CachedRequest("Get", 2, 60_000, 0)));
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    private static class CachedRequest extends Request {
+        private final long ttl;
+        private final long stale;
+
+        CachedRequest(String command, int n, long ttl, long stale) {
+            super(command, 1000);
+            addParam("n", n);
+
+            this.ttl = ttl;
+            this.stale = stale;
+        }
+
+        @Override
+        public long getCacheTtl() {
+            return ttl;
+        }
+
+        @Override
+        public long getStaleTtl() {
+            return stale;
+        }
+
+        @Override
+        public void onSuccess(Map<String, Object> response) {}
+
+        @Override
+        public void onTimeout() {}
+    }
+}
\ No newline at end of file
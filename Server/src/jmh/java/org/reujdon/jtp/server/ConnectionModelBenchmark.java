@@ -0,0 +1,213 @@
+package org.reujdon.jtp.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the footprint of idle client connections to a {@link ServerMode#BLOCKING} {@link Server}
+ * handling them on the cached platform thread pool against virtual threads, as set by
+ * {@code server.virtualThreads}.
+ *
+ * <p>Each invocation opens the given number of TLS connections to a server started for the trial
+ * and completes their handshakes, so every connection has a {@link ClientHandler} blocked reading
+ * from its socket. The measured time is how long that takes. Once all connections are registered
+ * the benchmark records:</p>
+ * <ul>
+ *   <li><b>threads</b> - live platform threads in the JVM</li>
+ *   <li><b>heapKb</b> - used heap, which includes virtual thread stacks</li>
+ *   <li><b>rssKb</b> - resident set size of the process, which includes platform thread stacks
+ *       (Linux only, -1 elsewhere)</li>
+ * </ul>
+ * The client sockets live in the same process, so both models include their cost.
+ *
+ * <p>Run with {@code ./gradlew :Server:jmh}. Large connection counts need a raised open file limit.
+ * A self-signed key is created for the trial with the JDK's {@code keytool}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ConnectionModelBenchmark {
+    private static final String PASSWORD = "changeit";
+
+    @Param({"500", "2000"})
+    public int connections;
+
+    @Param({"cached", "virtual"})
+    public String executor;
+
+    private Path dir;
+    private Server server;
+    private int port;
+    private SSLContext context;
+
+    /**
+     * Footprint counters reported next to the benchmark time.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long threads;
+        public long heapKb;
+        public long rssKb;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("jtp-bench");
+        Path keystore = createKeystore(dir.resolve("bench.jks"));
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        Path config = dir.resolve("server.properties");
+        Files.writeString(config, String.join("\n",
+                "server.path = " + keystore,
+                "server.password = " + PASSWORD,
+                "server.mode = blocking",
+                "server.virtualThreads = " + executor.equals("virtual")));
+
+        server = new Server(port, config.toString());
+        Thread acceptor = new Thread(server::start, "bench-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        context = clientContext(keystore);
+        awaitListening();
+        awaitClients(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+
+        Files.delete(dir.resolve("bench.jks"));
+        Files.delete(dir.resolve("server.properties"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public void idleConnections(Footprint footprint) throws Exception {
+        List<SSLSocket> sockets = new ArrayList<>(connections);
+
+        try {
+            for (int i = 0; i < connections; i++) {
+                SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), port);
+                sockets.add(socket);
+
+                // Completes once the client's handler is reading from its socket
+                socket.startHandshake();
+            }
+
+            awaitClients(connections);
+
+            footprint.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            footprint.heapKb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1024;
+            footprint.rssKb = residentSetKb();
+        } finally {
+            for (SSLSocket socket : sockets)
+                socket.close();
+
+            awaitClients(0);
+        }
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     */
+    private void awaitListening() throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (server.isRunning()) {
+                try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), port)) {
+                    socket.startHandshake();
+                    return;
+                } catch (IOException e) {
+                    // Not listening yet
+                }
+            }
+
+            Thread.sleep(10);
+        }
+
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    /**
+     * Waits until the server has the given number of connected clients.
+     */
+    private void awaitClients(int count) throws InterruptedException {
+        for (int i = 0; i < 3000 && server.getInFlight().size() != count; i++)
+            Thread.sleep(10);
+    }
+
+    /**
+     * Creates a keystore with a new self-signed key.
+     *
+     * @return the path of the keystore
+     */
+    private static Path createKeystore(Path keystore) throws IOException, InterruptedException {
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "bench", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=localhost", "-storetype", "JKS", "-keystore", keystore.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+
+        if (keytool.waitFor() != 0)
+            throw new IllegalStateException("keytool failed");
+
+        return keystore;
+    }
+
+    /**
+     * Creates a client context trusting the key in the keystore.
+     */
+    private static SSLContext clientContext(Path keystore) throws Exception {
+        KeyStore store = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystore.toFile())) {
+            store.load(in, PASSWORD.toCharArray());
+        }
+
+        TrustManagerFactory trust = TrustManagerFactory.getInstance("SunX509");
+        trust.init(store);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * @return the resident set size of this process in KB, or -1 if unavailable
+     */
+    private static long residentSetKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status")))
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+        } catch (IOException | NumberFormatException ignored) {
+            // Not on Linux
+        }
+
+        return -1;
+    }
+}
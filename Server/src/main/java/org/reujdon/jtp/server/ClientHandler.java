@@ -1,44 +1,49 @@
 package org.reujdon.jtp.server;
 
-import org.json.JSONObject;
 import org.reujdon.jtp.server.handlers.CommandHandler;
-import org.reujdon.jtp.server.handlers.CommandRegistry;
-import org.reujdon.jtp.shared.Error;
-import org.reujdon.jtp.shared.Parse;
-import org.reujdon.jtp.shared.Response;
-import reujdon.async.Task;
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+import org.reujdon.jtp.shared.transport.WriteQueue;
 
 import javax.net.ssl.SSLSocket;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.util.Map;
+import java.io.InputStream;
+import java.net.ProtocolException;
 
 /**
  * Handles communication with a connected client over a secure SSL socket.
  * <p>
  * This class is responsible for:
  * <ul>
- *     <li>Reading and parsing incoming JSON messages from the client</li>
+ *     <li>Reading incoming JSON messages from the client</li>
  *     <li>Dispatching commands to the appropriate {@link CommandHandler}</li>
  *     <li>Sending back responses or errors based on execution results</li>
  *     <li>Cleaning up resources when the client disconnects</li>
  * </ul>
  *
- * Instances of this class are typically managed by the {@link Server} and
- * executed on separate threads to allow concurrent client handling.
+ * Instances of this class are typically managed by the {@link Server} in
+ * {@link ServerMode#BLOCKING} mode and executed on separate threads to allow
+ * concurrent client handling.
+ * <p>
+ * Responses are written through a {@link WriteQueue}, so concurrently completing commands are
+ * coalesced into a single write and flush by whichever thread finds the queue idle. Frames are
+ * added to the queue while the connection's key table is held and written once it is released,
+ * so a sender blocked on the socket does not hold up the others.
+ * <p>
+ * The handler is safe to run on a virtual thread: the read loop and writes only block inside
+ * {@link InputStream#read(byte[])}, the {@link WriteQueue} and the JDK socket streams, which use
+ * {@code java.util.concurrent} locks rather than monitors, so the carrier thread is released
+ * while waiting on the network. Avoid adding {@code synchronized} blocks around I/O here.
  *
  * @see Runnable
+ * @see Connection
  */
-class ClientHandler implements Runnable {
-    private final SSLSocket clientSocket;
-    private final Server server;
+class ClientHandler extends Connection implements Runnable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
 
-    private final String clientId;
+    private final SSLSocket clientSocket;
 
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private WriteQueue out;
 
     /**
      * Constructs a new {@code ClientHandler} with the specified SSL socket and server.
@@ -52,15 +57,23 @@ class ClientHandler implements Runnable {
      * </ul>
      */
     public ClientHandler(SSLSocket socket, Server server) {
+        super(server, clientIdOf(socket));
+
+        this.clientSocket = socket;
+    }
+
+    /**
+     * Validates the socket and derives the client id from its remote address.
+     *
+     * @param socket the {@link SSLSocket} representing the client's connection
+     * @return the client id
+     * @throws IllegalArgumentException if the socket is {@code null} or closed
+     */
+    private static String clientIdOf(SSLSocket socket) {
         if (socket == null || socket.isClosed())
             throw new IllegalArgumentException("Socket is closed or null");
 
-        if (server == null || !server.isRunning())
-            throw new IllegalArgumentException("Server is closed or null");
-
-        this.clientSocket = socket;
-        this.server = server;
-        this.clientId = socket.getRemoteSocketAddress().toString();
+        return socket.getRemoteSocketAddress().toString();
     }
 
     /**
@@ -69,94 +82,54 @@ class ClientHandler implements Runnable {
     @Override
     public void run() {
         try{
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            in = clientSocket.getInputStream();
+            out = new WriteQueue(clientSocket.getOutputStream());
 
-            String message;
+            byte[] chunk = new byte[READ_BUFFER_SIZE];
+            int read;
 
-            while ((message = in.readLine()) != null) {
-                JSONObject json = new JSONObject(message);
+            do {
+                DecodedMessage message;
 
-                Task.of(() -> handleMessage(json)).run();
-            }
+                // Block before reading further while the in-flight limit is reached
+                while ((message = nextMessage()) != null) {
+                    acquirePermit();
+                    dispatch(message);
+                }
+
+                read = in.read(chunk);
+                if (read > 0)
+                    decoder.feed(chunk, 0, read);
+            } while (read >= 0);
         }
-        catch (IOException e){
+        catch (ProtocolException e) {
+            System.err.println("Invalid message from client " + clientId + ": " + e.getMessage());
+        } catch (IOException e){
             System.err.println("IOException during client communication: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             close();
         }
     }
 
-    /**
-     * Handles an incoming message from the client.
-     *
-     * @param json the {@link JSONObject} containing the message data from the client
-     * @throws NullPointerException if the {@code json} is {@code null}
-     * @throws IllegalStateException if the message ID is missing or empty
-     */
-    private void handleMessage(JSONObject json) {
-        // Validate input
-        if (json == null)
-            throw new NullPointerException("Message JSON cannot be null");
-
-        // Extract and validate message ID
-        String commandId = json.getString("id");
-        if (commandId == null || commandId.trim().isEmpty())
-            throw new IllegalStateException("Message ID is missing or empty");
-
-        // Parse parameters
-        Map<String, Object> params = Parse.Params(json);
-
-        // Verify command exists
-        if (!params.containsKey("command")) {
-            sendError(commandId, "No command specified");
-            return;
-        }
-
-        String command = params.get("command").toString().trim();
-        System.out.println("\nClient: " + clientId + ", Sent command: " + command);
-
-        // Get and execute handler
-        CommandHandler handler = CommandRegistry.getHandler(command);
+    @Override
+    protected void write(byte[] frame) {
         try {
-            if (handler == null) {
-                sendError(commandId, "Unknown command, " + command);
-                return;
-            }
-
-            JSONObject response = handler.handle(params);
-            System.out.println("Command " + command + " executed successfully for client " + clientId);
-            sendResponse(commandId, response);
-        } catch (Exception e) {
-            sendError(commandId, "Command execution failed: " + e.getMessage());
+            out.add(frame);
+        } catch (IllegalStateException e) {
+            System.err.println("Dropped message to closed client: " + clientId);
         }
     }
 
-    /**
-     * Sends a successful response to the client.
-     * <p>
-     * Constructs a {@link Response} object using the given command ID and parameters.
-     *
-     * @param commandID the id of the command this response is related to
-     * @param params    the {@link JSONObject} containing the response data
-     */
-    private void sendResponse(String commandID, JSONObject params) {
-        Response response = new Response(commandID, params);
-
-        out.println(response.toJSON());
-    }
-
-    /**
-     * Sends an error response to the client.
-     * <p>
-     * Constructs an {@link Error} object with the given request ID and error message.
-     *
-     * @param id      the id of the request that caused the error
-     * @param message a description of the error
-     */
-    private void sendError(String id, String message) {
-        System.err.println("Error with client: " + clientId + ", request: " + id + "\nMessage: " + message);
-        out.println(new Error(id, message).toJSON());
+    @Override
+    protected void flushWrites() {
+        try {
+            out.drain();
+        } catch (IOException e) {
+            System.err.println("IOException during client communication: " + e.getMessage());
+            close();
+        }
     }
 
     /**
@@ -166,7 +139,10 @@ class ClientHandler implements Runnable {
      * and notifies the server to remove the client from its active list.
      * Any {@link IOException} encountered during cleanup is logged to standard error.
      */
+    @Override
     public void close() {
+        cancelStreams();
+
         try {
             if (out != null) out.close();
             if (in != null) in.close();
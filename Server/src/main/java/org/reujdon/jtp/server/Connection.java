@@ -0,0 +1,1066 @@
+package org.reujdon.jtp.server;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.reujdon.jtp.server.handlers.AttachmentCommandHandler;
+import org.reujdon.jtp.server.handlers.CommandHandler;
+import org.reujdon.jtp.server.handlers.CommandRegistry;
+import org.reujdon.jtp.server.handlers.FileCommandHandler;
+import org.reujdon.jtp.server.handlers.ResultCache;
+import org.reujdon.jtp.server.handlers.StreamingCommandHandler;
+import org.reujdon.jtp.server.handlers.UploadCommandHandler;
+import org.reujdon.jtp.shared.Batch;
+import org.reujdon.jtp.shared.Chunk;
+import org.reujdon.jtp.shared.Demand;
+import org.reujdon.jtp.shared.Error;
+import org.reujdon.jtp.shared.Hello;
+import org.reujdon.jtp.shared.Message;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.Response;
+import org.reujdon.jtp.shared.codec.BinaryCodec;
+import org.reujdon.jtp.shared.codec.CodecRegistry;
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+import org.reujdon.jtp.shared.codec.KeyTable;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+import org.reujdon.jtp.shared.codec.PreparedResponse;
+import org.reujdon.jtp.shared.transport.Compression;
+import org.reujdon.jtp.shared.transport.Frame;
+import org.reujdon.jtp.shared.transport.FrameDecoder;
+import org.reujdon.jtp.shared.transport.Framing;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+import org.reujdon.jtp.shared.transport.StreamAssembler;
+import org.reujdon.jtp.shared.transport.StreamScheduler;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base class for a single client connection to the {@link Server}.
+ * <p>
+ * This class holds the transport independent part of a connection:
+ * <ul>
+ *     <li>Splitting received bytes into messages with a {@link FrameDecoder}</li>
+ *     <li>Negotiating the {@link Framing}, {@link MessageCodec}, {@link Compression} and {@link KeyTable} when the client opens with a {@link Hello}</li>
+ *     <li>Dispatching parsed messages to the appropriate {@link CommandHandler}</li>
+ *     <li>Executing the commands of a {@link Batch} concurrently and answering them together</li>
+ *     <li>Streaming the results of a {@link StreamingCommandHandler} as the client asks for them</li>
+ *     <li>Feeding request bodies uploaded in chunks to an {@link UploadCommandHandler}, asking for more as it reads</li>
+ *     <li>Sending files opened by a {@link FileCommandHandler} in chunks as the client asks for them</li>
+ *     <li>Passing raw byte attachments to and from an {@link AttachmentCommandHandler}</li>
+ *     <li>Building and framing responses or errors based on execution results</li>
+ * </ul>
+ *
+ * Subclasses provide the transport, feeding bytes read from the client to {@link #decoder},
+ * pulling messages with {@link #nextMessage()} and passing them to {@link #dispatch(DecodedMessage)},
+ * and queueing the framed bytes handed to {@link #write(byte[])}, which are sent by {@link #flushWrites()}.
+ * <p>
+ * Outgoing messages are encoded and framed straight into a reusable per-connection
+ * {@link OutputBuffer}, so a handler's result is serialized without intermediate copies. Chunks
+ * of a file are encoded up to their data only, which the transport may then write from the
+ * buffer the file was read into, see {@link #write(byte[], ByteBuffer, Runnable)}.
+ * <p>
+ * A connection that negotiated a {@link KeyTable} holds its lock from taking the encode buffer
+ * until the message is queued, so repeated strings are only sent as indices once the client is
+ * sure to have read their definitions. The queued frames are flushed after the lock is released,
+ * so other senders never wait on the network.
+ * <p>
+ * With {@link Framing#MUX} framing every request arrives on a stream of its own and is answered
+ * on the same stream. Outgoing messages are split and interleaved by a {@link StreamScheduler}
+ * under the client's flow control windows, and received frames are joined again by a
+ * {@link StreamAssembler}, which grants the client credit as its requests are read.
+ * <p>
+ * The number of commands a client can have executing at once is limited by the server's
+ * {@code server.maxInFlight} setting. Transports must hold a permit from {@link #acquirePermit()}
+ * or {@link #tryAcquirePermit()} for every message passed to {@link #dispatch(DecodedMessage)} and stop
+ * reading from the socket while none are available, so TCP flow control pushes back on the client.
+ *
+ * @see ClientHandler
+ * @see NioConnection
+ */
+abstract class Connection {
+    protected final Server server;
+    protected final String clientId;
+
+    protected final FrameDecoder decoder;
+    private volatile Framing framing = Framing.LINE;
+    private volatile MessageCodec codec = CodecRegistry.getDefault();
+    private volatile Compression compression;
+    private volatile KeyTable keyTable;
+    private boolean firstMessage = true;
+
+    // Largest encode buffer kept for reuse, bigger ones are left to the garbage collector
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    // Encode buffer not currently in use, taken by whichever thread sends next
+    private final AtomicReference<OutputBuffer> spareBuffer = new AtomicReference<>();
+
+    // Multiplexing state, set up when the client negotiates MUX framing
+    private volatile StreamScheduler scheduler;
+    private StreamAssembler assembler;
+    private final Map<String, Integer> streams = new ConcurrentHashMap<>();
+
+    // Streamed responses in progress, keyed by the id of the request
+    private final Map<String, ResponseStream> responseStreams = new ConcurrentHashMap<>();
+
+    // Uploaded request bodies in progress, keyed by the id of the request
+    private final Map<String, RequestBody> requestBodies = new ConcurrentHashMap<>();
+
+    // File transfers in progress, keyed by the id of the request
+    private final Map<String, FileTransfer> fileTransfers = new ConcurrentHashMap<>();
+
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Constructs a new {@code Connection} for the given client.
+     *
+     * @param server   the {@link Server} instance that this client is connecting to
+     * @param clientId the unique identifier of the client, typically its remote address
+     * @throws IllegalArgumentException if:
+     * <ul>
+     *     <li>the server is {@code null} or not running</li>
+     *     <li>the client id is {@code null} or empty</li>
+     * </ul>
+     */
+    protected Connection(Server server, String clientId) {
+        if (server == null || !server.isRunning())
+            throw new IllegalArgumentException("Server is closed or null");
+
+        if (clientId == null || clientId.trim().isEmpty())
+            throw new IllegalArgumentException("Client ID must not be null or empty");
+
+        this.server = server;
+        this.clientId = clientId;
+
+        int maxInFlight = server.getMaxInFlight();
+        this.permits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+
+        this.decoder = new FrameDecoder(Framing.LINE, server.getMaxFrameSize());
+    }
+
+    /**
+     * @return the unique identifier of the client
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return the framing currently used on this connection
+     */
+    public Framing getFraming() {
+        return framing;
+    }
+
+    /**
+     * @return the codec currently used on this connection
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return the number of commands from this client that are queued or executing
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Waits until another command from this client may be accepted.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void acquirePermit() throws InterruptedException {
+        if (permits != null)
+            permits.acquire();
+
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Attempts to accept another command from this client without waiting.
+     *
+     * @return {@code true} if a permit was acquired, {@code false} if the in-flight limit is reached
+     */
+    protected boolean tryAcquirePermit() {
+        if (permits != null && !permits.tryAcquire())
+            return false;
+
+        inFlight.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the permit of a completed command and notifies the transport.
+     *
+     * @see #onPermitReleased()
+     */
+    private void releasePermit() {
+        inFlight.decrementAndGet();
+
+        if (permits != null) {
+            permits.release();
+            onPermitReleased();
+        }
+    }
+
+    /**
+     * Called after a command completes while an in-flight limit is configured.
+     * <p>
+     * Transports that paused reading in a non-blocking way should resume here.
+     */
+    protected void onPermitReleased() {
+    }
+
+    /**
+     * Pulls and decodes the next complete message buffered in the {@link #decoder}.
+     * <p>
+     * A {@link Hello} sent as the first message is handled here, on the reading thread, so the
+     * framing and codec are switched before any further bytes are decoded.
+     *
+     * @return the next command message, or {@code null} if more bytes must be read first
+     * @throws ProtocolException if the received bytes violate the framing or codec
+     */
+    protected DecodedMessage nextMessage() throws ProtocolException {
+        Frame frame;
+
+        while ((frame = decoder.next()) != null) {
+            if (decoder.getFraming() == Framing.MUX && (frame = demultiplex(frame)) == null)
+                continue;
+
+            if (frame.isCompressed()) {
+                if (compression == null)
+                    throw new ProtocolException("Compressed message on a connection without compression");
+                frame = compression.decompress(frame);
+            }
+
+            DecodedMessage message = codec.decode(frame.getMessage());
+            if (frame.hasAttachments())
+                message.setAttachments(frame.getAttachments());
+
+            boolean first = firstMessage;
+            firstMessage = false;
+
+            if (message.getType() == MessageType.DEMAND) {
+                demand(message);
+                continue;
+            }
+
+            if (message.getType() == MessageType.CHUNK) {
+                receiveChunk(message);
+                continue;
+            }
+
+            if (message.getType() != MessageType.HELLO) {
+                // Remember the stream of a request so its reply is sent on it
+                if (frame.getStream() != 0 && message.getId() != null)
+                    streams.put(message.getId(), frame.getStream());
+
+                if (message.getType() == MessageType.REQUEST)
+                    openStream(message);
+
+                return message;
+            }
+
+            if (first)
+                negotiate(message);
+            else
+                sendError(message.getId() == null ? "unknown" : message.getId(), "Hello is only allowed as the first message");
+        }
+
+        return null;
+    }
+
+    /**
+     * Registers the stream of a request for a {@link StreamingCommandHandler} or {@link FileCommandHandler}
+     * that carries a demand, or the body of a request for an {@link UploadCommandHandler} that
+     * announces an upload, before the request is executed, so the demand or chunks that follow it
+     * find them.
+     *
+     * @param message the received request
+     */
+    private void openStream(DecodedMessage message) {
+        String command = message.getCommand();
+        if (command == null || message.getId() == null)
+            return;
+
+        CommandHandler handler = CommandRegistry.getHandler(command.trim());
+
+        if (handler instanceof StreamingCommandHandler) {
+            long demand = Demand.of(message.getParams());
+            if (demand > 0)
+                responseStreams.put(message.getId(), new ResponseStream(this, message.getId(), demand));
+        } else if (handler instanceof FileCommandHandler files) {
+            long demand = Demand.of(message.getParams());
+            if (demand > 0)
+                fileTransfers.put(message.getId(), new FileTransfer(this, message.getId(), files.getChunkSize(), demand));
+        } else if (handler instanceof UploadCommandHandler && Chunk.isUpload(message.getParams())) {
+            RequestBody body = new RequestBody(this, message.getId(), server.getUploadWindow());
+            if (requestBodies.putIfAbsent(message.getId(), body) == null)
+                body.open();
+        }
+    }
+
+    /**
+     * Applies a {@link Demand} from the client to its stream or file transfer, or cancels its upload,
+     * on the reading thread. Demand for streams and uploads that have ended is ignored.
+     *
+     * @param message the received demand
+     */
+    private void demand(DecodedMessage message) {
+        String id = message.getId();
+        if (id == null)
+            return;
+
+        ResponseStream stream = responseStreams.get(id);
+        FileTransfer transfer = fileTransfers.get(id);
+
+        if (Demand.isCancel(message.getParams())) {
+            if (stream != null)
+                stream.cancel();
+
+            if (transfer != null)
+                transfer.cancel();
+
+            RequestBody body = requestBodies.get(id);
+            if (body != null)
+                body.fail("Upload cancelled by the client");
+
+            return;
+        }
+
+        long n = Demand.of(message.getParams());
+        if (n <= 0)
+            return;
+
+        if (stream != null)
+            stream.request(n);
+
+        if (transfer != null)
+            transfer.request(n);
+    }
+
+    /**
+     * Adds a {@link Chunk} of an uploaded body to its request, on the reading thread. Chunks of
+     * uploads that have ended are dropped.
+     *
+     * @param message the received chunk
+     * @throws ProtocolException if the client sent more chunks than were asked for
+     */
+    private void receiveChunk(DecodedMessage message) throws ProtocolException {
+        RequestBody body = message.getId() == null ? null : requestBodies.get(message.getId());
+        if (body == null)
+            return;
+
+        byte[] data;
+        try {
+            data = Chunk.dataOf(message.getParams());
+        } catch (IllegalArgumentException e) {
+            body.fail("Invalid upload chunk: " + e.getMessage());
+            return;
+        }
+
+        if (!body.offer(data, Chunk.isLast(message.getParams())))
+            throw new ProtocolException("Client sent more upload chunks than asked for, request " + message.getId());
+    }
+
+    /**
+     * Unregisters a stream that has ended, and the {@link Framing#MUX} stream of its request,
+     * which a cancelled stream sends no final reply on.
+     *
+     * @param id     the id of the streamed request
+     * @param stream the stream
+     */
+    void removeStream(String id, ResponseStream stream) {
+        if (responseStreams.remove(id, stream))
+            streams.remove(id);
+    }
+
+    /**
+     * Unregisters a file transfer that has ended, and the {@link Framing#MUX} stream of its
+     * request, which a cancelled transfer sends no final reply on.
+     *
+     * @param id       the id of the request opening the transfer
+     * @param transfer the transfer
+     */
+    void removeTransfer(String id, FileTransfer transfer) {
+        if (fileTransfers.remove(id, transfer))
+            streams.remove(id);
+    }
+
+    /**
+     * Unregisters an uploaded body that has ended.
+     *
+     * @param id   the id of the request the body belongs to
+     * @param body the body
+     */
+    void removeBody(String id, RequestBody body) {
+        requestBodies.remove(id, body);
+    }
+
+    /**
+     * Cancels all streamed responses, file transfers and uploads in progress and releases the
+     * compressor. Transports must call this when the connection closes.
+     */
+    protected void cancelStreams() {
+        if (compression != null)
+            compression.close();
+
+        for (ResponseStream stream : responseStreams.values())
+            stream.cancel();
+
+        for (FileTransfer transfer : fileTransfers.values())
+            transfer.cancel();
+
+        for (RequestBody body : requestBodies.values())
+            body.fail("Connection closed");
+    }
+
+    /**
+     * Handles a received {@link Framing#MUX} frame on the reading thread.
+     * <p>
+     * Window updates release queued frames of this connection. Other frames are added to the
+     * message of their stream, and the credit they use is granted back to the client.
+     *
+     * @param frame the received frame
+     * @return the complete message, or {@code null} if the frame did not complete one
+     * @throws ProtocolException if the client violated the framing or flow control
+     */
+    private Frame demultiplex(Frame frame) throws ProtocolException {
+        if (frame.getType() == MessageType.WINDOW_UPDATE) {
+            scheduler.windowUpdate(frame);
+            scheduler.pump(this::write);
+            flushWrites();
+            return null;
+        }
+
+        Frame message = assembler.accept(frame);
+
+        byte[] updates = assembler.takeWindowUpdates();
+        if (updates != null) {
+            write(updates);
+            flushWrites();
+        }
+
+        return message;
+    }
+
+    /**
+     * Accepts the settings requested by a client {@link Hello} and switches the connection to them.
+     * <p>
+     * The reply is written in the current framing and codec, after which both directions use
+     * the new ones. Compression is accepted if the server allows it and the framing has flags to
+     * mark compressed messages with, otherwise it is left out of the reply and not used. A key table
+     * is granted to binary codec clients, with at most {@code server.keyTable} entries.
+     *
+     * @param message the received Hello
+     */
+    private void negotiate(DecodedMessage message) {
+        String id = message.getId() == null ? "" : message.getId();
+
+        Framing requested;
+        MessageCodec requestedCodec;
+        int keys = 0;
+        try {
+            requested = Hello.framingOf(message.getParams());
+
+            String name = Hello.codecOf(message.getParams());
+            requestedCodec = CodecRegistry.getCodec(name);
+            if (requestedCodec == null)
+                throw new IllegalArgumentException("Unknown codec: " + name);
+
+            if (requestedCodec.isBinary() && requested == Framing.LINE)
+                throw new IllegalArgumentException("Codec " + name + " requires " + Framing.LENGTH + " framing");
+
+            if (requestedCodec instanceof BinaryCodec)
+                keys = Math.min(Hello.keyTableOf(message.getParams()), server.getKeyTableSize());
+        } catch (IllegalArgumentException e) {
+            sendError(id, e.getMessage());
+            return;
+        }
+
+        boolean compress = server.isCompressionEnabled() && requested != Framing.LINE
+                && Compression.isSupported(Hello.compressionOf(message.getParams()));
+
+        send(new Hello(id, requested, requestedCodec.getName(), compress ? Compression.DEFLATE : null, keys));
+
+        if (compress)
+            compression = new Compression(server.getCompressionThreshold(), server.getMaxFrameSize());
+
+        if (requested == Framing.MUX) {
+            assembler = new StreamAssembler(server.getMaxFrameSize());
+            scheduler = new StreamScheduler();
+        }
+
+        // Messages are only encoded with the table once it is in place, after the reply
+        if (keys > 0) {
+            keyTable = new KeyTable(keys);
+            requestedCodec = new BinaryCodec(keyTable);
+        }
+
+        framing = requested;
+        codec = requestedCodec;
+        decoder.setFraming(requested);
+
+        System.out.println("Client " + clientId + " negotiated " + requested + " framing with " + requestedCodec.getName() + " codec"
+                + (compress ? " and " + Compression.DEFLATE + " compression" : "")
+                + (keys > 0 ? " and a key table of " + keys + " entries" : ""));
+    }
+
+    /**
+     * Dispatches a parsed message for execution.
+     * <p>
+     * Commands are executed asynchronously by the {@link Server} so the calling transport
+     * thread can continue reading. The caller must hold a permit, which is released once the
+     * command has completed. A request opening an upload releases its permit as soon as it starts
+     * executing instead, since its handler waits for chunks that may be read behind later requests
+     * still waiting for a permit.
+     *
+     * @param message the decoded message from {@link #nextMessage()}
+     * @see Server#execute(Runnable)
+     */
+    protected void dispatch(DecodedMessage message) {
+        boolean upload = message.getId() != null && requestBodies.containsKey(message.getId());
+
+        try {
+            server.execute(() -> {
+                if (upload)
+                    releasePermit();
+
+                try {
+                    handleMessage(message);
+                } finally {
+                    if (!upload)
+                        releasePermit();
+                }
+            });
+        } catch (RuntimeException e) {
+            releasePermit();
+            throw e;
+        }
+    }
+
+    /**
+     * Handles an incoming message from the client.
+     *
+     * @param message the {@link DecodedMessage} received from the client
+     * @throws NullPointerException if the {@code message} is {@code null}
+     * @throws IllegalStateException if the message ID is missing or empty
+     */
+    protected void handleMessage(DecodedMessage message) {
+        // Validate input
+        if (message == null)
+            throw new NullPointerException("Message cannot be null");
+
+        // Extract and validate message ID
+        String commandId = message.getId();
+        if (commandId == null || commandId.trim().isEmpty())
+            throw new IllegalStateException("Message ID is missing or empty");
+
+        if (message.getType() == MessageType.BATCH) {
+            handleBatch(commandId, message);
+            return;
+        }
+
+        // Route on the command alone, the other parameters are only decoded if the handler reads them
+        if (message.getCommand() == null) {
+            sendError(commandId, "No command specified");
+            return;
+        }
+
+        String command = message.getCommand().trim();
+        System.out.println("\nClient: " + clientId + ", Sent command: " + command);
+
+        // Get and execute handler
+        CommandHandler handler = CommandRegistry.getHandler(command);
+        try {
+            // Opened as a stream when read, unless the handler has been replaced since
+            ResponseStream stream = responseStreams.get(commandId);
+            if (stream != null) {
+                if (handler instanceof StreamingCommandHandler streaming) {
+                    System.out.println("Command " + command + " streaming to client " + clientId);
+                    try {
+                        streaming.stream(message.getParams()).subscribe(stream);
+                    } catch (RuntimeException e) {
+                        stream.onError(e);
+                    }
+                    return;
+                }
+
+                stream.cancel();
+            }
+
+            // Opened as a transfer when read, the file is sent from the executor as the client asks for it
+            FileTransfer transfer = fileTransfers.get(commandId);
+            if (transfer != null) {
+                if (handler instanceof FileCommandHandler files) {
+                    System.out.println("Command " + command + " sending file to client " + clientId);
+                    try {
+                        transfer.start(files.open(message.getParams()));
+                    } catch (IOException | RuntimeException e) {
+                        transfer.fail(e);
+                    }
+                    return;
+                }
+
+                transfer.cancel();
+            }
+
+            // The body is read as it arrives and discarded once the handler returns
+            RequestBody body = requestBodies.get(commandId);
+            if (body != null) {
+                try (body) {
+                    if (handler instanceof UploadCommandHandler upload) {
+                        System.out.println("Command " + command + " reading upload from client " + clientId);
+                        JSONObject response = upload.upload(message.getParams(), body);
+                        System.out.println("Command " + command + " executed successfully for client " + clientId);
+                        sendResponse(commandId, response);
+                        return;
+                    }
+                }
+            }
+
+            if (handler == null) {
+                sendError(commandId, "Unknown command, " + command);
+                return;
+            }
+
+            // Attachments are read-only views of the received frame, passed on without copying
+            if (handler instanceof AttachmentCommandHandler attached) {
+                AttachmentCommandHandler.Result result = attached.handle(message.getParams(), message.getAttachments());
+                System.out.println("Command " + command + " executed successfully for client " + clientId);
+                sendResponse(commandId, result.data(), result.attachments());
+                return;
+            }
+
+            if (!message.getAttachments().isEmpty()) {
+                sendError(commandId, "Command " + command + " does not accept attachments");
+                return;
+            }
+
+            // Constant and cached results are encoded once and reused, with only the id filled in
+            PreparedResponse prepared = null;
+            if (ResponseCache.isCacheable(handler))
+                prepared = server.getResponseCache().get(command, handler, codec, message.getParams());
+            else if (ResultCache.isCacheable(handler))
+                prepared = ResultCache.get(command, handler, codec, message.getParams());
+
+            if (prepared != null) {
+                System.out.println("Command " + command + " executed successfully for client " + clientId);
+                sendResponse(commandId, prepared);
+                return;
+            }
+
+            JSONObject response = handler.handle(message.getParams());
+            System.out.println("Command " + command + " executed successfully for client " + clientId);
+            sendResponse(commandId, response);
+        } catch (Exception e) {
+            sendError(commandId, "Command execution failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes the commands of a {@link Batch} concurrently and sends their results in one reply.
+     * <p>
+     * The batch's own permit covers one command. The others are handed to the {@link Server}
+     * executor while further permits are free and run on the calling thread otherwise, so a batch
+     * executes no more commands at once than the client's in-flight limit. Whichever command
+     * completes last sends the reply. Commands are executed by their handlers directly, without
+     * the response caches, since their results are encoded as part of the reply.
+     *
+     * @param batchId the id of the batch
+     * @param message the received batch
+     */
+    private void handleBatch(String batchId, DecodedMessage message) {
+        JSONArray requests = Batch.requestsOf(message.getParams());
+        if (requests == null || requests.isEmpty()) {
+            sendError(batchId, "Batch has no requests");
+            return;
+        }
+
+        if (requests.length() > server.getMaxBatchSize()) {
+            sendError(batchId, "Batch of " + requests.length() + " requests exceeds the limit of " + server.getMaxBatchSize());
+            return;
+        }
+
+        System.out.println("\nClient: " + clientId + ", Sent batch of " + requests.length() + " commands");
+
+        JSONObject[] results = new JSONObject[requests.length()];
+        AtomicInteger remaining = new AtomicInteger(results.length);
+
+        for (int i = 0; i < results.length; i++) {
+            int index = i;
+            Runnable task = () -> {
+                results[index] = executeBatchItem(requests.opt(index));
+
+                // The count orders every result before the reply is encoded
+                if (remaining.decrementAndGet() == 0)
+                    send(new Batch(batchId, new JSONArray(results)));
+            };
+
+            if (i < results.length - 1 && tryAcquirePermit())
+                executeWithPermit(task);
+            else
+                task.run();
+        }
+    }
+
+    /**
+     * Executes a batch command on the {@link Server} executor, releasing the permit the caller
+     * acquired for it once it completes.
+     *
+     * @param task the command to execute
+     */
+    private void executeWithPermit(Runnable task) {
+        try {
+            server.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    releasePermit();
+                }
+            });
+        } catch (RuntimeException e) {
+            releasePermit();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a single command of a batch.
+     *
+     * @param item the request parameters, including the command
+     * @return the result entry, see {@link Batch#result(JSONObject)} and {@link Batch#error(String)}
+     */
+    private JSONObject executeBatchItem(Object item) {
+        if (!(item instanceof JSONObject request))
+            return Batch.error("Batch request is not an object");
+
+        if (!(request.opt("command") instanceof String name) || name.trim().isEmpty())
+            return Batch.error("No command specified");
+
+        String command = name.trim();
+        CommandHandler handler = CommandRegistry.getHandler(command);
+        if (handler == null)
+            return Batch.error("Unknown command, " + command);
+
+        // Keep nested values as JSONObject and JSONArray, as in the params of a single request
+        Map<String, Object> params = new HashMap<>();
+        for (String key : request.keySet())
+            params.put(key, request.get(key));
+
+        try {
+            return Batch.result(handler.handle(params));
+        } catch (Exception e) {
+            return Batch.error("Command execution failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a successful response to the client.
+     * <p>
+     * The handler's result is encoded directly, without building a {@link Response} around it.
+     *
+     * @param commandID the id of the command this response is related to
+     * @param params    the {@link JSONObject} containing the response data
+     */
+    protected void sendResponse(String commandID, JSONObject params) {
+        Framing framing = this.framing;
+        MessageCodec codec = this.codec;
+        OutputBuffer out = takeBuffer();
+
+        try {
+            int start = Frame.begin(framing, MessageType.RESPONSE, out);
+            codec.encodeResponse(commandID, params, out);
+            Frame.end(framing, out, start);
+
+            transmit(framing, MessageType.RESPONSE, 0, commandID, out);
+        } finally {
+            returnBuffer(out);
+        }
+    }
+
+    /**
+     * Sends a successful response with attachments to the client, after the encoded data in the
+     * same frame. Without attachments the response is sent as by {@link #sendResponse(String, JSONObject)}.
+     * <p>
+     * Attachments need {@link Framing#LENGTH} or {@link Framing#MUX} framing, in line framing an
+     * error is sent instead.
+     *
+     * @param commandID   the id of the command this response is related to
+     * @param params      the {@link JSONObject} containing the response data
+     * @param attachments the attachments, copied into the frame from their position to their limit
+     */
+    protected void sendResponse(String commandID, JSONObject params, List<ByteBuffer> attachments) {
+        if (attachments.isEmpty()) {
+            sendResponse(commandID, params);
+            return;
+        }
+
+        Framing framing = this.framing;
+        MessageCodec codec = this.codec;
+
+        if (framing == Framing.LINE) {
+            sendError(commandID, "Attachments need " + Framing.LENGTH + " or " + Framing.MUX + " framing");
+            return;
+        }
+
+        OutputBuffer out = takeBuffer();
+        try {
+            int start = Frame.begin(framing, MessageType.RESPONSE, Frame.FLAG_ATTACHMENTS, out);
+            codec.encodeResponse(commandID, params, out);
+            Frame.writeAttachments(out, attachments);
+            Frame.end(framing, out, start);
+
+            transmit(framing, MessageType.RESPONSE, Frame.FLAG_ATTACHMENTS, commandID, out);
+        } finally {
+            returnBuffer(out);
+        }
+    }
+
+    /**
+     * Sends a response prepared with the connection's codec to the client.
+     *
+     * @param commandID the id of the command this response is related to
+     * @param response  the prepared response
+     */
+    protected void sendResponse(String commandID, PreparedResponse response) {
+        Framing framing = this.framing;
+        OutputBuffer out = takeBuffer();
+
+        try {
+            int start = Frame.begin(framing, MessageType.RESPONSE, out);
+            response.write(commandID, out);
+            Frame.end(framing, out, start);
+
+            transmit(framing, MessageType.RESPONSE, 0, commandID, out);
+        } finally {
+            returnBuffer(out);
+        }
+    }
+
+    /**
+     * Sends a {@link Chunk} of raw bytes under {@link Chunk#DATA}, after the given params.
+     * <p>
+     * With the binary codec and {@link Framing#LENGTH} framing the chunk is encoded up to its data
+     * and the bytes are written by the transport straight from the buffer, see
+     * {@link #write(byte[], ByteBuffer, Runnable)}. Otherwise they are copied into the message,
+     * Base64 encoded with JSON, and the buffer is given back at once.
+     *
+     * @param id      the id of the request the chunk answers
+     * @param params  the other params of the chunk
+     * @param data    the bytes to send, from its position to its limit
+     * @param release called once the buffer is no longer used, on any thread
+     */
+    void sendChunk(String id, Map<String, Object> params, ByteBuffer data, Runnable release) {
+        Framing framing = this.framing;
+        MessageCodec codec = this.codec;
+
+        if (framing == Framing.LENGTH && codec instanceof BinaryCodec binary) {
+            OutputBuffer out = takeBuffer();
+
+            try {
+                int start = Frame.begin(framing, MessageType.CHUNK, out);
+                binary.encodeHead(MessageType.CHUNK, id, params, Chunk.DATA, data.remaining(), out);
+                Frame.end(out, start, data.remaining());
+
+                Runnable defined = takeDefinitions();
+                write(out.toByteArray(), data, release);
+                defined.run();
+            } finally {
+                returnBuffer(out);
+            }
+            return;
+        }
+
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        release.run();
+
+        Map<String, Object> chunk = new HashMap<>(params);
+        chunk.put(Chunk.DATA, codec.isBinary() ? bytes : Base64.getEncoder().encodeToString(bytes));
+
+        OutputBuffer out = takeBuffer();
+        try {
+            int start = Frame.begin(framing, MessageType.CHUNK, out);
+            codec.encode(MessageType.CHUNK, id, chunk, out);
+            Frame.end(framing, out, start);
+
+            transmit(framing, MessageType.CHUNK, 0, id, out);
+        } finally {
+            returnBuffer(out);
+        }
+    }
+
+    /**
+     * Sends an error response to the client.
+     * <p>
+     * Constructs an {@link Error} object with the given request ID and error message.
+     *
+     * @param id      the id of the request that caused the error
+     * @param message a description of the error
+     */
+    protected void sendError(String id, String message) {
+        System.err.println("Error with client: " + clientId + ", request: " + id + "\nMessage: " + message);
+        send(new Error(id, message));
+    }
+
+    /**
+     * Encodes and frames a message in the connection's current codec and framing and writes it,
+     * followed by its attachments.
+     *
+     * @param message the message to send
+     * @throws IllegalArgumentException if the message has attachments and the connection uses line framing
+     */
+    protected void send(Message message) {
+        Framing framing = this.framing;
+        MessageCodec codec = this.codec;
+        int flags = message.getAttachments().isEmpty() ? 0 : Frame.FLAG_ATTACHMENTS;
+        OutputBuffer out = takeBuffer();
+
+        try {
+            int start = Frame.begin(framing, message.getType(), flags, out);
+            codec.encode(message, out);
+            if (flags != 0)
+                Frame.writeAttachments(out, message.getAttachments());
+            Frame.end(framing, out, start);
+
+            transmit(framing, message.getType(), flags, message.getId(), out);
+        } finally {
+            returnBuffer(out);
+        }
+    }
+
+    /**
+     * Writes an encoded message, or in {@link Framing#MUX} framing schedules it on the stream of
+     * the request it answers and writes the frames that can be sent.
+     * <p>
+     * If the connection negotiated compression, payloads of at least its threshold are
+     * compressed first and flagged with {@link Frame#FLAG_COMPRESSED}. Key table entries the
+     * message defined can be referred to once it is written or its last frame scheduled.
+     *
+     * @param framing the framing the message was encoded with
+     * @param type    the type of the message
+     * @param flags   the header flags the message was started with
+     * @param id      the id of the message, which is the id of the request it answers
+     * @param out     the buffer holding the framed message, or its bare payload in MUX framing
+     */
+    private void transmit(Framing framing, MessageType type, int flags, String id, OutputBuffer out) {
+        Compression compression = this.compression;
+        int header = framing == Framing.LENGTH ? Frame.HEADER_SIZE : 0;
+        byte[] packed = compression == null ? null : compression.compress(out.array(), header, out.size() - header);
+        Runnable defined = takeDefinitions();
+
+        if (framing != Framing.MUX) {
+            write(packed == null ? out.toByteArray() : Frame.encode(framing, type, flags | Frame.FLAG_COMPRESSED, packed));
+            defined.run();
+            return;
+        }
+
+        // Chunks and demand leave the request's stream open for the rest of the exchange
+        Integer stream = id == null ? null : type == MessageType.CHUNK || type == MessageType.DEMAND ? streams.get(id) : streams.remove(id);
+        // Definitions count once the last frame is scheduled, as later frames may overtake the others
+        if (packed == null)
+            scheduler.enqueue(stream == null ? 0 : stream, type, flags, out.toByteArray(), defined);
+        else
+            scheduler.enqueue(stream == null ? 0 : stream, type, flags | Frame.FLAG_COMPRESSED, packed, defined);
+        scheduler.pump(this::write);
+    }
+
+    /**
+     * Takes the key table definitions of the message being sent, to run once it is queued.
+     */
+    private Runnable takeDefinitions() {
+        KeyTable keyTable = this.keyTable;
+        return keyTable == null ? () -> {} : keyTable.takeDefinitions();
+    }
+
+    /**
+     * Takes the connection's spare encode buffer, or a new one if another thread is using it.
+     * With a key table, also takes its lock until the buffer is returned.
+     */
+    private OutputBuffer takeBuffer() {
+        KeyTable keyTable = this.keyTable;
+        if (keyTable != null)
+            keyTable.lock();
+
+        OutputBuffer buffer = spareBuffer.getAndSet(null);
+        return buffer != null ? buffer : new OutputBuffer(1024);
+    }
+
+    /**
+     * Keeps a buffer for the next message unless it has grown too large or a spare is already kept,
+     * releases the key table and then flushes the frames queued under it.
+     */
+    private void returnBuffer(OutputBuffer buffer) {
+        KeyTable keyTable = this.keyTable;
+        if (keyTable != null)
+            keyTable.unlock();
+
+        if (buffer.capacity() <= MAX_RETAINED_BUFFER) {
+            buffer.reset();
+            spareBuffer.compareAndSet(null, buffer);
+        }
+
+        flushWrites();
+    }
+
+    /**
+     * Queues one or more complete frames to be written to the client.
+     * <p>
+     * Implementations must be safe to call from command execution threads, must keep
+     * frames in the order they are written and must not wait on the network, as they are
+     * called while holding the key table. Frames are sent by the next {@link #flushWrites()}.
+     *
+     * @param frame the framed message bytes
+     */
+    protected abstract void write(byte[] frame);
+
+    /**
+     * Sends the frames queued by {@link #write(byte[])}, possibly waiting on the network.
+     * Called after every message, once the key table is released.
+     * <p>
+     * The default implementation does nothing, for transports whose writes send the frames
+     * themselves without blocking.
+     */
+    protected void flushWrites() {}
+
+    /**
+     * Writes a complete {@link Framing#LENGTH} frame whose last bytes are held in a separate buffer,
+     * keeping the two together in the order of writes.
+     * <p>
+     * The default implementation copies both into one array and gives the buffer back at once.
+     * Transports that can write a buffer as it is should override it and give the buffer back once
+     * it has been written or dropped.
+     *
+     * @param head    the start of the frame
+     * @param tail    the rest of the frame, from its position to its limit
+     * @param release called once the tail is no longer used, on any thread
+     */
+    protected void write(byte[] head, ByteBuffer tail, Runnable release) {
+        byte[] frame = Arrays.copyOf(head, head.length + tail.remaining());
+        tail.get(frame, head.length, tail.remaining());
+        release.run();
+
+        write(frame);
+    }
+
+    /**
+     * Closes the connection to the client and performs cleanup.
+     * <p>
+     * Implementations must notify the server to remove the client from its active list and
+     * {@link #cancelStreams() cancel} the streamed responses, file transfers and uploads in progress.
+     */
+    public abstract void close();
+}
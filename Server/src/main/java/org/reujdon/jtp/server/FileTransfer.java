@@ -0,0 +1,255 @@
+package org.reujdon.jtp.server;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.server.handlers.FileCommandHandler;
+import org.reujdon.jtp.server.handlers.FileRegion;
+import org.reujdon.jtp.shared.Chunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends a {@link FileRegion} opened by a {@link FileCommandHandler} to a client as it asks for it.
+ * <p>
+ * A transfer is registered by its {@link Connection} as soon as the request opening it is read,
+ * like a {@link ResponseStream}, and started once the handler has opened the file. Each chunk is
+ * read straight into a direct buffer and handed to {@link Connection#sendChunk}, which may keep the
+ * buffer until the transport has written it. A transfer owns a few such buffers and waits for one
+ * to be given back before reading further, so a client that reads slowly holds up the transfer
+ * rather than filling the server's memory.
+ * <p>
+ * Chunks are read and sent by one thread at a time, on the server's executor.
+ */
+final class FileTransfer {
+    // Buffers a transfer may have waiting to be written at once
+    private static final int BUFFERS = 4;
+
+    private final Connection connection;
+    private final String id;
+    private final int chunkSize;
+
+    private final AtomicLong demand;
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    private volatile FileRegion region;
+    private volatile boolean cancelled = false;
+    private boolean sentLast = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    // Guarded by lock
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private int allocated = 0;
+
+    /**
+     * Constructs a new {@code FileTransfer}.
+     *
+     * @param connection the connection to send the chunks on
+     * @param id         the id of the request opening the transfer
+     * @param chunkSize  the number of bytes sent per chunk
+     * @param demand     the number of chunks the client asked for in the request
+     */
+    FileTransfer(Connection connection, String id, int chunkSize, long demand) {
+        this.connection = connection;
+        this.id = id;
+        this.chunkSize = chunkSize;
+        this.demand = new AtomicLong(demand);
+    }
+
+    /**
+     * Starts sending the region as far as the client has asked for. Runs on an executor thread.
+     *
+     * @param region the region opened by the handler, owned by the transfer
+     */
+    void start(FileRegion region) {
+        this.region = region;
+        drain();
+    }
+
+    /**
+     * Adds demand from the client and sends the chunks it allows on the server's executor.
+     *
+     * @param n the number of additional chunks asked for
+     */
+    void request(long n) {
+        demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+
+        if (region != null)
+            connection.server.execute(this::drain);
+    }
+
+    /**
+     * Stops the transfer on request of the client or because the connection closed. Nothing more is sent.
+     */
+    void cancel() {
+        if (!finish(null))
+            return;
+
+        lock.lock();
+        try {
+            cancelled = true;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        // Closes the region, now or once the thread sending a chunk is done with it
+        drain();
+    }
+
+    /**
+     * Ends the transfer with an error, before or after it started.
+     *
+     * @param error the cause
+     */
+    void fail(Exception error) {
+        cancelled = true;
+
+        finish(() -> connection.sendError(id, "Command execution failed: " + error.getMessage()));
+
+        drain();
+    }
+
+    /**
+     * Sends chunks while there is demand, unless another thread already does, and closes the
+     * region once the transfer has ended.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0)
+            return;
+
+        int missed = 1;
+        do {
+            FileRegion region = this.region;
+
+            if (region != null) {
+                try {
+                    while (!cancelled && !sentLast && demand.get() > 0)
+                        sendNext(region);
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                }
+
+                if (cancelled || sentLast) {
+                    close(region);
+
+                    if (sentLast)
+                        finish(() -> connection.sendResponse(id, new JSONObject()));
+                    return;
+                }
+            }
+
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Reads and sends the next chunk, the last one carrying the size and checksum.
+     */
+    private void sendNext(FileRegion region) throws IOException {
+        ByteBuffer buffer = takeBuffer();
+        if (buffer == null)
+            return;
+
+        long offset = region.getOffset() + region.getLength() - region.getRemaining();
+        try {
+            region.read(buffer);
+        } catch (IOException e) {
+            giveBack(buffer);
+            throw e;
+        }
+        buffer.flip();
+
+        Map<String, Object> params = new HashMap<>();
+        params.put(FileCommandHandler.OFFSET, offset);
+
+        sentLast = region.getRemaining() == 0;
+        if (sentLast) {
+            params.put(Chunk.LAST, true);
+            params.put(FileCommandHandler.SIZE, region.getSize());
+            params.put(FileCommandHandler.CHECKSUM, region.getChecksum());
+        }
+
+        if (demand.get() != Long.MAX_VALUE)
+            demand.decrementAndGet();
+
+        connection.sendChunk(id, params, buffer, () -> giveBack(buffer));
+    }
+
+    /**
+     * Takes a free buffer, allocating one while fewer than {@link #BUFFERS} exist, or waits for
+     * the transport to give one back.
+     *
+     * @return an empty buffer, or {@code null} if the transfer was cancelled while waiting
+     */
+    private ByteBuffer takeBuffer() {
+        lock.lock();
+        try {
+            while (!cancelled && free.isEmpty() && allocated == BUFFERS)
+                released.awaitUninterruptibly();
+
+            if (cancelled)
+                return null;
+
+            if (!free.isEmpty())
+                return free.poll();
+
+            allocated++;
+        } finally {
+            lock.unlock();
+        }
+
+        return ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    /**
+     * Returns a buffer once the transport no longer needs it. May run on any thread.
+     */
+    private void giveBack(ByteBuffer buffer) {
+        lock.lock();
+        try {
+            free.add(buffer.clear());
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close(FileRegion region) {
+        try {
+            region.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close file of request " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ends the transfer once, unregistering it from the connection after its final reply is sent, so
+     * the reply still goes out on the stream of the request.
+     *
+     * @param reply sends the final reply, or {@code null} if nothing more is sent
+     * @return {@code true} if this call ended it
+     */
+    private boolean finish(Runnable reply) {
+        if (!done.compareAndSet(false, true))
+            return false;
+
+        try {
+            if (reply != null)
+                reply.run();
+        } finally {
+            connection.removeTransfer(id, this);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,546 @@
+package org.reujdon.jtp.server;
+
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A non-blocking client connection driven by a {@link NioWorker}.
+ * <p>
+ * TLS is handled with an {@link SSLEngine}: encrypted bytes read from the channel are unwrapped
+ * into an application buffer whose contents are fed to the connection's frame decoder, and each
+ * decoded message is handed to {@link #dispatch(DecodedMessage)}. Outgoing frames are queued by
+ * any thread and wrapped and written by the worker thread only; all frames queued by the time a
+ * flush runs are gathered into the same wrap, so they share TLS records and a single channel write.
+ * A frame whose data is held in a separate buffer, such as a chunk of a file read into a direct
+ * buffer, is gathered together with its head, so the engine encrypts the data straight from that
+ * buffer, which is given back once wrapped.
+ * <p>
+ * When the in-flight limit is reached, read interest is dropped and the next decoded message
+ * and any remaining buffered bytes are held until a running command completes. Reading is also
+ * paused while more than {@link #MAX_QUEUED_BYTES} of responses wait to be written, and only
+ * resumed once the client has read enough of them to bring the queue under
+ * {@link #RESUME_QUEUED_BYTES}, so a client that never reads cannot grow the queue without bound.
+ *
+ * @see NioWorker
+ * @see Connection
+ */
+class NioConnection extends Connection {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int MAX_GATHER = 16;
+
+    /**
+     * Bytes of queued frames above which no further messages are read, 1 MB.
+     */
+    static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+    /**
+     * Bytes of queued frames below which reading resumes after the queue grew too large, 256 KB.
+     */
+    static final int RESUME_QUEUED_BYTES = 256 * 1024;
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final NioWorker worker;
+
+    private SelectionKey key;
+
+    // Encrypted bytes read from the channel, kept in write mode
+    private ByteBuffer netIn;
+    // Decrypted bytes not yet fed to the decoder, kept in write mode
+    private ByteBuffer appIn;
+    // Encrypted bytes waiting to be written, kept in read mode
+    private ByteBuffer netOut;
+
+    private final Queue<Outgoing> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean readPaused = false;
+    // Set on the worker thread while reading waits for the outbound queue to drain
+    private volatile boolean backlogged = false;
+
+    // Decoded message waiting for a permit while reading is paused
+    private DecodedMessage pending;
+
+    /**
+     * Constructs a new {@code NioConnection}.
+     *
+     * @param channel  the accepted non-blocking {@link SocketChannel}
+     * @param engine   the server mode {@link SSLEngine} for this connection
+     * @param worker   the {@link NioWorker} that will drive this connection
+     * @param server   the {@link Server} instance that this client is connecting to
+     * @param clientId the unique identifier of the client
+     * @throws IllegalArgumentException if any argument is {@code null} or the server is not running
+     */
+    NioConnection(SocketChannel channel, SSLEngine engine, NioWorker worker, Server server, String clientId) {
+        super(server, clientId);
+
+        if (channel == null || !channel.isOpen())
+            throw new IllegalArgumentException("Channel is closed or null");
+
+        if (engine == null || worker == null)
+            throw new IllegalArgumentException("Engine and worker must not be null");
+
+        this.channel = channel;
+        this.engine = engine;
+        this.worker = worker;
+
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut.flip();
+    }
+
+    /**
+     * Registers the channel with the worker's selector and starts the TLS handshake.
+     * Called on the worker thread.
+     *
+     * @param selector the worker's {@link Selector}
+     */
+    void register(Selector selector) {
+        try {
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+            engine.beginHandshake();
+        } catch (IOException e) {
+            System.err.println("Failed to register client " + clientId + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Reads available bytes from the channel and processes them.
+     * Called on the worker thread when the channel is readable.
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(netIn);
+            if (read < 0) {
+                close();
+                return;
+            }
+
+            unwrap();
+        } catch (IOException e) {
+            System.err.println("IOException during client communication: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Unwraps all complete TLS records in {@link #netIn} and delivers any complete messages.
+     *
+     * @throws IOException if the engine or channel fails
+     */
+    private void unwrap() throws IOException {
+        netIn.flip();
+
+        try {
+            while (netIn.hasRemaining() && !closed.get()) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+
+                switch (result.getStatus()) {
+                    case BUFFER_OVERFLOW -> {
+                        // Hand decrypted bytes to the decoder before growing the buffer
+                        if (appIn.position() > 0)
+                            drainAppIn();
+                        else
+                            appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                        continue;
+                    }
+                    case BUFFER_UNDERFLOW -> {
+                        return;
+                    }
+                    case CLOSED -> {
+                        close();
+                        return;
+                    }
+                    case OK -> { }
+                }
+
+                HandshakeStatus status = runDelegatedTasks(result.getHandshakeStatus());
+                if (status == HandshakeStatus.NEED_WRAP)
+                    flush();
+                else if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+                    return;
+            }
+        } finally {
+            netIn.compact();
+            if (!netIn.hasRemaining())
+                netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+
+            deliver();
+        }
+
+        if (!outbound.isEmpty())
+            flush();
+    }
+
+    /**
+     * Feeds the decrypted application bytes to the decoder and dispatches every complete message.
+     * Any trailing partial message, or messages beyond the in-flight limit, are kept for later.
+     */
+    private void deliver() {
+        if (closed.get())
+            return;
+
+        drainAppIn();
+
+        if (readPaused)
+            return;
+
+        try {
+            while (true) {
+                if (pending == null && (pending = nextMessage()) == null)
+                    break;
+
+                if (!acquireOrPause())
+                    break;
+
+                DecodedMessage message = pending;
+                pending = null;
+                dispatch(message);
+            }
+        } catch (ProtocolException e) {
+            System.err.println("Invalid message from client " + clientId + ": " + e.getMessage());
+            close();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to dispatch message from client " + clientId + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Moves all decrypted application bytes into the decoder.
+     */
+    private void drainAppIn() {
+        appIn.flip();
+        decoder.feed(appIn);
+        appIn.clear();
+    }
+
+    /**
+     * Acquires a permit for the next message, or stops reading from the channel until a
+     * permit is released. Called on the worker thread.
+     *
+     * @return {@code true} if a permit was acquired
+     */
+    private boolean acquireOrPause() {
+        if (queuedBytes.get() > MAX_QUEUED_BYTES)
+            backlogged = true;
+
+        if (backlogged) {
+            readPaused = true;
+            updateInterest();
+            return false;
+        }
+
+        if (tryAcquirePermit())
+            return true;
+
+        readPaused = true;
+
+        // A command may have completed before the pause was visible to it
+        if (tryAcquirePermit()) {
+            readPaused = false;
+            return true;
+        }
+
+        updateInterest();
+        return false;
+    }
+
+    @Override
+    protected void onPermitReleased() {
+        if (readPaused && !backlogged)
+            worker.execute(this::resumeReading);
+    }
+
+    /**
+     * Resumes reading after a command completed or the outbound queue drained, first delivering
+     * any messages already buffered. Called on the worker thread.
+     */
+    private void resumeReading() {
+        if (!readPaused || backlogged || closed.get())
+            return;
+
+        readPaused = false;
+        deliver();
+        updateInterest();
+    }
+
+    /**
+     * Sets the selection key interest to match the pause state and any unwritten data.
+     * Called on the worker thread.
+     */
+    private void updateInterest() {
+        if (key == null || !key.isValid())
+            return;
+
+        int ops = readPaused ? 0 : SelectionKey.OP_READ;
+        if (netOut.hasRemaining())
+            ops |= SelectionKey.OP_WRITE;
+
+        key.interestOps(ops);
+    }
+
+    @Override
+    protected void write(byte[] frame) {
+        if (closed.get())
+            return;
+
+        queue(new Outgoing(ByteBuffer.wrap(frame), null, null, frame.length));
+    }
+
+    @Override
+    protected void write(byte[] head, ByteBuffer tail, Runnable release) {
+        if (closed.get()) {
+            release.run();
+            return;
+        }
+
+        queue(new Outgoing(ByteBuffer.wrap(head), tail, release, head.length + tail.remaining()));
+    }
+
+    /**
+     * Adds a frame to the outbound queue and schedules a flush unless one is pending.
+     */
+    private void queue(Outgoing frame) {
+        queuedBytes.addAndGet(frame.length());
+        outbound.add(frame);
+
+        // One scheduled flush picks up every message queued before it runs
+        if (flushScheduled.compareAndSet(false, true))
+            worker.execute(this::scheduledFlush);
+    }
+
+    /**
+     * Runs a flush requested by {@link #write(byte[])}. Called on the worker thread.
+     */
+    private void scheduledFlush() {
+        flushScheduled.set(false);
+        flush();
+    }
+
+    /**
+     * Wraps and writes as much queued data as the channel accepts, including any pending
+     * handshake data. Called on the worker thread only.
+     * <p>
+     * If the channel cannot take all encrypted bytes, write interest is registered and the
+     * remainder is written when the channel becomes writable again.
+     */
+    void flush() {
+        if (closed.get() || key == null)
+            return;
+
+        try {
+            while (true) {
+                if (netOut.hasRemaining()) {
+                    channel.write(netOut);
+
+                    if (netOut.hasRemaining()) {
+                        updateInterest();
+                        return;
+                    }
+                }
+
+                HandshakeStatus status = runDelegatedTasks(engine.getHandshakeStatus());
+
+                int count;
+                if (status == HandshakeStatus.NEED_WRAP) {
+                    gather[0] = EMPTY;
+                    count = 1;
+                } else if (status == HandshakeStatus.NOT_HANDSHAKING && !outbound.isEmpty()) {
+                    count = gatherOutbound();
+                } else
+                    break;
+
+                netOut.clear();
+                SSLEngineResult result = engine.wrap(gather, 0, count, netOut);
+                netOut.flip();
+
+                Outgoing wrapped;
+                while ((wrapped = outbound.peek()) != null && wrapped.isWrapped()) {
+                    outbound.poll();
+                    queuedBytes.addAndGet(-wrapped.length());
+                    wrapped.giveBack();
+                }
+
+                if (backlogged && queuedBytes.get() < RESUME_QUEUED_BYTES) {
+                    backlogged = false;
+                    worker.execute(this::resumeReading);
+                }
+
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    netOut = ByteBuffer.allocate(Math.max(netOut.capacity() * 2, engine.getSession().getPacketBufferSize()));
+                    netOut.flip();
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    channel.write(netOut);
+                    close();
+                    return;
+                }
+            }
+
+            updateInterest();
+        } catch (IOException e) {
+            System.err.println("IOException during client communication: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Writes pending data once the channel becomes writable again and resumes a handshake that
+     * was waiting on the write. Called on the worker thread only.
+     */
+    void onWritable() {
+        flush();
+
+        try {
+            if (!closed.get() && engine.getHandshakeStatus() == HandshakeStatus.NEED_UNWRAP && netIn.position() > 0)
+                unwrap();
+        } catch (IOException e) {
+            System.err.println("IOException during client communication: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Fills {@link #gather} with the buffers at the head of the outbound queue.
+     *
+     * @return the number of buffers gathered
+     */
+    private int gatherOutbound() {
+        int count = 0;
+
+        Iterator<Outgoing> it = outbound.iterator();
+        while (it.hasNext() && count < MAX_GATHER) {
+            Outgoing frame = it.next();
+            gather[count++] = frame.frame();
+
+            if (frame.tail() != null && count < MAX_GATHER)
+                gather[count++] = frame.tail();
+        }
+
+        return count;
+    }
+
+    /**
+     * Runs any delegated handshake tasks on the current thread.
+     *
+     * @param status the current handshake status
+     * @return the handshake status after all tasks have completed
+     */
+    private HandshakeStatus runDelegatedTasks(HandshakeStatus status) {
+        if (status != HandshakeStatus.NEED_TASK)
+            return status;
+
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null)
+            task.run();
+
+        return engine.getHandshakeStatus();
+    }
+
+    /**
+     * Returns a larger buffer containing the bytes of the given write mode buffer.
+     *
+     * @param buffer  the buffer to enlarge, in write mode
+     * @param minimum the minimum capacity of the new buffer
+     * @return the new buffer, in write mode
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimum) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimum));
+
+        buffer.flip();
+        larger.put(buffer);
+
+        return larger;
+    }
+
+    /**
+     * Closes the connection to the client and performs cleanup.
+     * <p>
+     * A TLS close notification is attempted when called on the worker thread, the channel is
+     * closed and the server is notified to remove the client from its active list.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        engine.closeOutbound();
+
+        try {
+            if (worker.isWorkerThread() && channel.isOpen()) {
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                netOut.flip();
+                channel.write(netOut);
+            }
+        } catch (SSLException | ClosedChannelException ignored) {
+            // Best effort close notification
+        } catch (IOException e) {
+            System.err.println("Error sending close notification: " + e.getMessage());
+        }
+
+        try {
+            if (key != null) key.cancel();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client connection: " + e.getMessage());
+        }
+
+        // Buffers of frames that will not be written are given back to their owners
+        Outgoing dropped;
+        while ((dropped = outbound.poll()) != null) {
+            queuedBytes.addAndGet(-dropped.length());
+            dropped.giveBack();
+        }
+
+        cancelStreams();
+        server.removeClient(clientId);
+    }
+
+    /**
+     * @return the number of bytes of frames queued but not yet wrapped
+     */
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * A frame waiting to be wrapped, optionally continued by a buffer of its owner.
+     *
+     * @param frame   the frame, or its head if it has a tail
+     * @param tail    the rest of the frame, or {@code null}
+     * @param release gives the tail back to its owner, or {@code null}
+     * @param length  the number of bytes of the frame, including its tail
+     */
+    private record Outgoing(ByteBuffer frame, ByteBuffer tail, Runnable release, int length) {
+        boolean isWrapped() {
+            return !frame.hasRemaining() && (tail == null || !tail.hasRemaining());
+        }
+
+        void giveBack() {
+            if (release != null)
+                release.run();
+        }
+    }
+}
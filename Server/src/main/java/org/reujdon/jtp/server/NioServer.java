@@ -0,0 +1,130 @@
+package org.reujdon.jtp.server;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Event-loop transport used by the {@link Server} in {@link ServerMode#NIO} mode.
+ * <p>
+ * Connections are accepted on the thread that calls {@link #run()} and are then handed out
+ * round-robin to a small fixed set of {@link NioWorker} threads. Each worker multiplexes its
+ * connections over a single {@link java.nio.channels.Selector}, so idle clients cost a buffer
+ * set and an {@link SSLEngine} rather than a thread.
+ *
+ * @see NioWorker
+ * @see NioConnection
+ */
+class NioServer implements Runnable {
+    private final Server server;
+    private final SSLContext sslContext;
+    private final int port;
+
+    private final NioWorker[] workers;
+    private int nextWorker = 0;
+
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Constructs a new {@code NioServer}.
+     *
+     * @param server     the {@link Server} that owns this transport
+     * @param sslContext the initialized {@link SSLContext} used to create an engine per connection
+     * @param port       the port to listen on
+     * @param ioThreads  the number of selector threads, must be at least 1
+     * @throws IllegalArgumentException if any argument is invalid
+     */
+    NioServer(Server server, SSLContext sslContext, int port, int ioThreads) {
+        if (server == null)
+            throw new IllegalArgumentException("Server must not be null");
+
+        if (sslContext == null)
+            throw new IllegalArgumentException("SSLContext must not be null");
+
+        if (ioThreads < 1)
+            throw new IllegalArgumentException("I/O thread count must be at least 1");
+
+        this.server = server;
+        this.sslContext = sslContext;
+        this.port = port;
+        this.workers = new NioWorker[ioThreads];
+    }
+
+    /**
+     * Opens the listening channel and starts the selector threads.
+     *
+     * @throws IOException if the channel or a selector cannot be opened
+     */
+    void bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new NioWorker("jtp-io-" + i);
+            workers[i].start();
+        }
+
+        System.out.println("Started " + workers.length + " I/O threads");
+    }
+
+    /**
+     * Continuously accepts incoming client connections while the server is running
+     * and registers each one with an I/O thread.
+     */
+    @Override
+    public void run() {
+        if (serverChannel == null || !serverChannel.isOpen())
+            throw new IllegalStateException("Server channel is closed so cannot handle clients.");
+
+        System.out.println("Waiting for clients to connect...");
+
+        while (server.isRunning() && serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                String clientId = channel.getRemoteAddress().toString();
+                System.out.println("\nNew connection attempt from: " + clientId);
+
+                SSLEngine engine = sslContext.createSSLEngine();
+                engine.setUseClientMode(false);
+
+                NioWorker worker = workers[nextWorker];
+                nextWorker = (nextWorker + 1) % workers.length;
+
+                NioConnection connection = new NioConnection(channel, engine, worker, server, clientId);
+                server.registerClient(connection);
+                worker.register(connection);
+            } catch (ClosedChannelException e) {
+                System.out.println("I/O error occurred during server shutdown");
+                return;
+            } catch (IOException e) {
+                if (server.isRunning())
+                    System.err.println("Error while accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the listening channel and stops all selector threads.
+     */
+    void close() {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                System.out.println("Closing server channel...");
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server channel." + e.getMessage());
+        }
+
+        for (NioWorker worker : workers)
+            if (worker != null) worker.close();
+    }
+}
@@ -0,0 +1,149 @@
+package org.reujdon.jtp.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread of the {@link NioServer}.
+ * <p>
+ * All socket reads, writes and {@link javax.net.ssl.SSLEngine} operations of the connections
+ * registered with a worker happen on the worker thread. Other threads interact with it only
+ * through {@link #register(NioConnection)} and {@link #execute(Runnable)}, which queue the
+ * work and wake the selector. A connection that fails unexpectedly is closed without stopping
+ * the worker.
+ *
+ * @see NioServer
+ * @see NioConnection
+ */
+class NioWorker implements Runnable {
+    private final Thread thread;
+    private final Selector selector;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a new worker with its own {@link Selector}.
+     *
+     * @param name the name of the worker thread
+     * @throws IOException if the selector cannot be opened
+     */
+    NioWorker(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    /**
+     * Starts the worker thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * @return if the calling thread is this worker's selector thread
+     */
+    boolean isWorkerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Queues a new connection to be registered with this worker's selector.
+     *
+     * @param connection the connection to register
+     */
+    void register(NioConnection connection) {
+        execute(() -> connection.register(selector));
+    }
+
+    /**
+     * Runs a task on the worker thread, immediately if called from it.
+     *
+     * @param task the task to run, typically a flush or resume of a connection
+     */
+    void execute(Runnable task) {
+        if (isWorkerThread()) {
+            task.run();
+            return;
+        }
+
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the selector loop until the worker is closed.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println("Selector failure on " + thread.getName() + ": " + e.getMessage());
+                break;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Task failed on " + thread.getName() + ": " + e);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                NioConnection conn = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable())
+                        conn.onReadable();
+
+                    if (key.isValid() && key.isWritable())
+                        conn.onWritable();
+                } catch (CancelledKeyException e) {
+                    conn.close();
+                } catch (RuntimeException e) {
+                    // Only this connection is dropped, the others on the worker carry on
+                    System.err.println("Unexpected error on client " + conn.getClientId() + ": " + e);
+                    conn.close();
+                }
+            }
+        }
+
+        for (SelectionKey key : new ArrayList<>(selector.keys()))
+            ((NioConnection) key.attachment()).close();
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Error closing selector: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the selector loop and closes any connection still registered with it.
+     */
+    void close() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while waiting for " + thread.getName() + " to stop.");
+        }
+    }
+}
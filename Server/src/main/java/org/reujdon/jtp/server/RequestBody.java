@@ -0,0 +1,233 @@
+package org.reujdon.jtp.server;
+
+import org.reujdon.jtp.server.handlers.UploadCommandHandler;
+import org.reujdon.jtp.shared.Chunk;
+import org.reujdon.jtp.shared.Demand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The body of a request uploaded in {@link Chunk}s, read by an {@link UploadCommandHandler} as it arrives.
+ * <p>
+ * A body is registered by its {@link Connection} as soon as the request announcing it is read, and
+ * asks the client for a window of chunks straight away, so the first chunks are in flight while
+ * the command is being dispatched. The reading thread of the connection adds chunks as they are
+ * received and the handler's thread takes them; once half the window has been consumed, the
+ * client is asked for that many more. At most a window of chunks is buffered at any time, and a
+ * client sending more than it was asked for violates the protocol.
+ * <p>
+ * Reads block on a lock condition rather than a monitor, so handlers on virtual threads do not
+ * pin their carrier while waiting for the client.
+ */
+final class RequestBody extends InputStream {
+    private final Connection connection;
+    private final String id;
+    private final int window;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+
+    // Guarded by lock
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private byte[] current;
+    private int position;
+    private long granted;
+    private long received;
+    private int consumed;
+    private boolean end = false;
+    private boolean closed = false;
+    private String failure;
+
+    /**
+     * Constructs a new {@code RequestBody}.
+     *
+     * @param connection the connection the body is uploaded on
+     * @param id         the id of the request the body belongs to
+     * @param window     the most chunks buffered ahead of the handler
+     */
+    RequestBody(Connection connection, String id, int window) {
+        this.connection = connection;
+        this.id = id;
+        this.window = window;
+        this.granted = window;
+    }
+
+    /**
+     * Asks the client for the first window of chunks.
+     */
+    void open() {
+        connection.send(new Demand(id, window));
+    }
+
+    /**
+     * Adds a received chunk. Runs on the reading thread of the connection.
+     *
+     * @param data the bytes of the chunk
+     * @param last if the chunk ends the body
+     * @return {@code false} if the client sent more chunks than it was asked for
+     */
+    boolean offer(byte[] data, boolean last) {
+        lock.lock();
+        try {
+            // Chunks already in flight when the upload ended are dropped
+            if (closed || failure != null || end)
+                return true;
+
+            if (++received > granted)
+                return false;
+
+            chunks.add(data);
+            end = last;
+            arrived.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the body early, failing pending and later reads.
+     *
+     * @param reason the message of the {@link IOException} thrown to the reader
+     */
+    void fail(String reason) {
+        lock.lock();
+        try {
+            if (failure == null)
+                failure = reason;
+
+            chunks.clear();
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        connection.removeBody(id, this);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0)
+            return 0;
+
+        while (true) {
+            int read;
+            int grant;
+
+            lock.lock();
+            try {
+                read = take(b, off, len);
+                grant = takeGrant();
+
+                if (read == 0 && grant == 0)
+                    awaitChunk();
+            } finally {
+                lock.unlock();
+            }
+
+            // Sent outside the lock, the write may block on the socket
+            if (grant > 0)
+                connection.send(new Demand(id, grant));
+
+            if (read != 0)
+                return read;
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            int available = current == null ? 0 : current.length - position;
+            for (byte[] chunk : chunks)
+                available += chunk.length;
+
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the rest of the body and unregisters it from the connection.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            current = null;
+            chunks.clear();
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        connection.removeBody(id, this);
+    }
+
+    /**
+     * Copies buffered bytes, moving on to the next chunk when the current one is used up.
+     *
+     * @return the number of bytes copied, {@code -1} at the end of the body or {@code 0} if none are buffered
+     */
+    private int take(byte[] b, int off, int len) throws IOException {
+        while (current == null || position == current.length) {
+            if (closed)
+                throw new IOException("Body is closed");
+
+            if (failure != null)
+                throw new IOException(failure);
+
+            byte[] next = chunks.poll();
+            if (next == null)
+                return end ? -1 : 0;
+
+            current = next;
+            position = 0;
+            consumed++;
+        }
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+
+        return n;
+    }
+
+    /**
+     * @return the number of chunks to ask the client for, once half the window has been consumed
+     */
+    private int takeGrant() {
+        if (end || failure != null || consumed < Math.max(1, window / 2))
+            return 0;
+
+        int grant = consumed;
+        consumed = 0;
+        granted += grant;
+
+        return grant;
+    }
+
+    private void awaitChunk() throws InterruptedIOException {
+        try {
+            arrived.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the upload of request " + id);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.reujdon.jtp.server;
+
+import org.reujdon.jtp.server.handlers.CommandHandler;
+import org.reujdon.jtp.server.handlers.CommandRegistry;
+import org.reujdon.jtp.server.handlers.ConstantResult;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+import org.reujdon.jtp.shared.codec.PreparedResponse;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the encoded results of {@link ConstantResult} handlers, per command and codec.
+ * <p>
+ * Each entry remembers the handler and the {@link CommandRegistry#getVersion() command set version}
+ * it was computed under, and is recomputed once either changes. Concurrent misses may call the
+ * handler more than once, the last result wins.
+ */
+final class ResponseCache {
+    private record Entry(CommandHandler handler, long version, PreparedResponse response) {}
+
+    private final Map<MessageCodec, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param handler the handler of a command
+     * @return if the handler's result may be cached
+     */
+    static boolean isCacheable(CommandHandler handler) {
+        return handler.getClass().isAnnotationPresent(ConstantResult.class);
+    }
+
+    /**
+     * Gets the encoded result of a cacheable handler, calling the handler on a miss.
+     *
+     * @param command the command being executed
+     * @param handler the handler registered for the command, see {@link #isCacheable(CommandHandler)}
+     * @param codec   the codec of the connection
+     * @param params  the request parameters, passed to the handler on a miss
+     * @return the prepared response
+     * @throws RuntimeException if the handler fails
+     */
+    PreparedResponse get(String command, CommandHandler handler, MessageCodec codec, Map<String, Object> params) {
+        Map<String, Entry> byCommand = entries.computeIfAbsent(codec, c -> new ConcurrentHashMap<>());
+
+        // Read the version first so a registration during the handler call is not missed
+        long version = CommandRegistry.getVersion();
+
+        Entry entry = byCommand.get(command);
+        if (entry != null && entry.handler() == handler && entry.version() == version)
+            return entry.response();
+
+        PreparedResponse response = codec.prepareResponse(handler.handle(params));
+        byCommand.put(command, new Entry(handler, version, response));
+
+        return response;
+    }
+}
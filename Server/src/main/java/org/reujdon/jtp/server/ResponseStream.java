@@ -0,0 +1,133 @@
+package org.reujdon.jtp.server;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.server.handlers.StreamingCommandHandler;
+import org.reujdon.jtp.shared.Chunk;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the result of a {@link StreamingCommandHandler} to a client as it is published.
+ * <p>
+ * A stream is registered by its {@link Connection} as soon as the request opening it is read, so
+ * demand the client sends right after the request is never lost. Demand received before the
+ * handler's publisher is subscribed to is kept and requested together with the initial demand.
+ * <p>
+ * Each published item is sent as a {@link Chunk} under the id of the request, completion as an
+ * empty response and failure as an error. Demand is requested from the publisher on the server's
+ * executor, so a publisher producing items synchronously does not block the reading thread.
+ */
+final class ResponseStream implements Flow.Subscriber<JSONObject> {
+    private final Connection connection;
+    private final String id;
+
+    private Flow.Subscription subscription;
+    private long demand;
+    private boolean cancelled = false;
+
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    /**
+     * Constructs a new {@code ResponseStream}.
+     *
+     * @param connection the connection to send the chunks on
+     * @param id         the id of the request opening the stream
+     * @param demand     the number of chunks the client asked for in the request
+     */
+    ResponseStream(Connection connection, String id, long demand) {
+        this.connection = connection;
+        this.id = id;
+        this.demand = demand;
+    }
+
+    /**
+     * Forwards demand from the client to the publisher.
+     *
+     * @param n the number of additional chunks asked for
+     */
+    void request(long n) {
+        Flow.Subscription subscription;
+
+        synchronized (this) {
+            if (this.subscription == null) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                return;
+            }
+
+            subscription = this.subscription;
+        }
+
+        connection.server.execute(() -> subscription.request(n));
+    }
+
+    /**
+     * Stops the stream on request of the client or because the connection closed. Nothing more is sent.
+     */
+    void cancel() {
+        if (!finish(null))
+            return;
+
+        Flow.Subscription subscription;
+        synchronized (this) {
+            cancelled = true;
+            subscription = this.subscription;
+        }
+
+        if (subscription != null)
+            subscription.cancel();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        long initial;
+
+        synchronized (this) {
+            if (this.subscription != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+
+            this.subscription = subscription;
+            initial = demand;
+        }
+
+        subscription.request(initial);
+    }
+
+    @Override
+    public void onNext(JSONObject item) {
+        if (!done.get())
+            connection.send(new Chunk(id, item));
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        finish(() -> connection.sendError(id, "Command execution failed: " + throwable.getMessage()));
+    }
+
+    @Override
+    public void onComplete() {
+        finish(() -> connection.sendResponse(id, new JSONObject()));
+    }
+
+    /**
+     * Ends the stream once, unregistering it from the connection after its final reply is sent, so
+     * the reply still goes out on the stream of the request.
+     *
+     * @param reply sends the final reply, or {@code null} if nothing more is sent
+     * @return {@code true} if this call ended it
+     */
+    private boolean finish(Runnable reply) {
+        if (!done.compareAndSet(false, true))
+            return false;
+
+        try {
+            if (reply != null)
+                reply.run();
+        } finally {
+            connection.removeStream(id, this);
+        }
+        return true;
+    }
+}
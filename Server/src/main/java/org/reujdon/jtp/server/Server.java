@@ -2,12 +2,19 @@ package org.reujdon.jtp.server;
 
 import org.reujdon.jtp.server.handlers.CommandHandler;
 import org.reujdon.jtp.server.handlers.CommandRegistry;
+import org.reujdon.jtp.server.handlers.FileCommandHandler;
 import org.reujdon.jtp.shared.PropertiesUtil;
+import org.reujdon.jtp.shared.codec.KeyTable;
+import org.reujdon.jtp.shared.transport.Compression;
+import org.reujdon.jtp.shared.transport.FrameDecoder;
+import reujdon.async.Task;
 
 import javax.net.ssl.*;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.security.KeyStore;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -20,7 +27,9 @@ import java.util.concurrent.TimeUnit;
  * <p>The server provides the following features:</p>
  * <ul>
  *   <li>Secure communication using SSL/TLS protocol</li>
- *   <li>Multithreaded client handling using a thread pool</li>
+ *   <li>Multithreaded client handling using a thread pool, or a small set of selector threads
+ *       in {@link ServerMode#NIO} mode</li>
+ *   <li>Optional virtual threads for client handlers and command execution</li>
  *   <li>Custom command registration and processing</li>
  * </ul>
  *
@@ -34,6 +43,7 @@ import java.util.concurrent.TimeUnit;
  * </pre>
  *
  * @see ClientHandler
+ * @see NioServer
  * @see SSLContext
  * @see SSLServerSocket
  */
@@ -43,10 +53,23 @@ public class Server {
 
     private final int PORT;
 
+    private final ServerMode MODE;
+    private final int IO_THREADS;
+    private final boolean VIRTUAL_THREADS;
+    private final int MAX_IN_FLIGHT;
+    private final int MAX_FRAME_SIZE;
+    private final int MAX_BATCH_SIZE;
+    private final int UPLOAD_WINDOW;
+    private final boolean COMPRESSION;
+    private final int COMPRESSION_THRESHOLD;
+    private final int KEY_TABLE;
+
     private SSLServerSocket serverSocket;
+    private NioServer nioServer;
 
     private final ExecutorService clientThreadPool;
-    private final ConcurrentHashMap<String, ClientHandler> activeClients = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Connection> activeClients = new ConcurrentHashMap<>();
+    private final ResponseCache responseCache = new ResponseCache();
 
     private boolean running;
 
@@ -65,9 +88,28 @@ public class Server {
      * Constructs a Server instance with the specified port.
      * Initializes the command registry and a cached thread pool for handling client connections.
      *
+     * <p>The connection handling mode is read from the optional {@code server.mode} property
+     * ({@code blocking} by default, or {@code nio}) and the number of selector threads used in
+     * {@link ServerMode#NIO} mode from {@code server.ioThreads}. Setting {@code server.virtualThreads}
+     * to {@code true} runs client handlers and command execution on virtual threads instead of
+     * the cached platform thread pool. {@code server.maxInFlight} limits how many commands
+     * each client may have executing at once, {@code 0} disables the limit, and
+     * {@code server.maxFrameSize} the largest message accepted from a client in bytes and
+     * {@code server.maxBatchSize} the most commands accepted in one {@link org.reujdon.jtp.shared.Batch}.
+     * {@code server.uploadWindow} is how many chunks of an uploaded request body are buffered ahead
+     * of its {@link org.reujdon.jtp.server.handlers.UploadCommandHandler}. Setting {@code server.files.root}
+     * registers the {@code File} command, a {@link FileCommandHandler} sending the files under that
+     * directory in chunks of {@code server.files.chunkSize} bytes. {@code server.compression} sets
+     * whether clients may negotiate {@link Compression}, {@code true} by default, and
+     * {@code server.compression.threshold} the smallest payload compressed in bytes.
+     * {@code server.keyTable} is the most entries of a {@link KeyTable} granted to a binary codec
+     * client, 256 by default, 0 to refuse them.</p>
+     *
      * @param port The port number on which the server will listen. Must be between 0 and 65535.
      * @param configFile the path to the configFile
      * @throws IllegalArgumentException If the port number is invalid (negative or greater than 65535)
+     *                                  or the configured mode, thread count, file root, compression
+     *                                  threshold or key table size is invalid
      * @throws RuntimeException If there's an issue initializing server resources.
      */
     public Server(int port, String configFile) {
@@ -82,10 +124,52 @@ public class Server {
         KEYSTORE_PATH = PropertiesUtil.getProperty(configFile, "server.path");
         KEYSTORE_PASSWORD = PropertiesUtil.getProperty(configFile, "server.password");
 
+        MODE = ServerMode.parse(PropertiesUtil.getProperty(configFile, "server.mode", "blocking"));
+        IO_THREADS = PropertiesUtil.getIntProperty(configFile, "server.ioThreads", Runtime.getRuntime().availableProcessors());
+
+        if (IO_THREADS < 1)
+            throw new IllegalArgumentException(String.format("Invalid I/O thread count: %d. Must be at least 1", IO_THREADS));
+
+        VIRTUAL_THREADS = Boolean.parseBoolean(PropertiesUtil.getProperty(configFile, "server.virtualThreads", "false"));
+
+        MAX_IN_FLIGHT = PropertiesUtil.getIntProperty(configFile, "server.maxInFlight", 128);
+        if (MAX_IN_FLIGHT < 0)
+            throw new IllegalArgumentException(String.format("Invalid in-flight limit: %d. Must not be negative", MAX_IN_FLIGHT));
+
+        MAX_FRAME_SIZE = PropertiesUtil.getIntProperty(configFile, "server.maxFrameSize", FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+        if (MAX_FRAME_SIZE <= 0)
+            throw new IllegalArgumentException(String.format("Invalid max frame size: %d. Must be positive", MAX_FRAME_SIZE));
+
+        MAX_BATCH_SIZE = PropertiesUtil.getIntProperty(configFile, "server.maxBatchSize", 256);
+        if (MAX_BATCH_SIZE <= 0)
+            throw new IllegalArgumentException(String.format("Invalid max batch size: %d. Must be positive", MAX_BATCH_SIZE));
+
+        UPLOAD_WINDOW = PropertiesUtil.getIntProperty(configFile, "server.uploadWindow", 16);
+        if (UPLOAD_WINDOW <= 0)
+            throw new IllegalArgumentException(String.format("Invalid upload window: %d. Must be positive", UPLOAD_WINDOW));
+
+        COMPRESSION = Boolean.parseBoolean(PropertiesUtil.getProperty(configFile, "server.compression", "true"));
+
+        COMPRESSION_THRESHOLD = PropertiesUtil.getIntProperty(configFile, "server.compression.threshold", Compression.DEFAULT_THRESHOLD);
+        if (COMPRESSION_THRESHOLD < 0)
+            throw new IllegalArgumentException(String.format("Invalid compression threshold: %d. Must not be negative", COMPRESSION_THRESHOLD));
+
+        KEY_TABLE = PropertiesUtil.getIntProperty(configFile, "server.keyTable", 256);
+        if (KEY_TABLE < 0 || KEY_TABLE > KeyTable.MAX_SIZE)
+            throw new IllegalArgumentException(String.format("Invalid key table size: %d. Must be between 0 and %d", KEY_TABLE, KeyTable.MAX_SIZE));
+
+        String filesRoot = PropertiesUtil.getProperty(configFile, "server.files.root", null);
+        if (filesRoot != null) {
+            int chunkSize = PropertiesUtil.getIntProperty(configFile, "server.files.chunkSize", 64 * 1024);
+            CommandRegistry.register("File", new FileCommandHandler(Path.of(filesRoot), chunkSize), true);
+        }
+
         this.running = false;
 
         try {
-            this.clientThreadPool = Executors.newCachedThreadPool();
+            this.clientThreadPool = VIRTUAL_THREADS
+                    ? Executors.newVirtualThreadPerTaskExecutor()
+                    : Executors.newCachedThreadPool();
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize server components", e);
         }
@@ -105,8 +189,14 @@ public class Server {
 
         try {
             SSLContext sslContext = createSSLContext();
-            SSLServerSocketFactory ssf = sslContext.getServerSocketFactory();
-            serverSocket = (SSLServerSocket) ssf.createServerSocket(this.PORT);
+
+            if (MODE == ServerMode.NIO) {
+                nioServer = new NioServer(this, sslContext, this.PORT, IO_THREADS);
+                nioServer.bind();
+            } else {
+                SSLServerSocketFactory ssf = sslContext.getServerSocketFactory();
+                serverSocket = (SSLServerSocket) ssf.createServerSocket(this.PORT);
+            }
 
             // Register shutdown hook for graceful termination
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -114,10 +204,15 @@ public class Server {
                 close();
             }));
 
-            System.out.println("Server started on port " + this.PORT);
+            System.out.println("Server started on port " + this.PORT + " in " + MODE + " mode"
+                    + (VIRTUAL_THREADS ? " with virtual threads" : ""));
 
             running = true;
-            handleClients();
+
+            if (MODE == ServerMode.NIO)
+                nioServer.run();
+            else
+                handleClients();
         } catch (Exception e) {
             System.err.println("\nFailed to start Server: " + e.getMessage());
             throw new RuntimeException("Server initialization failed", e);
@@ -188,16 +283,15 @@ public class Server {
             try {
                 // Accept new client connection
                 SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
+                clientSocket.setTcpNoDelay(true);
 
                 String clientId = clientSocket.getRemoteSocketAddress().toString();
                 System.out.println("\nNew connection attempt from: " + clientId);
 
                 // Create and register client handler
                 ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                activeClients.put(clientId, clientHandler);
+                registerClient(clientHandler);
                 clientThreadPool.execute(clientHandler);
-
-                System.out.println("New client connected, ID: " + clientId + ". Active clients: " + activeClients.size());
             } catch (SSLException e) {
                 System.err.println("SSL handshake failed with client: " + e.getMessage());
             } catch (IOException e) {
@@ -211,6 +305,22 @@ public class Server {
         }
     }
 
+    /**
+     * Adds a client to the active clients registry and logs the connection.
+     *
+     * @param connection The connection of the newly connected client
+     * @throws IllegalArgumentException If connection is null
+     *
+     * @see #activeClients
+     */
+    void registerClient(Connection connection) {
+        if (connection == null)
+            throw new IllegalArgumentException("Connection must not be null");
+
+        activeClients.put(connection.getClientId(), connection);
+        System.out.println("New client connected, ID: " + connection.getClientId() + ". Active clients: " + activeClients.size());
+    }
+
     /**
      * Removes a client from the active clients registry and logs the disconnection.
      *
@@ -218,17 +328,121 @@ public class Server {
      * @throws IllegalArgumentException If clientId is null or empty
      *
      * @see #activeClients
-     * @see ClientHandler
+     * @see Connection
      */
-    synchronized void removeClient(String clientId) {
+    void removeClient(String clientId) {
         if (clientId == null || clientId.trim().isEmpty())
             throw new IllegalArgumentException("Client ID must not be null or empty");
 
-        ClientHandler removedHandler = activeClients.remove(clientId);
+        Connection removedHandler = activeClients.remove(clientId);
         if (removedHandler != null)
             System.out.println("\nClient " + clientId + " disconnected. Active clients: " + activeClients.size());
     }
 
+    /**
+     * Executes a command on behalf of a client connection.
+     * <p>
+     * Commands run on a new virtual thread when {@code server.virtualThreads} is enabled,
+     * otherwise as an asynchronous {@link Task}.
+     *
+     * @param command the command execution to run
+     * @throws IllegalArgumentException if command is null
+     */
+    void execute(Runnable command) {
+        if (command == null)
+            throw new IllegalArgumentException("Command must not be null");
+
+        if (VIRTUAL_THREADS)
+            clientThreadPool.execute(command);
+        else
+            Task.of(command).run();
+    }
+
+    /**
+     * @return the connection handling mode of this server
+     */
+    public ServerMode getMode() {
+        return MODE;
+    }
+
+    /**
+     * @return the maximum number of commands a client may have executing at once, {@code 0} if unlimited
+     */
+    public int getMaxInFlight() {
+        return MAX_IN_FLIGHT;
+    }
+
+    /**
+     * @return the largest message, in bytes, accepted from a client
+     */
+    public int getMaxFrameSize() {
+        return MAX_FRAME_SIZE;
+    }
+
+    /**
+     * @return the most commands accepted from a client in one batch
+     */
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    /**
+     * @return the most chunks of an uploaded request body buffered ahead of its handler
+     */
+    public int getUploadWindow() {
+        return UPLOAD_WINDOW;
+    }
+
+    /**
+     * @return whether clients may negotiate {@link Compression}
+     */
+    public boolean isCompressionEnabled() {
+        return COMPRESSION;
+    }
+
+    /**
+     * @return the smallest payload, in bytes, the server compresses on connections that negotiated compression
+     */
+    public int getCompressionThreshold() {
+        return COMPRESSION_THRESHOLD;
+    }
+
+    /**
+     * @return the most {@link KeyTable} entries granted to a client, {@code 0} if clients may not use one
+     */
+    public int getKeyTableSize() {
+        return KEY_TABLE;
+    }
+
+    /**
+     * @return the cache of encoded {@link org.reujdon.jtp.server.handlers.ConstantResult} responses
+     */
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Gets the number of queued or executing commands of each connected client.
+     * <p>
+     * A client at {@link #getMaxInFlight()} is not being read from until one of its commands completes.
+     *
+     * @return map of client id -> in-flight command count
+     */
+    public Map<String, Integer> getInFlight() {
+        Map<String, Integer> inFlight = new HashMap<>();
+        for (Map.Entry<String, Connection> entry : activeClients.entrySet())
+            inFlight.put(entry.getKey(), entry.getValue().getInFlight());
+
+        return inFlight;
+    }
+
+    /**
+     * @return if client handlers and commands run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return VIRTUAL_THREADS;
+    }
+
     /**
      * @return if server is running
      */
@@ -240,7 +454,7 @@ public class Server {
      * Gracefully shuts down the server.
      *
      * @see #activeClients
-     * @see ClientHandler#close()
+     * @see Connection#close()
      */
     public void close() {
         if (!running)
@@ -272,7 +486,7 @@ public class Server {
         int closedCount = 0;
         int failedCount = 0;
 
-        for (Map.Entry<String, ClientHandler> entry : activeClients.entrySet()) {
+        for (Map.Entry<String, Connection> entry : activeClients.entrySet()) {
             try {
                 entry.getValue().close();
                 closedCount++;
@@ -318,9 +532,14 @@ public class Server {
     }
 
     /**
-     * Closes the server socket with proper error handling.
+     * Closes the server socket, or the NIO transport, with proper error handling.
      */
     private void closeServerSocket() {
+        if (nioServer != null) {
+            nioServer.close();
+            return;
+        }
+
         if (serverSocket == null) {
             System.out.println("Server socket not initialized");
             return;
@@ -0,0 +1,37 @@
+package org.reujdon.jtp.server;
+
+/**
+ * Enumerates the connection handling modes supported by the {@link Server}.
+ *
+ * <p>The mode is selected with the {@code server.mode} property of the server config file:</p>
+ * <ul>
+ *   <li><b>BLOCKING</b> - One thread per connection blocking on an {@code SSLSocket} (default)</li>
+ *   <li><b>NIO</b> - A small fixed set of selector threads driving an {@code SSLEngine} per connection</li>
+ * </ul>
+ *
+ * @see Server
+ * @see ClientHandler
+ * @see NioServer
+ */
+public enum ServerMode {
+    BLOCKING,
+    NIO;
+
+    /**
+     * Parses a mode from its config file representation, ignoring case.
+     *
+     * @param value the configured mode name
+     * @return the matching {@code ServerMode}
+     * @throws IllegalArgumentException if the value is null or not a known mode
+     */
+    public static ServerMode parse(String value) {
+        if (value == null || value.trim().isEmpty())
+            throw new IllegalArgumentException("Server mode cannot be null or empty");
+
+        try {
+            return ServerMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown server mode: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.reujdon.jtp.server.handlers;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A command handler that reads raw bytes attached to the request and may attach raw bytes to
+ * its response.
+ *
+ * <p>Attachments travel after the encoded message in the same frame, so binary data such as
+ * images is neither Base64 encoded nor copied into strings. The handler receives them as
+ * read-only buffers over the received frame, which it may keep. Attachments need
+ * {@link org.reujdon.jtp.shared.transport.Framing#LENGTH} or
+ * {@link org.reujdon.jtp.shared.transport.Framing#MUX} framing; answering a line framed client
+ * with attachments fails the command.</p>
+ *
+ * <p>Other handlers are not called with attachments, a request carrying some is answered with
+ * an error. Batches carry parameters only, so from a batch the handler is called without
+ * attachments and those of its result are dropped.</p>
+ *
+ * <p>Like other handlers, implementations must have a {@link jdk.jfr.Description}.</p>
+ *
+ * @see org.reujdon.jtp.shared.Message#addAttachment(ByteBuffer)
+ * @see CommandRegistry
+ */
+@FunctionalInterface
+public interface AttachmentCommandHandler extends CommandHandler {
+    /**
+     * The result of a command, its response data and the attachments sent after it.
+     *
+     * @param data        the response data (can be null)
+     * @param attachments the attachments, sent from their position to their limit
+     */
+    record Result(JSONObject data, List<ByteBuffer> attachments) {
+        /**
+         * @throws IllegalArgumentException if attachments is null or holds a null element
+         */
+        public Result {
+            if (attachments == null || attachments.stream().anyMatch(Objects::isNull))
+                throw new IllegalArgumentException("Attachments cannot be null");
+
+            attachments = List.copyOf(attachments);
+        }
+
+        /**
+         * Creates a result with the given data and attachments.
+         *
+         * @param data        the response data (can be null)
+         * @param attachments the attachments, sent from their position to their limit
+         * @return the result
+         * @throws IllegalArgumentException if an attachment is null
+         */
+        public static Result of(JSONObject data, ByteBuffer... attachments) {
+            return new Result(data, Arrays.asList(attachments));
+        }
+    }
+
+    /**
+     * Processes a command with the given parameters and attachments and returns a response with
+     * attachments of its own.
+     *
+     * @param params      A map containing the command parameters (never null)
+     * @param attachments The attachments of the request as read-only buffers (never null, may be empty)
+     * @return The response data and attachments
+     * @throws RuntimeException if command processing fails
+     */
+    Result handle(Map<String, Object> params, List<ByteBuffer> attachments);
+
+    /**
+     * Processes the command without attachments, dropping those of the result, for batches.
+     *
+     * @param params A map containing the command parameters (never null)
+     * @return A JSONObject containing the response data
+     * @throws RuntimeException if command processing fails
+     */
+    @Override
+    default JSONObject handle(Map<String, Object> params) {
+        return handle(params, List.of()).data();
+    }
+}
@@ -0,0 +1,57 @@
+package org.reujdon.jtp.server.handlers;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks a {@link CommandHandler} as a pure read whose result may be reused for identical requests.
+ *
+ * <p>Results are kept in the {@link ResultCache}, keyed by command and the request parameters in
+ * a normalized form, so the order of keys does not matter. A cached result is served until it is
+ * older than {@link #ttl()}, is evicted as the least recently used of more than
+ * {@link #maxEntries()} results, or is invalidated through {@link ResultCache#invalidate(String)}.
+ * Failed calls are never cached.</p>
+ *
+ * <p>The request {@code token} is part of the key unless {@link #ignoreToken()} is set, so a
+ * result is only shared between clients when the handler declares it does not depend on who
+ * is calling.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * {@code
+ * @Description("Gets a product by its id.")
+ * @Cacheable(ttl = 30, maxEntries = 10_000, ignoreToken = true)
+ * class GetProductHandler implements CommandHandler { ... }
+ * }
+ * </pre>
+ *
+ * @see ResultCache
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cacheable {
+    /**
+     * @return how long a result is served from the cache, in {@link #unit()}s
+     */
+    long ttl();
+
+    /**
+     * @return the unit of {@link #ttl()}
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * @return the most results kept for the command
+     */
+    int maxEntries() default 1024;
+
+    /**
+     * @return if the request token is left out of the key, sharing results between callers
+     */
+    boolean ignoreToken() default false;
+}
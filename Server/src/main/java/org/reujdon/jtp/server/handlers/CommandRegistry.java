@@ -4,6 +4,7 @@ import jdk.jfr.Description;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A registry for managing command handlers in the transfer protocol.
@@ -15,6 +16,9 @@ import java.util.Map;
 public class CommandRegistry {
     private static final Map<String, CommandHandler> handlers = new HashMap<>();
 
+    // Incremented on every registration so results derived from the command set can be dropped
+    private static final AtomicLong version = new AtomicLong();
+
 //    Base command initialization
     static {
         handlers.put("Help", new HelpCommandHandler());
@@ -71,6 +75,17 @@ public class CommandRegistry {
         return descriptions;
     }
 
+    /**
+     * Gets the current version of the command set. The version changes every time a command is
+     * registered, so anything computed from the registered commands, such as the result of a
+     * {@link ConstantResult} handler, is only valid while the version is unchanged.
+     *
+     * @return the version of the command set
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
     /**
      * Registers a new command handler or replaces an existing one.
      *
@@ -107,6 +122,8 @@ public class CommandRegistry {
         validateDescription(handler.getClass());
 
         handlers.put(command, handler);
+        version.incrementAndGet();
+        ResultCache.remove(command);
     }
 
     /**
@@ -0,0 +1,23 @@
+package org.reujdon.jtp.server.handlers;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link CommandHandler} whose result only depends on the set of registered commands,
+ * not on the request parameters or the client.
+ *
+ * <p>The server calls such a handler once, encodes its result per codec and answers later
+ * requests from the encoded bytes, only filling in the request id. The cached result is dropped
+ * whenever {@link CommandRegistry#register} changes the command set.</p>
+ *
+ * @see CommandRegistry#getVersion()
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ConstantResult {
+}
@@ -0,0 +1,165 @@
+package org.reujdon.jtp.server.handlers;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Sends files under a root directory to clients, registered by the {@link org.reujdon.jtp.server.Server}
+ * as the {@code File} command when {@code server.files.root} is set.
+ *
+ * <p>The request names the file with {@code path}, relative to the root, and may select a range of
+ * it with {@code offset} and {@code length}, so an interrupted transfer can be resumed where it
+ * stopped. Files outside the root, including through symbolic links, are refused.</p>
+ *
+ * <p>When a client opens the command as a stream, by adding a
+ * {@link org.reujdon.jtp.shared.Demand#PARAM demand} to its request, the server reads the range in
+ * chunks of {@link #getChunkSize()} bytes from a {@link FileRegion} into direct buffers and sends
+ * each as an upload style {@link org.reujdon.jtp.shared.Chunk} holding its {@code offset} and
+ * {@link org.reujdon.jtp.shared.Chunk#DATA data}. The last chunk is marked
+ * {@link org.reujdon.jtp.shared.Chunk#LAST last} and also carries the {@code size} of the file and
+ * the CRC32C {@code checksum} of the range, computed as the chunks were read. With the binary
+ * codec the bytes of a chunk are handed to the transport straight from the buffer they were read
+ * into.</p>
+ *
+ * <p>Called without a demand, including from a batch, the command sends no data and answers with
+ * the {@code size} of the file and the {@code checksum} of the range, so a client can check the
+ * part of a file it already holds before resuming.</p>
+ */
+@Description("Sends a file under the server's file root in chunks, optionally from an offset.")
+public class FileCommandHandler implements CommandHandler {
+    public static final String PATH = "path";
+    public static final String OFFSET = "offset";
+    public static final String LENGTH = "length";
+    public static final String SIZE = "size";
+    public static final String CHECKSUM = "checksum";
+
+    private final Path root;
+    private final int chunkSize;
+
+    /**
+     * Constructs a new {@code FileCommandHandler}.
+     *
+     * @param root      the directory files are served from
+     * @param chunkSize the number of bytes sent per chunk
+     * @throws IllegalArgumentException if root is not a directory or chunkSize is not positive
+     */
+    public FileCommandHandler(Path root, int chunkSize) {
+        if (root == null || !Files.isDirectory(root))
+            throw new IllegalArgumentException("File root is not a directory: " + root);
+
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException(String.format("Invalid chunk size: %d. Must be positive", chunkSize));
+
+        try {
+            this.root = root.toRealPath();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("File root cannot be resolved: " + root, e);
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the directory files are served from
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the number of bytes sent per chunk
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Opens the range of a file a request asks for.
+     *
+     * @param params the request parameters
+     * @return the open region, to be closed by the caller
+     * @throws IllegalArgumentException if the path is missing or outside the root, or the range is invalid
+     * @throws IOException if the file cannot be opened
+     */
+    public FileRegion open(Map<String, Object> params) throws IOException {
+        if (!(params.get(PATH) instanceof String name) || name.trim().isEmpty())
+            throw new IllegalArgumentException("No path specified");
+
+        Path file;
+        try {
+            file = root.resolve(name).toRealPath();
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid path: " + name);
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("No such file: " + name);
+        }
+
+        if (!file.startsWith(root) || !Files.isRegularFile(file))
+            throw new IllegalArgumentException("Not a file under the file root: " + name);
+
+        long offset = positionOf(params, OFFSET, 0);
+        long length = positionOf(params, LENGTH, Long.MAX_VALUE);
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (offset > size)
+                throw new IllegalArgumentException(String.format("Offset %d is beyond the end of the file, %d bytes", offset, size));
+
+            return new FileRegion(channel, offset, Math.min(length, size - offset), size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Computes the checksum of the requested range without sending it.
+     *
+     * @param params A map containing the command parameters (never null)
+     * @return the {@code size} of the file and the {@code checksum} of the range
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    @Override
+    public JSONObject handle(Map<String, Object> params) {
+        try (FileRegion region = open(params)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+
+            while (region.read(buffer) > 0)
+                buffer.clear();
+
+            return new JSONObject()
+                    .put(OFFSET, region.getOffset())
+                    .put(LENGTH, region.getLength())
+                    .put(SIZE, region.getSize())
+                    .put(CHECKSUM, region.getChecksum());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads an optional non-negative position parameter.
+     */
+    private static long positionOf(Map<String, Object> params, String key, long defaultValue) {
+        Object value = params.get(key);
+        if (value == null)
+            return defaultValue;
+
+        if (!(value instanceof Integer || value instanceof Long) || ((Number) value).longValue() < 0)
+            throw new IllegalArgumentException(key + " must be a non-negative integer");
+
+        return ((Number) value).longValue();
+    }
+}
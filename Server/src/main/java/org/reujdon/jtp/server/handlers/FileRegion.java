@@ -0,0 +1,115 @@
+package org.reujdon.jtp.server.handlers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * A range of a file opened by a {@link FileCommandHandler}, read in order from its start.
+ * <p>
+ * Reads are positional, so the channel's own position is never used, and each read adds the
+ * bytes it returns to a running CRC32C. Reading into a direct buffer keeps the bytes out of the
+ * Java heap all the way from the file to the checksum.
+ * <p>
+ * A region is read by one thread at a time and must be closed once no longer needed.
+ */
+public final class FileRegion implements Closeable {
+    private final FileChannel channel;
+    private final long offset;
+    private final long end;
+    private final long size;
+
+    private final CRC32C checksum = new CRC32C();
+    private long position;
+
+    /**
+     * Constructs a new {@code FileRegion}.
+     *
+     * @param channel the open channel of the file, owned by the region
+     * @param offset  the position of the first byte of the region in the file
+     * @param length  the number of bytes in the region
+     * @param size    the size of the whole file when it was opened
+     */
+    FileRegion(FileChannel channel, long offset, long length, long size) {
+        this.channel = channel;
+        this.offset = offset;
+        this.end = offset + length;
+        this.size = size;
+        this.position = offset;
+    }
+
+    /**
+     * Reads the next bytes of the region into a buffer, filling it unless the region ends first.
+     *
+     * @param buffer the buffer to read into, from its position up to its limit
+     * @return the number of bytes read, {@code -1} if the region has been read entirely
+     * @throws IOException if the file cannot be read or is shorter than when it was opened
+     */
+    public int read(ByteBuffer buffer) throws IOException {
+        if (position == end)
+            return -1;
+
+        int start = buffer.position();
+        int limit = buffer.limit();
+        if (end - position < limit - start)
+            buffer.limit(start + (int) (end - position));
+
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position() - start);
+                if (read < 0)
+                    throw new IOException("File ended at " + (position + buffer.position() - start) + " of " + end + " bytes");
+            }
+        } finally {
+            buffer.limit(limit);
+        }
+
+        int read = buffer.position() - start;
+        checksum.update(buffer.slice(start, read));
+        position += read;
+
+        return read;
+    }
+
+    /**
+     * @return the position of the first byte of the region in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes in the region
+     */
+    public long getLength() {
+        return end - offset;
+    }
+
+    /**
+     * @return the number of bytes of the region not read yet
+     */
+    public long getRemaining() {
+        return end - position;
+    }
+
+    /**
+     * @return the size of the whole file when it was opened
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the CRC32C of the bytes read so far, as eight hexadecimal digits
+     */
+    public String getChecksum() {
+        return String.format("%08x", checksum.getValue());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -6,6 +6,7 @@ import org.json.JSONObject;
 import java.util.Map;
 
 @Description("Lists all commands and there descriptions.")
+@ConstantResult
 class HelpCommandHandler implements CommandHandler {
     @Override
     public JSONObject handle(Map<String, Object> params) {
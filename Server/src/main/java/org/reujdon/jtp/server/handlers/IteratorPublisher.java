@@ -0,0 +1,120 @@
+package org.reujdon.jtp.server.handlers;
+
+import java.util.Iterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} reading its items from an iterator as they are requested.
+ * <p>
+ * Items are pulled and delivered on the thread calling {@link Flow.Subscription#request(long)}.
+ * A request made while another thread is delivering only adds to the demand, which that thread
+ * then serves, so items are always delivered one at a time and in order.
+ *
+ * @param <T> the type of the items
+ */
+final class IteratorPublisher<T> implements Flow.Publisher<T> {
+    private final Iterator<T> items;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    /**
+     * @param items the items to publish
+     * @throws IllegalArgumentException if items is null
+     */
+    IteratorPublisher(Iterator<T> items) {
+        if (items == null)
+            throw new IllegalArgumentException("Items cannot be null");
+
+        this.items = items;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("Subscriber cannot be null");
+
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+        if (!subscribed.compareAndSet(false, true))
+            subscription.fail(new IllegalStateException("Publisher accepts a single subscriber"));
+    }
+
+    private final class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean done = false;
+        private volatile Throwable error;
+
+        private Subscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (done)
+                return;
+
+            // Signalled by the delivering thread, so it cannot overlap an item
+            if (n <= 0)
+                error = new IllegalArgumentException("Demand must be positive: " + n);
+            else
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        /**
+         * Delivers items while there is demand, unless another thread already does.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+
+            int missed = 1;
+            do {
+                try {
+                    if (error != null) {
+                        fail(error);
+                        return;
+                    }
+
+                    while (!done && demand.get() > 0) {
+                        if (!items.hasNext()) {
+                            done = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+
+                        T item = items.next();
+                        if (demand.get() != Long.MAX_VALUE)
+                            demand.decrementAndGet();
+
+                        subscriber.onNext(item);
+                    }
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void fail(Throwable error) {
+            if (done)
+                return;
+
+            done = true;
+            subscriber.onError(error);
+        }
+    }
+}
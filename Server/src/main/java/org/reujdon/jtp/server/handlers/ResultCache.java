@@ -0,0 +1,282 @@
+package org.reujdon.jtp.server.handlers;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.Parse;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+import org.reujdon.jtp.shared.codec.PreparedResponse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of results of {@link Cacheable} command handlers.
+ *
+ * <p>Each cacheable command gets its own least recently used cache, sized and timed by its
+ * {@link Cacheable} annotation. Entries are keyed by the request parameters in a normalized form,
+ * with keys sorted and numbers in their shortest form, leaving out {@code command} and, if the
+ * handler ignores it, {@code token}. A result is encoded at most once per codec and served with
+ * only the request id filled in.</p>
+ *
+ * <p>Handlers that change data read by a cacheable command should {@link #invalidate(String)} it.
+ * Registering a command through {@link CommandRegistry#register} drops its cached results.</p>
+ *
+ * <p>All methods are thread-safe. No monitors are held, so callers may run on virtual threads.</p>
+ *
+ * @see Cacheable
+ */
+public final class ResultCache {
+    private static final Map<String, CommandCache> caches = new ConcurrentHashMap<>();
+
+    private ResultCache() {
+    }
+
+    /**
+     * Hit, miss and eviction counts of a command's cache.
+     *
+     * @param hits      requests answered from the cache
+     * @param misses    requests that called the handler
+     * @param evictions results dropped because they expired or the cache was full
+     * @param size      results currently cached
+     */
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    /**
+     * @param handler the handler of a command
+     * @return if the handler is annotated with {@link Cacheable}
+     */
+    public static boolean isCacheable(CommandHandler handler) {
+        return handler.getClass().isAnnotationPresent(Cacheable.class);
+    }
+
+    /**
+     * Gets the result of a cacheable command for the given parameters, calling the handler
+     * if no fresh result is cached.
+     *
+     * @param command the command being executed
+     * @param handler the handler registered for the command
+     * @param codec   the codec the result is encoded with
+     * @param params  the request parameters
+     * @return the encoded result
+     * @throws IllegalArgumentException if the handler is not annotated with {@link Cacheable}
+     * @throws RuntimeException if the handler fails
+     */
+    public static PreparedResponse get(String command, CommandHandler handler, MessageCodec codec, Map<String, Object> params) {
+        CommandCache cache = caches.get(command);
+
+        if (cache == null || cache.handler != handler) {
+            Cacheable cacheable = handler.getClass().getAnnotation(Cacheable.class);
+            if (cacheable == null)
+                throw new IllegalArgumentException("Handler of " + command + " is not @Cacheable");
+
+            CommandCache created = new CommandCache(handler, cacheable);
+            cache = caches.merge(command, created, (old, value) -> old.handler == handler ? old : value);
+        }
+
+        return cache.get(codec, params);
+    }
+
+    /**
+     * Drops all cached results of a command.
+     *
+     * @param command the command to invalidate
+     * @throws IllegalArgumentException if command is null or empty
+     */
+    public static void invalidate(String command) {
+        if (command == null || command.trim().isEmpty())
+            throw new IllegalArgumentException("Command cannot be null or empty");
+
+        CommandCache cache = caches.get(command.trim());
+        if (cache != null)
+            cache.clear();
+    }
+
+    /**
+     * Drops the cached result of a command for the given parameters only.
+     *
+     * @param command the command to invalidate
+     * @param params  the parameters of the request whose result is dropped
+     * @throws IllegalArgumentException if command is null or empty or params is null
+     */
+    public static void invalidate(String command, Map<String, Object> params) {
+        if (command == null || command.trim().isEmpty())
+            throw new IllegalArgumentException("Command cannot be null or empty");
+
+        if (params == null)
+            throw new IllegalArgumentException("Params cannot be null");
+
+        CommandCache cache = caches.get(command.trim());
+        if (cache != null)
+            cache.remove(params);
+    }
+
+    /**
+     * Drops all cached results of every command.
+     */
+    public static void invalidateAll() {
+        for (CommandCache cache : caches.values())
+            cache.clear();
+    }
+
+    /**
+     * Gets the counters of a command's cache, which are reset when the command is registered again.
+     *
+     * @param command the command
+     * @return the counters, all zero if the command has not been called
+     */
+    public static Stats getStats(String command) {
+        CommandCache cache = caches.get(command);
+        return cache == null ? new Stats(0, 0, 0, 0) : cache.stats();
+    }
+
+    /**
+     * Forgets the cache of a command whose handler is being replaced.
+     */
+    static void remove(String command) {
+        caches.remove(command);
+    }
+
+    /**
+     * Builds the normalized cache key of a request.
+     *
+     * @param params      the request parameters
+     * @param ignoreToken if the {@code token} parameter is left out
+     * @return the key, the parameters as JSON text with sorted keys
+     */
+    static String keyOf(Map<String, Object> params, boolean ignoreToken) {
+        return ignoreToken ? Parse.Canonical(params, "command", "token") : Parse.Canonical(params, "command");
+    }
+
+    /**
+     * A cached handler result, encoded on demand for each codec it is sent with.
+     */
+    private static final class Entry {
+        private final JSONObject result;
+        private final long created;
+        private final Map<MessageCodec, PreparedResponse> encoded = new ConcurrentHashMap<>(4);
+
+        private Entry(JSONObject result, long created) {
+            this.result = result;
+            this.created = created;
+        }
+
+        private PreparedResponse encoded(MessageCodec codec) {
+            return encoded.computeIfAbsent(codec, c -> c.prepareResponse(result));
+        }
+    }
+
+    /**
+     * The least recently used cache of a single command.
+     */
+    private static final class CommandCache {
+        private final CommandHandler handler;
+        private final long ttlNanos;
+        private final int maxEntries;
+        private final boolean ignoreToken;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, Entry> entries;
+
+        // Incremented on invalidation, so results computed before it are not stored after it
+        private long generation = 0;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        private CommandCache(CommandHandler handler, Cacheable cacheable) {
+            if (cacheable.ttl() <= 0 || cacheable.maxEntries() <= 0)
+                throw new IllegalArgumentException("@Cacheable ttl and maxEntries must be positive on " + handler.getClass().getName());
+
+            this.handler = handler;
+            this.ttlNanos = cacheable.unit().toNanos(cacheable.ttl());
+            this.maxEntries = cacheable.maxEntries();
+            this.ignoreToken = cacheable.ignoreToken();
+
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() <= maxEntries)
+                        return false;
+
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        private PreparedResponse get(MessageCodec codec, Map<String, Object> params) {
+            String key = keyOf(params, ignoreToken);
+            long now = System.nanoTime();
+            long startGeneration;
+            Entry entry;
+
+            lock.lock();
+            try {
+                entry = entries.get(key);
+
+                if (entry != null && now - entry.created >= ttlNanos) {
+                    entries.remove(key);
+                    evictions.increment();
+                    entry = null;
+                }
+
+                startGeneration = generation;
+            } finally {
+                lock.unlock();
+            }
+
+            if (entry != null) {
+                hits.increment();
+                return entry.encoded(codec);
+            }
+
+            misses.increment();
+            entry = new Entry(handler.handle(params), now);
+
+            lock.lock();
+            try {
+                if (generation == startGeneration)
+                    entries.put(key, entry);
+            } finally {
+                lock.unlock();
+            }
+
+            return entry.encoded(codec);
+        }
+
+        private void remove(Map<String, Object> params) {
+            String key = keyOf(params, ignoreToken);
+
+            lock.lock();
+            try {
+                entries.remove(key);
+                generation++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void clear() {
+            lock.lock();
+            try {
+                entries.clear();
+                generation++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Stats stats() {
+            lock.lock();
+            try {
+                return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
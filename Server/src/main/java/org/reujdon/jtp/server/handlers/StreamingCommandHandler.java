@@ -0,0 +1,93 @@
+package org.reujdon.jtp.server.handlers;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+
+/**
+ * A command handler that produces its result as a stream of partial results.
+ *
+ * <p>Instead of one {@link JSONObject}, {@link #stream(Map)} returns a {@link Flow.Publisher} of
+ * chunks. When a client opens the command as a stream, by adding a
+ * {@link org.reujdon.jtp.shared.Demand#PARAM demand} to its request, the server subscribes to the
+ * publisher and forwards the client's demand to it as {@link Flow.Subscription#request(long)},
+ * sending each chunk as it is published and ending the stream when the publisher completes. A
+ * publisher that only produces chunks when asked, such as one built with {@link #publish(Iterator)},
+ * never holds more than the client is ready for.</p>
+ *
+ * <p>Clients that call the command without a demand, including from a batch, get all chunks
+ * collected into one response under {@code chunks}.</p>
+ *
+ * <p>Like other handlers, implementations must have a {@link jdk.jfr.Description}.</p>
+ *
+ * @see CommandRegistry
+ */
+@FunctionalInterface
+public interface StreamingCommandHandler extends CommandHandler {
+    /**
+     * Starts producing the result of a command.
+     *
+     * @param params A map containing the command parameters (never null)
+     * @return A publisher of the partial results, subscribed to once
+     * @throws RuntimeException if the command cannot be started
+     */
+    Flow.Publisher<JSONObject> stream(Map<String, Object> params);
+
+    /**
+     * Produces the whole result at once, for clients that do not stream it.
+     *
+     * @param params A map containing the command parameters (never null)
+     * @return A JSONObject holding all partial results under {@code chunks}
+     * @throws RuntimeException if the publisher fails
+     */
+    @Override
+    default JSONObject handle(Map<String, Object> params) {
+        JSONArray chunks = new JSONArray();
+        CompletableFuture<JSONObject> result = new CompletableFuture<>();
+
+        stream(params).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(JSONObject item) {
+                chunks.put(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(new JSONObject().put("chunks", chunks));
+            }
+        });
+
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Builds a publisher that pulls chunks from an iterator only as they are requested, on the
+     * thread that requests them.
+     *
+     * @param chunks the partial results, read lazily
+     * @return a publisher accepting a single subscriber
+     * @throws IllegalArgumentException if chunks is null
+     */
+    static Flow.Publisher<JSONObject> publish(Iterator<JSONObject> chunks) {
+        return new IteratorPublisher<>(chunks);
+    }
+}
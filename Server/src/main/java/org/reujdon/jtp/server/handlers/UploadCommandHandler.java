@@ -0,0 +1,59 @@
+package org.reujdon.jtp.server.handlers;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * A command handler that consumes a request body uploaded after the request.
+ *
+ * <p>When a client sends the command with {@link org.reujdon.jtp.shared.Chunk#UPLOAD upload} set,
+ * the body follows the request in chunks and {@link #upload(Map, InputStream)} reads it as it
+ * arrives. The server only asks the client for more chunks as the handler consumes them, so the
+ * memory held for an upload stays bounded whatever the size of the body. Reading blocks until
+ * the next chunk arrives, so the upload returns its in-flight permit once the handler starts,
+ * letting the client's later requests be read while the body is still arriving.</p>
+ *
+ * <p>The handler may return before reading the whole body; the rest is discarded and the client
+ * stops sending it once the response arrives. Reading fails with an {@link IOException} if the
+ * client cancels the upload or the connection closes.</p>
+ *
+ * <p>Clients that call the command without an upload, including from a batch, are handled with
+ * an empty body.</p>
+ *
+ * <p>Like other handlers, implementations must have a {@link jdk.jfr.Description}.</p>
+ *
+ * @see CommandRegistry
+ */
+@FunctionalInterface
+public interface UploadCommandHandler extends CommandHandler {
+    /**
+     * Processes a command with the given parameters and body and returns a JSON response.
+     *
+     * @param params A map containing the command parameters (never null)
+     * @param body   The uploaded body, read as it arrives (never null, need not be closed)
+     * @return A JSONObject containing the response data
+     * @throws IOException if reading the body fails
+     * @throws RuntimeException if command processing fails
+     */
+    JSONObject upload(Map<String, Object> params, InputStream body) throws IOException;
+
+    /**
+     * Processes the command with an empty body, for clients that do not upload one.
+     *
+     * @param params A map containing the command parameters (never null)
+     * @return A JSONObject containing the response data
+     * @throws RuntimeException if command processing fails
+     */
+    @Override
+    default JSONObject handle(Map<String, Object> params) {
+        try {
+            return upload(params, InputStream.nullInputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
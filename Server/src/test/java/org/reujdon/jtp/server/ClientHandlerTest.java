@@ -0,0 +1,133 @@
+package org.reujdon.jtp.server;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reujdon.jtp.shared.Hello;
+import org.reujdon.jtp.shared.Response;
+import org.reujdon.jtp.shared.codec.BinaryCodec;
+import org.reujdon.jtp.shared.transport.Framing;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives a {@link ClientHandler} over loopback TLS.
+ */
+class ClientHandlerTest {
+    private static final String PASSWORD = "changeit";
+
+    @TempDir
+    Path dir;
+
+    private SSLSocket client;
+    private ClientHandler handler;
+
+    @AfterEach
+    void teardown() throws IOException {
+        if (client != null)
+            client.close();
+    }
+
+    @Test
+    void testSendReturnsWhileAnotherSenderIsBlocked() throws Exception {
+        connect();
+
+        // Negotiate a key table, whose lock every send takes
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = client.getOutputStream();
+        out.write((new Hello("h", Framing.LENGTH, BinaryCodec.NAME, null, 64).toJSON() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        assertEquals(64, new JSONObject(in.readLine()).getJSONObject("params").getInt("keyTable"));
+
+        // The client stops reading, so this sender ends up blocked on the socket
+        String value = "x".repeat(1024 * 1024);
+        Thread blocked = new Thread(() -> {
+            for (int i = 0; i < 64; i++)
+                handler.send(new Response("r" + i, new JSONObject().put("value", value)));
+        });
+        blocked.setDaemon(true);
+        blocked.start();
+
+        Thread.sleep(500);
+        assertTrue(blocked.isAlive(), "Sender was not blocked");
+
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> handler.send(new Response("other", new JSONObject().put("value", 1))));
+    }
+
+    /**
+     * Opens a TLS connection to a {@link ClientHandler} running on a new thread.
+     */
+    private void connect() throws Exception {
+        SSLContext context = context();
+
+        Path config = dir.resolve("server.properties");
+        Files.writeString(config, "server.keyTable = 64");
+        Server server = new Server(0, config.toString()) {
+            @Override
+            public boolean isRunning() {
+                return true;
+            }
+        };
+
+        try (SSLServerSocket listener = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            client = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+            handler = new ClientHandler((SSLSocket) listener.accept(), server);
+        }
+
+        Thread reader = new Thread(handler);
+        reader.setDaemon(true);
+        reader.start();
+
+        client.setSoTimeout(5000);
+        client.startHandshake();
+    }
+
+    /**
+     * Creates a context with a new self-signed key that also trusts it.
+     */
+    private SSLContext context() throws Exception {
+        Path keystore = dir.resolve("test.jks");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "test", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=localhost", "-storetype", "JKS", "-keystore", keystore.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+        assertEquals(0, keytool.waitFor(), "keytool failed");
+
+        KeyStore store = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystore.toFile())) {
+            store.load(in, PASSWORD.toCharArray());
+        }
+
+        KeyManagerFactory keys = KeyManagerFactory.getInstance("SunX509");
+        keys.init(store, PASSWORD.toCharArray());
+
+        TrustManagerFactory trust = TrustManagerFactory.getInstance("SunX509");
+        trust.init(store);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return context;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+package org.reujdon.jtp.server;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reujdon.jtp.server.handlers.CommandHandler;
+import org.reujdon.jtp.server.handlers.CommandRegistry;
+import org.reujdon.jtp.server.handlers.UploadCommandHandler;
+import org.reujdon.jtp.shared.Batch;
+import org.reujdon.jtp.shared.Chunk;
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionTest {
+    private static final int MAX_IN_FLIGHT = 2;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testConcurrentUploadsDoNotHoldPermits() throws Exception {
+        CommandRegistry.register("UploadSize", new SizeHandler(), true);
+        CommandRegistry.register("Echo", new EchoHandler(), true);
+
+        TestConnection connection = new TestConnection(server(MAX_IN_FLIGHT));
+
+        // As many uploads as permits, then a request read before any of their chunks
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < MAX_IN_FLIGHT; i++)
+            input.append(request("u" + i, "UploadSize", true));
+        input.append(request("e", "Echo", false));
+        for (int i = 0; i < MAX_IN_FLIGHT; i++)
+            input.append(new Chunk("u" + i, new byte[100 * (i + 1)], false, true).toJSON()).append('\n');
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> connection.read(input.toString()));
+
+        Map<String, JSONObject> responses = connection.awaitResponses(MAX_IN_FLIGHT + 1);
+        for (int i = 0; i < MAX_IN_FLIGHT; i++)
+            assertEquals(100 * (i + 1), responses.get("u" + i).getJSONObject("params").getLong("size"));
+        assertTrue(responses.containsKey("e"));
+    }
+
+    @Test
+    void testBatchCommandsBoundedByPermits() throws Exception {
+        ConcurrencyHandler handler = new ConcurrencyHandler();
+        CommandRegistry.register("Concurrent", handler, true);
+
+        TestConnection connection = new TestConnection(server(MAX_IN_FLIGHT));
+
+        Batch batch = new Batch();
+        for (int i = 0; i < 6; i++)
+            batch.add("Concurrent", Map.of());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> connection.read(batch.toJSON() + "\n"));
+
+        JSONObject reply = connection.awaitMessage("BATCH");
+        assertEquals(batch.getId(), reply.getString("id"));
+        assertEquals(6, reply.getJSONObject("params").getJSONArray("results").length());
+        assertTrue(handler.max.get() <= MAX_IN_FLIGHT, "Ran " + handler.max.get() + " commands at once");
+    }
+
+    private Server server(int maxInFlight) throws IOException {
+        Path config = dir.resolve("server.properties");
+        Files.writeString(config, "server.maxInFlight = " + maxInFlight);
+
+        return new Server(0, config.toString()) {
+            @Override
+            public boolean isRunning() {
+                return true;
+            }
+        };
+    }
+
+    private static String request(String id, String command, boolean upload) {
+        JSONObject params = new JSONObject().put("command", command);
+        if (upload)
+            params.put(Chunk.UPLOAD, true);
+
+        return new JSONObject().put("type", "REQUEST").put("id", id).put("params", params) + "\n";
+    }
+
+    /**
+     * Reads like a blocking {@link ClientHandler}, waiting for a permit before each dispatch.
+     */
+    private static class TestConnection extends Connection {
+        private final BlockingQueue<JSONObject> written = new LinkedBlockingQueue<>();
+
+        TestConnection(Server server) {
+            super(server, "test");
+        }
+
+        void read(String input) throws Exception {
+            byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+            decoder.feed(bytes, 0, bytes.length);
+
+            DecodedMessage message;
+            while ((message = nextMessage()) != null) {
+                acquirePermit();
+                dispatch(message);
+            }
+        }
+
+        JSONObject awaitMessage(String type) throws InterruptedException {
+            while (true) {
+                JSONObject message = written.poll(5, TimeUnit.SECONDS);
+                assertNotNull(message, "Timed out waiting for a " + type);
+
+                if (message.getString("type").equals(type))
+                    return message;
+            }
+        }
+
+        Map<String, JSONObject> awaitResponses(int count) throws InterruptedException {
+            Map<String, JSONObject> responses = new HashMap<>();
+            while (responses.size() < count) {
+                JSONObject message = written.poll(5, TimeUnit.SECONDS);
+                assertNotNull(message, "Timed out waiting for responses");
+
+                if (message.getString("type").equals("RESPONSE"))
+                    responses.put(message.getString("id"), message);
+            }
+
+            return responses;
+        }
+
+        @Override
+        protected void write(byte[] frame) {
+            written.add(new JSONObject(new String(frame, StandardCharsets.UTF_8).trim()));
+        }
+
+        @Override
+        public void close() {
+            cancelStreams();
+        }
+    }
+
+    @Description("Counts the bytes of the uploaded body")
+    private static class SizeHandler implements UploadCommandHandler {
+        @Override
+        public JSONObject upload(Map<String, Object> params, InputStream body) throws IOException {
+            return new JSONObject().put("size", body.readAllBytes().length);
+        }
+    }
+
+    @Description("Records how many of its commands run at once")
+    private static class ConcurrencyHandler implements CommandHandler {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger max = new AtomicInteger();
+
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            max.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+
+            return new JSONObject();
+        }
+    }
+
+    @Description("Returns an empty result")
+    private static class EchoHandler implements CommandHandler {
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            return new JSONObject();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,312 @@
+package org.reujdon.jtp.server;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reujdon.jtp.server.handlers.CommandHandler;
+import org.reujdon.jtp.server.handlers.CommandRegistry;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives a {@link NioConnection} on a real {@link NioWorker} over loopback TLS.
+ */
+class NioConnectionTest {
+    private static final String PASSWORD = "changeit";
+
+    // Released by each test that holds commands, so a failed test does not leave them blocked
+    private static volatile CountDownLatch release = new CountDownLatch(0);
+
+    @TempDir
+    Path dir;
+
+    private NioWorker worker;
+    private NioConnection connection;
+    private SSLSocket client;
+    private BufferedReader in;
+    private OutputStream out;
+
+    @BeforeEach
+    void setup() {
+        CommandRegistry.register("Echo", new EchoHandler(), true);
+        CommandRegistry.register("Hold", new HoldHandler(), true);
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        release.countDown();
+
+        if (client != null)
+            client.close();
+
+        if (worker != null)
+            worker.close();
+    }
+
+    @Test
+    void testRoundTrip() throws Exception {
+        connect(0);
+
+        // Larger than a TLS record in both directions
+        String value = "x".repeat(100_000);
+        send("1", "Echo", value);
+
+        JSONObject response = receive(5000);
+        assertNotNull(response);
+        assertEquals("RESPONSE", response.getString("type"));
+        assertEquals("1", response.getString("id"));
+        assertEquals(value, response.getJSONObject("params").getString("value"));
+    }
+
+    @Test
+    void testPipelinedRequestsAnswered() throws Exception {
+        connect(0);
+
+        for (int i = 0; i < 100; i++)
+            send(Integer.toString(i), "Echo", "v" + i);
+
+        for (int i = 0; i < 100; i++) {
+            JSONObject response = receive(5000);
+            assertNotNull(response);
+            assertEquals("v" + response.getString("id"), response.getJSONObject("params").getString("value"));
+        }
+    }
+
+    @Test
+    void testInFlightLimitPausesAndResumesReading() throws Exception {
+        release = new CountDownLatch(1);
+        connect(1);
+
+        send("1", "Hold");
+        send("2", "Echo");
+
+        // The second request waits unread for the permit of the first
+        assertNull(receive(300));
+        assertEquals(1, connection.getInFlight());
+
+        release.countDown();
+
+        assertEquals("1", receive(5000).getString("id"));
+        assertEquals("2", receive(5000).getString("id"));
+        awaitInFlight(0);
+    }
+
+    @Test
+    void testRequestsBeyondLimitAllAnswered() throws Exception {
+        release = new CountDownLatch(1);
+        connect(2);
+
+        for (int i = 0; i < 10; i++)
+            send(Integer.toString(i), i < 2 ? "Hold" : "Echo");
+
+        assertNull(receive(300));
+        assertEquals(2, connection.getInFlight());
+
+        release.countDown();
+
+        for (int i = 0; i < 10; i++)
+            assertNotNull(receive(5000));
+        awaitInFlight(0);
+    }
+
+    @Test
+    void testClientNotReadingPausesReading() throws Exception {
+        connect(4);
+
+        // Far more responses than the outbound queue may hold, which the client does not read yet
+        String value = "x".repeat(100_000);
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++)
+                    send(Integer.toString(i), "Echo", value);
+            } catch (IOException e) {
+                // The test closed the connection
+            }
+        });
+        sender.setDaemon(true);
+        sender.start();
+
+        awaitQueueSettled();
+        assertTrue(sender.isAlive(), "Server kept reading");
+        assertTrue(connection.getQueuedBytes() < 2 * NioConnection.MAX_QUEUED_BYTES, "Queued " + connection.getQueuedBytes() + " bytes");
+
+        for (int i = 0; i < 200; i++)
+            assertNotNull(receive(5000));
+
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        awaitInFlight(0);
+        assertEquals(0, connection.getQueuedBytes());
+    }
+
+    /**
+     * Opens a TLS connection from a blocking client socket to a {@link NioConnection} on a new worker.
+     */
+    private void connect(int maxInFlight) throws Exception {
+        SSLContext context = context();
+
+        Path config = dir.resolve("server.properties");
+        Files.writeString(config, "server.maxInFlight = " + maxInFlight);
+        Server server = new Server(0, config.toString()) {
+            @Override
+            public boolean isRunning() {
+                return true;
+            }
+        };
+
+        worker = new NioWorker("test-io");
+        worker.start();
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            client = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), listener.socket().getLocalPort());
+            SocketChannel channel = listener.accept();
+            channel.configureBlocking(false);
+
+            SSLEngine engine = context.createSSLEngine();
+            engine.setUseClientMode(false);
+
+            connection = new NioConnection(channel, engine, worker, server, "test");
+            worker.register(connection);
+        }
+
+        client.setSoTimeout(5000);
+        client.startHandshake();
+        in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        out = client.getOutputStream();
+    }
+
+    private void send(String id, String command) throws IOException {
+        send(id, command, null);
+    }
+
+    private void send(String id, String command, String value) throws IOException {
+        JSONObject request = new JSONObject()
+                .put("type", "REQUEST")
+                .put("id", id)
+                .put("params", new JSONObject().put("command", command).put("value", value));
+
+        out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * @return the next message from the server, or {@code null} if none arrives in time
+     */
+    private JSONObject receive(int timeoutMillis) throws IOException {
+        client.setSoTimeout(timeoutMillis);
+
+        try {
+            String line = in.readLine();
+            assertNotNull(line, "Connection closed");
+            return new JSONObject(line);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the permits of answered commands, which are released after their response is sent.
+     */
+    private void awaitInFlight(int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && connection.getInFlight() != expected; i++)
+            Thread.sleep(10);
+
+        assertEquals(expected, connection.getInFlight());
+    }
+
+    /**
+     * Waits until responses are queued and the queue stops changing.
+     */
+    private void awaitQueueSettled() throws InterruptedException {
+        long last = 0;
+        for (int i = 0; i < 40; i++) {
+            Thread.sleep(250);
+
+            long queued = connection.getQueuedBytes();
+            if (queued > 0 && queued == last)
+                return;
+            last = queued;
+        }
+    }
+
+    /**
+     * Creates a context with a new self-signed key that also trusts it.
+     */
+    private SSLContext context() throws Exception {
+        Path keystore = dir.resolve("test.jks");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "test", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=localhost", "-storetype", "JKS", "-keystore", keystore.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+        assertEquals(0, keytool.waitFor(), "keytool failed");
+
+        KeyStore store = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystore.toFile())) {
+            store.load(in, PASSWORD.toCharArray());
+        }
+
+        KeyManagerFactory keys = KeyManagerFactory.getInstance("SunX509");
+        keys.init(store, PASSWORD.toCharArray());
+
+        TrustManagerFactory trust = TrustManagerFactory.getInstance("SunX509");
+        trust.init(store);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return context;
+    }
+
+    @Description("Returns the value it was sent")
+    private static class EchoHandler implements CommandHandler {
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            return new JSONObject().put("value", params.get("value"));
+        }
+    }
+
+    @Description("Waits until the test releases it")
+    private static class HoldHandler implements CommandHandler {
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return new JSONObject();
+        }
+    }
+}
\ No newline at end of file
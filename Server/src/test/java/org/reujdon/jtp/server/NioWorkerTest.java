@@ -0,0 +1,53 @@
+package org.reujdon.jtp.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioWorkerTest {
+    private NioWorker worker;
+
+    @BeforeEach
+    void setup() throws IOException {
+        worker = new NioWorker("test-io");
+        worker.start();
+    }
+
+    @AfterEach
+    void teardown() {
+        worker.close();
+    }
+
+    @Test
+    void testExecuteRunsOnWorkerThread() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        boolean[] onWorker = new boolean[1];
+
+        worker.execute(() -> {
+            onWorker[0] = worker.isWorkerThread();
+            ran.countDown();
+        });
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(onWorker[0]);
+        assertFalse(worker.isWorkerThread());
+    }
+
+    @Test
+    void testFailingTaskDoesNotStopWorker() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+
+        worker.execute(() -> {
+            throw new IllegalStateException("Broken");
+        });
+        worker.execute(ran::countDown);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+package org.reujdon.jtp.server;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.server.handlers.CommandHandler;
+import org.reujdon.jtp.server.handlers.CommandRegistry;
+import org.reujdon.jtp.server.handlers.ConstantResult;
+import org.reujdon.jtp.shared.codec.BinaryCodec;
+import org.reujdon.jtp.shared.codec.JsonCodec;
+import org.reujdon.jtp.shared.codec.PreparedResponse;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+    private final JsonCodec json = new JsonCodec();
+
+    @Test
+    void testIsCacheable() {
+        assertTrue(ResponseCache.isCacheable(new CountingHandler()));
+        assertFalse(ResponseCache.isCacheable(params -> null));
+    }
+
+    @Test
+    void testHandlerCalledOncePerCodec() {
+        ResponseCache cache = new ResponseCache();
+        CountingHandler handler = new CountingHandler();
+
+        PreparedResponse first = cache.get("Count", handler, json, Map.of());
+        PreparedResponse second = cache.get("Count", handler, json, Map.of());
+
+        assertSame(first, second);
+        assertEquals(1, handler.calls);
+
+        cache.get("Count", handler, new BinaryCodec(), Map.of());
+        assertEquals(2, handler.calls);
+    }
+
+    @Test
+    void testRegisterInvalidates() {
+        ResponseCache cache = new ResponseCache();
+        CountingHandler handler = new CountingHandler();
+
+        cache.get("Count", handler, json, Map.of());
+        CommandRegistry.register("ResponseCacheTest", new CountingHandler(), true);
+        PreparedResponse response = cache.get("Count", handler, json, Map.of());
+
+        assertEquals(2, handler.calls);
+
+        OutputBuffer out = new OutputBuffer();
+        response.write("42", out);
+        JSONObject written = new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        assertEquals("42", written.getString("id"));
+        assertEquals(2, written.getJSONObject("params").getInt("calls"));
+    }
+
+    @Description("Counts its calls")
+    @ConstantResult
+    private static class CountingHandler implements CommandHandler {
+        private int calls;
+
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            return new JSONObject().put("calls", ++calls);
+        }
+    }
+}
\ No newline at end of file
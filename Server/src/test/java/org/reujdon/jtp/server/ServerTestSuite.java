@@ -2,11 +2,26 @@ package org.reujdon.jtp.server;
 
 import org.junit.platform.suite.api.SelectClasses;
 import org.junit.platform.suite.api.Suite;
+import org.reujdon.jtp.server.handlers.AttachmentCommandHandlerTest;
 import org.reujdon.jtp.server.handlers.CommandRegistryTest;
+import org.reujdon.jtp.server.handlers.FileCommandHandlerTest;
+import org.reujdon.jtp.server.handlers.ResultCacheTest;
+import org.reujdon.jtp.server.handlers.StreamingCommandHandlerTest;
+import org.reujdon.jtp.server.handlers.UploadCommandHandlerTest;
 
 @Suite
 @SelectClasses({
-        CommandRegistryTest.class
+        AttachmentCommandHandlerTest.class,
+        ClientHandlerTest.class,
+        CommandRegistryTest.class,
+        ConnectionTest.class,
+        FileCommandHandlerTest.class,
+        NioConnectionTest.class,
+        NioWorkerTest.class,
+        ResponseCacheTest.class,
+        ResultCacheTest.class,
+        StreamingCommandHandlerTest.class,
+        UploadCommandHandlerTest.class
 })
 public class ServerTestSuite {
     // This class serves as a test suite container
@@ -0,0 +1,62 @@
+package org.reujdon.jtp.server.handlers;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttachmentCommandHandlerTest {
+    @Test
+    void testHandleReceivesAttachments() {
+        ByteBuffer first = ByteBuffer.wrap(new byte[]{1, 2, 3}).asReadOnlyBuffer();
+        ByteBuffer second = ByteBuffer.wrap(new byte[]{4}).asReadOnlyBuffer();
+
+        AttachmentCommandHandler.Result result = new ReverseHandler().handle(Map.of("command", "Reverse"), List.of(first, second));
+
+        assertEquals(2, result.data().getInt("count"));
+        assertEquals(List.of(second, first), result.attachments());
+    }
+
+    @Test
+    void testHandleWithoutAttachmentsDropsResultAttachments() {
+        JSONObject result = new ReverseHandler().handle(Map.of("command", "Reverse"));
+
+        assertEquals(0, result.getInt("count"));
+    }
+
+    @Test
+    void testInvalidResultThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new AttachmentCommandHandler.Result(new JSONObject(), null));
+        assertThrows(IllegalArgumentException.class, () -> AttachmentCommandHandler.Result.of(new JSONObject(), (ByteBuffer) null));
+        assertThrows(IllegalArgumentException.class, () -> new AttachmentCommandHandler.Result(null, Arrays.asList(ByteBuffer.allocate(1), null)));
+    }
+
+    @Test
+    void testResultCopiesAttachments() {
+        List<ByteBuffer> attachments = new ArrayList<>(List.of(ByteBuffer.allocate(1)));
+        AttachmentCommandHandler.Result result = new AttachmentCommandHandler.Result(null, attachments);
+        attachments.clear();
+
+        assertEquals(1, result.attachments().size());
+        assertThrows(UnsupportedOperationException.class, () -> result.attachments().clear());
+    }
+
+    @Description("Sends the attachments back in reverse order")
+    private static class ReverseHandler implements AttachmentCommandHandler {
+        @Override
+        public Result handle(Map<String, Object> params, List<ByteBuffer> attachments) {
+            List<ByteBuffer> reversed = new ArrayList<>(attachments);
+            Collections.reverse(reversed);
+
+            return new Result(new JSONObject().put("count", attachments.size()), reversed);
+        }
+    }
+}
\ No newline at end of file
@@ -37,6 +37,14 @@ public class CommandRegistryTest {
         assertEquals(handler, CommandRegistry.getHandler("  custom  "));
     }
 
+    @Test
+    void testRegisterChangesVersion() {
+        long version = CommandRegistry.getVersion();
+        CommandRegistry.register("versioned", new TestCommandHandler(), true);
+
+        assertNotEquals(version, CommandRegistry.getVersion());
+    }
+
     @Test
     void testRegisterNullArgsThrows(){
         CommandHandler handler = new TestCommandHandler();
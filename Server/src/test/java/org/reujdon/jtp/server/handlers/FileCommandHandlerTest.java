@@ -0,0 +1,125 @@
+package org.reujdon.jtp.server.handlers;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileCommandHandlerTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void testInvalidConstructorArgumentsThrow() throws IOException {
+        Path file = Files.write(root.resolve("file.bin"), new byte[1]);
+
+        assertThrows(IllegalArgumentException.class, () -> new FileCommandHandler(null, 16));
+        assertThrows(IllegalArgumentException.class, () -> new FileCommandHandler(file, 16));
+        assertThrows(IllegalArgumentException.class, () -> new FileCommandHandler(root, 0));
+    }
+
+    @Test
+    void testReadRegionInChunks() throws IOException {
+        byte[] data = write("file.bin", 1000);
+        FileCommandHandler handler = new FileCommandHandler(root, 64);
+
+        try (FileRegion region = handler.open(Map.of("path", "file.bin", "offset", 100, "length", 300))) {
+            assertEquals(100, region.getOffset());
+            assertEquals(300, region.getLength());
+            assertEquals(1000, region.getSize());
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(handler.getChunkSize());
+            byte[] read = new byte[300];
+            int total = 0;
+
+            for (int n; (n = region.read(buffer)) > 0; total += n) {
+                assertTrue(n == 64 || region.getRemaining() == 0);
+                buffer.flip().get(read, total, n);
+                buffer.clear();
+            }
+
+            assertEquals(300, total);
+            assertArrayEquals(Arrays.copyOfRange(data, 100, 400), read);
+            assertEquals(checksum(Arrays.copyOfRange(data, 100, 400)), region.getChecksum());
+        }
+    }
+
+    @Test
+    void testRegionEndsAtEndOfFile() throws IOException {
+        write("file.bin", 10);
+
+        try (FileRegion region = new FileCommandHandler(root, 64).open(Map.of("path", "file.bin", "offset", 10L))) {
+            assertEquals(0, region.getLength());
+            assertEquals(-1, region.read(ByteBuffer.allocate(8)));
+            assertEquals("00000000", region.getChecksum());
+        }
+    }
+
+    @Test
+    void testHandleReturnsChecksum() throws IOException {
+        byte[] data = write("file.bin", 5000);
+
+        JSONObject result = new FileCommandHandler(root, 512).handle(Map.of("path", "file.bin", "offset", 1000));
+
+        assertEquals(4000, result.getLong(FileCommandHandler.LENGTH));
+        assertEquals(5000, result.getLong(FileCommandHandler.SIZE));
+        assertEquals(checksum(Arrays.copyOfRange(data, 1000, 5000)), result.getString(FileCommandHandler.CHECKSUM));
+    }
+
+    @Test
+    void testInvalidRequestsThrow() throws IOException {
+        write("file.bin", 10);
+        Files.createDirectory(root.resolve("dir"));
+        FileCommandHandler handler = new FileCommandHandler(root.resolve("dir"), 64);
+
+        assertThrows(IllegalArgumentException.class, () -> handler.open(Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> handler.open(Map.of("path", "missing.bin")));
+        assertThrows(IllegalArgumentException.class, () -> handler.open(Map.of("path", "../file.bin")));
+        assertThrows(IllegalArgumentException.class, () -> handler.open(Map.of("path", root.resolve("file.bin").toString())));
+        assertThrows(IllegalArgumentException.class, () -> handler.open(Map.of("path", ".")));
+
+        FileCommandHandler parent = new FileCommandHandler(root, 64);
+        assertThrows(IllegalArgumentException.class, () -> parent.open(Map.of("path", "file.bin", "offset", 11)));
+        assertThrows(IllegalArgumentException.class, () -> parent.open(Map.of("path", "file.bin", "offset", -1)));
+        assertThrows(IllegalArgumentException.class, () -> parent.open(Map.of("path", "file.bin", "length", "5")));
+    }
+
+    @Test
+    void testSymbolicLinkOutOfRootThrows() throws IOException {
+        write("file.bin", 10);
+        Path dir = Files.createDirectory(root.resolve("dir"));
+
+        try {
+            Files.createSymbolicLink(dir.resolve("link"), root.resolve("file.bin"));
+        } catch (UnsupportedOperationException | IOException e) {
+            return;
+        }
+
+        FileCommandHandler handler = new FileCommandHandler(dir, 64);
+        assertThrows(IllegalArgumentException.class, () -> handler.open(Map.of("path", "link")));
+    }
+
+    private byte[] write(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) (i * 31);
+
+        Files.write(root.resolve(name), data);
+        return data;
+    }
+
+    private static String checksum(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return String.format("%08x", crc.getValue());
+    }
+}
\ No newline at end of file
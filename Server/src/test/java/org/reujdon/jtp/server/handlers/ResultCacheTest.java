@@ -0,0 +1,154 @@
+package org.reujdon.jtp.server.handlers;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.codec.JsonCodec;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+import org.reujdon.jtp.shared.codec.PreparedResponse;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultCacheTest {
+    private final MessageCodec codec = new JsonCodec();
+
+    @Test
+    void testIsCacheable() {
+        assertTrue(ResultCache.isCacheable(new EchoHandler()));
+        assertFalse(ResultCache.isCacheable(new UncachedHandler()));
+        assertThrows(IllegalArgumentException.class, () -> ResultCache.get("x", new UncachedHandler(), codec, Map.of()));
+    }
+
+    @Test
+    void testHitsAndMisses() {
+        EchoHandler handler = new EchoHandler();
+        CommandRegistry.register("CacheEcho", handler, true);
+
+        int first = calls(ResultCache.get("CacheEcho", handler, codec, Map.of("command", "CacheEcho", "n", 1)));
+        int second = calls(ResultCache.get("CacheEcho", handler, codec, Map.of("command", "CacheEcho", "n", 1)));
+        int other = calls(ResultCache.get("CacheEcho", handler, codec, Map.of("command", "CacheEcho", "n", 2)));
+
+        assertEquals(1, first);
+        assertEquals(1, second);
+        assertEquals(2, other);
+        assertEquals(new ResultCache.Stats(1, 2, 0, 2), ResultCache.getStats("CacheEcho"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEvicted() {
+        EchoHandler handler = new EchoHandler();
+        CommandRegistry.register("CacheLru", handler, true);
+
+        ResultCache.get("CacheLru", handler, codec, Map.of("n", 1));
+        ResultCache.get("CacheLru", handler, codec, Map.of("n", 2));
+        ResultCache.get("CacheLru", handler, codec, Map.of("n", 1));
+        ResultCache.get("CacheLru", handler, codec, Map.of("n", 3));
+
+        assertEquals(1, calls(ResultCache.get("CacheLru", handler, codec, Map.of("n", 1))));
+        assertEquals(4, calls(ResultCache.get("CacheLru", handler, codec, Map.of("n", 2))));
+        assertEquals(2, ResultCache.getStats("CacheLru").evictions());
+    }
+
+    @Test
+    void testExpiredResultRecomputed() throws InterruptedException {
+        ShortLivedHandler handler = new ShortLivedHandler();
+        CommandRegistry.register("CacheTtl", handler, true);
+
+        ResultCache.get("CacheTtl", handler, codec, Map.of());
+        Thread.sleep(30);
+
+        assertEquals(2, calls(ResultCache.get("CacheTtl", handler, codec, Map.of())));
+        assertEquals(1, ResultCache.getStats("CacheTtl").evictions());
+    }
+
+    @Test
+    void testInvalidate() {
+        EchoHandler handler = new EchoHandler();
+        CommandRegistry.register("CacheInvalidate", handler, true);
+
+        ResultCache.get("CacheInvalidate", handler, codec, Map.of("n", 1));
+        ResultCache.get("CacheInvalidate", handler, codec, Map.of("n", 2));
+
+        ResultCache.invalidate("CacheInvalidate", Map.of("n", 1));
+        assertEquals(3, calls(ResultCache.get("CacheInvalidate", handler, codec, Map.of("n", 1))));
+        assertEquals(2, calls(ResultCache.get("CacheInvalidate", handler, codec, Map.of("n", 2))));
+
+        ResultCache.invalidate("CacheInvalidate");
+        assertEquals(4, calls(ResultCache.get("CacheInvalidate", handler, codec, Map.of("n", 2))));
+        assertThrows(IllegalArgumentException.class, () -> ResultCache.invalidate(" "));
+    }
+
+    @Test
+    void testRegisterDropsResults() {
+        EchoHandler handler = new EchoHandler();
+        CommandRegistry.register("CacheRegister", handler, true);
+        ResultCache.get("CacheRegister", handler, codec, Map.of());
+
+        EchoHandler replacement = new EchoHandler();
+        CommandRegistry.register("CacheRegister", replacement, true);
+
+        assertEquals(1, calls(ResultCache.get("CacheRegister", replacement, codec, Map.of())));
+        assertEquals(new ResultCache.Stats(0, 1, 0, 1), ResultCache.getStats("CacheRegister"));
+    }
+
+    @Test
+    void testKeyIsNormalized() {
+        Map<String, Object> ordered = new LinkedHashMap<>();
+        ordered.put("a", 1);
+        ordered.put("b", new JSONObject().put("y", new BigDecimal("2.50")).put("x", true));
+
+        Map<String, Object> reversed = new LinkedHashMap<>();
+        reversed.put("command", "Echo");
+        reversed.put("b", Map.of("x", true, "y", 2.5));
+        reversed.put("a", 1L);
+
+        assertEquals(ResultCache.keyOf(ordered, false), ResultCache.keyOf(reversed, false));
+        assertNotEquals(ResultCache.keyOf(Map.of("a", 1), false), ResultCache.keyOf(Map.of("a", "1"), false));
+        assertNotEquals(ResultCache.keyOf(Map.of("token", "t1"), false), ResultCache.keyOf(Map.of("token", "t2"), false));
+        assertEquals(ResultCache.keyOf(Map.of("token", "t1"), true), ResultCache.keyOf(Map.of("token", "t2"), true));
+    }
+
+    private static int calls(PreparedResponse response) {
+        OutputBuffer out = new OutputBuffer();
+        response.write("1", out);
+
+        return new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8)).getJSONObject("params").getInt("calls");
+    }
+
+    @Description("Counts its calls")
+    @Cacheable(ttl = 1, unit = TimeUnit.HOURS, maxEntries = 2)
+    private static class EchoHandler implements CommandHandler {
+        private int calls;
+
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            return new JSONObject().put("calls", ++calls);
+        }
+    }
+
+    @Description("Counts its calls, cached briefly")
+    @Cacheable(ttl = 10, unit = TimeUnit.MILLISECONDS)
+    private static class ShortLivedHandler implements CommandHandler {
+        private int calls;
+
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            return new JSONObject().put("calls", ++calls);
+        }
+    }
+
+    @Description("Is never cached")
+    private static class UncachedHandler implements CommandHandler {
+        @Override
+        public JSONObject handle(Map<String, Object> params) {
+            return new JSONObject();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+package org.reujdon.jtp.server.handlers;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingCommandHandlerTest {
+    @Test
+    void testPublishFollowsDemand() {
+        AtomicInteger pulled = new AtomicInteger();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        StreamingCommandHandler.publish(rows(5, pulled)).subscribe(subscriber);
+        assertEquals(0, pulled.get());
+
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.items.size());
+        assertEquals(2, pulled.get());
+
+        subscriber.subscription.request(10);
+        assertEquals(5, subscriber.items.size());
+        assertEquals(4, subscriber.items.get(4).getInt("row"));
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void testPublishCancelStopsPulling() {
+        AtomicInteger pulled = new AtomicInteger();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        StreamingCommandHandler.publish(rows(5, pulled)).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+
+        assertEquals(1, pulled.get());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    void testPublishInvalidDemandFails() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        StreamingCommandHandler.publish(rows(5, new AtomicInteger())).subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+    }
+
+    @Test
+    void testPublishSingleSubscriber() {
+        Flow.Publisher<JSONObject> publisher = StreamingCommandHandler.publish(rows(1, new AtomicInteger()));
+        publisher.subscribe(new RecordingSubscriber());
+
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+
+        assertInstanceOf(IllegalStateException.class, second.error);
+    }
+
+    @Test
+    void testPublishIteratorFailure() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        Iterator<JSONObject> failing = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public JSONObject next() {
+                throw new IllegalStateException("Broken");
+            }
+        };
+
+        StreamingCommandHandler.publish(failing).subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        assertEquals("Broken", subscriber.error.getMessage());
+    }
+
+    @Test
+    void testHandleCollectsChunks() {
+        JSONObject result = new RowsHandler().handle(Map.of("command", "Rows"));
+
+        assertEquals(3, result.getJSONArray("chunks").length());
+        assertEquals(2, result.getJSONArray("chunks").getJSONObject(2).getInt("row"));
+    }
+
+    @Test
+    void testRegisterStreamingHandler() {
+        RowsHandler handler = new RowsHandler();
+        CommandRegistry.register("Rows", handler, true);
+
+        assertSame(handler, CommandRegistry.getHandler("Rows"));
+    }
+
+    private static Iterator<JSONObject> rows(int count, AtomicInteger pulled) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return pulled.get() < count;
+            }
+
+            @Override
+            public JSONObject next() {
+                return new JSONObject().put("row", pulled.getAndIncrement());
+            }
+        };
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<JSONObject> {
+        private Flow.Subscription subscription;
+        private final List<JSONObject> items = new ArrayList<>();
+        private boolean completed = false;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(JSONObject item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Description("Streams three rows")
+    private static class RowsHandler implements StreamingCommandHandler {
+        @Override
+        public Flow.Publisher<JSONObject> stream(Map<String, Object> params) {
+            return StreamingCommandHandler.publish(rows(3, new AtomicInteger()));
+        }
+    }
+}
\ No newline at end of file
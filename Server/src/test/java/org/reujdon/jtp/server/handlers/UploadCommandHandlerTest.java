@@ -0,0 +1,61 @@
+package org.reujdon.jtp.server.handlers;
+
+import jdk.jfr.Description;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadCommandHandlerTest {
+    @Test
+    void testUploadReadsBody() throws IOException {
+        JSONObject result = new SizeHandler().upload(Map.of("command", "Size"), new ByteArrayInputStream(new byte[1000]));
+
+        assertEquals(1000, result.getLong("size"));
+    }
+
+    @Test
+    void testHandleUsesEmptyBody() {
+        JSONObject result = new SizeHandler().handle(Map.of("command", "Size"));
+
+        assertEquals(0, result.getLong("size"));
+    }
+
+    @Test
+    void testHandleWrapsReadFailure() {
+        UploadCommandHandler failing = (params, body) -> {
+            throw new IOException("Broken");
+        };
+
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> failing.handle(Map.of()));
+        assertEquals("Broken", e.getCause().getMessage());
+    }
+
+    @Test
+    void testRegisterUploadHandler() {
+        SizeHandler handler = new SizeHandler();
+        CommandRegistry.register("Size", handler, true);
+
+        assertSame(handler, CommandRegistry.getHandler("Size"));
+    }
+
+    @Description("Counts the bytes of the uploaded body")
+    private static class SizeHandler implements UploadCommandHandler {
+        @Override
+        public JSONObject upload(Map<String, Object> params, InputStream body) throws IOException {
+            long size = 0;
+            byte[] buffer = new byte[256];
+
+            for (int read; (read = body.read(buffer)) >= 0; )
+                size += read;
+
+            return new JSONObject().put("size", size);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,128 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reujdon.jtp.shared.Message;
+import org.reujdon.jtp.shared.Request;
+import org.reujdon.jtp.shared.Response;
+import org.reujdon.jtp.shared.transport.Frame;
+import org.reujdon.jtp.shared.transport.Framing;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.net.ProtocolException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding cost of the {@link JsonCodec} and {@link BinaryCodec} on the
+ * two messages every command exchanges: a small {@link Request} and a {@link Response}.
+ *
+ * <p>The response carries a typical handler result, a command listing like the one returned by
+ * the Help command plus a nested record with numbers, booleans and a list. The encoded size of
+ * each message is printed during setup.</p>
+ *
+ * <p>{@code respond} measures the server's response path, encoding a handler result straight
+ * into a reused buffer, against {@code respondWithMessage}, which builds the {@link Response}
+ * and frames its encoded bytes.</p>
+ *
+ * <p>Run with {@code ./gradlew :Shared:jmh}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"json", "binary"})
+    public String codecName;
+
+    @Param({"request", "response"})
+    public String message;
+
+    private MessageCodec codec;
+    private Message source;
+    private JSONObject result;
+    private byte[] encoded;
+
+    private final OutputBuffer buffer = new OutputBuffer(1024);
+
+    @Setup
+    public void setup() {
+        codec = CodecRegistry.getCodec(codecName);
+
+        if (message.equals("request")) {
+            source = new Request("GetUser", "3f2c1e9a-token", 5000) {
+                @Override
+                public void onSuccess(Map<String, Object> response) {}
+
+                @Override
+                public void onTimeout() {}
+            };
+        } else {
+            JSONObject commands = new JSONObject();
+            for (int i = 0; i < 8; i++)
+                commands.put("Command" + i, "Description of command number " + i + " and what it does.");
+
+            JSONObject user = new JSONObject();
+            user.put("id", 1234567);
+            user.put("name", "John Doe");
+            user.put("balance", 1523.75);
+            user.put("active", true);
+            user.put("roles", new JSONArray().put("admin").put("user"));
+
+            JSONObject data = new JSONObject();
+            data.put("commands", commands);
+            data.put("user", user);
+            data.put("timestamp", 1625097600000L);
+
+            result = data;
+            source = new Response("550e8400-e29b-41d4-a716-446655440000", data);
+        }
+
+        encoded = codec.encode(source);
+        System.out.println(codecName + " " + message + ": " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(source);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws ProtocolException {
+        // Reading the size forces the lazily decoded params to be built
+        blackhole.consume(codec.decode(encoded).getParams().size());
+    }
+
+    /**
+     * Decodes only what is needed to route the message, as for a rejected or unknown command.
+     */
+    @Benchmark
+    public void route(Blackhole blackhole) throws ProtocolException {
+        blackhole.consume(codec.decode(encoded).getCommand());
+    }
+
+    @Benchmark
+    public byte[] respond() {
+        buffer.reset();
+
+        int start = Frame.begin(Framing.LENGTH, source.getType(), buffer);
+        codec.encodeResponse(source.getId(), result, buffer);
+        Frame.end(Framing.LENGTH, buffer, start);
+
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] respondWithMessage() {
+        return Frame.encode(Framing.LENGTH, source.getType(), codec.encode(new Response(source.getId(), result)));
+    }
+
+    @Benchmark
+    public void roundTrip(Blackhole blackhole) throws ProtocolException {
+        blackhole.consume(codec.decode(codec.encode(source)).getParams().size());
+    }
+}
\ No newline at end of file
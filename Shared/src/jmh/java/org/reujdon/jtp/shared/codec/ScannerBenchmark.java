@@ -0,0 +1,115 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reujdon.jtp.shared.Message;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.Request;
+import org.reujdon.jtp.shared.Response;
+import org.reujdon.jtp.shared.transport.ByteScanners;
+import org.reujdon.jtp.shared.transport.Frame;
+import org.reujdon.jtp.shared.transport.FrameDecoder;
+import org.reujdon.jtp.shared.transport.Framing;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and vectorized {@link org.reujdon.jtp.shared.transport.ByteScanner} on the
+ * receive path: splitting a burst of line framed messages with a {@link FrameDecoder} and fully
+ * decoding each one with the {@link JsonCodec}.
+ *
+ * <p>Payloads are a small {@link Request}, a Help-style {@link Response} and a {@link Response}
+ * carrying an 8 KB text field, where string scanning dominates. The scanner is chosen per fork
+ * with the {@code jtp.vector} property before any decoder class is loaded.</p>
+ *
+ * <p>Run with {@code ./gradlew :Shared:jmh}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+    private static final int BURST = 32;
+
+    @Param({"scalar", "vector"})
+    public String scanner;
+
+    @Param({"request", "response", "text"})
+    public String message;
+
+    private JsonCodec codec;
+    private byte[] payload;
+    private byte[] burst;
+
+    @Setup
+    public void setup() {
+        System.setProperty("jtp.vector", String.valueOf(scanner.equals("vector")));
+        if (!ByteScanners.getDefault().getName().equals(scanner))
+            throw new IllegalStateException("Scanner " + scanner + " unavailable, run with --add-modules jdk.incubator.vector");
+
+        codec = new JsonCodec();
+        payload = codec.encode(createMessage());
+
+        byte[] line = Frame.encode(Framing.LINE, MessageType.RESPONSE, payload);
+        burst = new byte[line.length * BURST];
+        for (int i = 0; i < BURST; i++)
+            System.arraycopy(line, 0, burst, i * line.length, line.length);
+    }
+
+    private Message createMessage() {
+        if (message.equals("request")) {
+            return new Request("GetUser", "3f2c1e9a-token", 5000) {
+                @Override
+                public void onSuccess(Map<String, Object> response) {}
+
+                @Override
+                public void onTimeout() {}
+            };
+        }
+
+        JSONObject data = new JSONObject();
+
+        if (message.equals("text")) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 8192)
+                text.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+
+            data.put("name", "notes.txt");
+            data.put("content", text.toString());
+        } else {
+            JSONObject commands = new JSONObject();
+            for (int i = 0; i < 8; i++)
+                commands.put("Command" + i, "Description of command number " + i + " and what it does.");
+
+            data.put("commands", commands);
+            data.put("roles", new JSONArray().put("admin").put("user"));
+        }
+
+        return new Response("550e8400-e29b-41d4-a716-446655440000", data);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws ProtocolException {
+        blackhole.consume(codec.decode(payload).getParams().size());
+    }
+
+    /**
+     * Splits a burst of line framed messages and decodes each, as a connection's read loop does.
+     */
+    @Benchmark
+    public void receiveLines(Blackhole blackhole) throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.feed(burst, 0, burst.length);
+
+        Frame frame;
+        while ((frame = decoder.next()) != null)
+            blackhole.consume(codec.decode(frame.getPayload()).getParams().size());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+package org.reujdon.jtp.shared;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents many commands sent, executed and answered as one message.
+ *
+ * <p>A client Batch carries a list of {@code requests}, each the parameters of one command
+ * including its {@code command} and optional {@code token}. The server executes them concurrently
+ * and replies with a Batch under the same ID whose {@code results} hold, in request order, either
+ * the {@code result} of a command or the {@code error} it failed with. A batch that cannot be
+ * executed at all, for example because it is too large, is answered with a single {@link Error}.</p>
+ *
+ * <p>Example JSON representation:</p>
+ * <pre>
+ * {@code
+ * {
+ *   "type": "BATCH",
+ *   "id": "42",
+ *   "params": {
+ *     "results": [
+ *       {"result": {"Help": "Lists commands"}},
+ *       {"error": "Unknown command, Nope"}
+ *     ]
+ *   }
+ * }
+ * }
+ * </pre>
+ *
+ * @see Message
+ * @see MessageType#BATCH
+ */
+public class Batch extends Message {
+    private final List<Map<String, Object>> requests;
+
+    /**
+     * Constructs an empty Batch, as sent by a client.
+     */
+    public Batch() {
+        super(MessageType.BATCH);
+
+        this.requests = new ArrayList<>();
+        addParam("requests", requests);
+    }
+
+    /**
+     * Constructs a Batch answering a client Batch, as sent by the server.
+     *
+     * @param id      the id of the client's Batch
+     * @param results the outcome of each request, built with {@link #result(JSONObject)} or
+     *                {@link #error(String)}
+     * @throws IllegalArgumentException if id is null/empty or results is null
+     */
+    public Batch(String id, JSONArray results) {
+        super(id, MessageType.BATCH);
+
+        if (results == null)
+            throw new IllegalArgumentException("Results cannot be null");
+
+        this.requests = null;
+        addParam("results", results);
+    }
+
+    /**
+     * Adds a command to this Batch.
+     *
+     * @param command the command to execute
+     * @param params  the command parameters, including {@code token} if needed (can be null)
+     * @return this Batch
+     * @throws IllegalArgumentException if the command is null or empty, params contain
+     *         {@code command} or this is a reply
+     */
+    public Batch add(String command, Map<String, Object> params) {
+        if (requests == null)
+            throw new IllegalArgumentException("Cannot add requests to a reply");
+
+        if (command == null || command.trim().isEmpty())
+            throw new IllegalArgumentException("Command must not be empty");
+
+        if (params != null && params.containsKey("command"))
+            throw new IllegalArgumentException("Params cannot contain command");
+
+        Map<String, Object> request = params == null ? new HashMap<>() : new HashMap<>(params);
+        request.put("command", command);
+        requests.add(request);
+
+        return this;
+    }
+
+    /**
+     * @return the number of commands in this Batch
+     */
+    public int size() {
+        return requests == null ? 0 : requests.size();
+    }
+
+    /**
+     * @param index the position of a command in this Batch
+     * @return the command at that position
+     * @throws IndexOutOfBoundsException if there is no command at that position
+     */
+    public String getCommand(int index) {
+        if (requests == null)
+            throw new IndexOutOfBoundsException(index);
+
+        return requests.get(index).get("command").toString();
+    }
+
+    /**
+     * Reads the requests from the parameters of a received client Batch.
+     *
+     * @param params the parameters of the received message
+     * @return the requests, or {@code null} if there are none
+     */
+    public static JSONArray requestsOf(Map<String, Object> params) {
+        return params.get("requests") instanceof JSONArray requests ? requests : null;
+    }
+
+    /**
+     * Reads the results from the parameters of a received Batch reply.
+     *
+     * @param params the parameters of the received message
+     * @return the results, or {@code null} if there are none
+     */
+    public static JSONArray resultsOf(Map<String, Object> params) {
+        return params.get("results") instanceof JSONArray results ? results : null;
+    }
+
+    /**
+     * Builds the entry of a command that succeeded.
+     *
+     * @param data the command result (can be null)
+     * @return the result entry
+     */
+    public static JSONObject result(JSONObject data) {
+        return new JSONObject().put("result", data == null ? new JSONObject() : data);
+    }
+
+    /**
+     * Builds the entry of a command that failed.
+     *
+     * @param message a description of the error
+     * @return the result entry
+     */
+    public static JSONObject error(String message) {
+        return new JSONObject().put("error", message == null ? "Unknown error" : message);
+    }
+}
@@ -0,0 +1,129 @@
+package org.reujdon.jtp.shared;
+
+import org.json.JSONObject;
+
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Represents one part of a streamed response or of an uploaded request body.
+ *
+ * <p>A command executed by a streaming handler answers with any number of Chunks under the ID of
+ * the request, each sent only once the client has asked for it with a {@link Demand}. The stream
+ * ends with a {@link Response}, empty unless the handler adds a summary, or an {@link Error}.</p>
+ *
+ * <p>In the other direction, a request with {@link #UPLOAD} set is followed by its body as Chunks
+ * of raw bytes under {@link #DATA}, the last one marked with {@link #LAST}. The client sends only
+ * as many as the server has asked for with Demands, so the server buffers a bounded part of the
+ * body however large it is. Bytes are sent as binary values with binary codecs and as Base64
+ * strings with JSON.</p>
+ *
+ * <p>Example JSON representation:</p>
+ * <pre>
+ * {@code
+ * {
+ *   "type": "CHUNK",
+ *   "id": "42",
+ *   "params": {
+ *     "row": 17,
+ *     "name": "john_doe"
+ *   }
+ * }
+ * }
+ * </pre>
+ *
+ * @see Message
+ * @see MessageType#CHUNK
+ */
+public class Chunk extends Message {
+    /**
+     * Name of the request parameter announcing that the body of the request follows in Chunks.
+     */
+    public static final String UPLOAD = "upload";
+
+    /**
+     * Name of the parameter holding the bytes of an upload Chunk.
+     */
+    public static final String DATA = "data";
+
+    /**
+     * Name of the parameter marking the last Chunk of an upload.
+     */
+    public static final String LAST = "last";
+
+    /**
+     * Constructs a Chunk of the response to a request.
+     *
+     * @param id   the id of the request being answered
+     * @param data the partial result (can be null)
+     * @throws IllegalArgumentException if id is null or empty
+     */
+    public Chunk(String id, JSONObject data) {
+        super(id, MessageType.CHUNK);
+
+        if (data == null)
+            return;
+
+        for (String key : data.keySet())
+            params.put(key, data.get(key));
+    }
+
+    /**
+     * Constructs a Chunk of the body of an upload.
+     *
+     * @param id     the id of the request the body belongs to
+     * @param data   the bytes of this part of the body
+     * @param binary if the chunk is sent with a binary codec, otherwise the bytes are Base64 encoded
+     * @param last   if this is the last part of the body
+     * @throws IllegalArgumentException if id is null/empty or data is null
+     */
+    public Chunk(String id, byte[] data, boolean binary, boolean last) {
+        super(id, MessageType.CHUNK);
+
+        if (data == null)
+            throw new IllegalArgumentException("Data cannot be null");
+
+        addParam(DATA, binary ? data : Base64.getEncoder().encodeToString(data));
+
+        if (last)
+            addParam(LAST, true);
+    }
+
+    /**
+     * Reads the bytes of a received upload Chunk.
+     *
+     * @param params the parameters of the received chunk
+     * @return the bytes, empty if the chunk carries none
+     * @throws IllegalArgumentException if the data is neither binary nor a Base64 string
+     */
+    public static byte[] dataOf(Map<String, Object> params) {
+        Object data = params.get(DATA);
+
+        if (data == null)
+            return new byte[0];
+
+        if (data instanceof byte[] bytes)
+            return bytes;
+
+        if (data instanceof String encoded)
+            return Base64.getDecoder().decode(encoded);
+
+        throw new IllegalArgumentException("Chunk data must be binary or a Base64 string");
+    }
+
+    /**
+     * @param params the parameters of a received upload Chunk
+     * @return if the chunk ends the body
+     */
+    public static boolean isLast(Map<String, Object> params) {
+        return Boolean.TRUE.equals(params.get(LAST));
+    }
+
+    /**
+     * @param params the parameters of a received request
+     * @return if the body of the request follows in Chunks
+     */
+    public static boolean isUpload(Map<String, Object> params) {
+        return Boolean.TRUE.equals(params.get(UPLOAD));
+    }
+}
@@ -0,0 +1,103 @@
+package org.reujdon.jtp.shared;
+
+import java.util.Map;
+
+/**
+ * Represents a request for more chunks of a stream, or to cancel it.
+ *
+ * <p>A client opens a stream by adding a {@code demand} parameter, the number of {@link Chunk}s it
+ * is ready for, to the request of a streaming command. The server sends at most that many
+ * chunks until the client raises the demand with a Demand under the ID of the request, so neither
+ * side holds more than it asked for. A Demand with {@code cancel} set stops the stream; the server
+ * sends nothing more for it.</p>
+ *
+ * <p>Uploads work the other way round: the server asks for the {@link Chunk}s of a request body
+ * with Demands as it consumes them, and a client cancels an upload it gives up on with a
+ * cancelling Demand.</p>
+ *
+ * <p>Demands add up and a demand of {@link Long#MAX_VALUE} is unbounded, as with
+ * {@link java.util.concurrent.Flow.Subscription#request(long)}.</p>
+ *
+ * <p>Example JSON representation:</p>
+ * <pre>
+ * {@code
+ * {
+ *   "type": "DEMAND",
+ *   "id": "42",
+ *   "params": {
+ *     "demand": 16
+ *   }
+ * }
+ * }
+ * </pre>
+ *
+ * @see Message
+ * @see MessageType#DEMAND
+ */
+public class Demand extends Message {
+    /**
+     * Name of the parameter holding the number of chunks asked for, in a Demand and in the
+     * request opening a stream.
+     */
+    public static final String PARAM = "demand";
+
+    /**
+     * Constructs a Demand for more chunks.
+     *
+     * @param id the id of the streamed request
+     * @param n  the number of additional chunks the sender of the Demand is ready for
+     * @throws IllegalArgumentException if id is null/empty or n is not positive
+     */
+    public Demand(String id, long n) {
+        super(id, MessageType.DEMAND);
+
+        if (n <= 0)
+            throw new IllegalArgumentException("Demand must be positive");
+
+        addParam(PARAM, n);
+    }
+
+    private Demand(String id) {
+        super(id, MessageType.DEMAND);
+
+        addParam("cancel", true);
+    }
+
+    /**
+     * Constructs a Demand cancelling a stream.
+     *
+     * @param id the id of the streamed request
+     * @return the Demand
+     * @throws IllegalArgumentException if id is null or empty
+     */
+    public static Demand cancel(String id) {
+        return new Demand(id);
+    }
+
+    /**
+     * Reads the number of chunks asked for from the parameters of a Demand or a request.
+     *
+     * @param params the parameters of the received message
+     * @return the demand, or {@code 0} if there is none or it is not a positive integer
+     */
+    public static long of(Map<String, Object> params) {
+        Object value = params.get(PARAM);
+
+        if (value instanceof Integer || value instanceof Long)
+            return Math.max(0, ((Number) value).longValue());
+
+        // Beyond the range of a long, as sent by clients treating the demand as unbounded
+        if (value instanceof Number number && number.doubleValue() >= Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+
+        return 0;
+    }
+
+    /**
+     * @param params the parameters of a received Demand
+     * @return if the Demand cancels its stream
+     */
+    public static boolean isCancel(Map<String, Object> params) {
+        return Boolean.TRUE.equals(params.get("cancel"));
+    }
+}
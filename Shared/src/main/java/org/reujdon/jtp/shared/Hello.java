@@ -0,0 +1,254 @@
+package org.reujdon.jtp.shared;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.codec.JsonCodec;
+import org.reujdon.jtp.shared.codec.KeyTable;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+import org.reujdon.jtp.shared.transport.Compression;
+import org.reujdon.jtp.shared.transport.Framing;
+
+import java.util.Map;
+
+/**
+ * Represents the connection setup message of the transfer protocol.
+ *
+ * <p>Every connection starts in {@link Framing#LINE} mode. A client that wants a different
+ * transport sends a Hello as its first message and waits for the reply before sending anything
+ * else. The server answers with a Hello carrying the same ID and the settings it accepted, after
+ * which both sides switch. Settings that are left out keep their defaults, {@link Framing#LINE}
+ * and the {@link JsonCodec}. A server that predates negotiation answers with an {@link Error}
+ * instead, and the connection stays in line mode.</p>
+ *
+ * <p>A client may also propose a {@link Compression} for large payloads. The server repeats it in
+ * its reply if it accepts, otherwise messages are sent uncompressed in both directions.</p>
+ *
+ * <p>With the {@link org.reujdon.jtp.shared.codec.BinaryCodec} a client may propose the size of a
+ * {@link KeyTable}. The server replies with the size both directions use, at most the proposed
+ * one, or leaves it out to send every string as it is.</p>
+ *
+ * <p>Example JSON representation:</p>
+ * <pre>
+ * {@code
+ * {
+ *   "type": "HELLO",
+ *   "id": "42",
+ *   "params": {
+ *     "framing": "LENGTH",
+ *     "codec": "binary"
+ *   }
+ * }
+ * }
+ * </pre>
+ *
+ * @see Message
+ * @see MessageType#HELLO
+ */
+public class Hello extends Message {
+    /**
+     * Constructs a Hello proposing the given framing, as sent by a client.
+     *
+     * @param framing the requested {@link Framing}
+     * @throws IllegalArgumentException if framing is null
+     */
+    public Hello(Framing framing) {
+        super(MessageType.HELLO);
+
+        if (framing == null)
+            throw new IllegalArgumentException("Framing cannot be null");
+
+        addParam("framing", framing.name());
+    }
+
+    /**
+     * Constructs a Hello accepting the given framing, as sent by the server in reply.
+     *
+     * @param id      the id of the client's Hello
+     * @param framing the accepted {@link Framing}
+     * @throws IllegalArgumentException if id is null/empty or framing is null
+     */
+    public Hello(String id, Framing framing) {
+        super(id, MessageType.HELLO);
+
+        if (framing == null)
+            throw new IllegalArgumentException("Framing cannot be null");
+
+        addParam("framing", framing.name());
+    }
+
+    /**
+     * Constructs a Hello proposing the given framing and codec, as sent by a client.
+     *
+     * @param framing the requested {@link Framing}
+     * @param codec   the name of the requested {@link MessageCodec}
+     * @throws IllegalArgumentException if framing is null or codec is null/empty
+     */
+    public Hello(Framing framing, String codec) {
+        this(framing);
+
+        if (codec == null || codec.trim().isEmpty())
+            throw new IllegalArgumentException("Codec cannot be null or empty");
+
+        addParam("codec", codec.trim());
+    }
+
+    /**
+     * Constructs a Hello accepting the given framing and codec, as sent by the server in reply.
+     *
+     * @param id      the id of the client's Hello
+     * @param framing the accepted {@link Framing}
+     * @param codec   the name of the accepted {@link MessageCodec}
+     * @throws IllegalArgumentException if id or codec is null/empty or framing is null
+     */
+    public Hello(String id, Framing framing, String codec) {
+        this(id, framing);
+
+        if (codec == null || codec.trim().isEmpty())
+            throw new IllegalArgumentException("Codec cannot be null or empty");
+
+        addParam("codec", codec.trim());
+    }
+
+    /**
+     * Constructs a Hello proposing the given framing, codec and compression, as sent by a client.
+     *
+     * @param framing     the requested {@link Framing}
+     * @param codec       the name of the requested {@link MessageCodec}
+     * @param compression the name of the requested {@link Compression}, or {@code null} for none
+     * @throws IllegalArgumentException if framing is null, codec is null/empty or compression is empty
+     */
+    public Hello(Framing framing, String codec, String compression) {
+        this(framing, codec);
+        addCompression(compression);
+    }
+
+    /**
+     * Constructs a Hello accepting the given framing, codec and compression, as sent by the server in reply.
+     *
+     * @param id          the id of the client's Hello
+     * @param framing     the accepted {@link Framing}
+     * @param codec       the name of the accepted {@link MessageCodec}
+     * @param compression the name of the accepted {@link Compression}, or {@code null} for none
+     * @throws IllegalArgumentException if id or codec is null/empty, framing is null or compression is empty
+     */
+    public Hello(String id, Framing framing, String codec, String compression) {
+        this(id, framing, codec);
+        addCompression(compression);
+    }
+
+    /**
+     * Constructs a Hello proposing the given framing, codec, compression and key table size, as sent by a client.
+     *
+     * @param framing     the requested {@link Framing}
+     * @param codec       the name of the requested {@link MessageCodec}
+     * @param compression the name of the requested {@link Compression}, or {@code null} for none
+     * @param keyTable    the requested number of {@link KeyTable} entries, or {@code 0} for none
+     * @throws IllegalArgumentException if framing is null, codec is null/empty, compression is empty
+     *                                  or keyTable is negative or above {@link KeyTable#MAX_SIZE}
+     */
+    public Hello(Framing framing, String codec, String compression, int keyTable) {
+        this(framing, codec, compression);
+        addKeyTable(keyTable);
+    }
+
+    /**
+     * Constructs a Hello accepting the given framing, codec, compression and key table size, as sent by the server in reply.
+     *
+     * @param id          the id of the client's Hello
+     * @param framing     the accepted {@link Framing}
+     * @param codec       the name of the accepted {@link MessageCodec}
+     * @param compression the name of the accepted {@link Compression}, or {@code null} for none
+     * @param keyTable    the accepted number of {@link KeyTable} entries, or {@code 0} for none
+     * @throws IllegalArgumentException if id or codec is null/empty, framing is null, compression is
+     *                                  empty or keyTable is negative or above {@link KeyTable#MAX_SIZE}
+     */
+    public Hello(String id, Framing framing, String codec, String compression, int keyTable) {
+        this(id, framing, codec, compression);
+        addKeyTable(keyTable);
+    }
+
+    private void addCompression(String compression) {
+        if (compression == null)
+            return;
+
+        if (compression.trim().isEmpty())
+            throw new IllegalArgumentException("Compression cannot be empty");
+
+        addParam("compression", compression.trim());
+    }
+
+    private void addKeyTable(int keyTable) {
+        if (keyTable < 0 || keyTable > KeyTable.MAX_SIZE)
+            throw new IllegalArgumentException(String.format("Invalid key table size: %d. Must be between 0 and %d", keyTable, KeyTable.MAX_SIZE));
+
+        if (keyTable > 0)
+            addParam("keyTable", keyTable);
+    }
+
+    public Framing getFraming() {
+        return Framing.parse(getParam("framing").toString());
+    }
+
+    public String getCodec() {
+        return codecOf(params);
+    }
+
+    public String getCompression() {
+        return compressionOf(params);
+    }
+
+    public int getKeyTable() {
+        return keyTableOf(params);
+    }
+
+    /**
+     * Reads the framing from the parameters of a received Hello.
+     *
+     * @param params the parameters of the received message
+     * @return the framing, or {@link Framing#LINE} if none was given
+     * @throws IllegalArgumentException if the framing is not a known mode
+     */
+    public static Framing framingOf(Map<String, Object> params) {
+        Object framing = params.get("framing");
+        return framing == null ? Framing.LINE : Framing.parse(framing.toString());
+    }
+
+    /**
+     * Reads the codec name from the parameters of a received Hello.
+     *
+     * @param params the parameters of the received message
+     * @return the codec name, or {@link JsonCodec#NAME} if none was given
+     */
+    public static String codecOf(Map<String, Object> params) {
+        Object codec = params.get("codec");
+        return codec == null ? JsonCodec.NAME : codec.toString();
+    }
+
+    /**
+     * Reads the compression name from the parameters of a received Hello.
+     *
+     * @param params the parameters of the received message
+     * @return the compression name, or {@code null} if none was given
+     */
+    public static String compressionOf(Map<String, Object> params) {
+        Object compression = params.get("compression");
+        return compression == null || compression == JSONObject.NULL ? null : compression.toString();
+    }
+
+    /**
+     * Reads the key table size from the parameters of a received Hello.
+     *
+     * @param params the parameters of the received message
+     * @return the number of key table entries, or {@code 0} if none was given
+     * @throws IllegalArgumentException if the size is not a whole number between 0 and {@link KeyTable#MAX_SIZE}
+     */
+    public static int keyTableOf(Map<String, Object> params) {
+        Object keyTable = params.get("keyTable");
+        if (keyTable == null || keyTable == JSONObject.NULL)
+            return 0;
+
+        if (!(keyTable instanceof Integer size) || size < 0 || size > KeyTable.MAX_SIZE)
+            throw new IllegalArgumentException("Invalid key table size: " + keyTable);
+
+        return size;
+    }
+}
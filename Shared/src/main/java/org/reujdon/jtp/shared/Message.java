@@ -3,39 +3,49 @@ package org.reujdon.jtp.shared;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class representing a message in the transfer protocol.
  *
  * <p>All messages contain:</p>
  * <ul>
- *   <li>A unique identifier (UUID by default)</li>
+ *   <li>A unique identifier (a process-wide sequence number by default)</li>
  *   <li>A message type (from {@link MessageType})</li>
  *   <li>Optional parameters as key-value pairs</li>
+ *   <li>Optional attachments, raw byte segments sent after the parameters without being encoded
+ *       by the codec, see {@link #addAttachment(ByteBuffer)}</li>
  * </ul>
  *
  *
  * @see MessageType
  * @see JSONObject
  */
-abstract class Message {
+public abstract class Message {
+    // Source of default ids, cheaper than a random UUID and unique within the process
+    private static final AtomicLong nextId = new AtomicLong();
+
     private final String id;
     private final MessageType type;
 
     protected final Map<String, Object> params = new HashMap<>();
+    protected final List<ByteBuffer> attachments = new ArrayList<>();
 
     /**
-     * Constructs a new Message with a randomly generated UUID and specified message type.
+     * Constructs a new Message with the next id of a process-wide sequence and specified message type.
      *
      * @param type The type of message to create
      * @throws IllegalArgumentException if the message type is null
      * @see MessageType
      */
     protected Message(MessageType type) {
-        this(UUID.randomUUID().toString(), type);
+        this(Long.toString(nextId.incrementAndGet()), type);
     }
 
     /**
@@ -143,6 +153,55 @@ abstract class Message {
         return params.getOrDefault(key, defaultValue);
     }
 
+    /**
+     * @return a read-only view of this message's parameters
+     */
+    public Map<String, Object> getParams() {
+        return Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * Attaches raw bytes to this message. The array is not copied, so it must not be modified
+     * until the message has been sent.
+     *
+     * @param data the bytes to attach
+     * @throws IllegalArgumentException if data is null
+     * @see #addAttachment(ByteBuffer)
+     */
+    protected void addAttachment(byte[] data) {
+        if (data == null)
+            throw new IllegalArgumentException("Attachment cannot be null");
+
+        attachments.add(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Attaches the remaining bytes of a buffer to this message.
+     *
+     * <p>Attachments travel after the encoded message in the same frame, as they are and in the
+     * order they were added, and reach the receiver as read-only buffers. They need
+     * {@link org.reujdon.jtp.shared.transport.Framing#LENGTH} or
+     * {@link org.reujdon.jtp.shared.transport.Framing#MUX} framing. The buffer is not copied
+     * and its position is left unchanged, so its contents must not be modified until the message
+     * has been sent.</p>
+     *
+     * @param data the buffer holding the bytes to attach, from its position to its limit
+     * @throws IllegalArgumentException if data is null
+     */
+    protected void addAttachment(ByteBuffer data) {
+        if (data == null)
+            throw new IllegalArgumentException("Attachment cannot be null");
+
+        attachments.add(data.slice());
+    }
+
+    /**
+     * @return a read-only view of this message's attachments, in the order they were added
+     */
+    public List<ByteBuffer> getAttachments() {
+        return Collections.unmodifiableList(attachments);
+    }
+
     /**
      * Converts this message into a JSONObject representation.
      *
@@ -165,7 +224,7 @@ abstract class Message {
      * {@code
      * {
      *      "type": "COMMAND",
-     *      "id": "550e8400-e29b-41d4-a716-446655440000",
+     *      "id": "42",
      *      "params": {
      *          "username": "john_doe",
      *          "timestamp": 1625097600
@@ -9,15 +9,32 @@ package org.reujdon.jtp.shared;
  *   <li><b>RESPONSE</b> - Server responses to successful requests</li>
  *   <li><b>ERROR</b> - Error conditions or failed operations</li>
  *   <li><b>AUTH</b> - Authentication-related messages</li>
+ *   <li><b>HELLO</b> - Connection setup negotiating the transport, sent first by the client</li>
+ *   <li><b>BATCH</b> - Many requests in one message, answered by one message with their results</li>
+ *   <li><b>WINDOW_UPDATE</b> - Flow control credit in multiplexed framing, handled by the transport</li>
+ *   <li><b>CHUNK</b> - One partial result of a streamed response, followed by more chunks and a RESPONSE or ERROR, or one part of an uploaded request body</li>
+ *   <li><b>DEMAND</b> - Request for more chunks of a streamed response or uploaded body, or to cancel it</li>
  * </ul>
  *
+ * <p>The ordinal of each type is its code in the header of length-prefixed frames, so new
+ * types must only be added at the end.</p>
+ *
  * @see Request
  * @see Response
  * @see Error
+ * @see Hello
+ * @see Batch
+ * @see Chunk
+ * @see Demand
  */
 public enum MessageType {
     REQUEST,
     RESPONSE,
     ERROR,
-    AUTH
+    AUTH,
+    HELLO,
+    BATCH,
+    WINDOW_UPDATE,
+    CHUNK,
+    DEMAND
 }
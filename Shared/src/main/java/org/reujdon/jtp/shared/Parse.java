@@ -3,8 +3,12 @@ package org.reujdon.jtp.shared;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Utility class for parsing JSON data to and from Java objects.
@@ -33,4 +37,80 @@ public class Parse {
 
         return params;
     }
+
+    /**
+     * Builds a canonical text form of a parameter map, for use as a cache key.
+     *
+     * <p>The result is JSON text with the keys of every object sorted and numbers in their shortest
+     * form, so parameters that differ only in key order, or in the number types produced by different
+     * codecs, give the same text.</p>
+     *
+     * @param params   the parameters (cannot be null)
+     * @param excluded top level keys to leave out
+     * @return the canonical form
+     */
+    public static String Canonical(Map<String, ?> params, String... excluded) {
+        List<String> names = new ArrayList<>(params.keySet());
+        names.removeAll(Arrays.asList(excluded));
+
+        StringBuilder text = new StringBuilder();
+        appendObject(text, names, params::get);
+        return text.toString();
+    }
+
+    private static void appendValue(StringBuilder text, Object value) {
+        if (value == null || value == JSONObject.NULL)
+            text.append("null");
+        else if (value instanceof String s)
+            text.append(JSONObject.quote(s));
+        else if (value instanceof Double d && !Double.isFinite(d) || value instanceof Float f && !Float.isFinite(f))
+            text.append(value);
+        else if (value instanceof Number number)
+            text.append(JSONObject.numberToString(number));
+        else if (value instanceof JSONObject object)
+            appendObject(text, new ArrayList<>(object.keySet()), object::opt);
+        else if (value instanceof Map<?, ?> map) {
+            List<String> names = new ArrayList<>();
+            for (Object name : map.keySet())
+                names.add(String.valueOf(name));
+
+            appendObject(text, names, name -> map.get(name));
+        } else if (value instanceof Iterable<?> items)
+            appendArray(text, items);
+        else if (value instanceof byte[] bytes)
+            text.append("bin").append(Arrays.toString(bytes));
+        else if (value instanceof Boolean)
+            text.append(value);
+        else
+            text.append(JSONObject.quote(value.toString()));
+    }
+
+    private static void appendObject(StringBuilder text, List<String> names, Function<String, Object> values) {
+        names.sort(null);
+
+        text.append('{');
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0)
+                text.append(',');
+
+            text.append(JSONObject.quote(names.get(i))).append(':');
+            appendValue(text, values.apply(names.get(i)));
+        }
+        text.append('}');
+    }
+
+    private static void appendArray(StringBuilder text, Iterable<?> items) {
+        text.append('[');
+
+        boolean first = true;
+        for (Object item : items) {
+            if (!first)
+                text.append(',');
+            first = false;
+
+            appendValue(text, item);
+        }
+
+        text.append(']');
+    }
 }
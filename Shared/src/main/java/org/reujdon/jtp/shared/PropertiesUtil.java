@@ -28,4 +28,41 @@ public class PropertiesUtil {
 
         return null;
     }
+
+    /**
+     * Utility method to load an optional property from a .properties file.
+     *
+     * @param filename the name of the properties file (without the .properties extension)
+     * @param property the property whose associated value is to be retrieved
+     * @param defaultValue the value to return if the property is missing or blank
+     * @return the trimmed value corresponding to the given key, or {@code defaultValue} if not set
+     */
+    public static String getProperty(String filename, String property, String defaultValue) {
+        String value = getProperty(filename, property);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+
+        return value.trim();
+    }
+
+    /**
+     * Utility method to load an optional integer property from a .properties file.
+     *
+     * @param filename the name of the properties file (without the .properties extension)
+     * @param property the property whose associated value is to be retrieved
+     * @param defaultValue the value to return if the property is missing or blank
+     * @return the parsed value, or {@code defaultValue} if not set
+     * @throws IllegalArgumentException if the property is set but is not a valid integer
+     */
+    public static int getIntProperty(String filename, String property, int defaultValue) {
+        String value = getProperty(filename, property, null);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid value for %s: %s", property, value), e);
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package org.reujdon.jtp.shared;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -12,6 +14,8 @@ import java.util.Map;
  *   <li>Optional authentication via tokens</li>
  *   <li>Timeout configuration</li>
  *   <li>Response handling through callbacks</li>
+ *   <li>Optional client side caching of responses, see {@link #getCacheTtl()}</li>
+ *   <li>Raw byte attachments in both directions, see {@link #addAttachment(ByteBuffer)}</li>
  * </ul>
  *
  * <p>Subclasses must implement the response handling methods:</p>
@@ -99,6 +103,30 @@ public abstract class Request extends Message {
         return timeout;
     }
 
+    /**
+     * Gets how long a successful response to this kind of request may be reused by the client.
+     *
+     * <p>Requests whose answers rarely change can override this. While a cached response for the
+     * same command and parameters is younger than the TTL, the client completes
+     * {@link #onSuccess(Map)} from it without contacting the server.</p>
+     *
+     * @return the cache TTL in milliseconds, {@code 0} (the default) to never cache
+     * @see #getStaleTtl()
+     */
+    public long getCacheTtl() {
+        return 0;
+    }
+
+    /**
+     * Gets how long after {@link #getCacheTtl()} has passed a cached response may still be used
+     * while a fresh one is fetched in the background (stale-while-revalidate).
+     *
+     * @return the stale period in milliseconds, {@code 0} (the default) to always wait for the server
+     */
+    public long getStaleTtl() {
+        return 0;
+    }
+
     /**
      * Called when the request completes successfully.
      *
@@ -122,6 +150,20 @@ public abstract class Request extends Message {
      */
     public abstract void onSuccess(Map<String, Object> response);
 
+    /**
+     * Called when the request completes successfully with a response that may carry attachments.
+     *
+     * <p>The default implementation ignores the attachments and calls {@link #onSuccess(Map)}.
+     * Requests for commands that answer with raw bytes override this instead.</p>
+     *
+     * @param response    A map containing the successful response data
+     * @param attachments The attachments of the response as read-only buffers, empty if there are none
+     * @see Message#addAttachment(java.nio.ByteBuffer)
+     */
+    public void onSuccess(Map<String, Object> response, List<ByteBuffer> attachments) {
+        onSuccess(response);
+    }
+
     /**
      * Called when the request fails with an error.
      *
@@ -2,6 +2,9 @@ package org.reujdon.jtp.shared;
 
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 /**
  * Represents a response message in the transfer protocol.
  *
@@ -10,6 +13,7 @@ import org.json.JSONObject;
  * <ul>
  *   <li>A message type of {@link MessageType#RESPONSE}</li>
  *   <li>Response data as key-value pairs</li>
+ *   <li>Optional attachments of raw bytes, see {@link Message#addAttachment(ByteBuffer)}</li>
  *   <li>An identifier matching the original request</li>
  * </ul>
  *
@@ -55,6 +59,24 @@ public class Response extends Message {
         this.addParams(data);
     }
 
+    /**
+     * Constructs a Response message with the specified ID, initial data and attachments.
+     *
+     * @param id          The response identifier (should match the original request ID)
+     * @param data        Initial response data as a JSONObject (can be null)
+     * @param attachments Raw bytes to send after the data, see {@link Message#addAttachment(ByteBuffer)}
+     * @throws IllegalArgumentException if id is null or empty, or attachments is null or holds a null element
+     */
+    public Response(String id, JSONObject data, List<ByteBuffer> attachments){
+        this(id, data);
+
+        if (attachments == null)
+            throw new IllegalArgumentException("Attachments cannot be null");
+
+        for (ByteBuffer attachment : attachments)
+            addAttachment(attachment);
+    }
+
     /**
      * Adds multiple parameters from a JSONObject to this response.
      *
@@ -0,0 +1,728 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.Message;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary codec using the MessagePack format.
+ *
+ * <p>A message is encoded as an array of three values:</p>
+ * <pre>
+ * [ type (uint, {@link MessageType} ordinal), id (str or nil), params (map or nil) ]
+ * </pre>
+ *
+ * <p>Parameter values are encoded with their MessagePack type tag, so numbers and booleans are
+ * written without a text conversion and strings without escaping. Decoding follows the
+ * {@link JsonCodec} value model:</p>
+ * <ul>
+ *   <li><b>nil</b> - {@link JSONObject#NULL}</li>
+ *   <li><b>int</b> - {@link Integer} when it fits, otherwise {@link Long}, or {@link BigInteger}
+ *       for unsigned values above {@link Long#MAX_VALUE}</li>
+ *   <li><b>float</b> - {@link Double}, or {@link Float} for 32-bit floats</li>
+ *   <li><b>map</b> - {@link JSONObject} when nested</li>
+ *   <li><b>array</b> - {@link JSONArray}</li>
+ *   <li><b>bin</b> - {@code byte[]}</li>
+ * </ul>
+ *
+ * <p>On receipt the params map is only checked and scanned for {@code command} and {@code token};
+ * the other values are decoded on first access through a {@link LazyParams}.</p>
+ *
+ * <p>{@link BigDecimal} values are sent as 64-bit floats, integers wider than 64 bits and values
+ * of any other type as their string form. Payloads are binary, so this codec requires
+ * {@link org.reujdon.jtp.shared.transport.Framing#LENGTH} framing.</p>
+ *
+ * <p>A connection that negotiated a {@link KeyTable} uses an instance of its own, which writes
+ * repeated map keys and short string values as an ext value holding a table index: fixext 1 or 2
+ * of type {@code 1} refers to an entry, ext 8 of type {@code 2} holds a two byte index followed
+ * by the string and defines it. Message ids and prepared responses, which are shared between
+ * connections, are always written as they are. All instances are equal, so caches keyed by codec
+ * serve every connection with the same prepared responses.</p>
+ *
+ * @see <a href="https://github.com/msgpack/msgpack/blob/master/spec.md">MessagePack specification</a>
+ */
+public class BinaryCodec implements MessageCodec {
+    public static final String NAME = "binary";
+
+    // Deepest nesting of maps and arrays accepted when decoding
+    private static final int MAX_DEPTH = 64;
+
+    // Writes prepared responses, which are shared between connections
+    private static final BinaryCodec PLAIN = new BinaryCodec();
+
+    private final KeyTable table;
+
+    /**
+     * Constructs a new {@code BinaryCodec} writing every string as it is.
+     */
+    public BinaryCodec() {
+        this(null);
+    }
+
+    /**
+     * Constructs a new {@code BinaryCodec} for one connection, which replaces repeated strings
+     * with the indices of a {@link KeyTable} while the encoding thread holds its lock.
+     *
+     * @param table the key table of the connection, or {@code null} for none
+     */
+    public BinaryCodec(KeyTable table) {
+        this.table = table;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        if (message == null)
+            throw new IllegalArgumentException("Message cannot be null");
+
+        OutputBuffer out = new OutputBuffer(256);
+        encode(message, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public void encode(Message message, OutputBuffer out) {
+        if (message == null)
+            throw new IllegalArgumentException("Message cannot be null");
+
+        encode(message.getType(), message.getId(), message.getParams(), out);
+    }
+
+    @Override
+    public void encode(MessageType type, String id, Map<String, Object> params, OutputBuffer out) {
+        if (type == null)
+            throw new IllegalArgumentException("Type is null");
+
+        if (id == null || id.trim().isEmpty())
+            throw new IllegalArgumentException("Id is null or empty");
+
+        if (params == null)
+            throw new IllegalArgumentException("Params cannot be null");
+
+
+        out.write(0x93);
+        writeLong(out, type.ordinal());
+        writeLiteral(out, id);
+
+        if (params.isEmpty())
+            out.write(0xc0);
+        else
+            writeMap(out, params, 0);
+    }
+
+    @Override
+    public void encodeResponse(String id, JSONObject data, OutputBuffer out) {
+        if (id == null || id.trim().isEmpty())
+            throw new IllegalArgumentException("Id is null or empty");
+
+        out.write(0x93);
+        writeLong(out, MessageType.RESPONSE.ordinal());
+        writeLiteral(out, id);
+        writeParams(out, data);
+    }
+
+    @Override
+    public PreparedResponse prepareResponse(JSONObject data) {
+        OutputBuffer params = new OutputBuffer(256);
+        PLAIN.writeParams(params, data);
+        byte[] encoded = params.toByteArray();
+
+        return (id, out) -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("Id is null or empty");
+
+            out.write(0x93);
+            writeLong(out, MessageType.RESPONSE.ordinal());
+            writeLiteral(out, id);
+            out.write(encoded);
+        };
+    }
+
+    /**
+     * Encodes a message whose params end with a bin value, without the bytes of that value, so the
+     * caller can send them from a buffer of its own straight after the encoded head.
+     *
+     * @param type   the message type (cannot be null)
+     * @param id     the message id (cannot be null or empty)
+     * @param params the other message parameters (cannot be null)
+     * @param key    the name of the bin value, not already in params
+     * @param length the number of bytes of the bin value that follow
+     * @param out    the buffer to append the head of the payload to
+     * @throws IllegalArgumentException if an argument is invalid or a parameter cannot be encoded
+     */
+    public void encodeHead(MessageType type, String id, Map<String, Object> params, String key, int length, OutputBuffer out) {
+        if (type == null)
+            throw new IllegalArgumentException("Type is null");
+
+        if (id == null || id.trim().isEmpty())
+            throw new IllegalArgumentException("Id is null or empty");
+
+        if (params == null || key == null || params.containsKey(key))
+            throw new IllegalArgumentException("Params cannot be null or contain the key of the bin value");
+
+        if (length < 0)
+            throw new IllegalArgumentException("Length must not be negative");
+
+        out.write(0x93);
+        writeLong(out, type.ordinal());
+        writeLiteral(out, id);
+
+        writeHeader(out, params.size() + 1, 0x80, -1, 0xde, 0xdf);
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            writeString(out, entry.getKey(), true);
+            writeValue(out, entry.getValue(), 0);
+        }
+
+        writeString(out, key, true);
+        writeHeader(out, length, -1, 0xc4, 0xc5, 0xc6);
+    }
+
+    @Override
+    public DecodedMessage decode(byte[] payload) throws ProtocolException {
+        if (payload == null)
+            throw new IllegalArgumentException("Payload cannot be null");
+
+        Reader in = new Reader(payload, table);
+
+        if (in.arrayHeader() != 3)
+            throw new ProtocolException("Binary message must be an array of 3 values");
+
+        Object typeCode = in.value(0);
+        if (!(typeCode instanceof Integer code) || code < 0 || code >= MessageType.values().length)
+            throw new ProtocolException("Unknown message type code: " + typeCode);
+
+        Object id = in.value(0);
+        if (id != JSONObject.NULL && !(id instanceof String))
+            throw new ProtocolException("Message id must be a string");
+
+        String[] routing = new String[2];
+        Map<String, Object> params = null;
+
+        if (!in.nextIsNil()) {
+            int start = in.pos;
+            in.scanParams(routing);
+
+            params = new LazyParams(() -> {
+                Reader reader = new Reader(payload, table);
+                reader.pos = start;
+
+                Map<String, Object> decoded = new HashMap<>();
+                reader.mapInto(decoded, 0);
+                return decoded;
+            });
+        } else
+            in.pos++;
+
+        if (in.pos != payload.length)
+            throw new ProtocolException("Trailing bytes after binary message");
+
+        return new DecodedMessage(MessageType.values()[code], id == JSONObject.NULL ? null : (String) id,
+                routing[0], routing[1], params);
+    }
+
+    /**
+     * Writes a value with the smallest matching MessagePack tag.
+     */
+    private void writeValue(OutputBuffer out, Object value, int depth) {
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("Parameters nested deeper than " + MAX_DEPTH + " levels");
+
+        if (value == null || value == JSONObject.NULL)
+            out.write(0xc0);
+        else if (value instanceof String s)
+            writeString(out, s, false);
+        else if (value instanceof Boolean b)
+            out.write(b ? 0xc3 : 0xc2);
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            writeLong(out, ((Number) value).longValue());
+        else if (value instanceof Double || value instanceof BigDecimal) {
+            out.write(0xcb);
+            writeRaw(out, Double.doubleToLongBits(((Number) value).doubleValue()), 8);
+        } else if (value instanceof Float f) {
+            out.write(0xca);
+            writeRaw(out, Float.floatToIntBits(f), 4);
+        } else if (value instanceof BigInteger big)
+            writeBigInteger(out, big);
+        else if (value instanceof JSONObject object)
+            writeObject(out, object, depth + 1);
+        else if (value instanceof Map<?, ?> map)
+            writeMap(out, map, depth + 1);
+        else if (value instanceof JSONArray array)
+            writeArray(out, array.length(), array, depth + 1);
+        else if (value instanceof Collection<?> collection)
+            writeArray(out, collection.size(), collection, depth + 1);
+        else if (value instanceof Iterable<?> iterable) {
+            List<Object> list = new ArrayList<>();
+            iterable.forEach(list::add);
+            writeArray(out, list.size(), list, depth + 1);
+        } else if (value instanceof Object[] array)
+            writeArray(out, array.length, Arrays.asList(array), depth + 1);
+        else if (value instanceof byte[] bytes) {
+            writeHeader(out, bytes.length, -1, 0xc4, 0xc5, 0xc6);
+            out.write(bytes);
+        } else
+            writeString(out, value.toString(), false);
+    }
+
+    /**
+     * Writes the params of a response, nil when there are none.
+     */
+    private void writeParams(OutputBuffer out, JSONObject data) {
+        if (data == null || data.isEmpty())
+            out.write(0xc0);
+        else
+            writeObject(out, data, 0);
+    }
+
+    private void writeObject(OutputBuffer out, JSONObject object, int depth) {
+        writeHeader(out, object.length(), 0x80, -1, 0xde, 0xdf);
+
+        for (String key : object.keySet()) {
+            writeString(out, key, true);
+            writeValue(out, object.opt(key), depth);
+        }
+    }
+
+    private void writeMap(OutputBuffer out, Map<?, ?> map, int depth) {
+        writeHeader(out, map.size(), 0x80, -1, 0xde, 0xdf);
+
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(out, String.valueOf(entry.getKey()), true);
+            writeValue(out, entry.getValue(), depth);
+        }
+    }
+
+    private void writeArray(OutputBuffer out, int size, Iterable<?> items, int depth) {
+        writeHeader(out, size, 0x90, -1, 0xdc, 0xdd);
+
+        for (Object item : items)
+            writeValue(out, item, depth);
+    }
+
+    /**
+     * Writes a string, or while the encoding thread holds the key table, the index of its entry or
+     * its definition.
+     */
+    private void writeString(OutputBuffer out, String value, boolean key) {
+        KeyTable table = this.table;
+        if (table == null || !table.isHeldByCurrentThread()) {
+            writeLiteral(out, value);
+            return;
+        }
+
+        int index = table.indexOf(value);
+        if (index >= 0) {
+            if (index <= 0xff) {
+                out.write(0xd4);
+                out.write(KeyTable.REFERENCE);
+                out.write(index);
+            } else {
+                out.write(0xd5);
+                out.write(KeyTable.REFERENCE);
+                writeRaw(out, index, 2);
+            }
+            return;
+        }
+
+        index = table.define(value, key);
+        if (index < 0) {
+            writeLiteral(out, value);
+            return;
+        }
+
+        // Strings in the table are short enough for an ext 8 of the index and the UTF-8 bytes
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(0xc7);
+        out.write(bytes.length + 2);
+        out.write(KeyTable.DEFINITION);
+        writeRaw(out, index, 2);
+        out.write(bytes);
+    }
+
+    private static void writeLiteral(OutputBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeHeader(out, bytes.length, 0xa0, 0xd9, 0xda, 0xdb);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a length header, using the fix form for up to 15 entries (31 for strings) when
+     * available, then the 8, 16 or 32 bit form. A tag of -1 marks a form the type does not have.
+     */
+    private static void writeHeader(OutputBuffer out, int length, int fix, int tag8, int tag16, int tag32) {
+        int fixMax = fix == 0xa0 ? 31 : 15;
+
+        if (fix >= 0 && length <= fixMax)
+            out.write(fix | length);
+        else if (tag8 >= 0 && length <= 0xff) {
+            out.write(tag8);
+            out.write(length);
+        } else if (length <= 0xffff) {
+            out.write(tag16);
+            writeRaw(out, length, 2);
+        } else {
+            out.write(tag32);
+            writeRaw(out, length, 4);
+        }
+    }
+
+    private static void writeLong(OutputBuffer out, long value) {
+        if (value >= 0) {
+            if (value <= 0x7f)
+                out.write((int) value);
+            else if (value <= 0xff) {
+                out.write(0xcc);
+                out.write((int) value);
+            } else if (value <= 0xffff) {
+                out.write(0xcd);
+                writeRaw(out, value, 2);
+            } else if (value <= 0xffffffffL) {
+                out.write(0xce);
+                writeRaw(out, value, 4);
+            } else {
+                out.write(0xcf);
+                writeRaw(out, value, 8);
+            }
+        } else {
+            if (value >= -32)
+                out.write((int) value & 0xff);
+            else if (value >= Byte.MIN_VALUE) {
+                out.write(0xd0);
+                out.write((int) value & 0xff);
+            } else if (value >= Short.MIN_VALUE) {
+                out.write(0xd1);
+                writeRaw(out, value, 2);
+            } else if (value >= Integer.MIN_VALUE) {
+                out.write(0xd2);
+                writeRaw(out, value, 4);
+            } else {
+                out.write(0xd3);
+                writeRaw(out, value, 8);
+            }
+        }
+    }
+
+    private static void writeBigInteger(OutputBuffer out, BigInteger value) {
+        if (value.bitLength() < 64)
+            writeLong(out, value.longValue());
+        else if (value.signum() > 0 && value.bitLength() == 64) {
+            out.write(0xcf);
+            writeRaw(out, value.longValue(), 8);
+        } else
+            writeLiteral(out, value.toString());
+    }
+
+    /**
+     * Writes the low {@code bytes} bytes of a value in big-endian order.
+     */
+    private static void writeRaw(OutputBuffer out, long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8)
+            out.write((int) (value >>> shift) & 0xff);
+    }
+
+    /**
+     * A cursor over an encoded payload.
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private final KeyTable table;
+        private int pos = 0;
+
+        private Reader(byte[] data, KeyTable table) {
+            this.data = data;
+            this.table = table;
+        }
+
+        private boolean nextIsNil() throws ProtocolException {
+            require(1);
+            return (data[pos] & 0xff) == 0xc0;
+        }
+
+        private int arrayHeader() throws ProtocolException {
+            int tag = u8();
+
+            if ((tag & 0xf0) == 0x90)
+                return tag & 0x0f;
+
+            return switch (tag) {
+                case 0xdc -> (int) raw(2);
+                case 0xdd -> length(raw(4));
+                default -> throw new ProtocolException("Expected array, found tag 0x" + Integer.toHexString(tag));
+            };
+        }
+
+        private int mapHeader() throws ProtocolException {
+            int tag = u8();
+
+            if ((tag & 0xf0) == 0x80)
+                return tag & 0x0f;
+
+            return switch (tag) {
+                case 0xde -> (int) raw(2);
+                case 0xdf -> length(raw(4));
+                default -> throw new ProtocolException("Expected map, found tag 0x" + Integer.toHexString(tag));
+            };
+        }
+
+        private void mapInto(Map<String, Object> target, int depth) throws ProtocolException {
+            int size = mapHeader();
+
+            for (int i = 0; i < size; i++) {
+                if (!(value(depth) instanceof String key))
+                    throw new ProtocolException("Map keys must be strings");
+
+                target.put(key, value(depth));
+            }
+        }
+
+        /**
+         * Skips over the params map, capturing the command at index 0 and the token at index 1.
+         */
+        private void scanParams(String[] routing) throws ProtocolException {
+            int size = mapHeader();
+
+            for (int i = 0; i < size; i++) {
+                if (!(value(0) instanceof String key))
+                    throw new ProtocolException("Map keys must be strings");
+
+                switch (key) {
+                    case "command" -> routing[0] = DecodedMessage.stringOf(value(0));
+                    case "token" -> routing[1] = DecodedMessage.stringOf(value(0));
+                    default -> skip(0);
+                }
+            }
+        }
+
+        /**
+         * Moves past a value, checking its tags and lengths without building it.
+         */
+        private void skip(int depth) throws ProtocolException {
+            if (depth > MAX_DEPTH)
+                throw new ProtocolException("Message nested deeper than " + MAX_DEPTH + " levels");
+
+            int tag = u8();
+
+            if (tag <= 0x7f || tag >= 0xe0)
+                return;
+
+            int entries = -1;
+            if ((tag & 0xe0) == 0xa0) {
+                advance(tag & 0x1f);
+                return;
+            } else if ((tag & 0xf0) == 0x80)
+                entries = (tag & 0x0f) * 2;
+            else if ((tag & 0xf0) == 0x90)
+                entries = tag & 0x0f;
+
+            if (entries < 0) {
+                switch (tag) {
+                    case 0xc0, 0xc2, 0xc3 -> { }
+                    case 0xc4, 0xd9 -> advance((int) raw(1));
+                    case 0xc5, 0xda -> advance((int) raw(2));
+                    case 0xc6, 0xdb -> advance(length(raw(4)));
+                    case 0xcc, 0xd0 -> advance(1);
+                    case 0xcd, 0xd1 -> advance(2);
+                    case 0xca, 0xce, 0xd2 -> advance(4);
+                    case 0xcb, 0xcf, 0xd3 -> advance(8);
+                    case 0xdc -> entries = (int) raw(2);
+                    case 0xdd -> entries = length(raw(4));
+                    case 0xde -> entries = (int) raw(2) * 2;
+                    case 0xdf -> entries = length(raw(4) * 2);
+                    case 0xc7, 0xd4, 0xd5 -> entry(tag);
+                    default -> throw new ProtocolException("Unsupported tag 0x" + Integer.toHexString(tag));
+                }
+            }
+
+            for (int i = 0; i < entries; i++)
+                skip(depth + 1);
+        }
+
+        private void advance(int bytes) throws ProtocolException {
+            require(bytes);
+            pos += bytes;
+        }
+
+        private Object value(int depth) throws ProtocolException {
+            if (depth > MAX_DEPTH)
+                throw new ProtocolException("Message nested deeper than " + MAX_DEPTH + " levels");
+
+            require(1);
+            int tag = data[pos] & 0xff;
+
+            if (tag <= 0x7f) {
+                pos++;
+                return tag;
+            }
+            if (tag >= 0xe0) {
+                pos++;
+                return (int) (byte) tag;
+            }
+            if ((tag & 0xe0) == 0xa0) {
+                pos++;
+                return string(tag & 0x1f);
+            }
+            if ((tag & 0xf0) == 0x80)
+                return map(depth);
+            if ((tag & 0xf0) == 0x90)
+                return array(depth);
+
+            pos++;
+            return switch (tag) {
+                case 0xc0 -> JSONObject.NULL;
+                case 0xc2 -> Boolean.FALSE;
+                case 0xc3 -> Boolean.TRUE;
+                case 0xc4 -> bytes((int) raw(1));
+                case 0xc5 -> bytes((int) raw(2));
+                case 0xc6 -> bytes(length(raw(4)));
+                case 0xca -> Float.intBitsToFloat((int) raw(4));
+                case 0xcb -> Double.longBitsToDouble(raw(8));
+                case 0xcc -> (int) raw(1);
+                case 0xcd -> (int) raw(2);
+                case 0xce -> number(raw(4));
+                case 0xcf -> {
+                    long value = raw(8);
+                    yield value >= 0 ? number(value) : new BigInteger(Long.toUnsignedString(value));
+                }
+                case 0xd0 -> (int) (byte) raw(1);
+                case 0xd1 -> (int) (short) raw(2);
+                case 0xd2 -> (int) raw(4);
+                case 0xd3 -> number(raw(8));
+                case 0xd9 -> string((int) raw(1));
+                case 0xda -> string((int) raw(2));
+                case 0xdb -> string(length(raw(4)));
+                case 0xdc, 0xdd, 0xde, 0xdf -> {
+                    pos--;
+                    yield tag >= 0xde ? map(depth) : array(depth);
+                }
+                case 0xc7, 0xd4, 0xd5 -> entry(tag);
+                default -> throw new ProtocolException("Unsupported tag 0x" + Integer.toHexString(tag));
+            };
+        }
+
+        private JSONObject map(int depth) throws ProtocolException {
+            Map<String, Object> entries = new HashMap<>();
+            mapInto(entries, depth + 1);
+
+            try {
+                return new JSONObject(entries);
+            } catch (JSONException e) {
+                throw new ProtocolException("Invalid map value: " + e.getMessage());
+            }
+        }
+
+        private JSONArray array(int depth) throws ProtocolException {
+            int size = arrayHeader();
+            JSONArray array = new JSONArray();
+
+            try {
+                for (int i = 0; i < size; i++)
+                    array.put(value(depth + 1));
+            } catch (JSONException e) {
+                throw new ProtocolException("Invalid array value: " + e.getMessage());
+            }
+
+            return array;
+        }
+
+        /**
+         * Reads a reference to a key table entry or a new entry after its tag, storing new entries
+         * so later messages can refer to them.
+         */
+        private String entry(int tag) throws ProtocolException {
+            if (table == null)
+                throw new ProtocolException("Unsupported tag 0x" + Integer.toHexString(tag));
+
+            int length = tag == 0xc7 ? u8() : tag == 0xd4 ? 1 : 2;
+            int type = u8();
+
+            if (tag != 0xc7 && type == KeyTable.REFERENCE)
+                return table.get((int) raw(length));
+
+            if (tag != 0xc7 || type != KeyTable.DEFINITION || length < 2)
+                throw new ProtocolException("Invalid key table entry of type " + type);
+
+            int index = (int) raw(2);
+            String value = string(length - 2);
+            table.put(index, value);
+            return value;
+        }
+
+        private String string(int length) throws ProtocolException {
+            require(length);
+            String value = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        private byte[] bytes(int length) throws ProtocolException {
+            require(length);
+            byte[] value = Arrays.copyOfRange(data, pos, pos + length);
+            pos += length;
+            return value;
+        }
+
+        private int u8() throws ProtocolException {
+            require(1);
+            return data[pos++] & 0xff;
+        }
+
+        private long raw(int bytes) throws ProtocolException {
+            require(bytes);
+
+            long value = 0;
+            for (int i = 0; i < bytes; i++)
+                value = (value << 8) | (data[pos++] & 0xff);
+
+            return value;
+        }
+
+        private void require(int bytes) throws ProtocolException {
+            if (bytes < 0 || bytes > data.length - pos)
+                throw new ProtocolException("Truncated binary message");
+        }
+
+        private static Object number(long value) {
+            return value == (int) value ? (Object) (int) value : (Object) value;
+        }
+
+        private static int length(long value) throws ProtocolException {
+            if (value > Integer.MAX_VALUE)
+                throw new ProtocolException("Length exceeds maximum: " + value);
+
+            return (int) value;
+        }
+    }
+}
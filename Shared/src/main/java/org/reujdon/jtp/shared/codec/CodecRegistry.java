@@ -0,0 +1,67 @@
+package org.reujdon.jtp.shared.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of the {@link MessageCodec}s a peer can negotiate, keyed by codec name.
+ *
+ * <p>The {@link JsonCodec} and {@link BinaryCodec} are always registered. Both peers must
+ * register a custom codec under the same name before it can be negotiated.</p>
+ *
+ * @see MessageCodec
+ */
+public class CodecRegistry {
+    private static final Map<String, MessageCodec> codecs = new ConcurrentHashMap<>();
+    private static final MessageCodec DEFAULT = new JsonCodec();
+
+//    Base codec initialization
+    static {
+        codecs.put(DEFAULT.getName(), DEFAULT);
+        codecs.put(BinaryCodec.NAME, new BinaryCodec());
+    }
+
+    /**
+     * @return the {@link JsonCodec} every connection starts with
+     */
+    public static MessageCodec getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Retrieves the codec registered under the specified name, ignoring case.
+     * If no codec is found, returns null.
+     *
+     * @param name the codec name to look up
+     * @return the registered MessageCodec, or null if not found
+     * @throws IllegalArgumentException if name is null or empty
+     */
+    public static MessageCodec getCodec(String name) {
+        if (name == null || name.trim().isEmpty())
+            throw new IllegalArgumentException("Codec name cannot be null or empty");
+
+        return codecs.get(name.trim().toLowerCase());
+    }
+
+    /**
+     * Registers a codec under its name, replacing any codec with the same name except the default.
+     *
+     * @param codec the codec to register
+     * @throws IllegalArgumentException if the codec or its name is null/empty, or the name is
+     *         that of the default codec
+     */
+    public static void register(MessageCodec codec) {
+        if (codec == null)
+            throw new IllegalArgumentException("Codec cannot be null");
+
+        String name = codec.getName();
+        if (name == null || name.trim().isEmpty())
+            throw new IllegalArgumentException("Codec name cannot be null or empty");
+
+        name = name.trim().toLowerCase();
+        if (name.equals(DEFAULT.getName()))
+            throw new IllegalArgumentException("Default codec cannot be replaced");
+
+        codecs.put(name, codec);
+    }
+}
@@ -0,0 +1,131 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.MessageType;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A message received from a connection and decoded by a {@link MessageCodec}.
+ *
+ * <p>Unlike {@link org.reujdon.jtp.shared.Message} the fields are not validated, a received
+ * message may lack an id or carry an unknown type, and receivers decide how to handle that.</p>
+ *
+ * <p>The {@code command} and {@code token} parameters are extracted when the message is decoded,
+ * so a message can be routed or rejected before the rest of its parameters are. The built-in
+ * codecs return a parameter map that is only decoded when first accessed.</p>
+ */
+public class DecodedMessage {
+    private final MessageType type;
+    private final String id;
+    private final String command;
+    private final String token;
+    private final Map<String, Object> params;
+    private List<ByteBuffer> attachments = List.of();
+
+    /**
+     * Constructs a new {@code DecodedMessage}.
+     *
+     * @param type   the message type, or {@code null} if missing or unknown
+     * @param id     the message id, or {@code null} if missing
+     * @param params the message parameters, or {@code null} if none were sent
+     */
+    public DecodedMessage(MessageType type, String id, Map<String, Object> params) {
+        this.type = type;
+        this.id = id;
+        this.params = params == null ? new HashMap<>() : params;
+        this.command = stringOf(this.params.get("command"));
+        this.token = stringOf(this.params.get("token"));
+    }
+
+    /**
+     * Constructs a new {@code DecodedMessage} whose command and token were extracted separately,
+     * leaving the parameter map free to decode lazily.
+     *
+     * @param type    the message type, or {@code null} if missing or unknown
+     * @param id      the message id, or {@code null} if missing
+     * @param command the command parameter, or {@code null} if missing
+     * @param token   the token parameter, or {@code null} if missing
+     * @param params  the message parameters, including command and token, or {@code null} if none were sent
+     */
+    public DecodedMessage(MessageType type, String id, String command, String token, Map<String, Object> params) {
+        this.type = type;
+        this.id = id;
+        this.command = command;
+        this.token = token;
+        this.params = params == null ? new HashMap<>() : params;
+    }
+
+    /**
+     * Converts a parameter value to the string a command or token is compared with.
+     *
+     * @param value the raw parameter value
+     * @return the value as a string, or {@code null} if missing or JSON null
+     */
+    static String stringOf(Object value) {
+        return value == null || value == JSONObject.NULL ? null : value.toString();
+    }
+
+    /**
+     * @return the message type, or {@code null} if missing or unknown
+     */
+    public MessageType getType() {
+        return type;
+    }
+
+    /**
+     * @return the message id, or {@code null} if missing
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the {@code command} parameter, or {@code null} if missing
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the {@code token} parameter, or {@code null} if missing
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Gets the message parameters. Accessing the returned map may decode them from the payload.
+     *
+     * @return the message parameters, never null
+     * @throws IllegalStateException if lazily decoded parameters turn out to be invalid
+     */
+    public Map<String, Object> getParams() {
+        return params;
+    }
+
+    /**
+     * @return the attachments received after the message as read-only buffers, never null
+     */
+    public List<ByteBuffer> getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * Sets the attachments received after the message, which codecs do not decode themselves.
+     *
+     * @param attachments the attachments, or {@code null} if there are none
+     * @see org.reujdon.jtp.shared.transport.Frame#getAttachments()
+     */
+    public void setAttachments(List<ByteBuffer> attachments) {
+        this.attachments = attachments == null ? List.of() : attachments;
+    }
+
+    @Override
+    public String toString() {
+        return "{type=" + type + ", id=" + id + ", command=" + command + "}";
+    }
+}
@@ -0,0 +1,93 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.Message;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.net.ProtocolException;
+import java.util.Map;
+
+/**
+ * The default codec, encoding messages as UTF-8 JSON text as produced by {@link Message#toJSON()}.
+ *
+ * <p>Payloads never contain a raw newline, so this codec works with both framing modes. Messages
+ * are written by a {@link JsonWriter} and received payloads decoded by a {@link JsonParser},
+ * both straight from and to bytes.</p>
+ */
+public class JsonCodec implements MessageCodec {
+    public static final String NAME = "json";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        if (message == null)
+            throw new IllegalArgumentException("Message cannot be null");
+
+        OutputBuffer out = new OutputBuffer(256);
+        encode(message, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public void encode(Message message, OutputBuffer out) {
+        if (message == null)
+            throw new IllegalArgumentException("Message cannot be null");
+
+        encode(message.getType(), message.getId(), message.getParams(), out);
+    }
+
+    @Override
+    public void encode(MessageType type, String id, Map<String, Object> params, OutputBuffer out) {
+        if (type == null)
+            throw new IllegalArgumentException("Type is null");
+
+        if (id == null || id.trim().isEmpty())
+            throw new IllegalArgumentException("Id is null or empty");
+
+        if (params == null)
+            throw new IllegalArgumentException("Params cannot be null");
+
+        JsonWriter.writeMessage(out, type, id, params);
+    }
+
+    @Override
+    public void encodeResponse(String id, JSONObject data, OutputBuffer out) {
+        if (id == null || id.trim().isEmpty())
+            throw new IllegalArgumentException("Id is null or empty");
+
+        JsonWriter.writeMessage(out, MessageType.RESPONSE, id, data);
+    }
+
+    @Override
+    public PreparedResponse prepareResponse(JSONObject data) {
+        OutputBuffer tail = new OutputBuffer(256);
+        JsonWriter.writeTail(tail, MessageType.RESPONSE, data);
+        byte[] encoded = tail.toByteArray();
+
+        return (id, out) -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("Id is null or empty");
+
+            JsonWriter.writeHead(out, id);
+            out.write(encoded);
+        };
+    }
+
+    @Override
+    public DecodedMessage decode(byte[] payload) throws ProtocolException {
+        if (payload == null)
+            throw new IllegalArgumentException("Payload cannot be null");
+
+        return JsonParser.parseMessage(payload, 0, payload.length);
+    }
+}
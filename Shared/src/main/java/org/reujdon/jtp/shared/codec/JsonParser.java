@@ -0,0 +1,567 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.transport.ByteScanner;
+import org.reujdon.jtp.shared.transport.ByteScanners;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A single pass JSON parser working directly on the UTF-8 bytes of a frame payload.
+ *
+ * <p>The message envelope is read field by field without first decoding the payload into a
+ * {@code String} or building a {@link JSONObject} tree for the whole message. The {@code params}
+ * object is only validated and scanned for {@code command} and {@code token}; its values are
+ * built into the parameter map on first access through a {@link LazyParams}. Values follow the
+ * org.json model, so the result is identical to {@code Parse.Params(new JSONObject(text))}:</p>
+ * <ul>
+ *   <li>Nested objects and arrays become {@link JSONObject} and {@link JSONArray}</li>
+ *   <li>Integers become {@link Integer}, {@link Long} or {@link BigInteger} by size</li>
+ *   <li>Decimals become {@link BigDecimal}, except {@code -0} which becomes {@code -0.0}</li>
+ *   <li>{@code null} becomes {@link JSONObject#NULL}</li>
+ * </ul>
+ *
+ * <p>Only standard JSON is accepted, the lenient forms org.json tolerates such as unquoted keys
+ * or single quoted strings are rejected. String contents are searched for their closing quote
+ * with the {@link ByteScanners#getDefault() default scanner}, vectorized when available. Instances are not thread-safe and parse one payload.</p>
+ */
+final class JsonParser {
+    // Deepest nesting of objects and arrays accepted
+    private static final int MAX_DEPTH = 64;
+
+    private static final ByteScanner SCANNER = ByteScanners.getDefault();
+
+    // Integers with at most this many digits always fit in a long
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private final byte[] data;
+    private final int end;
+    private int pos;
+
+    private JsonParser(byte[] data, int offset, int length) {
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Parses a complete message.
+     *
+     * @param data   the array holding the payload
+     * @param offset the start of the payload
+     * @param length the payload length
+     * @return the decoded message
+     * @throws ProtocolException if the payload is not a valid JSON message
+     */
+    static DecodedMessage parseMessage(byte[] data, int offset, int length) throws ProtocolException {
+        return new JsonParser(data, offset, length).message();
+    }
+
+    /**
+     * Parses the {@code params} object of a message.
+     *
+     * @param data   the array holding the payload
+     * @param offset the start of the params object
+     * @param length the length of the params object
+     * @return the decoded parameters
+     * @throws ProtocolException if the object is not valid JSON
+     */
+    static Map<String, Object> parseParams(byte[] data, int offset, int length) throws ProtocolException {
+        JsonParser parser = new JsonParser(data, offset, length);
+
+        Map<String, Object> params = new HashMap<>();
+        parser.object(params, 0);
+
+        return params;
+    }
+
+    private DecodedMessage message() throws ProtocolException {
+        MessageType type = null;
+        String id = null;
+        Map<String, Object> params = null;
+        String[] routing = new String[2];
+
+        expect('{');
+
+        if (!consume('}')) {
+            do {
+                String key = key();
+
+                switch (key) {
+                    case "type" -> type = typeOf(value(0));
+                    case "id" -> {
+                        Object value = value(0);
+                        id = value == JSONObject.NULL ? null : value.toString();
+                    }
+                    case "params" -> {
+                        if (params != null)
+                            throw error("Duplicate key \"params\"");
+
+                        skipWhitespace();
+                        if (peek() != '{')
+                            throw error("\"params\" is not a JSON object");
+
+                        int start = pos;
+                        scanParams(routing);
+                        int length = pos - start;
+
+                        params = new LazyParams(() -> parseParams(data, start, length));
+                    }
+                    default -> value(0);
+                }
+            } while (consume(','));
+
+            expect('}');
+        }
+
+        skipWhitespace();
+        if (pos != end)
+            throw error("Trailing characters after message");
+
+        return new DecodedMessage(type, id, routing[0], routing[1], params);
+    }
+
+    /**
+     * Skips over the {@code params} object, checking its syntax and capturing the
+     * {@code command} and {@code token} values without building any other value.
+     *
+     * @param routing receives the command at index 0 and the token at index 1
+     */
+    private void scanParams(String[] routing) throws ProtocolException {
+        expect('{');
+        if (consume('}'))
+            return;
+
+        do {
+            switch (key()) {
+                case "command" -> routing[0] = DecodedMessage.stringOf(value(0));
+                case "token" -> routing[1] = DecodedMessage.stringOf(value(0));
+                default -> skipValue(0);
+            }
+        } while (consume(','));
+
+        expect('}');
+    }
+
+    /**
+     * Skips over a value, checking its syntax without building it.
+     */
+    private void skipValue(int depth) throws ProtocolException {
+        if (depth > MAX_DEPTH)
+            throw error("Message nested deeper than " + MAX_DEPTH + " levels");
+
+        skipWhitespace();
+
+        switch (peek()) {
+            case '"' -> skipString();
+            case '{' -> {
+                pos++;
+                if (consume('}'))
+                    return;
+
+                do {
+                    skipWhitespace();
+                    if (peek() != '"')
+                        throw error("Expected a quoted key");
+
+                    skipString();
+                    expect(':');
+                    skipValue(depth + 1);
+                } while (consume(','));
+
+                expect('}');
+            }
+            case '[' -> {
+                pos++;
+                if (consume(']'))
+                    return;
+
+                do {
+                    skipValue(depth + 1);
+                } while (consume(','));
+
+                expect(']');
+            }
+            case 't' -> literal("true", null);
+            case 'f' -> literal("false", null);
+            case 'n' -> literal("null", null);
+            default -> scanNumber();
+        }
+    }
+
+    /**
+     * Skips over a string starting at its opening quote.
+     */
+    private void skipString() throws ProtocolException {
+        pos++;
+
+        while (true) {
+            byte b = data[nextStringDelimiter()];
+            pos++;
+
+            if (b == '"')
+                return;
+
+            if (b != '\\')
+                throw error("Control character in string");
+
+            if (pos >= end)
+                throw error("Unterminated string");
+
+            switch (data[pos++]) {
+                case '"', '\\', '/', 'b', 'f', 'n', 'r', 't' -> { }
+                case 'u' -> unicodeEscape();
+                default -> throw error("Invalid escape sequence");
+            }
+        }
+    }
+
+    /**
+     * Moves to the next quote, backslash or control character in a string.
+     *
+     * @return the position of the delimiter
+     * @throws ProtocolException if the string is not terminated
+     */
+    private int nextStringDelimiter() throws ProtocolException {
+        int delimiter = SCANNER.indexOfStringDelimiter(data, pos, end);
+        if (delimiter < 0) {
+            pos = end;
+            throw error("Unterminated string");
+        }
+
+        return pos = delimiter;
+    }
+
+    /**
+     * Resolves the message type like {@link JSONObject#optEnum}, unknown values giving {@code null}.
+     */
+    private static MessageType typeOf(Object value) {
+        if (!(value instanceof String name))
+            return null;
+
+        try {
+            return MessageType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads an object member key and the following colon.
+     */
+    private String key() throws ProtocolException {
+        skipWhitespace();
+        if (peek() != '"')
+            throw error("Expected a quoted key");
+
+        String key = string();
+        expect(':');
+        return key;
+    }
+
+    private Object value(int depth) throws ProtocolException {
+        if (depth > MAX_DEPTH)
+            throw error("Message nested deeper than " + MAX_DEPTH + " levels");
+
+        skipWhitespace();
+
+        return switch (peek()) {
+            case '"' -> string();
+            case '{' -> {
+                JSONObject object = new JSONObject();
+                object(object, depth + 1);
+                yield object;
+            }
+            case '[' -> array(depth + 1);
+            case 't' -> literal("true", Boolean.TRUE);
+            case 'f' -> literal("false", Boolean.FALSE);
+            case 'n' -> literal("null", JSONObject.NULL);
+            default -> number();
+        };
+    }
+
+    /**
+     * Parses an object into a map, rejecting duplicate keys like org.json.
+     */
+    private void object(Map<String, Object> target, int depth) throws ProtocolException {
+        expect('{');
+        if (consume('}'))
+            return;
+
+        do {
+            String key = key();
+            if (target.put(key, value(depth)) != null)
+                throw error("Duplicate key \"" + key + "\"");
+        } while (consume(','));
+
+        expect('}');
+    }
+
+    /**
+     * Parses an object into a {@link JSONObject}, rejecting duplicate keys like org.json.
+     */
+    private void object(JSONObject target, int depth) throws ProtocolException {
+        expect('{');
+        if (consume('}'))
+            return;
+
+        do {
+            String key = key();
+            if (target.has(key))
+                throw error("Duplicate key \"" + key + "\"");
+
+            target.put(key, value(depth));
+        } while (consume(','));
+
+        expect('}');
+    }
+
+    private JSONArray array(int depth) throws ProtocolException {
+        JSONArray array = new JSONArray();
+
+        expect('[');
+        if (consume(']'))
+            return array;
+
+        do {
+            array.put(value(depth));
+        } while (consume(','));
+
+        expect(']');
+        return array;
+    }
+
+    /**
+     * Parses a string starting at its opening quote. Strings without escapes are decoded from
+     * the payload bytes in a single step.
+     */
+    private String string() throws ProtocolException {
+        int start = ++pos;
+        byte b = data[nextStringDelimiter()];
+
+        if (b == '"') {
+            String value = new String(data, start, pos - start, StandardCharsets.UTF_8);
+            pos++;
+            return value;
+        }
+
+        if (b == '\\')
+            return escapedString(start);
+
+        throw error("Control character in string");
+    }
+
+    /**
+     * Continues a string from its first escape sequence.
+     */
+    private String escapedString(int start) throws ProtocolException {
+        StringBuilder builder = new StringBuilder(pos - start + 16);
+        int run = start;
+
+        while (true) {
+            byte b = data[nextStringDelimiter()];
+
+            if (b == '"') {
+                builder.append(new String(data, run, pos - run, StandardCharsets.UTF_8));
+                pos++;
+                return builder.toString();
+            }
+
+            if (b != '\\')
+                throw error("Control character in string");
+
+            builder.append(new String(data, run, pos - run, StandardCharsets.UTF_8));
+
+            if (++pos >= end)
+                throw error("Unterminated string");
+
+            switch (data[pos++]) {
+                case '"' -> builder.append('"');
+                case '\\' -> builder.append('\\');
+                case '/' -> builder.append('/');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'n' -> builder.append('\n');
+                case 'r' -> builder.append('\r');
+                case 't' -> builder.append('\t');
+                case 'u' -> builder.append(unicodeEscape());
+                default -> throw error("Invalid escape sequence");
+            }
+
+            run = pos;
+        }
+    }
+
+    private char unicodeEscape() throws ProtocolException {
+        if (end - pos < 4)
+            throw error("Invalid unicode escape");
+
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(data[pos++], 16);
+            if (digit < 0)
+                throw error("Invalid unicode escape");
+
+            value = (value << 4) | digit;
+        }
+
+        return (char) value;
+    }
+
+    /**
+     * Parses a number with the same result types as org.json.
+     */
+    private Object number() throws ProtocolException {
+        int start = pos;
+        boolean decimal = scanNumber();
+        boolean negative = data[start] == '-';
+        int digits = integerDigits(start);
+
+        if (decimal || (negative && digits == 1 && data[pos - 1] == '0')) {
+            String text = new String(data, start, pos - start, StandardCharsets.US_ASCII);
+            BigDecimal value = new BigDecimal(text);
+
+            return negative && value.signum() == 0 ? (Object) (-0.0) : value;
+        }
+
+        if (digits <= MAX_LONG_DIGITS) {
+            long value = 0;
+            for (int i = pos - digits; i < pos; i++)
+                value = value * 10 + (data[i] - '0');
+
+            if (negative)
+                value = -value;
+
+            return value == (int) value ? (Object) (int) value : (Object) value;
+        }
+
+        BigInteger value = new BigInteger(new String(data, start, pos - start, StandardCharsets.US_ASCII));
+        if (value.bitLength() <= 63)
+            return value.longValue();
+
+        return value;
+    }
+
+    /**
+     * Counts the integer digits of the number starting at the given position.
+     */
+    private int integerDigits(int start) {
+        int i = data[start] == '-' ? start + 1 : start;
+        int digits = 0;
+
+        while (i + digits < pos && data[i + digits] >= '0' && data[i + digits] <= '9')
+            digits++;
+
+        return digits;
+    }
+
+    /**
+     * Moves past a number, checking it follows the JSON number grammar.
+     *
+     * @return if the number has a fraction or exponent
+     */
+    private boolean scanNumber() throws ProtocolException {
+        boolean decimal = false;
+
+        if (pos < end && data[pos] == '-')
+            pos++;
+
+        int digits = digits();
+        if (digits == 0)
+            throw error("Unexpected character");
+
+        if (digits > 1 && data[pos - digits] == '0')
+            throw error("Leading zero in number");
+
+        if (pos < end && data[pos] == '.') {
+            pos++;
+            decimal = true;
+            if (digits() == 0)
+                throw error("Missing digits after decimal point");
+        }
+
+        if (pos < end && (data[pos] == 'e' || data[pos] == 'E')) {
+            pos++;
+            decimal = true;
+            if (pos < end && (data[pos] == '+' || data[pos] == '-'))
+                pos++;
+            if (digits() == 0)
+                throw error("Missing exponent digits");
+        }
+
+        return decimal;
+    }
+
+    /**
+     * Consumes a run of decimal digits.
+     *
+     * @return the number of digits consumed
+     */
+    private int digits() {
+        int start = pos;
+        while (pos < end && data[pos] >= '0' && data[pos] <= '9')
+            pos++;
+
+        return pos - start;
+    }
+
+    private Object literal(String text, Object value) throws ProtocolException {
+        if (end - pos < text.length())
+            throw error("Unexpected end of message");
+
+        for (int i = 0; i < text.length(); i++)
+            if (data[pos + i] != text.charAt(i))
+                throw error("Unexpected character");
+
+        pos += text.length();
+        return value;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = data[pos];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r')
+                return;
+
+            pos++;
+        }
+    }
+
+    private int peek() throws ProtocolException {
+        if (pos >= end)
+            throw error("Unexpected end of message");
+
+        return data[pos];
+    }
+
+    private void expect(char c) throws ProtocolException {
+        skipWhitespace();
+        if (peek() != c)
+            throw error("Expected '" + c + "'");
+
+        pos++;
+    }
+
+    /**
+     * Consumes the given character if it is next after any whitespace.
+     */
+    private boolean consume(char c) throws ProtocolException {
+        skipWhitespace();
+        if (peek() != c)
+            return false;
+
+        pos++;
+        return true;
+    }
+
+    private ProtocolException error(String message) {
+        return new ProtocolException("Invalid JSON message: " + message + " at byte " + pos);
+    }
+}
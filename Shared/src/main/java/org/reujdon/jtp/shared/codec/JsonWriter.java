@@ -0,0 +1,349 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+
+/**
+ * Writes messages as UTF-8 JSON straight into an {@link OutputBuffer}.
+ *
+ * <p>The output is the text {@link org.reujdon.jtp.shared.Message#toJSON()} would produce, but
+ * parameter values are written as they are visited, without first copying them into a
+ * {@link JSONObject} or building a {@code String} of the whole message. Values follow the org.json
+ * rules:</p>
+ * <ul>
+ *   <li>{@code null} map values are left out, {@code null} array items are written as {@code null}</li>
+ *   <li>Numbers are written in their shortest form, {@code 2.0} as {@code 2}; non-finite
+ *       floating point values are rejected</li>
+ *   <li>{@link Map}s, collections and arrays are written as objects and arrays, enums by name</li>
+ *   <li>Other values are wrapped with {@link JSONObject#wrap(Object)}, so beans become objects
+ *       and everything else its quoted string form</li>
+ * </ul>
+ *
+ * <p>Strings are escaped like {@link JSONObject#quote(String)}, so payloads never contain a raw
+ * newline.</p>
+ */
+final class JsonWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+
+    private final OutputBuffer out;
+
+    private JsonWriter(OutputBuffer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a message whose parameters are held in a map.
+     *
+     * @param out    the buffer to append to
+     * @param type   the message type
+     * @param id     the message id
+     * @param params the parameters, left out when empty
+     * @throws IllegalArgumentException if a parameter cannot be written as JSON
+     */
+    static void writeMessage(OutputBuffer out, MessageType type, String id, Map<String, ?> params) {
+        writeHead(out, id);
+
+        JsonWriter writer = new JsonWriter(out);
+        writer.type(type);
+        if (!params.isEmpty()) {
+            out.write(',');
+            writer.string("params");
+            out.write(':');
+            writer.map(params);
+        }
+        out.write('}');
+    }
+
+    /**
+     * Writes a message whose parameters are held in a {@link JSONObject}, as returned by a handler.
+     *
+     * @param out    the buffer to append to
+     * @param type   the message type
+     * @param id     the message id
+     * @param params the parameters, left out when null or empty
+     * @throws IllegalArgumentException if a parameter cannot be written as JSON
+     */
+    static void writeMessage(OutputBuffer out, MessageType type, String id, JSONObject params) {
+        writeHead(out, id);
+        writeTail(out, type, params);
+    }
+
+    /**
+     * Writes the start of a message up to and including its id.
+     *
+     * @param out the buffer to append to
+     * @param id  the message id
+     * @see #writeTail(OutputBuffer, MessageType, JSONObject)
+     */
+    static void writeHead(OutputBuffer out, String id) {
+        JsonWriter writer = new JsonWriter(out);
+
+        out.write('{');
+        writer.string("id");
+        out.write(':');
+        writer.string(id);
+    }
+
+    /**
+     * Writes the rest of a message started with {@link #writeHead}. The tail does not depend on
+     * the id, so it can be written once and reused for many messages.
+     *
+     * @param out    the buffer to append to
+     * @param type   the message type
+     * @param params the parameters, left out when null or empty
+     * @throws IllegalArgumentException if a parameter cannot be written as JSON
+     */
+    static void writeTail(OutputBuffer out, MessageType type, JSONObject params) {
+        JsonWriter writer = new JsonWriter(out);
+
+        writer.type(type);
+        if (params != null && !params.isEmpty()) {
+            out.write(',');
+            writer.string("params");
+            out.write(':');
+            writer.object(params);
+        }
+        out.write('}');
+    }
+
+    /**
+     * Writes the message type field, which follows the id in the order {@link JSONObject} uses.
+     */
+    private void type(MessageType type) {
+        out.write(',');
+        string("type");
+        out.write(':');
+        string(type.name());
+    }
+
+    private void value(Object value) {
+        if (value == null || value == JSONObject.NULL)
+            out.write(NULL);
+        else if (value instanceof String s)
+            string(s);
+        else if (value instanceof Boolean b)
+            out.write(b ? TRUE : FALSE);
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            integer(((Number) value).longValue());
+        else if (value instanceof Number number)
+            number(number);
+        else if (value instanceof JSONObject object)
+            object(object);
+        else if (value instanceof JSONArray array)
+            iterable(array);
+        else if (value instanceof Map<?, ?> map)
+            map(map);
+        else if (value instanceof Iterable<?> iterable)
+            iterable(iterable);
+        else if (value.getClass().isArray())
+            array(value);
+        else if (value instanceof Enum<?> e)
+            string(e.name());
+        else if (value instanceof JSONString json)
+            raw(json.toJSONString());
+        else {
+            Object wrapped = JSONObject.wrap(value);
+
+            if (wrapped instanceof JSONObject || wrapped instanceof JSONArray)
+                value(wrapped);
+            else
+                string(value.toString());
+        }
+    }
+
+    private void object(JSONObject object) {
+        out.write('{');
+
+        boolean first = true;
+        for (String key : object.keySet()) {
+            if (!first)
+                out.write(',');
+            first = false;
+
+            string(key);
+            out.write(':');
+            value(object.opt(key));
+        }
+
+        out.write('}');
+    }
+
+    private void map(Map<?, ?> map) {
+        out.write('{');
+
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getValue() == null)
+                continue;
+
+            if (!first)
+                out.write(',');
+            first = false;
+
+            string(String.valueOf(entry.getKey()));
+            out.write(':');
+            value(entry.getValue());
+        }
+
+        out.write('}');
+    }
+
+    private void iterable(Iterable<?> items) {
+        out.write('[');
+
+        boolean first = true;
+        for (Object item : items) {
+            if (!first)
+                out.write(',');
+            first = false;
+
+            value(item);
+        }
+
+        out.write(']');
+    }
+
+    private void array(Object array) {
+        out.write('[');
+
+        int length = Array.getLength(array);
+        for (int i = 0; i < length; i++) {
+            if (i > 0)
+                out.write(',');
+
+            value(Array.get(array, i));
+        }
+
+        out.write(']');
+    }
+
+    /**
+     * Writes an integer's decimal digits without going through a {@code String}.
+     */
+    private void integer(long value) {
+        if (value == Long.MIN_VALUE) {
+            raw(Long.toString(value));
+            return;
+        }
+
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (divisor <= value / 10)
+            divisor *= 10;
+
+        for (; divisor > 0; divisor /= 10)
+            out.write('0' + (int) (value / divisor % 10));
+    }
+
+    private void number(Number number) {
+        try {
+            raw(JSONObject.numberToString(number));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Cannot encode number " + number + " as JSON", e);
+        }
+    }
+
+    /**
+     * Writes text that needs no quoting or escaping, such as a number.
+     */
+    private void raw(String text) {
+        for (int i = 0; i < text.length(); i++)
+            i = utf8(text, i, text.charAt(i));
+    }
+
+    /**
+     * Writes a quoted and escaped string, encoding it to UTF-8 as it goes.
+     */
+    private void string(String value) {
+        out.write('"');
+
+        char previous = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"', '\\' -> {
+                    out.write('\\');
+                    out.write(c);
+                }
+                case '/' -> {
+                    // Keeps "</" out of the text, as org.json does
+                    if (previous == '<')
+                        out.write('\\');
+                    out.write('/');
+                }
+                case '\b' -> escape('b');
+                case '\t' -> escape('t');
+                case '\n' -> escape('n');
+                case '\f' -> escape('f');
+                case '\r' -> escape('r');
+                default -> {
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100'))
+                        unicodeEscape(c);
+                    else
+                        i = utf8(value, i, c);
+                }
+            }
+
+            previous = c;
+        }
+
+        out.write('"');
+    }
+
+    private void escape(char c) {
+        out.write('\\');
+        out.write(c);
+    }
+
+    private void unicodeEscape(char c) {
+        out.write('\\');
+        out.write('u');
+        out.write(HEX[(c >> 12) & 0xF]);
+        out.write(HEX[(c >> 8) & 0xF]);
+        out.write(HEX[(c >> 4) & 0xF]);
+        out.write(HEX[c & 0xF]);
+    }
+
+    /**
+     * Encodes one character, or a surrogate pair starting at it, to UTF-8. Unpaired surrogates
+     * are written as {@code ?}, as {@link String#getBytes} does.
+     *
+     * @return the index of the last character consumed
+     */
+    private int utf8(String text, int i, char c) {
+        if (c < 0x80)
+            out.write(c);
+        else if (c < 0x800) {
+            out.write(0xC0 | (c >> 6));
+            out.write(0x80 | (c & 0x3F));
+        } else if (!Character.isSurrogate(c)) {
+            out.write(0xE0 | (c >> 12));
+            out.write(0x80 | ((c >> 6) & 0x3F));
+            out.write(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int code = Character.toCodePoint(c, text.charAt(++i));
+            out.write(0xF0 | (code >> 18));
+            out.write(0x80 | ((code >> 12) & 0x3F));
+            out.write(0x80 | ((code >> 6) & 0x3F));
+            out.write(0x80 | (code & 0x3F));
+        } else
+            out.write('?');
+
+        return i;
+    }
+}
@@ -0,0 +1,213 @@
+package org.reujdon.jtp.shared.codec;
+
+import java.net.ProtocolException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A per-connection table of repeated strings, which the {@link BinaryCodec} replaces with small
+ * indices, negotiated with a {@link org.reujdon.jtp.shared.Hello}.
+ *
+ * <p>Like HPACK's dynamic table, it saves the bytes of the map keys and short values every
+ * message repeats, such as {@code command}, {@code token}, command names and handler parameter
+ * names. A key is defined the first time it is sent and a value the second time, by writing the
+ * string once together with the index it gets. Later messages write only the index. Each peer
+ * keeps a table of the strings it defined and one of the strings its peer defined. Entries are
+ * never replaced, so once the table is full new strings are sent as they are.</p>
+ *
+ * <p>The peer must have received a definition before any reference to it, but messages may be
+ * encoded in a different order than they are sent, or interleaved in {@link
+ * org.reujdon.jtp.shared.transport.Framing#MUX} framing. The sender therefore holds the table's
+ * {@link #lock()} from encoding a message until it has queued it. It
+ * {@link #takeDefinitions() takes} the definitions the message made and runs them once the
+ * message's place in the output is fixed, and only then can later messages refer to them.
+ * A codec encoding without the lock writes every string as it is.</p>
+ *
+ * @see BinaryCodec#BinaryCodec(KeyTable)
+ */
+public class KeyTable {
+    /**
+     * Most entries of a table, as indices are written in at most two bytes.
+     */
+    public static final int MAX_SIZE = 65536;
+
+    /**
+     * Longest string kept in a table, in characters.
+     */
+    static final int MAX_LENGTH = 64;
+
+    // MessagePack extension types of a reference to an entry and of a new entry
+    static final int REFERENCE = 1;
+    static final int DEFINITION = 2;
+
+    private final int size;
+
+    // Sending side, guarded by the lock except the entries the peer has been sent
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Integer> sent = new ConcurrentHashMap<>();
+    private final Map<String, Integer> assigned = new HashMap<>();
+    private final List<String> defined = new ArrayList<>();
+    private final ArrayDeque<Integer> starts = new ArrayDeque<>();
+    private final Set<String> seen = new HashSet<>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private int next = 0;
+
+    // Receiving side, written by the reading thread and read by the threads decoding params
+    private final AtomicReferenceArray<String> received;
+
+    /**
+     * Constructs a new {@code KeyTable}.
+     *
+     * @param size the most entries of the table in each direction
+     * @throws IllegalArgumentException if size is not between 1 and {@link #MAX_SIZE}
+     */
+    public KeyTable(int size) {
+        if (size <= 0 || size > MAX_SIZE)
+            throw new IllegalArgumentException(String.format("Invalid key table size: %d. Must be between 1 and %d", size, MAX_SIZE));
+
+        this.size = size;
+        this.received = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @return the most entries of the table in each direction
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Starts encoding a message with the table, waiting for other threads to queue theirs. The
+     * lock is reentrant, a message sent while encoding another has definitions of its own.
+     */
+    public void lock() {
+        lock.lock();
+        starts.push(defined.size());
+    }
+
+    /**
+     * Ends encoding a message. Definitions that were not taken belong to a message that was not
+     * sent and are dropped, so the strings are defined again by a later message. The peer never
+     * saw their indices, which are given to the next definitions.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not hold the lock
+     */
+    public void unlock() {
+        if (lock.isHeldByCurrentThread()) {
+            List<String> dropped = defined.subList(starts.pop(), defined.size());
+            for (String string : dropped)
+                free.push(assigned.remove(string));
+            dropped.clear();
+        }
+
+        lock.unlock();
+    }
+
+    /**
+     * Takes the definitions the current message made since the lock was taken. Once the message
+     * is queued in the order it is sent, run the result to let later messages refer to them.
+     *
+     * @return the definitions to run once the message is queued, which does nothing if there are none
+     */
+    public Runnable takeDefinitions() {
+        if (!lock.isHeldByCurrentThread())
+            return () -> {};
+
+        List<String> taken = defined.subList(starts.peek(), defined.size());
+        if (taken.isEmpty())
+            return () -> {};
+
+        Map<String, Integer> entries = new HashMap<>();
+        for (String string : taken)
+            entries.put(string, assigned.get(string));
+        taken.clear();
+
+        return () -> sent.putAll(entries);
+    }
+
+    /**
+     * @return if the current thread holds the lock and may use the table
+     */
+    boolean isHeldByCurrentThread() {
+        return lock.isHeldByCurrentThread();
+    }
+
+    /**
+     * @param string a string to send
+     * @return the index of the string if the peer has been sent its definition, otherwise {@code -1}
+     */
+    int indexOf(String string) {
+        Integer index = sent.get(string);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Assigns an index to a string the current message defines, reusing those of dropped
+     * definitions first. Keys are defined the first time they are sent, values the second time,
+     * so unique values do not fill the table.
+     *
+     * @param string the string to send
+     * @param key    if the string is a map key
+     * @return the index to define, or {@code -1} to send the string as it is
+     */
+    int define(String string, boolean key) {
+        if ((next >= size && free.isEmpty()) || string.length() > MAX_LENGTH || assigned.containsKey(string))
+            return -1;
+
+        if (!key && seen.add(string)) {
+            // Forget candidates rather than letting them grow without bound
+            if (seen.size() > size * 4)
+                seen.clear();
+            return -1;
+        }
+
+        seen.remove(string);
+        int index = free.isEmpty() ? next++ : free.pop();
+        assigned.put(string, index);
+        defined.add(string);
+        return index;
+    }
+
+    /**
+     * Stores a definition received from the peer. The same definition may be read again when
+     * the params of its message are decoded.
+     *
+     * @param index  the index of the entry
+     * @param string the string it stands for
+     * @throws ProtocolException if the index is out of range or already holds another string
+     */
+    void put(int index, String string) throws ProtocolException {
+        checkIndex(index);
+
+        if (!received.compareAndSet(index, null, string) && !string.equals(received.get(index)))
+            throw new ProtocolException("Key table entry " + index + " redefined");
+    }
+
+    /**
+     * @param index the index of a received entry
+     * @return the string the entry stands for
+     * @throws ProtocolException if the index is out of range or has not been defined
+     */
+    String get(int index) throws ProtocolException {
+        checkIndex(index);
+
+        String string = received.get(index);
+        if (string == null)
+            throw new ProtocolException("Unknown key table entry: " + index);
+
+        return string;
+    }
+
+    private void checkIndex(int index) throws ProtocolException {
+        if (index < 0 || index >= size)
+            throw new ProtocolException("Key table index out of range: " + index);
+    }
+}
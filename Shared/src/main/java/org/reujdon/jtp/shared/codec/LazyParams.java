@@ -0,0 +1,89 @@
+package org.reujdon.jtp.shared.codec;
+
+import java.net.ProtocolException;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A parameter map that is only decoded from the payload on first access.
+ *
+ * <p>Codecs check the structure of the parameters when the message is received, so malformed
+ * payloads are still rejected up front, but the values themselves are only built once a
+ * {@code CommandHandler} or {@code Request} callback reads them. Messages rejected by command or
+ * token never pay for decoding their parameters.</p>
+ *
+ * <p>Once decoded the map behaves like a regular mutable {@link java.util.HashMap}. Instances are
+ * not thread-safe and are meant to be read by the single thread handling the message.</p>
+ */
+class LazyParams extends AbstractMap<String, Object> {
+    /**
+     * Decodes the full parameter map of a message.
+     */
+    @FunctionalInterface
+    interface Decoder {
+        Map<String, Object> decode() throws ProtocolException;
+    }
+
+    private Decoder decoder;
+    private Map<String, Object> params;
+
+    LazyParams(Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return if the parameters have been decoded
+     */
+    boolean isDecoded() {
+        return params != null;
+    }
+
+    /**
+     * Decodes the parameters on first use.
+     *
+     * @throws IllegalStateException if the parameters cannot be decoded
+     */
+    private Map<String, Object> params() {
+        if (params == null) {
+            try {
+                params = decoder.decode();
+                decoder = null;
+            } catch (ProtocolException e) {
+                throw new IllegalStateException("Invalid message parameters: " + e.getMessage(), e);
+            }
+        }
+
+        return params;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return params().entrySet();
+    }
+
+    @Override
+    public int size() {
+        return params().size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return params().containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return params().get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return params().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return params().remove(key);
+    }
+}
@@ -0,0 +1,130 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONObject;
+import org.reujdon.jtp.shared.Message;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.Response;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.net.ProtocolException;
+import java.util.Map;
+
+/**
+ * Converts messages of the transfer protocol to and from the payload bytes of a frame.
+ *
+ * <p>Every codec preserves the message model: a {@link org.reujdon.jtp.shared.MessageType},
+ * an id and a {@code Map<String, Object>} of parameters, where nested objects are decoded as
+ * {@link org.json.JSONObject} and lists as {@link org.json.JSONArray}, so handlers and requests
+ * see the same values whichever codec the connection uses.</p>
+ *
+ * <p>Codecs are registered by name in the {@link CodecRegistry} and selected per connection
+ * with a {@link org.reujdon.jtp.shared.Hello}. Implementations must be thread-safe, and those in the
+ * registry stateless, as one instance serves every connection.</p>
+ *
+ * @see JsonCodec
+ * @see BinaryCodec
+ */
+public interface MessageCodec {
+    /**
+     * @return the name used to select this codec during negotiation
+     */
+    String getName();
+
+    /**
+     * Whether encoded payloads may contain arbitrary bytes, including newlines. Binary codecs can
+     * only be used with {@link org.reujdon.jtp.shared.transport.Framing#LENGTH} framing.
+     *
+     * @return {@code true} if the codec produces binary payloads
+     */
+    boolean isBinary();
+
+    /**
+     * Encodes a message into a frame payload.
+     *
+     * @param message the message to encode (cannot be null)
+     * @return the encoded payload
+     * @throws IllegalArgumentException if the message is null or a parameter cannot be encoded
+     */
+    byte[] encode(Message message);
+
+    /**
+     * Encodes a message straight into a buffer, after any bytes it already holds.
+     *
+     * <p>The default implementation appends the result of {@link #encode(Message)}; codecs
+     * should override it to write without an intermediate array.</p>
+     *
+     * @param message the message to encode (cannot be null)
+     * @param out     the buffer to append the payload to
+     * @throws IllegalArgumentException if the message is null or a parameter cannot be encoded
+     */
+    default void encode(Message message, OutputBuffer out) {
+        out.write(encode(message));
+    }
+
+    /**
+     * Encodes a message given by its parts straight into a buffer, so a caller can send the same
+     * parameters under an id of its own, or without building a {@link Message} at all.
+     *
+     * <p>The default implementation copies the parts into a {@code Message} and calls
+     * {@link #encode(Message, OutputBuffer)}.</p>
+     *
+     * @param type   the message type (cannot be null)
+     * @param id     the message id (cannot be null or empty)
+     * @param params the message parameters (cannot be null)
+     * @param out    the buffer to append the payload to
+     * @throws IllegalArgumentException if an argument is invalid or a parameter cannot be encoded
+     */
+    default void encode(MessageType type, String id, Map<String, Object> params, OutputBuffer out) {
+        if (params == null)
+            throw new IllegalArgumentException("Params cannot be null");
+
+        // Inside the subclass, params names the message's own field
+        Map<String, Object> values = params;
+        Message message = new Message(id, type) {
+            {
+                this.params.putAll(values);
+            }
+        };
+        encode(message, out);
+    }
+
+    /**
+     * Encodes a {@link Response} to the given request straight from a handler's result into a
+     * buffer, without building the {@code Response} and copying the result into it.
+     *
+     * <p>The default implementation builds the {@code Response} and calls
+     * {@link #encode(Message, OutputBuffer)}.</p>
+     *
+     * @param id   the id of the request being answered
+     * @param data the response data (can be null)
+     * @param out  the buffer to append the payload to
+     * @throws IllegalArgumentException if id is null/empty or a value cannot be encoded
+     */
+    default void encodeResponse(String id, JSONObject data, OutputBuffer out) {
+        encode(new Response(id, data), out);
+    }
+
+    /**
+     * Encodes a {@link Response} once so it can be written for any number of requests,
+     * see {@link PreparedResponse}.
+     *
+     * <p>The default implementation encodes the response again on every write; codecs should
+     * override it to encode everything but the id up front.</p>
+     *
+     * @param data the response data (can be null), which must not be modified afterwards
+     * @return the prepared response
+     * @throws IllegalArgumentException if a value cannot be encoded
+     */
+    default PreparedResponse prepareResponse(JSONObject data) {
+        return (id, out) -> encodeResponse(id, data, out);
+    }
+
+    /**
+     * Decodes a frame payload into a message.
+     *
+     * @param payload the received payload (cannot be null)
+     * @return the decoded message
+     * @throws ProtocolException if the payload is not a valid message in this codec
+     */
+    DecodedMessage decode(byte[] payload) throws ProtocolException;
+}
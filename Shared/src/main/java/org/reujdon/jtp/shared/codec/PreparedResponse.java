@@ -0,0 +1,24 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+/**
+ * A response payload encoded once by a {@link MessageCodec} and written for many requests, with
+ * only the id of the request being answered filled in each time.
+ *
+ * <p>Used by the server for handlers whose result does not change between calls, so the result
+ * is neither rebuilt nor re-encoded per request. Implementations are immutable and thread-safe.</p>
+ *
+ * @see MessageCodec#prepareResponse(org.json.JSONObject)
+ */
+@FunctionalInterface
+public interface PreparedResponse {
+    /**
+     * Writes the response to the given request.
+     *
+     * @param id  the id of the request being answered
+     * @param out the buffer to append the payload to
+     * @throws IllegalArgumentException if id is null or empty
+     */
+    void write(String id, OutputBuffer out);
+}
@@ -0,0 +1,38 @@
+package org.reujdon.jtp.shared.transport;
+
+/**
+ * Finds delimiter bytes in received data, the inner loop of framing and message decoding.
+ *
+ * <p>Implementations are stateless and thread-safe. Use {@link ByteScanners#getDefault()} to get
+ * the fastest one available on the running JVM.</p>
+ *
+ * @see ByteScanners
+ */
+public interface ByteScanner {
+    /**
+     * @return a short name identifying the implementation
+     */
+    String getName();
+
+    /**
+     * Finds the first occurrence of a byte.
+     *
+     * @param data  the array to search
+     * @param from  the first index to search, inclusive
+     * @param to    the last index to search, exclusive
+     * @param value the byte to find
+     * @return the index of the first match, or -1 if there is none
+     */
+    int indexOf(byte[] data, int from, int to, byte value);
+
+    /**
+     * Finds the first byte that ends a plain run of JSON string content: a quote, a backslash
+     * or a control character below {@code 0x20}.
+     *
+     * @param data the array to search
+     * @param from the first index to search, inclusive
+     * @param to   the last index to search, exclusive
+     * @return the index of the first match, or -1 if there is none
+     */
+    int indexOfStringDelimiter(byte[] data, int from, int to);
+}
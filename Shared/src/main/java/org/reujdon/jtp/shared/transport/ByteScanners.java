@@ -0,0 +1,53 @@
+package org.reujdon.jtp.shared.transport;
+
+/**
+ * Selects the {@link ByteScanner} used by the decoders.
+ *
+ * <p>The vectorized scanner is used when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}, otherwise the scalar scanner. Setting the system
+ * property {@code jtp.vector=false} forces the scalar scanner.</p>
+ */
+public final class ByteScanners {
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final ByteScanner SCALAR = new ScalarByteScanner();
+    private static final ByteScanner DEFAULT = select();
+
+    private ByteScanners() {
+    }
+
+    /**
+     * @return the fastest scanner available on this JVM
+     */
+    public static ByteScanner getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the scalar scanner, available on every JVM
+     */
+    public static ByteScanner scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Loads the vectorized scanner if the Vector API is available and not disabled.
+     */
+    private static ByteScanner select() {
+        if (!Boolean.parseBoolean(System.getProperty("jtp.vector", "true")))
+            return SCALAR;
+
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty())
+            return SCALAR;
+
+        try {
+            // Loaded reflectively so this class links without the incubator module
+            return (ByteScanner) Class.forName(ByteScanners.class.getPackageName() + ".VectorByteScanner")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Vector API unavailable, using scalar scanning: " + e.getMessage());
+            return SCALAR;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.reujdon.jtp.shared.transport;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-connection Deflate compression of message payloads, negotiated with a
+ * {@link org.reujdon.jtp.shared.Hello}.
+ *
+ * <p>Each message is compressed on its own, so frames can still be decoded in any order they
+ * are assembled in, and is flagged with {@link Frame#FLAG_COMPRESSED}. Only payloads of at least
+ * the sender's threshold are compressed, and only if that makes them smaller, so small requests
+ * and incompressible data go out as they are. Both peers prime the compressor with the same
+ * preset {@link #DICTIONARY} of the keys and values every message repeats, which is what lets
+ * payloads of a few hundred bytes shrink at all.</p>
+ *
+ * <p>A connection keeps one {@link Deflater} and one {@link Inflater}, reset for every message
+ * instead of allocated. Messages are compressed by whichever thread sends them, one at a time,
+ * into a spare output buffer that is kept for the next message, and copied out once the
+ * compressor is free for the next thread. Compression needs the flags of {@link Framing#LENGTH}
+ * or {@link Framing#MUX} framing.</p>
+ */
+public class Compression {
+    /**
+     * Name of the Deflate compression in a {@link org.reujdon.jtp.shared.Hello}.
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Default smallest payload compressed, in bytes.
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /**
+     * The preset dictionary both peers use. Deflate refers back to the end of the dictionary
+     * most cheaply, so the most common strings come last. Changing it breaks compatibility
+     * with peers using the old one.
+     */
+    static final byte[] DICTIONARY = ("false,true,null,0,1,\"checksum\":\"size\":\"offset\":\"length\":"
+            + "\"path\":\"last\":\"upload\":\"data\":\"demand\":\"requests\":\"results\":\"error\":"
+            + "\"message\":\"token\":\"BATCH\",\"CHUNK\",\"DEMAND\",\"ERROR\",\"REQUEST\","
+            + "{\"type\":\"RESPONSE\",\"id\":\"\",\"params\":{\"command\":\"")
+            .getBytes(StandardCharsets.UTF_8);
+
+    // Largest output buffer kept for reuse, bigger ones are left to the garbage collector
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final int threshold;
+    private final int maxSize;
+
+    private final ReentrantLock deflaterLock = new ReentrantLock();
+    private final ReentrantLock inflaterLock = new ReentrantLock();
+    private final Deflater deflater = new Deflater();
+    private final Inflater inflater = new Inflater();
+    private volatile boolean closed = false;
+
+    // Output buffer not currently in use, taken by whichever thread compresses next
+    private final AtomicReference<byte[]> spareBuffer = new AtomicReference<>();
+
+    /**
+     * Constructs a new {@code Compression}.
+     *
+     * @param threshold the smallest payload compressed, in bytes
+     * @param maxSize   the largest payload accepted once decompressed, in bytes
+     * @throws IllegalArgumentException if threshold is negative or maxSize is not positive
+     */
+    public Compression(int threshold, int maxSize) {
+        if (threshold < 0)
+            throw new IllegalArgumentException(String.format("Invalid compression threshold: %d. Must not be negative", threshold));
+
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Max size must be positive");
+
+        this.threshold = threshold;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Checks whether a compression named in a {@link org.reujdon.jtp.shared.Hello} is supported.
+     *
+     * @param name the name of the compression
+     * @return {@code true} if it is {@link #DEFLATE}, ignoring case
+     */
+    public static boolean isSupported(String name) {
+        return name != null && DEFLATE.equalsIgnoreCase(name.trim());
+    }
+
+    /**
+     * @return the smallest payload compressed, in bytes
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Compresses a payload if it is at least the threshold and compressing makes it smaller.
+     *
+     * @param payload the array holding the payload
+     * @param offset  the start of the payload
+     * @param length  the length of the payload
+     * @return the compressed payload, or {@code null} to send it as it is
+     */
+    public byte[] compress(byte[] payload, int offset, int length) {
+        if (length < threshold || length == 0)
+            return null;
+
+        // Anything not smaller than the payload is not worth sending
+        int limit = length - 1;
+
+        byte[] out = spareBuffer.getAndSet(null);
+        if (out == null)
+            out = new byte[Math.min(limit, Math.max(1024, length / 4))];
+
+        int size = 0;
+        boolean smaller = false;
+
+        deflaterLock.lock();
+        try {
+            if (!closed) {
+                deflater.reset();
+                deflater.setDictionary(DICTIONARY);
+                deflater.setInput(payload, offset, length);
+                deflater.finish();
+
+                while (size < limit) {
+                    size += deflater.deflate(out, size, Math.min(out.length, limit) - size);
+                    if (deflater.finished()) {
+                        smaller = true;
+                        break;
+                    }
+
+                    if (size == out.length)
+                        out = Arrays.copyOf(out, (int) Math.min(limit, out.length * 2L));
+                }
+            }
+        } finally {
+            deflaterLock.unlock();
+        }
+
+        byte[] packed = smaller ? Arrays.copyOf(out, size) : null;
+
+        if (out.length <= MAX_RETAINED_BUFFER)
+            spareBuffer.compareAndSet(null, out);
+
+        return packed;
+    }
+
+    /**
+     * Restores the payload of a frame flagged with {@link Frame#FLAG_COMPRESSED}.
+     *
+     * @param frame the received frame, a whole message in {@link Framing#MUX} framing
+     * @return a frame holding the decompressed payload without the flag, or the frame itself if it is not compressed
+     * @throws ProtocolException if the payload is not valid Deflate data or grows past the largest size accepted
+     */
+    public Frame decompress(Frame frame) throws ProtocolException {
+        if (!frame.isCompressed())
+            return frame;
+
+        byte[] payload = frame.getPayload();
+        byte[] out = new byte[Math.min(maxSize, Math.max(256, payload.length * 4))];
+        int size = 0;
+
+        inflaterLock.lock();
+        try {
+            if (closed)
+                throw new ProtocolException("Compression has been closed");
+
+            inflater.reset();
+            inflater.setInput(payload);
+
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    if (out.length == maxSize)
+                        throw new ProtocolException("Decompressed message exceeds the limit of " + maxSize + " bytes");
+                    out = Arrays.copyOf(out, (int) Math.min(maxSize, out.length * 2L));
+                }
+
+                int read = inflater.inflate(out, size, out.length - size);
+                size += read;
+
+                if (read == 0) {
+                    if (inflater.needsDictionary())
+                        inflater.setDictionary(DICTIONARY);
+                    else if (inflater.needsInput())
+                        throw new ProtocolException("Compressed message is truncated");
+                }
+            }
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new ProtocolException("Invalid compressed message: " + e.getMessage());
+        } finally {
+            inflaterLock.unlock();
+        }
+
+        return new Frame(frame.getType(), frame.getFlags() & ~Frame.FLAG_COMPRESSED, frame.getStream(), Arrays.copyOf(out, size));
+    }
+
+    /**
+     * Releases the native state of the compressor. Later messages are sent uncompressed and
+     * compressed ones can no longer be read.
+     */
+    public void close() {
+        deflaterLock.lock();
+        try {
+            closed = true;
+            deflater.end();
+        } finally {
+            deflaterLock.unlock();
+        }
+
+        inflaterLock.lock();
+        try {
+            inflater.end();
+        } finally {
+            inflaterLock.unlock();
+        }
+    }
+}
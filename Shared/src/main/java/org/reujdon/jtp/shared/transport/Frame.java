@@ -0,0 +1,462 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single complete message received from a connection, together with its header.
+ *
+ * <p>In {@link Framing#LENGTH} mode each frame is laid out as:</p>
+ * <pre>
+ * +----------------+----------+-----------+-----------------+
+ * | length (int32) | type (8) | flags (8) | payload ...     |
+ * +----------------+----------+-----------+-----------------+
+ * </pre>
+ * <ul>
+ *   <li><b>length</b> - Big-endian number of bytes following the length field</li>
+ *   <li><b>type</b> - The {@link MessageType} ordinal, so frames can be routed or skipped
+ *       without decoding the payload</li>
+ *   <li><b>flags</b> - {@link #FLAG_ATTACHMENTS} if the payload carries attachments,
+ *       {@link #FLAG_COMPRESSED} if it is compressed, other bits are reserved and always 0</li>
+ * </ul>
+ *
+ * <p>In {@link Framing#MUX} mode the header also carries the logical stream the frame belongs to:</p>
+ * <pre>
+ * +----------------+----------+-----------+-----------------+-----------------+
+ * | length (int32) | type (8) | flags (8) | stream (int32)  | payload ...     |
+ * +----------------+----------+-----------+-----------------+-----------------+
+ * </pre>
+ * <p>A message is split into one or more frames on its stream, the last one flagged with
+ * {@link #FLAG_END}, and frames of different streams may be interleaved. Frames of type
+ * {@link MessageType#WINDOW_UPDATE} grant flow control credit, see {@link StreamScheduler}.</p>
+ *
+ * <p>A payload flagged with {@link #FLAG_ATTACHMENTS} holds the encoded message followed by raw
+ * byte segments sent out-of-band, and ends with a trailer giving their lengths:</p>
+ * <pre>
+ * +-----------+-----------+-----+-------------------+-----+---------------+
+ * | message   | segment 1 | ... | length 1 (int32)  | ... | count (int32) |
+ * +-----------+-----------+-----+-------------------+-----+---------------+
+ * </pre>
+ * <p>The segments are never encoded by the codec, so they cost no more than their own bytes and
+ * are handed to the receiver as read-only views of the payload, see {@link #getAttachments()}.</p>
+ *
+ * <p>In {@link Framing#LINE} mode the payload is the text of one line and the type is unknown
+ * until the payload is parsed. Line frames cannot carry attachments.</p>
+ *
+ * @see FrameDecoder
+ * @see Framing
+ */
+public class Frame {
+    /**
+     * Size of the length-prefixed header, length plus type and flags.
+     */
+    public static final int HEADER_SIZE = 6;
+
+    /**
+     * Size of the multiplexed header, the length-prefixed header plus the stream id.
+     */
+    public static final int MUX_HEADER_SIZE = 10;
+
+    /**
+     * Flag of the last frame of a message in {@link Framing#MUX} mode.
+     */
+    public static final int FLAG_END = 0x01;
+
+    /**
+     * Flag of a message whose payload carries attachments, in {@link Framing#LENGTH} and
+     * {@link Framing#MUX} mode.
+     */
+    public static final int FLAG_ATTACHMENTS = 0x02;
+
+    /**
+     * Flag of a message whose whole payload, attachments included, is compressed, see {@link Compression}.
+     */
+    public static final int FLAG_COMPRESSED = 0x04;
+
+    private final MessageType type;
+    private final int flags;
+    private final int stream;
+    private final byte[] payload;
+
+    // Length of the encoded message within the payload, found when the attachments are first read
+    private int messageLength = -1;
+    private List<ByteBuffer> attachments;
+
+    /**
+     * Constructs a new {@code Frame}.
+     *
+     * @param type    the message type from the header, or {@code null} for line frames
+     * @param flags   the header flags
+     * @param payload the frame payload, owned by the frame
+     * @throws IllegalArgumentException if payload is null
+     */
+    public Frame(MessageType type, int flags, byte[] payload) {
+        this(type, flags, 0, payload);
+    }
+
+    /**
+     * Constructs a new {@code Frame} of a logical stream.
+     *
+     * @param type    the message type from the header, or {@code null} for line frames
+     * @param flags   the header flags
+     * @param stream  the stream id from the header, {@code 0} for the connection itself
+     * @param payload the frame payload, owned by the frame
+     * @throws IllegalArgumentException if payload is null
+     */
+    public Frame(MessageType type, int flags, int stream, byte[] payload) {
+        if (payload == null)
+            throw new IllegalArgumentException("Payload must not be null");
+
+        this.type = type;
+        this.flags = flags;
+        this.stream = stream;
+        this.payload = payload;
+    }
+
+    /**
+     * @return the message type from the frame header, or {@code null} for line frames
+     */
+    public MessageType getType() {
+        return type;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return the stream id from the frame header, {@code 0} outside {@link Framing#MUX} mode
+     */
+    public int getStream() {
+        return stream;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return {@code true} if the payload carries attachments after the message
+     */
+    public boolean hasAttachments() {
+        return (flags & FLAG_ATTACHMENTS) != 0;
+    }
+
+    /**
+     * @return {@code true} if the payload is compressed and must be restored with {@link Compression#decompress(Frame)}
+     */
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Gets the encoded message, without the attachments that may follow it.
+     *
+     * @return the payload itself, or a copy of its message part if it carries attachments
+     * @throws ProtocolException if the attachment trailer is malformed
+     */
+    public byte[] getMessage() throws ProtocolException {
+        if (!hasAttachments())
+            return payload;
+
+        getAttachments();
+        return Arrays.copyOf(payload, messageLength);
+    }
+
+    /**
+     * Gets the attachments carried after the message, as read-only views of the payload.
+     *
+     * @return the attachments in the order they were written, empty if there are none
+     * @throws ProtocolException if the attachment trailer is malformed
+     */
+    public List<ByteBuffer> getAttachments() throws ProtocolException {
+        if (attachments != null)
+            return attachments;
+
+        if (!hasAttachments())
+            return attachments = List.of();
+
+        if (payload.length < 4)
+            throw new ProtocolException("Attachment trailer is truncated");
+
+        int count = readInt(payload, payload.length - 4);
+        if (count < 0 || count > (payload.length - 4) / 4)
+            throw new ProtocolException("Invalid attachment count: " + count);
+
+        int trailer = payload.length - 4 - count * 4;
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            int length = readInt(payload, trailer + i * 4);
+            if (length < 0)
+                throw new ProtocolException("Invalid attachment length: " + length);
+            total += length;
+        }
+
+        if (total > trailer)
+            throw new ProtocolException("Attachments of " + total + " bytes exceed the payload");
+
+        List<ByteBuffer> segments = new ArrayList<>(count);
+        int offset = trailer - (int) total;
+        for (int i = 0; i < count; i++) {
+            int length = readInt(payload, trailer + i * 4);
+            segments.add(ByteBuffer.wrap(payload, offset, length).slice().asReadOnlyBuffer());
+            offset += length;
+        }
+
+        messageLength = trailer - (int) total;
+        return attachments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @return the payload decoded as UTF-8 text
+     */
+    public String text() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a message payload as a complete frame in the given framing mode. In
+     * {@link Framing#MUX} mode the frame is sent on stream {@code 0}, outside flow control.
+     *
+     * @param framing the framing mode of the connection
+     * @param type    the type of the message
+     * @param payload the serialized message, which must not contain a newline in line mode
+     * @return the bytes to write to the connection
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public static byte[] encode(Framing framing, MessageType type, byte[] payload) {
+        return encode(framing, type, 0, payload);
+    }
+
+    /**
+     * Encodes a message payload as a complete frame with the given header flags, see
+     * {@link #encode(Framing, MessageType, byte[])}.
+     *
+     * @param framing the framing mode of the connection
+     * @param type    the type of the message
+     * @param flags   the header flags, other than {@link #FLAG_END}
+     * @param payload the serialized message
+     * @return the bytes to write to the connection
+     * @throws IllegalArgumentException if any argument is null, or flags are set in line mode
+     */
+    public static byte[] encode(Framing framing, MessageType type, int flags, byte[] payload) {
+        if (framing == null || type == null || payload == null)
+            throw new IllegalArgumentException("Framing, type and payload must not be null");
+
+        if (framing == Framing.LINE && flags != 0)
+            throw new IllegalArgumentException("Line frames cannot carry flags");
+
+        if (framing == Framing.LINE) {
+            byte[] line = new byte[payload.length + 1];
+            System.arraycopy(payload, 0, line, 0, payload.length);
+            line[payload.length] = '\n';
+            return line;
+        }
+
+        if (framing == Framing.MUX) {
+            OutputBuffer out = new OutputBuffer(MUX_HEADER_SIZE + payload.length);
+            writeChunk(out, type, flags | FLAG_END, 0, payload, 0, payload.length);
+            return out.toByteArray();
+        }
+
+        byte[] frame = new byte[HEADER_SIZE + payload.length];
+        writeInt(frame, 0, payload.length + 2);
+        frame[4] = (byte) type.ordinal();
+        frame[5] = (byte) flags;
+        System.arraycopy(payload, 0, frame, HEADER_SIZE, payload.length);
+
+        return frame;
+    }
+
+    /**
+     * Writes one {@link Framing#MUX} frame holding part of a message payload.
+     *
+     * @param out     the buffer to append the frame to
+     * @param type    the type of the message
+     * @param flags   the header flags, {@link #FLAG_END} on the last part of a message
+     * @param stream  the stream id
+     * @param payload the message payload
+     * @param offset  the start of the part
+     * @param length  the length of the part
+     */
+    public static void writeChunk(OutputBuffer out, MessageType type, int flags, int stream, byte[] payload, int offset, int length) {
+        writeIntTo(out, length + MUX_HEADER_SIZE - 4);
+        out.write(type.ordinal());
+        out.write(flags);
+        writeIntTo(out, stream);
+        out.write(payload, offset, length);
+    }
+
+    /**
+     * Encodes a {@link MessageType#WINDOW_UPDATE} frame granting flow control credit.
+     *
+     * @param stream    the stream the credit is for, {@code 0} for the whole connection
+     * @param increment the number of payload bytes the peer may send in addition
+     * @return the bytes to write to the connection
+     */
+    public static byte[] windowUpdate(int stream, int increment) {
+        OutputBuffer out = new OutputBuffer(MUX_HEADER_SIZE + 4);
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+
+        writeChunk(out, MessageType.WINDOW_UPDATE, FLAG_END, stream, payload, 0, 4);
+        return out.toByteArray();
+    }
+
+    /**
+     * Starts a frame at the end of a buffer, so its payload can be encoded straight after it.
+     * In {@link Framing#LENGTH} mode the header is written with a placeholder length. In
+     * {@link Framing#MUX} mode nothing is written, the buffer receives the bare payload to be
+     * split into frames by a {@link StreamScheduler}.
+     *
+     * @param framing the framing mode of the connection
+     * @param type    the type of the message
+     * @param out     the buffer to write the frame to
+     * @return the offset of the frame in the buffer, to pass to {@link #end}
+     * @throws IllegalArgumentException if any argument is null
+     * @see #end(Framing, OutputBuffer, int)
+     */
+    public static int begin(Framing framing, MessageType type, OutputBuffer out) {
+        return begin(framing, type, 0, out);
+    }
+
+    /**
+     * Starts a frame with the given header flags, see {@link #begin(Framing, MessageType, OutputBuffer)}.
+     * In {@link Framing#MUX} mode the flags must be passed on to the {@link StreamScheduler}.
+     *
+     * @param framing the framing mode of the connection
+     * @param type    the type of the message
+     * @param flags   the header flags, such as {@link #FLAG_ATTACHMENTS}
+     * @param out     the buffer to write the frame to
+     * @return the offset of the frame in the buffer, to pass to {@link #end}
+     * @throws IllegalArgumentException if any argument is null, or flags are set in line mode
+     */
+    public static int begin(Framing framing, MessageType type, int flags, OutputBuffer out) {
+        if (framing == null || type == null || out == null)
+            throw new IllegalArgumentException("Framing, type and buffer must not be null");
+
+        if (framing == Framing.LINE && flags != 0)
+            throw new IllegalArgumentException("Line frames cannot carry flags");
+
+        int start = out.size();
+
+        if (framing == Framing.LENGTH) {
+            for (int i = 0; i < 4; i++)
+                out.write(0);
+            out.write(type.ordinal());
+            out.write(flags);
+        }
+
+        return start;
+    }
+
+    /**
+     * Appends attachments and their trailer after an encoded message, in a frame started with
+     * {@link #FLAG_ATTACHMENTS}. The attachments are copied from their position to their limit,
+     * which are left unchanged.
+     *
+     * @param out         the buffer holding the encoded message
+     * @param attachments the attachments to append (can be empty)
+     * @throws IllegalArgumentException if attachments is null or holds a null element
+     */
+    public static void writeAttachments(OutputBuffer out, List<ByteBuffer> attachments) {
+        if (attachments == null)
+            throw new IllegalArgumentException("Attachments must not be null");
+
+        for (ByteBuffer attachment : attachments)
+            if (attachment == null)
+                throw new IllegalArgumentException("Attachment must not be null");
+
+        for (ByteBuffer attachment : attachments)
+            out.write(attachment);
+
+        for (ByteBuffer attachment : attachments)
+            writeIntTo(out, attachment.remaining());
+
+        writeIntTo(out, attachments.size());
+    }
+
+    /**
+     * Completes a frame started with {@link #begin}, once its payload has been written, by
+     * filling in the length or appending the newline.
+     *
+     * @param framing the framing mode the frame was started with
+     * @param out     the buffer holding the frame
+     * @param start   the offset returned by {@link #begin}
+     */
+    public static void end(Framing framing, OutputBuffer out, int start) {
+        if (framing == Framing.LINE)
+            out.write('\n');
+        else if (framing == Framing.LENGTH)
+            writeInt(out.array(), start, out.size() - start - 4);
+    }
+
+    /**
+     * Completes a {@link Framing#LENGTH} frame started with {@link #begin} whose payload continues
+     * with bytes the caller writes after the buffer, such as the contents of a file sent without
+     * copying them into the buffer.
+     *
+     * @param out      the buffer holding the start of the frame
+     * @param start    the offset returned by {@link #begin}
+     * @param trailing the number of payload bytes following the buffer
+     * @throws IllegalArgumentException if trailing is negative
+     */
+    public static void end(OutputBuffer out, int start, int trailing) {
+        if (trailing < 0)
+            throw new IllegalArgumentException("Trailing length must not be negative");
+
+        writeInt(out.array(), start, out.size() - start - 4 + trailing);
+    }
+
+    /**
+     * Resolves the message type code of a frame header.
+     *
+     * @param code the type byte from the header
+     * @return the matching {@link MessageType}
+     * @throws ProtocolException if the code is not a known type
+     */
+    static MessageType typeOf(int code) throws ProtocolException {
+        MessageType[] types = MessageType.values();
+        if (code < 0 || code >= types.length)
+            throw new ProtocolException("Unknown message type code: " + code);
+
+        return types[code];
+    }
+
+    /**
+     * Writes a big-endian int into an array.
+     */
+    static void writeInt(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 24);
+        array[offset + 1] = (byte) (value >>> 16);
+        array[offset + 2] = (byte) (value >>> 8);
+        array[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Appends a big-endian int to a buffer.
+     */
+    private static void writeIntTo(OutputBuffer out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Reads a big-endian int from an array.
+     */
+    static int readInt(byte[] array, int offset) {
+        return ((array[offset] & 0xFF) << 24)
+                | ((array[offset + 1] & 0xFF) << 16)
+                | ((array[offset + 2] & 0xFF) << 8)
+                | (array[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,310 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Incrementally splits the bytes received on a connection into {@link Frame}s.
+ *
+ * <p>Bytes are handed to {@link #feed(byte[], int, int)} as they are read, in chunks of any
+ * size, and complete frames are pulled with {@link #next()}. Frames are only parsed when
+ * pulled, so the framing mode can be switched with {@link #setFraming(Framing)} between two
+ * frames, as happens after a {@link org.reujdon.jtp.shared.Hello} exchange.</p>
+ *
+ * <p>In {@link Framing#LENGTH} and {@link Framing#MUX} mode the bytes following a header are
+ * copied straight into the payload array of the frame. The array starts at no more than 64 KB and
+ * doubles as the payload arrives, up to the length in the header, so a header alone does not
+ * make the decoder allocate its full length. MUX frames are returned as received, one part of a
+ * message each, to be joined by a {@link StreamAssembler}.</p>
+ *
+ * <p>In {@link Framing#LINE} mode newlines are searched with the
+ * {@link ByteScanners#getDefault() default scanner}, vectorized when available.</p>
+ *
+ * <p>The receive buffer grows to hold a long line or a burst of bytes and is dropped back to its
+ * initial size once all of them have been consumed.</p>
+ *
+ * <p>Instances are not thread-safe and are owned by the reading thread of a connection.</p>
+ */
+public class FrameDecoder {
+    /**
+     * Default maximum payload size of a single frame, 16 MB.
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final ByteScanner SCANNER = ByteScanners.getDefault();
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int INITIAL_PAYLOAD_SIZE = 64 * 1024;
+
+    private final int maxFrameSize;
+    private Framing framing;
+
+    // Bytes received but not yet consumed are buffer[start, end)
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start = 0;
+    private int end = 0;
+
+    // Position up to which the buffered bytes are known not to contain a newline
+    private int scanned = 0;
+
+    // Length-prefixed frame whose payload is still being received
+    private MessageType pendingType;
+    private int pendingFlags;
+    private int pendingStream;
+    private byte[] pendingPayload;
+    private int pendingLength;
+    private int pendingFilled;
+
+    /**
+     * Constructs a new {@code FrameDecoder}.
+     *
+     * @param framing      the initial framing mode
+     * @param maxFrameSize the maximum accepted payload size in bytes
+     * @throws IllegalArgumentException if framing is null or maxFrameSize is not positive
+     */
+    public FrameDecoder(Framing framing, int maxFrameSize) {
+        if (framing == null)
+            throw new IllegalArgumentException("Framing must not be null");
+
+        if (maxFrameSize <= 0)
+            throw new IllegalArgumentException("Max frame size must be positive");
+
+        this.framing = framing;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Constructs a new {@code FrameDecoder} in line mode with the default maximum frame size.
+     */
+    public FrameDecoder() {
+        this(Framing.LINE, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public Framing getFraming() {
+        return framing;
+    }
+
+    /**
+     * Switches the framing mode used for all bytes after the last frame pulled.
+     *
+     * @param framing the new framing mode
+     * @throws IllegalArgumentException if framing is null
+     * @throws IllegalStateException if a frame is partially received
+     */
+    public void setFraming(Framing framing) {
+        if (framing == null)
+            throw new IllegalArgumentException("Framing must not be null");
+
+        if (pendingPayload != null)
+            throw new IllegalStateException("Cannot switch framing in the middle of a frame");
+
+        this.framing = framing;
+    }
+
+    /**
+     * Adds received bytes to the decoder.
+     *
+     * @param bytes  the source array
+     * @param offset the start of the received bytes
+     * @param length the number of received bytes
+     */
+    public void feed(byte[] bytes, int offset, int length) {
+        // Fill a partially received payload directly
+        if (pendingPayload != null) {
+            int n = fillPending(bytes, offset, length);
+            offset += n;
+            length -= n;
+        }
+
+        if (length == 0)
+            return;
+
+        ensureSpace(length);
+        System.arraycopy(bytes, offset, buffer, end, length);
+        end += length;
+    }
+
+    /**
+     * Adds all remaining bytes of a buffer to the decoder.
+     *
+     * @param bytes the received bytes, in read mode; its position is advanced to its limit
+     */
+    public void feed(ByteBuffer bytes) {
+        if (bytes.hasArray()) {
+            feed(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            bytes.position(bytes.limit());
+            return;
+        }
+
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.get(copy);
+        feed(copy, 0, copy.length);
+    }
+
+    /**
+     * Pulls the next complete frame.
+     *
+     * @return the next frame, or {@code null} if more bytes are needed
+     * @throws ProtocolException if the received bytes violate the framing or size limit
+     */
+    public Frame next() throws ProtocolException {
+        Frame frame;
+        if (pendingPayload != null)
+            frame = pendingLength == pendingFilled ? completePending() : null;
+        else
+            frame = framing == Framing.LINE ? nextLine() : nextLengthPrefixed();
+
+        if (start == end)
+            resetBuffer();
+
+        return frame;
+    }
+
+    /**
+     * @return the number of bytes received but not yet returned as frames
+     */
+    public int buffered() {
+        return (end - start) + pendingFilled;
+    }
+
+    /**
+     * @return the number of bytes allocated to hold received data
+     */
+    int capacity() {
+        return buffer.length + (pendingPayload == null ? 0 : pendingPayload.length);
+    }
+
+    /**
+     * Pulls the next non-blank line.
+     */
+    private Frame nextLine() throws ProtocolException {
+        while (true) {
+            int newline = SCANNER.indexOf(buffer, Math.max(start, scanned), end, (byte) '\n');
+
+            if (newline < 0) {
+                scanned = end;
+
+                if (end - start > maxFrameSize)
+                    throw new ProtocolException("Line exceeds maximum frame size of " + maxFrameSize + " bytes");
+
+                return null;
+            }
+
+            int lineEnd = (newline > start && buffer[newline - 1] == '\r') ? newline - 1 : newline;
+            byte[] line = Arrays.copyOfRange(buffer, start, lineEnd);
+            start = newline + 1;
+
+            if (!isBlank(line))
+                return new Frame(null, 0, line);
+        }
+    }
+
+    /**
+     * Pulls the next length-prefixed frame, starting to receive its payload if incomplete.
+     */
+    private Frame nextLengthPrefixed() throws ProtocolException {
+        int headerSize = framing == Framing.MUX ? Frame.MUX_HEADER_SIZE : Frame.HEADER_SIZE;
+        if (end - start < headerSize)
+            return null;
+
+        int length = Frame.readInt(buffer, start);
+        int payloadLength = length - (headerSize - 4);
+        if (payloadLength < 0 || payloadLength > maxFrameSize)
+            throw new ProtocolException("Invalid frame length: " + length);
+
+        pendingType = Frame.typeOf(buffer[start + 4] & 0xFF);
+        pendingFlags = buffer[start + 5] & 0xFF;
+        pendingStream = framing == Framing.MUX ? Frame.readInt(buffer, start + 6) : 0;
+        if (pendingStream < 0)
+            throw new ProtocolException("Invalid stream id: " + pendingStream);
+
+        pendingPayload = new byte[Math.min(payloadLength, INITIAL_PAYLOAD_SIZE)];
+        pendingLength = payloadLength;
+        start += headerSize;
+
+        start += fillPending(buffer, start, end - start);
+
+        return pendingLength == pendingFilled ? completePending() : null;
+    }
+
+    /**
+     * Copies received bytes into the pending payload, growing it as needed up to its length.
+     *
+     * @return the number of bytes copied
+     */
+    private int fillPending(byte[] bytes, int offset, int length) {
+        int n = Math.min(length, pendingLength - pendingFilled);
+
+        if (pendingFilled + n > pendingPayload.length) {
+            int capacity = Math.max(pendingFilled + n, pendingPayload.length * 2);
+            pendingPayload = Arrays.copyOf(pendingPayload, Math.min(capacity, pendingLength));
+        }
+
+        System.arraycopy(bytes, offset, pendingPayload, pendingFilled, n);
+        pendingFilled += n;
+        return n;
+    }
+
+    /**
+     * Returns the fully received pending frame and resets the pending state.
+     */
+    private Frame completePending() {
+        Frame frame = new Frame(pendingType, pendingFlags, pendingStream, pendingPayload);
+
+        pendingType = null;
+        pendingFlags = 0;
+        pendingStream = 0;
+        pendingPayload = null;
+        pendingLength = 0;
+        pendingFilled = 0;
+
+        return frame;
+    }
+
+    /**
+     * Makes room for the given number of bytes after {@link #end}, compacting or growing the buffer.
+     */
+    private void ensureSpace(int length) {
+        if (end + length <= buffer.length)
+            return;
+
+        int buffered = end - start;
+        byte[] target = buffered + length > buffer.length
+                ? new byte[Math.max(buffered + length, buffer.length * 2)]
+                : buffer;
+
+        System.arraycopy(buffer, start, target, 0, buffered);
+        buffer = target;
+
+        scanned = Math.max(0, scanned - start);
+        start = 0;
+        end = buffered;
+    }
+
+    /**
+     * Empties the buffer once every received byte has been consumed, dropping it back to its
+     * initial size if it has grown.
+     */
+    private void resetBuffer() {
+        if (buffer.length > INITIAL_BUFFER_SIZE)
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        start = 0;
+        end = 0;
+        scanned = 0;
+    }
+
+    /**
+     * @return if the line only contains whitespace
+     */
+    private static boolean isBlank(byte[] line) {
+        for (byte b : line)
+            if (b != ' ' && b != '\t' && b != '\r')
+                return false;
+
+        return true;
+    }
+}
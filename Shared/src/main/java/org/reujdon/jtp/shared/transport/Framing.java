@@ -0,0 +1,40 @@
+package org.reujdon.jtp.shared.transport;
+
+/**
+ * Enumerates the ways messages are delimited on a connection.
+ *
+ * <ul>
+ *   <li><b>LINE</b> - One JSON message per line, terminated by {@code '\n'}. Every connection
+ *       starts in this mode, so clients that never negotiate keep working.</li>
+ *   <li><b>LENGTH</b> - Binary frames starting with a length prefix and a message header,
+ *       see {@link Frame}. Selected per connection with a {@link org.reujdon.jtp.shared.Hello}.</li>
+ *   <li><b>MUX</b> - Length-prefixed frames that also carry a stream id, so messages can be split
+ *       and interleaved under flow control, see {@link StreamScheduler}. Selected like LENGTH.</li>
+ * </ul>
+ *
+ * @see Frame
+ * @see FrameDecoder
+ */
+public enum Framing {
+    LINE,
+    LENGTH,
+    MUX;
+
+    /**
+     * Parses a framing mode from its name, ignoring case.
+     *
+     * @param value the framing name
+     * @return the matching {@code Framing}
+     * @throws IllegalArgumentException if the value is null or not a known framing mode
+     */
+    public static Framing parse(String value) {
+        if (value == null || value.trim().isEmpty())
+            throw new IllegalArgumentException("Framing cannot be null or empty");
+
+        try {
+            return Framing.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown framing: " + value, e);
+        }
+    }
+}
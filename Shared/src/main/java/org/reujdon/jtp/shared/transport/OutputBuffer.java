@@ -0,0 +1,139 @@
+package org.reujdon.jtp.shared.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable, reusable byte buffer for assembling outgoing data.
+ *
+ * <p>Unlike {@link java.io.ByteArrayOutputStream} this class is not synchronized, so writing
+ * its contents to a blocking stream never holds a monitor, and the backing array is kept
+ * between uses by {@link #reset()}. Instances are intended to be owned by a single writer.</p>
+ */
+public class OutputBuffer {
+    private byte[] data;
+    private int size;
+
+    /**
+     * Constructs an empty buffer with the given initial capacity.
+     *
+     * @param capacity the initial capacity in bytes
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public OutputBuffer(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative");
+
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Constructs an empty buffer with a capacity of 8 KB.
+     */
+    public OutputBuffer() {
+        this(8192);
+    }
+
+    /**
+     * Appends a single byte.
+     *
+     * @param b the byte to append, only the low 8 bits are used
+     */
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        data[size++] = (byte) b;
+    }
+
+    /**
+     * Appends all bytes of an array.
+     *
+     * @param bytes the bytes to append
+     */
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Appends a range of bytes of an array.
+     *
+     * @param bytes  the source array
+     * @param offset the start of the range
+     * @param length the number of bytes to append
+     */
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(bytes, offset, data, size, length);
+        size += length;
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer, heap or direct, leaving its position unchanged.
+     *
+     * @param bytes the source buffer, read from its position to its limit
+     */
+    public void write(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        ensureCapacity(size + length);
+        bytes.get(bytes.position(), data, size, length);
+        size += length;
+    }
+
+    /**
+     * Writes the buffered bytes to a stream with a single call.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(data, 0, size);
+    }
+
+    /**
+     * @return the number of buffered bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the length of the backing array
+     */
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * @return the backing array, valid from index 0 up to {@link #size()}
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    /**
+     * @return a copy of the buffered bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     * Discards the buffered bytes while keeping the backing array for reuse.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Grows the backing array to hold at least the given number of bytes.
+     *
+     * @param capacity the required capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= data.length)
+            return;
+
+        data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+    }
+}
@@ -0,0 +1,31 @@
+package org.reujdon.jtp.shared.transport;
+
+/**
+ * A {@link ByteScanner} checking one byte at a time, used when the Vector API is not available.
+ */
+final class ScalarByteScanner implements ByteScanner {
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++)
+            if (data[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    @Override
+    public int indexOfStringDelimiter(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = data[i];
+            if (b == '"' || b == '\\' || (b >= 0 && b < 0x20))
+                return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,222 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Joins the {@link Framing#MUX} frames received on a connection back into messages and returns
+ * flow control credit to the sender.
+ *
+ * <p>Frames are handed to {@link #accept(Frame)} in the order they are received. The parts of a
+ * message are collected per stream until the frame flagged {@link Frame#FLAG_END}, so messages of
+ * different streams can arrive interleaved. A message sent in a single frame is returned without
+ * copying.</p>
+ *
+ * <p>Received bytes are counted against the windows the {@link StreamScheduler} of the peer
+ * starts with, and a sender that exceeds them is rejected. Credit is granted back once half of a
+ * window has been received, so a large message keeps flowing without a round trip per window.
+ * The {@link MessageType#WINDOW_UPDATE} frames to send are collected by {@link #takeWindowUpdates()}.
+ * The state of a stream is dropped when its message is complete, matching the sender.</p>
+ *
+ * <p>Credit is granted as bytes arrive rather than as messages complete, so the windows alone
+ * do not bound what a sender can leave half sent. The number of streams with a partial message
+ * and the bytes buffered across them are limited as well.</p>
+ *
+ * <p>Instances are not thread-safe and are owned by the reading thread of a connection.</p>
+ */
+public class StreamAssembler {
+    /**
+     * Default most streams with a partially received message.
+     */
+    public static final int DEFAULT_MAX_PARTIAL_STREAMS = 100;
+
+    private static final class Partial {
+        private final MessageType type;
+        private final OutputBuffer payload;
+        private int unacknowledged;
+
+        private Partial(MessageType type) {
+            this.type = type;
+            this.payload = new OutputBuffer(16 * 1024);
+        }
+    }
+
+    private final int streamWindow;
+    private final int connectionWindow;
+    private final int maxMessageSize;
+    private final int maxPartialStreams;
+    private final long maxBufferedBytes;
+
+    private final Map<Integer, Partial> partials = new HashMap<>();
+    private long buffered;
+    private int connectionUnacknowledged;
+    private OutputBuffer updates;
+
+    /**
+     * Constructs a new {@code StreamAssembler}.
+     *
+     * @param streamWindow      the credit the sender starts each stream with in bytes
+     * @param connectionWindow  the credit the sender starts the connection with in bytes
+     * @param maxMessageSize    the largest accepted message in bytes
+     * @param maxPartialStreams the most streams with a partially received message
+     * @param maxBufferedBytes  the most bytes buffered across all partially received messages
+     * @throws IllegalArgumentException if any argument is not positive, or the buffered bytes
+     *                                  would not hold a message of the largest size
+     */
+    public StreamAssembler(int streamWindow, int connectionWindow, int maxMessageSize, int maxPartialStreams, long maxBufferedBytes) {
+        if (streamWindow <= 0 || connectionWindow <= 0)
+            throw new IllegalArgumentException("Windows must be positive");
+
+        if (maxMessageSize <= 0)
+            throw new IllegalArgumentException("Max message size must be positive");
+
+        if (maxPartialStreams <= 0)
+            throw new IllegalArgumentException("Max partial streams must be positive");
+
+        if (maxBufferedBytes < maxMessageSize)
+            throw new IllegalArgumentException("Max buffered bytes must be at least the max message size");
+
+        this.streamWindow = streamWindow;
+        this.connectionWindow = connectionWindow;
+        this.maxMessageSize = maxMessageSize;
+        this.maxPartialStreams = maxPartialStreams;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Constructs a new {@code StreamAssembler} with the default limit on partial streams, buffering
+     * up to twice the largest message across them.
+     *
+     * @param streamWindow     the credit the sender starts each stream with in bytes
+     * @param connectionWindow the credit the sender starts the connection with in bytes
+     * @param maxMessageSize   the largest accepted message in bytes
+     * @throws IllegalArgumentException if any argument is not positive
+     */
+    public StreamAssembler(int streamWindow, int connectionWindow, int maxMessageSize) {
+        this(streamWindow, connectionWindow, maxMessageSize, DEFAULT_MAX_PARTIAL_STREAMS, 2L * maxMessageSize);
+    }
+
+    /**
+     * Constructs a new {@code StreamAssembler} for a sender using the default windows.
+     *
+     * @param maxMessageSize the largest accepted message in bytes
+     */
+    public StreamAssembler(int maxMessageSize) {
+        this(StreamScheduler.DEFAULT_STREAM_WINDOW, StreamScheduler.DEFAULT_CONNECTION_WINDOW, maxMessageSize);
+    }
+
+    /**
+     * Adds a received frame to the message of its stream.
+     *
+     * @param frame a received frame, other than a {@link MessageType#WINDOW_UPDATE}
+     * @return the complete message as a single frame if this was its last part, otherwise {@code null}
+     * @throws ProtocolException if the sender exceeded a window, the message size limit or the
+     *                           limits on partial messages, or changed the type of a message in
+     *                           the middle of it
+     */
+    public Frame accept(Frame frame) throws ProtocolException {
+        int stream = frame.getStream();
+        byte[] part = frame.getPayload();
+        boolean end = (frame.getFlags() & Frame.FLAG_END) != 0;
+
+        Partial partial = partials.get(stream);
+        if (partial != null && partial.type != frame.getType())
+            throw new ProtocolException("Stream " + stream + " changed message type from " + partial.type + " to " + frame.getType());
+
+        if (partial == null && !end) {
+            if (partials.size() >= maxPartialStreams)
+                throw new ProtocolException("More than " + maxPartialStreams + " streams with partial messages");
+
+            partial = new Partial(frame.getType());
+            partials.put(stream, partial);
+        }
+
+        if (stream != 0)
+            consume(stream, partial, part.length, end);
+
+        if (partial == null)
+            return frame;
+
+        if (partial.payload.size() + part.length > maxMessageSize)
+            throw new ProtocolException("Message on stream " + stream + " exceeds maximum size of " + maxMessageSize + " bytes");
+
+        if (buffered + part.length > maxBufferedBytes)
+            throw new ProtocolException("Partial messages exceed " + maxBufferedBytes + " buffered bytes");
+
+        partial.payload.write(part);
+        buffered += part.length;
+
+        if (!end)
+            return null;
+
+        partials.remove(stream);
+        buffered -= partial.payload.size();
+        return new Frame(partial.type, frame.getFlags(), stream, partial.payload.toByteArray());
+    }
+
+    /**
+     * Takes the window updates that became due since the last call.
+     *
+     * @return the bytes of the {@link MessageType#WINDOW_UPDATE} frames to send, or {@code null} if none are due
+     */
+    public byte[] takeWindowUpdates() {
+        if (updates == null)
+            return null;
+
+        byte[] frames = updates.toByteArray();
+        updates = null;
+        return frames;
+    }
+
+    /**
+     * @return the number of streams with a partially received message
+     */
+    public int partialStreams() {
+        return partials.size();
+    }
+
+    /**
+     * @return the bytes buffered across all partially received messages
+     */
+    public long bufferedBytes() {
+        return buffered;
+    }
+
+    /**
+     * Counts received bytes against the windows and grants credit back once half of one is used.
+     * The partial is {@code null} only for a message received in a single frame.
+     */
+    private void consume(int stream, Partial partial, int length, boolean end) throws ProtocolException {
+        int unacknowledged = (partial == null ? 0 : partial.unacknowledged) + length;
+        if (unacknowledged > streamWindow)
+            throw new ProtocolException("Stream " + stream + " exceeded its flow control window");
+
+        connectionUnacknowledged += length;
+        if (connectionUnacknowledged > connectionWindow)
+            throw new ProtocolException("Connection exceeded its flow control window");
+
+        // A finished stream is dropped on both sides, so its window needs no update
+        if (!end && unacknowledged >= streamWindow / 2) {
+            addUpdate(stream, unacknowledged);
+            unacknowledged = 0;
+        }
+
+        if (partial != null)
+            partial.unacknowledged = unacknowledged;
+
+        if (connectionUnacknowledged >= connectionWindow / 2) {
+            addUpdate(0, connectionUnacknowledged);
+            connectionUnacknowledged = 0;
+        }
+    }
+
+    private void addUpdate(int stream, int increment) {
+        if (updates == null)
+            updates = new OutputBuffer(Frame.MUX_HEADER_SIZE * 2 + 8);
+
+        updates.write(Frame.windowUpdate(stream, increment));
+    }
+}
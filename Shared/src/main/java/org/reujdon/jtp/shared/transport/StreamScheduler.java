@@ -0,0 +1,375 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Splits outgoing messages into {@link Framing#MUX} frames and interleaves the streams they are
+ * sent on under flow control.
+ *
+ * <p>Each message is queued on a logical stream with {@link #enqueue}. Messages of one stream are
+ * sent in order, while the streams with data take turns, one frame of at most the chunk size each,
+ * so a large message does not hold back the small ones queued behind it.</p>
+ *
+ * <p>Sending is limited by two credit windows, like HTTP/2: one per stream and one for the whole
+ * connection. Every payload byte sent uses up credit of both, and the peer grants more with
+ * {@link MessageType#WINDOW_UPDATE} frames as it consumes the data, see {@link StreamAssembler}.
+ * A stream without credit is skipped until its window is updated. Stream {@code 0} carries
+ * messages that do not belong to a request and is not flow controlled.</p>
+ *
+ * <p>The receiver drops the state of a message once it is complete, without acknowledging the
+ * bytes it had not yet granted back, so each message starts with a full stream window. The
+ * scheduler mirrors this by crediting those bytes itself when it sends the last frame of a
+ * message, also when more messages are queued on the stream. The state of a stream is dropped
+ * once its last queued message has been sent and the window updates it still awaits have
+ * arrived, so a late update never credits a later message on the same stream.</p>
+ *
+ * <p>Any thread may enqueue messages and update windows. Frames are written by {@link #pump},
+ * which, like {@link WriteQueue}, lets a single thread at a time write so frames leave in the
+ * order they were scheduled.</p>
+ */
+public class StreamScheduler {
+    /**
+     * Default credit of a stream, 64 KB.
+     */
+    public static final int DEFAULT_STREAM_WINDOW = 64 * 1024;
+
+    /**
+     * Default credit of a connection, 1 MB.
+     */
+    public static final int DEFAULT_CONNECTION_WINDOW = 1024 * 1024;
+
+    /**
+     * Default largest payload of a single frame, 16 KB.
+     */
+    public static final int DEFAULT_MAX_CHUNK = 16 * 1024;
+
+    // Most bytes of frames handed to the sink at once
+    private static final int MAX_BATCH = 64 * 1024;
+
+    private record Outgoing(MessageType type, int flags, byte[] payload, Runnable sent) {}
+
+    private static final class Stream {
+        private final int id;
+        private final ArrayDeque<Outgoing> queue = new ArrayDeque<>();
+        private int offset;
+        private long window;
+        private boolean ready;
+
+        // Bytes of the current message the receiver has not acknowledged yet, and credit it has
+        // announced but not yet granted, tracked like the receiver does
+        private int unacknowledged;
+        private long awaited;
+
+        private Stream(int id, long window) {
+            this.id = id;
+            this.window = window;
+        }
+    }
+
+    private final int streamWindow;
+    private final int maxChunk;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<Stream> ready = new ArrayDeque<>();
+    private long connectionWindow;
+
+    private final AtomicBoolean pumping = new AtomicBoolean(false);
+
+    /**
+     * Constructs a new {@code StreamScheduler}.
+     *
+     * @param streamWindow     the initial credit of each stream in bytes
+     * @param connectionWindow the initial credit of the connection in bytes
+     * @param maxChunk         the largest payload of a single frame in bytes
+     * @throws IllegalArgumentException if any argument is not positive
+     */
+    public StreamScheduler(int streamWindow, int connectionWindow, int maxChunk) {
+        if (streamWindow <= 0 || connectionWindow <= 0)
+            throw new IllegalArgumentException("Windows must be positive");
+
+        if (maxChunk <= 0)
+            throw new IllegalArgumentException("Max chunk size must be positive");
+
+        this.streamWindow = streamWindow;
+        this.connectionWindow = connectionWindow;
+        this.maxChunk = maxChunk;
+    }
+
+    /**
+     * Constructs a new {@code StreamScheduler} with the default windows and chunk size.
+     */
+    public StreamScheduler() {
+        this(DEFAULT_STREAM_WINDOW, DEFAULT_CONNECTION_WINDOW, DEFAULT_MAX_CHUNK);
+    }
+
+    /**
+     * Queues a message to be sent on a stream.
+     *
+     * @param stream  the stream id, {@code 0} for messages outside flow control
+     * @param type    the type of the message
+     * @param payload the encoded message, owned by the scheduler
+     * @throws IllegalArgumentException if stream is negative or type or payload is null
+     */
+    public void enqueue(int stream, MessageType type, byte[] payload) {
+        enqueue(stream, type, 0, payload);
+    }
+
+    /**
+     * Queues a message to be sent on a stream with header flags, such as
+     * {@link Frame#FLAG_ATTACHMENTS}, which are set on every frame of the message.
+     *
+     * @param stream  the stream id, {@code 0} for messages outside flow control
+     * @param type    the type of the message
+     * @param flags   the header flags, other than {@link Frame#FLAG_END}
+     * @param payload the encoded message, owned by the scheduler
+     * @throws IllegalArgumentException if stream is negative or type or payload is null
+     */
+    public void enqueue(int stream, MessageType type, int flags, byte[] payload) {
+        enqueue(stream, type, flags, payload, null);
+    }
+
+    /**
+     * Queues a message to be sent on a stream with header flags and runs a callback once its last
+     * frame has been taken for writing, so frames scheduled afterwards are written after it.
+     *
+     * @param stream  the stream id, {@code 0} for messages outside flow control
+     * @param type    the type of the message
+     * @param flags   the header flags, other than {@link Frame#FLAG_END}
+     * @param payload the encoded message, owned by the scheduler
+     * @param sent    run by the writing thread, which must not call back into this scheduler, or {@code null}
+     * @throws IllegalArgumentException if stream is negative or type or payload is null
+     */
+    public void enqueue(int stream, MessageType type, int flags, byte[] payload, Runnable sent) {
+        if (stream < 0)
+            throw new IllegalArgumentException("Stream id must not be negative");
+
+        if (type == null || payload == null)
+            throw new IllegalArgumentException("Type and payload must not be null");
+
+        lock.lock();
+        try {
+            Stream state = streams.computeIfAbsent(stream, id -> new Stream(id, streamWindow));
+            state.queue.add(new Outgoing(type, flags & ~Frame.FLAG_END, payload, sent));
+            markReady(state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Grants credit from a received {@link MessageType#WINDOW_UPDATE} frame.
+     *
+     * @param frame the received frame
+     * @throws ProtocolException if the frame is malformed or the window grows past 2^31 - 1
+     */
+    public void windowUpdate(Frame frame) throws ProtocolException {
+        byte[] payload = frame.getPayload();
+        if (payload.length != 4)
+            throw new ProtocolException("Invalid window update size: " + payload.length);
+
+        windowUpdate(frame.getStream(), Frame.readInt(payload, 0));
+    }
+
+    /**
+     * Grants credit to a stream or the connection. Updates for streams that are not sending are ignored.
+     *
+     * @param stream    the stream id, {@code 0} for the connection
+     * @param increment the number of bytes granted
+     * @throws ProtocolException if increment is not positive or the window grows past 2^31 - 1
+     */
+    public void windowUpdate(int stream, int increment) throws ProtocolException {
+        if (increment <= 0)
+            throw new ProtocolException("Invalid window increment: " + increment);
+
+        lock.lock();
+        try {
+            if (stream == 0) {
+                connectionWindow = grow(connectionWindow, increment);
+                return;
+            }
+
+            Stream state = streams.get(stream);
+            if (state == null)
+                return;
+
+            state.window = grow(state.window, increment);
+            state.awaited = Math.max(0, state.awaited - increment);
+
+            if (state.queue.isEmpty() && state.awaited == 0)
+                streams.remove(stream);
+            else
+                markReady(state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the frames that can be sent to a sink, unless another thread is already doing so.
+     * <p>
+     * Call after queueing messages or updating windows. The sink receives the bytes of one or more
+     * complete frames per call, in order, and must not call back into this scheduler.
+     *
+     * @param sink the writer of the connection
+     */
+    public void pump(Consumer<byte[]> sink) {
+        while (hasSendable() && pumping.compareAndSet(false, true)) {
+            try {
+                byte[] frames;
+                while ((frames = poll(MAX_BATCH)) != null)
+                    sink.accept(frames);
+            } finally {
+                pumping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Takes the next frames that can be sent, taking turns between the streams with data.
+     *
+     * @param maxBytes the soft limit of bytes to return, at least one frame is always returned
+     * @return the bytes of one or more complete frames, or {@code null} if nothing can be sent
+     */
+    byte[] poll(int maxBytes) {
+        lock.lock();
+        try {
+            OutputBuffer out = null;
+            int skipped = 0;
+
+            // Stop after a full round without progress, all remaining streams are waiting for credit
+            while (!ready.isEmpty() && skipped < ready.size() && (out == null || out.size() < maxBytes)) {
+                Stream stream = ready.poll();
+                Outgoing head = stream.queue.peek();
+
+                int remaining = head.payload.length - stream.offset;
+                int length = Math.min(remaining, maxChunk);
+                if (stream.id != 0)
+                    length = (int) Math.min(length, Math.min(stream.window, connectionWindow));
+
+                // Streams in the rotation have credit of their own, so only the connection window is exhausted
+                if (length <= 0 && remaining > 0) {
+                    ready.add(stream);
+                    skipped++;
+                    continue;
+                }
+
+                skipped = 0;
+                if (out == null)
+                    out = new OutputBuffer(Math.min(maxBytes, remaining) + Frame.MUX_HEADER_SIZE * 4);
+
+                boolean end = length == remaining;
+                Frame.writeChunk(out, head.type, end ? head.flags | Frame.FLAG_END : head.flags, stream.id, head.payload, stream.offset, length);
+
+                if (stream.id != 0) {
+                    stream.window -= length;
+                    connectionWindow -= length;
+                    credit(stream, length, end);
+                }
+
+                if (!end)
+                    stream.offset += length;
+                else {
+                    stream.queue.poll();
+                    stream.offset = 0;
+
+                    if (head.sent != null)
+                        head.sent.run();
+                }
+
+                if (stream.queue.isEmpty()) {
+                    stream.ready = false;
+                    if (stream.awaited == 0)
+                        streams.remove(stream.id);
+                } else if (stream.id != 0 && stream.window <= 0)
+                    stream.ready = false;
+                else
+                    ready.add(stream);
+            }
+
+            return out == null ? null : out.toByteArray();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return if any stream has a frame that can be sent now, empty END frames need no credit
+     */
+    boolean hasSendable() {
+        lock.lock();
+        try {
+            for (Stream stream : ready)
+                if (stream.id == 0 || connectionWindow > 0 || stream.queue.peek().payload.length == stream.offset)
+                    return true;
+
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of streams with messages waiting to be sent
+     */
+    public int pendingStreams() {
+        lock.lock();
+        try {
+            int pending = 0;
+            for (Stream stream : streams.values())
+                if (!stream.queue.isEmpty())
+                    pending++;
+
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Follows the acknowledgements of a {@link StreamAssembler} for a sent frame. Credit for the
+     * bytes of a complete message that were not acknowledged is restored at once, since the
+     * receiver forgets them; credit the receiver will grant with an update is awaited.
+     */
+    private void credit(Stream stream, int length, boolean end) {
+        stream.unacknowledged += length;
+
+        if (end) {
+            stream.window += stream.unacknowledged;
+            stream.unacknowledged = 0;
+        } else if (stream.unacknowledged >= streamWindow / 2) {
+            stream.awaited += stream.unacknowledged;
+            stream.unacknowledged = 0;
+        }
+    }
+
+    /**
+     * Adds a stream with data and credit to the rotation, if not already in it.
+     */
+    private void markReady(Stream stream) {
+        if (stream.ready || stream.queue.isEmpty() || (stream.id != 0 && stream.window <= 0))
+            return;
+
+        stream.ready = true;
+        ready.add(stream);
+    }
+
+    /**
+     * Adds credit to a window, rejecting windows that overflow like HTTP/2 does.
+     */
+    private static long grow(long window, int increment) throws ProtocolException {
+        long grown = window + increment;
+        if (grown > Integer.MAX_VALUE)
+            throw new ProtocolException("Flow control window exceeds " + Integer.MAX_VALUE);
+
+        return grown;
+    }
+}
@@ -0,0 +1,68 @@
+package org.reujdon.jtp.shared.transport;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link ByteScanner} comparing a full SIMD register of bytes per step with the incubating
+ * Vector API, in the style of simdjson's structural scan.
+ *
+ * <p>Each step loads {@link ByteVector#SPECIES_PREFERRED} bytes, builds a mask of the matching
+ * lanes and stops at the first set lane. The tail shorter than one vector is scanned one byte at
+ * a time. This class must only be loaded when the {@code jdk.incubator.vector} module is
+ * resolved, see {@link ByteScanners}.</p>
+ */
+final class VectorByteScanner implements ByteScanner {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    @Override
+    public int indexOf(byte[] data, int from, int to, byte value) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+
+        for (; i < bound; i += SPECIES.length()) {
+            VectorMask<Byte> matches = ByteVector.fromArray(SPECIES, data, i).eq(value);
+            if (matches.anyTrue())
+                return i + matches.firstTrue();
+        }
+
+        for (; i < to; i++)
+            if (data[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    @Override
+    public int indexOfStringDelimiter(byte[] data, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector bytes = ByteVector.fromArray(SPECIES, data, i);
+
+            // Bytes are signed, so control characters are the lanes in [0, 0x20)
+            VectorMask<Byte> matches = bytes.eq((byte) '"')
+                    .or(bytes.eq((byte) '\\'))
+                    .or(bytes.compare(VectorOperators.LT, (byte) 0x20).and(bytes.compare(VectorOperators.GE, (byte) 0)));
+
+            if (matches.anyTrue())
+                return i + matches.firstTrue();
+        }
+
+        for (; i < to; i++) {
+            byte b = data[i];
+            if (b == '"' || b == '\\' || (b >= 0 && b < 0x20))
+                return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,114 @@
+package org.reujdon.jtp.shared.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A per-connection outbound queue that coalesces concurrent writes.
+ *
+ * <p>Any thread may {@link #enqueue(byte[])} serialized messages. Whichever thread finds the
+ * queue idle becomes the single writer: it copies the messages that are ready, up to 64 KB, into one
+ * {@link OutputBuffer}, writes it to the stream with a single call and flushes once. Threads
+ * that enqueue while a write is in progress return immediately and their messages go out in
+ * the same or the next batch, so under pipelined load many responses share one TLS record
+ * and system call.</p>
+ *
+ * <p>A caller that must fix the order of its messages under a lock, without waiting on the
+ * network while holding it, can {@link #add(byte[])} them under the lock and {@link #drain()}
+ * once it has released it.</p>
+ *
+ * <p>No monitors are held while writing, making the queue safe to use from virtual threads.</p>
+ */
+public class WriteQueue {
+    private static final int MAX_BATCH = 64 * 1024;
+
+    private final OutputStream out;
+    private final OutputBuffer buffer;
+
+    private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs a new {@code WriteQueue} writing to the given stream.
+     *
+     * @param out the unbuffered stream of the connection
+     * @throws IllegalArgumentException if out is null
+     */
+    public WriteQueue(OutputStream out) {
+        if (out == null)
+            throw new IllegalArgumentException("Output stream must not be null");
+
+        this.out = out;
+        this.buffer = new OutputBuffer(16 * 1024);
+    }
+
+    /**
+     * Queues a serialized message and writes it, together with any other ready messages,
+     * unless another thread is already writing.
+     *
+     * @param message the complete bytes of the message, including any framing
+     * @throws IOException if this thread became the writer and the write failed
+     * @throws IllegalStateException if the queue has been closed
+     */
+    public void enqueue(byte[] message) throws IOException {
+        add(message);
+        drain();
+    }
+
+    /**
+     * Queues a serialized message without writing it. Messages are written in the order they
+     * were added, by the next call to {@link #drain()} from any thread.
+     *
+     * @param message the complete bytes of the message, including any framing
+     * @throws IllegalStateException if the queue has been closed
+     */
+    public void add(byte[] message) {
+        if (closed)
+            throw new IllegalStateException("Write queue is closed");
+
+        queue.add(message);
+    }
+
+    /**
+     * Writes all ready messages in batches unless another thread is already writing, in which
+     * case it writes them instead. The queue is re-checked after releasing the writer role so no
+     * message is left behind.
+     *
+     * @throws IOException if this thread became the writer and the write failed
+     */
+    public void drain() throws IOException {
+        while (!queue.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                byte[] message;
+                while (buffer.size() < MAX_BATCH && (message = queue.poll()) != null)
+                    buffer.write(message);
+
+                buffer.writeTo(out);
+                out.flush();
+            } finally {
+                buffer.reset();
+                writing.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages waiting to be written
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting messages and discards any that have not been written.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+}
@@ -0,0 +1,83 @@
+package org.reujdon.jtp.shared;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.codec.BinaryCodec;
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+import org.reujdon.jtp.shared.codec.JsonCodec;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+
+import java.net.ProtocolException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTest {
+    @Test
+    void testInitialization() {
+        Batch batch = new Batch();
+
+        assertNotNull(batch.getId());
+        assertEquals(MessageType.BATCH, batch.getType());
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    void testAdd() {
+        Batch batch = new Batch()
+                .add("Help", null)
+                .add("Get", Map.of("key", 1, "token", "t"));
+
+        assertEquals(2, batch.size());
+        assertEquals("Help", batch.getCommand(0));
+        assertEquals("Get", batch.getCommand(1));
+    }
+
+    @Test
+    void testAddInvalidThrows() {
+        Batch batch = new Batch();
+
+        assertThrows(IllegalArgumentException.class, () -> batch.add(" ", null));
+        assertThrows(IllegalArgumentException.class, () -> batch.add("Get", Map.of("command", "Other")));
+        assertThrows(IllegalArgumentException.class, () -> new Batch("1", new JSONArray()).add("Get", null));
+    }
+
+    @Test
+    void testReplyNullResultsThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new Batch("1", null));
+    }
+
+    @Test
+    void testResultEntries() {
+        assertEquals(1, Batch.result(new JSONObject().put("n", 1)).getJSONObject("result").getInt("n"));
+        assertTrue(Batch.result(null).getJSONObject("result").isEmpty());
+        assertEquals("failed", Batch.error("failed").getString("error"));
+    }
+
+    @Test
+    void testRoundTripInBothCodecs() throws ProtocolException {
+        Batch batch = new Batch().add("Help", null).add("Get", Map.of("key", 1));
+        Batch reply = new Batch(batch.getId(), new JSONArray().put(Batch.result(new JSONObject().put("n", 2))).put(Batch.error("failed")));
+
+        for (MessageCodec codec : new MessageCodec[]{new JsonCodec(), new BinaryCodec()}) {
+            DecodedMessage decoded = codec.decode(codec.encode(batch));
+
+            assertEquals(MessageType.BATCH, decoded.getType());
+            JSONArray requests = Batch.requestsOf(decoded.getParams());
+            assertEquals(2, requests.length());
+            assertEquals("Help", requests.getJSONObject(0).getString("command"));
+            assertEquals(1, requests.getJSONObject(1).getInt("key"));
+
+            JSONArray results = Batch.resultsOf(codec.decode(codec.encode(reply)).getParams());
+            assertEquals(2, results.getJSONObject(0).getJSONObject("result").getInt("n"));
+            assertEquals("failed", results.getJSONObject(1).getString("error"));
+        }
+    }
+
+    @Test
+    void testMissingListsAreNull() {
+        assertNull(Batch.requestsOf(Map.of()));
+        assertNull(Batch.resultsOf(Map.of("results", "text")));
+    }
+}
\ No newline at end of file
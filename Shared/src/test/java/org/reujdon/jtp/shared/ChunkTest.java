@@ -0,0 +1,96 @@
+package org.reujdon.jtp.shared;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.codec.BinaryCodec;
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+import org.reujdon.jtp.shared.codec.JsonCodec;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkTest {
+    @Test
+    void testInitialization() {
+        Chunk chunk = new Chunk("42", new JSONObject().put("row", 1));
+
+        assertEquals("42", chunk.getId());
+        assertEquals(MessageType.CHUNK, chunk.getType());
+        assertEquals(1, chunk.getParam("row"));
+    }
+
+    @Test
+    void testNullData() {
+        assertTrue(new Chunk("42", null).getParams().isEmpty());
+    }
+
+    @Test
+    void testInvalidIdThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new Chunk(null, new JSONObject()));
+        assertThrows(IllegalArgumentException.class, () -> new Chunk(" ", new JSONObject()));
+    }
+
+    @Test
+    void testRoundTrip() throws ProtocolException {
+        for (MessageCodec codec : new MessageCodec[]{new JsonCodec(), new BinaryCodec()}) {
+            DecodedMessage decoded = codec.decode(codec.encode(new Chunk("7", new JSONObject().put("name", "row"))));
+
+            assertEquals(MessageType.CHUNK, decoded.getType());
+            assertEquals("7", decoded.getId());
+            assertEquals("row", decoded.getParams().get("name"));
+        }
+    }
+
+    @Test
+    void testUploadChunk() {
+        byte[] data = "body".getBytes(StandardCharsets.UTF_8);
+
+        Chunk binary = new Chunk("42", data, true, false);
+        assertSame(data, binary.getParam(Chunk.DATA));
+        assertFalse(Chunk.isLast(binary.getParams()));
+
+        Chunk text = new Chunk("42", data, false, true);
+        assertEquals("Ym9keQ==", text.getParam(Chunk.DATA));
+        assertTrue(Chunk.isLast(text.getParams()));
+        assertArrayEquals(data, Chunk.dataOf(text.getParams()));
+    }
+
+    @Test
+    void testUploadChunkNullDataThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new Chunk("42", (byte[]) null, true, false));
+    }
+
+    @Test
+    void testDataOf() {
+        assertEquals(0, Chunk.dataOf(Map.of()).length);
+        assertArrayEquals(new byte[]{1, 2}, Chunk.dataOf(Map.of(Chunk.DATA, new byte[]{1, 2})));
+        assertThrows(IllegalArgumentException.class, () -> Chunk.dataOf(Map.of(Chunk.DATA, 12)));
+        assertThrows(IllegalArgumentException.class, () -> Chunk.dataOf(Map.of(Chunk.DATA, "not base64!")));
+    }
+
+    @Test
+    void testIsUpload() {
+        assertTrue(Chunk.isUpload(Map.of(Chunk.UPLOAD, true)));
+        assertFalse(Chunk.isUpload(Map.of(Chunk.UPLOAD, "true")));
+        assertFalse(Chunk.isUpload(Map.of()));
+    }
+
+    @Test
+    void testUploadRoundTrip() throws ProtocolException {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+
+        for (MessageCodec codec : new MessageCodec[]{new JsonCodec(), new BinaryCodec()}) {
+            DecodedMessage decoded = codec.decode(codec.encode(new Chunk("7", data, codec.isBinary(), true)));
+
+            assertEquals(MessageType.CHUNK, decoded.getType());
+            assertArrayEquals(data, Chunk.dataOf(decoded.getParams()));
+            assertTrue(Chunk.isLast(decoded.getParams()));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,62 @@
+package org.reujdon.jtp.shared;
+
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.codec.BinaryCodec;
+import org.reujdon.jtp.shared.codec.DecodedMessage;
+import org.reujdon.jtp.shared.codec.JsonCodec;
+import org.reujdon.jtp.shared.codec.MessageCodec;
+
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DemandTest {
+    @Test
+    void testInitialization() {
+        Demand demand = new Demand("42", 16);
+
+        assertEquals("42", demand.getId());
+        assertEquals(MessageType.DEMAND, demand.getType());
+        assertEquals(16, Demand.of(demand.getParams()));
+        assertFalse(Demand.isCancel(demand.getParams()));
+    }
+
+    @Test
+    void testInvalidArgumentsThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new Demand("42", 0));
+        assertThrows(IllegalArgumentException.class, () -> new Demand(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> Demand.cancel(" "));
+    }
+
+    @Test
+    void testCancel() {
+        Demand cancel = Demand.cancel("42");
+
+        assertTrue(Demand.isCancel(cancel.getParams()));
+        assertEquals(0, Demand.of(cancel.getParams()));
+    }
+
+    @Test
+    void testOf() {
+        assertEquals(3, Demand.of(Map.of(Demand.PARAM, 3)));
+        assertEquals(0, Demand.of(Map.of(Demand.PARAM, -3)));
+        assertEquals(0, Demand.of(Map.of(Demand.PARAM, "3")));
+        assertEquals(0, Demand.of(Map.of()));
+        assertEquals(Long.MAX_VALUE, Demand.of(Map.of(Demand.PARAM, BigInteger.TWO.pow(70))));
+    }
+
+    @Test
+    void testRoundTrip() throws ProtocolException {
+        for (MessageCodec codec : new MessageCodec[]{new JsonCodec(), new BinaryCodec()}) {
+            DecodedMessage decoded = codec.decode(codec.encode(new Demand("7", Long.MAX_VALUE)));
+
+            assertEquals(MessageType.DEMAND, decoded.getType());
+            assertEquals("7", decoded.getId());
+            assertEquals(Long.MAX_VALUE, Demand.of(decoded.getParams()));
+
+            assertTrue(Demand.isCancel(codec.decode(codec.encode(Demand.cancel("7"))).getParams()));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package org.reujdon.jtp.shared;
+
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.transport.Framing;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HelloTest {
+    @Test
+    void testInitialization() {
+        Hello hello = new Hello(Framing.LENGTH);
+
+        assertNotNull(hello.getId());
+        assertEquals(MessageType.HELLO, hello.getType());
+        assertEquals(1, hello.params.size());
+        assertEquals(Framing.LENGTH, hello.getFraming());
+    }
+
+    @Test
+    void testInitializationWithId() {
+        Hello hello = new Hello("Test", Framing.LINE);
+
+        assertEquals("Test", hello.getId());
+        assertEquals(Framing.LINE, hello.getFraming());
+    }
+
+    @Test
+    void testInitializationWithCodec() {
+        Hello hello = new Hello(Framing.LENGTH, "binary");
+
+        assertEquals(2, hello.params.size());
+        assertEquals("binary", hello.getCodec());
+        assertEquals("json", new Hello(Framing.LENGTH).getCodec());
+        assertThrows(IllegalArgumentException.class, () -> new Hello(Framing.LENGTH, " "));
+    }
+
+    @Test
+    void testInitializationWithCompression() {
+        Hello hello = new Hello(Framing.MUX, "json", "deflate");
+        Hello reply = new Hello(hello.getId(), Framing.MUX, "json", null);
+
+        assertEquals("deflate", hello.getCompression());
+        assertNull(reply.getCompression());
+        assertEquals(2, reply.params.size());
+        assertThrows(IllegalArgumentException.class, () -> new Hello(Framing.MUX, "json", " "));
+    }
+
+    @Test
+    void testInitializationWithKeyTable() {
+        Hello hello = new Hello(Framing.MUX, "binary", null, 256);
+        Hello reply = new Hello(hello.getId(), Framing.MUX, "binary", null, 0);
+
+        assertEquals(256, hello.getKeyTable());
+        assertEquals(0, reply.getKeyTable());
+        assertEquals(2, reply.params.size());
+        assertThrows(IllegalArgumentException.class, () -> new Hello(Framing.MUX, "binary", null, -1));
+        assertThrows(IllegalArgumentException.class, () -> Hello.keyTableOf(Map.of("keyTable", "256")));
+    }
+
+    @Test
+    void testInitializationNullFramingThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new Hello(null));
+    }
+
+    @Test
+    void testFramingOf() {
+        assertEquals(Framing.LENGTH, Hello.framingOf(Map.of("framing", "length")));
+        assertEquals(Framing.LINE, Hello.framingOf(Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> Hello.framingOf(Map.of("framing", "morse")));
+    }
+}
\ No newline at end of file
@@ -6,6 +6,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class MessageTest {
@@ -135,6 +137,24 @@ class MessageTest {
         assertNull( message.getParam("param2", null));
     }
 
+    @Test
+    void testAddAttachment() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        buffer.position(1);
+
+        message.addAttachment(new byte[]{9});
+        message.addAttachment(buffer);
+
+        assertEquals(2, message.getAttachments().size());
+        assertEquals(ByteBuffer.wrap(new byte[]{9}), message.getAttachments().get(0));
+        assertEquals(ByteBuffer.wrap(new byte[]{2, 3, 4}), message.getAttachments().get(1));
+        assertEquals(1, buffer.position());
+
+        assertThrows(IllegalArgumentException.class, () -> message.addAttachment((byte[]) null));
+        assertThrows(IllegalArgumentException.class, () -> message.addAttachment((ByteBuffer) null));
+        assertThrows(UnsupportedOperationException.class, () -> message.getAttachments().clear());
+    }
+
     // Concrete implementation for testing abstract Message class
     private static class TestMessage extends Message {
         public TestMessage(MessageType type) {
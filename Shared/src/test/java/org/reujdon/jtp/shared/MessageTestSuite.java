@@ -10,6 +10,10 @@ import org.junit.platform.suite.api.Suite;
         RequestTest.class,
         ResponseTest.class,
         ParseTest.class,
+        HelloTest.class,
+        BatchTest.class,
+        ChunkTest.class,
+        DemandTest.class,
 })
 public class MessageTestSuite {
     // This class serves as a test suite container
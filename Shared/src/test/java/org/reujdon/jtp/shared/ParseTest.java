@@ -1,8 +1,12 @@
 package org.reujdon.jtp.shared;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -49,4 +53,23 @@ class ParseTest {
         assertEquals(3.14, params.get("double"));
     }
 
+    @Test
+    public void testCanonicalIgnoresKeyOrderAndNumberType() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("a", 1);
+        first.put("b", new JSONObject().put("y", new BigDecimal("2.50")).put("x", List.of(true)));
+
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("b", Map.of("x", new JSONArray().put(true), "y", 2.5));
+        second.put("a", 1L);
+
+        assertEquals("{\"a\":1,\"b\":{\"x\":[true],\"y\":2.5}}", Parse.Canonical(first));
+        assertEquals(Parse.Canonical(first), Parse.Canonical(second));
+        assertNotEquals(Parse.Canonical(Map.of("a", 1)), Parse.Canonical(Map.of("a", "1")));
+    }
+
+    @Test
+    public void testCanonicalExcludesKeys() {
+        assertEquals("{\"a\":1}", Parse.Canonical(Map.of("a", 1, "token", "t"), "token", "command"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,286 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.Error;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.Request;
+import org.reujdon.jtp.shared.Response;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCodecTest {
+    private final BinaryCodec codec = new BinaryCodec();
+
+    @Test
+    void testRequestRoundTrip() throws ProtocolException {
+        Request request = new Request("Help", "token", 1000) {
+            @Override
+            public void onSuccess(Map<String, Object> response) {}
+
+            @Override
+            public void onTimeout() {}
+        };
+
+        DecodedMessage decoded = codec.decode(codec.encode(request));
+
+        assertEquals(MessageType.REQUEST, decoded.getType());
+        assertEquals(request.getId(), decoded.getId());
+        assertEquals("Help", decoded.getParams().get("command"));
+        assertEquals("token", decoded.getParams().get("token"));
+    }
+
+    @Test
+    void testScalarValuesRoundTrip() throws ProtocolException {
+        JSONObject data = new JSONObject();
+        data.put("small", 7);
+        data.put("negative", -20);
+        data.put("int", 70000);
+        data.put("minInt", Integer.MIN_VALUE);
+        data.put("long", 1L << 40);
+        data.put("minLong", Long.MIN_VALUE);
+        data.put("unsigned", new BigInteger("18446744073709551615"));
+        data.put("double", 1.5);
+        data.put("true", true);
+        data.put("false", false);
+        data.put("null", JSONObject.NULL);
+        data.put("unicode", "héllo wörld ✓");
+        data.put("long string", "x".repeat(70000));
+
+        Map<String, Object> params = codec.decode(codec.encode(new Response("1", data))).getParams();
+
+        assertEquals(7, params.get("small"));
+        assertEquals(-20, params.get("negative"));
+        assertEquals(70000, params.get("int"));
+        assertEquals(Integer.MIN_VALUE, params.get("minInt"));
+        assertEquals(1L << 40, params.get("long"));
+        assertEquals(Long.MIN_VALUE, params.get("minLong"));
+        assertEquals(new BigInteger("18446744073709551615"), params.get("unsigned"));
+        assertEquals(1.5, params.get("double"));
+        assertEquals(true, params.get("true"));
+        assertEquals(false, params.get("false"));
+        assertEquals(JSONObject.NULL, params.get("null"));
+        assertEquals("héllo wörld ✓", params.get("unicode"));
+        assertEquals("x".repeat(70000), params.get("long string"));
+    }
+
+    @Test
+    void testNestedValuesUseJsonModel() throws ProtocolException {
+        JSONObject data = new JSONObject();
+        data.put("object", new JSONObject(Map.of("a", 1, "b", List.of("x", "y"))));
+        data.put("list", List.of(1, 2, 3));
+        data.put("array", new JSONArray().put(true).put(JSONObject.NULL));
+
+        Map<String, Object> params = codec.decode(codec.encode(new Response("1", data))).getParams();
+
+        JSONObject object = assertInstanceOf(JSONObject.class, params.get("object"));
+        assertEquals(1, object.get("a"));
+        assertEquals("y", object.getJSONArray("b").get(1));
+
+        JSONArray list = assertInstanceOf(JSONArray.class, params.get("list"));
+        assertEquals(List.of(1, 2, 3), list.toList());
+
+        JSONArray array = assertInstanceOf(JSONArray.class, params.get("array"));
+        assertEquals(true, array.get(0));
+        assertTrue(array.isNull(1));
+    }
+
+    @Test
+    void testMatchesJsonCodecModel() throws ProtocolException {
+        JSONObject data = new JSONObject("{\"n\":3,\"s\":\"v\",\"o\":{\"k\":[1,2]},\"b\":false}");
+        Response response = new Response("1", data);
+
+        Map<String, Object> binary = codec.decode(codec.encode(response)).getParams();
+        Map<String, Object> json = new JsonCodec().decode(new JsonCodec().encode(response)).getParams();
+
+        assertEquals(new JSONObject(json).toString(), new JSONObject(binary).toString());
+    }
+
+    @Test
+    void testParamsDecodedOnAccess() throws ProtocolException {
+        JSONObject data = new JSONObject();
+        data.put("command", "Upload");
+        data.put("token", "t");
+        data.put("data", new JSONArray().put(1).put(new JSONObject(Map.of("x", 1.5))));
+
+        DecodedMessage decoded = codec.decode(codec.encode(new Response("1", data)));
+
+        assertEquals("Upload", decoded.getCommand());
+        assertEquals("t", decoded.getToken());
+
+        LazyParams params = assertInstanceOf(LazyParams.class, decoded.getParams());
+        assertFalse(params.isDecoded());
+
+        assertEquals(3, params.size());
+        assertTrue(params.isDecoded());
+        assertEquals(1.5, ((JSONArray) params.get("data")).getJSONObject(1).get("x"));
+    }
+
+    @Test
+    void testEmptyParams() throws ProtocolException {
+        DecodedMessage decoded = codec.decode(codec.encode(new Response("1")));
+
+        assertEquals(MessageType.RESPONSE, decoded.getType());
+        assertTrue(decoded.getParams().isEmpty());
+    }
+
+    @Test
+    void testTruncatedPayloadThrows() {
+        byte[] payload = codec.encode(new Error("1", "Something failed"));
+
+        for (int length = 0; length < payload.length; length++) {
+            byte[] truncated = Arrays.copyOf(payload, length);
+            assertThrows(ProtocolException.class, () -> codec.decode(truncated));
+        }
+    }
+
+    @Test
+    void testInvalidPayloadThrows() {
+        assertThrows(ProtocolException.class, () -> codec.decode(new byte[]{(byte) 0x93, 0x7f, (byte) 0xc0, (byte) 0xc0}));
+        assertThrows(ProtocolException.class, () -> codec.decode(new byte[]{(byte) 0x92, 0x01, (byte) 0xc0}));
+        assertThrows(ProtocolException.class, () -> codec.decode(new byte[]{(byte) 0x93, 0x01, (byte) 0xc0, (byte) 0xc0, 0x00}));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(null));
+    }
+
+    @Test
+    void testEncodeResponseMatchesResponse() throws ProtocolException {
+        JSONObject data = new JSONObject().put("n", 3).put("list", new JSONArray().put("a"));
+
+        OutputBuffer out = new OutputBuffer(16);
+        codec.encodeResponse("1", data, out);
+        DecodedMessage direct = codec.decode(out.toByteArray());
+        DecodedMessage built = codec.decode(codec.encode(new Response("1", data)));
+
+        assertEquals(built.getType(), direct.getType());
+        assertEquals(built.getId(), direct.getId());
+        assertEquals(built.getParams().get("n"), direct.getParams().get("n"));
+        assertTrue(((JSONArray) built.getParams().get("list")).similar(direct.getParams().get("list")));
+    }
+
+    @Test
+    void testPrepareResponseMatchesEncodeResponse() {
+        JSONObject data = new JSONObject().put("n", 3).put("s", "text");
+        PreparedResponse prepared = codec.prepareResponse(data);
+
+        for (String id : new String[]{"1", "a \"quoted\" id"}) {
+            OutputBuffer expected = new OutputBuffer(16);
+            codec.encodeResponse(id, data, expected);
+
+            OutputBuffer written = new OutputBuffer(16);
+            prepared.write(id, written);
+
+            assertArrayEquals(expected.toByteArray(), written.toByteArray());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> prepared.write("", new OutputBuffer()));
+    }
+
+    @Test
+    void testEncodePartsUsesGivenId() throws ProtocolException {
+        OutputBuffer out = new OutputBuffer(16);
+        codec.encode(MessageType.REQUEST, "42", Map.of("command", "Help"), out);
+
+        DecodedMessage decoded = codec.decode(out.toByteArray());
+
+        assertEquals(MessageType.REQUEST, decoded.getType());
+        assertEquals("42", decoded.getId());
+        assertEquals("Help", decoded.getParams().get("command"));
+
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(MessageType.REQUEST, "", Map.of(), out));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(null, "1", Map.of(), out));
+    }
+
+    @Test
+    void testEncodeHeadLeavesDataToCaller() throws ProtocolException {
+        byte[] data = new byte[70000];
+        Arrays.fill(data, (byte) 7);
+
+        OutputBuffer out = new OutputBuffer(16);
+        codec.encodeHead(MessageType.CHUNK, "42", Map.of("offset", 5), "data", data.length, out);
+        out.write(data);
+
+        DecodedMessage decoded = codec.decode(out.toByteArray());
+
+        assertEquals(MessageType.CHUNK, decoded.getType());
+        assertEquals("42", decoded.getId());
+        assertEquals(5, decoded.getParams().get("offset"));
+        assertArrayEquals(data, (byte[]) decoded.getParams().get("data"));
+
+        assertThrows(IllegalArgumentException.class, () -> codec.encodeHead(MessageType.CHUNK, "42", Map.of("data", 1), "data", 0, out));
+        assertThrows(IllegalArgumentException.class, () -> codec.encodeHead(MessageType.CHUNK, "42", Map.of(), "data", -1, out));
+    }
+
+    @Test
+    void testKeyTableReplacesRepeatedStrings() throws ProtocolException {
+        KeyTable senderTable = new KeyTable(16);
+        BinaryCodec sender = new BinaryCodec(senderTable);
+        BinaryCodec receiver = new BinaryCodec(new KeyTable(16));
+
+        Map<String, Object> params = Map.of("command", "Echo", "token", "a1b2c3d4-e5f6-4a7b-8c9d-0e1f2a3b4c5d", "text", "hi");
+        int[] sizes = new int[3];
+
+        for (int i = 0; i < sizes.length; i++) {
+            OutputBuffer out = new OutputBuffer(16);
+            senderTable.lock();
+            try {
+                sender.encode(MessageType.REQUEST, Integer.toString(i + 1), params, out);
+                senderTable.takeDefinitions().run();
+            } finally {
+                senderTable.unlock();
+            }
+
+            sizes[i] = out.size();
+            DecodedMessage decoded = receiver.decode(out.toByteArray());
+
+            assertEquals(Integer.toString(i + 1), decoded.getId());
+            assertEquals("Echo", decoded.getCommand());
+            assertEquals(params.get("token"), decoded.getToken());
+            assertEquals(params, Map.copyOf(decoded.getParams()));
+        }
+
+        OutputBuffer plain = new OutputBuffer(16);
+        codec.encode(MessageType.REQUEST, "3", params, plain);
+
+        assertTrue(sizes[2] < plain.size() / 2);
+        assertTrue(sizes[2] < sizes[0]);
+    }
+
+    @Test
+    void testKeyTableUnusedWithoutLock() {
+        BinaryCodec keyed = new BinaryCodec(new KeyTable(16));
+        Map<String, Object> params = Map.of("command", "Echo");
+
+        assertArrayEquals(codec.encode(new Response("1", new JSONObject(params))), keyed.encode(new Response("1", new JSONObject(params))));
+        assertEquals(codec, keyed);
+        assertEquals(codec.hashCode(), keyed.hashCode());
+    }
+
+    @Test
+    void testKeyTableEntriesNeedDefinitions() {
+        KeyTable table = new KeyTable(16);
+        BinaryCodec sender = new BinaryCodec(table);
+        byte[][] payloads = new byte[2][];
+
+        for (int i = 0; i < payloads.length; i++) {
+            table.lock();
+            try {
+                payloads[i] = sender.encode(new Response("1", new JSONObject().put("name", "value")));
+                table.takeDefinitions().run();
+            } finally {
+                table.unlock();
+            }
+        }
+
+        // A reference read before its definition, or by a peer without a table
+        assertThrows(ProtocolException.class, () -> new BinaryCodec(new KeyTable(16)).decode(payloads[1]));
+        assertThrows(ProtocolException.class, () -> codec.decode(payloads[0]));
+    }
+}
\ No newline at end of file
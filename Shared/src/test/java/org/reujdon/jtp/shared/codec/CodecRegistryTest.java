@@ -0,0 +1,27 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodecRegistryTest {
+    @Test
+    void testDefaultCodecs() {
+        assertInstanceOf(JsonCodec.class, CodecRegistry.getDefault());
+        assertInstanceOf(JsonCodec.class, CodecRegistry.getCodec("JSON"));
+        assertInstanceOf(BinaryCodec.class, CodecRegistry.getCodec(" binary "));
+        assertNull(CodecRegistry.getCodec("unknown"));
+    }
+
+    @Test
+    void testInvalidNameThrows() {
+        assertThrows(IllegalArgumentException.class, () -> CodecRegistry.getCodec(null));
+        assertThrows(IllegalArgumentException.class, () -> CodecRegistry.getCodec(" "));
+    }
+
+    @Test
+    void testReplacingDefaultThrows() {
+        assertThrows(IllegalArgumentException.class, () -> CodecRegistry.register(new JsonCodec()));
+        assertThrows(IllegalArgumentException.class, () -> CodecRegistry.register(null));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.Error;
+import org.reujdon.jtp.shared.Message;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.Response;
+import org.reujdon.jtp.shared.transport.OutputBuffer;
+
+import java.math.BigDecimal;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonCodecTest {
+    private final JsonCodec codec = new JsonCodec();
+
+    @Test
+    void testEncodeMatchesToJSON() {
+        Error error = new Error("1", "Something failed");
+
+        String encoded = new String(codec.encode(error), StandardCharsets.UTF_8);
+
+        assertEquals(error.toJSON().toString(), encoded);
+    }
+
+    @Test
+    void testDecode() throws ProtocolException {
+        byte[] payload = "{\"type\":\"RESPONSE\",\"id\":\"1\",\"params\":{\"n\":3,\"o\":{\"k\":true}}}".getBytes(StandardCharsets.UTF_8);
+
+        DecodedMessage decoded = codec.decode(payload);
+
+        assertEquals(MessageType.RESPONSE, decoded.getType());
+        assertEquals("1", decoded.getId());
+        assertEquals(3, decoded.getParams().get("n"));
+        assertInstanceOf(JSONObject.class, decoded.getParams().get("o"));
+    }
+
+    @Test
+    void testDecodeMissingFields() throws ProtocolException {
+        DecodedMessage decoded = codec.decode("{}".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(decoded.getType());
+        assertNull(decoded.getId());
+        assertTrue(decoded.getParams().isEmpty());
+    }
+
+    @Test
+    void testDecodeInvalidJsonThrows() {
+        assertThrows(ProtocolException.class, () -> codec.decode("{not json".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testEncodeEscapesLikeOrgJson() {
+        Error error = new Error("1", "quote \" slash \\ </tag> tab\t nl\n ctl\u0001 \u0085 \u2028 \u00e9 \u20ac \uD83D\uDE00 lone\uD800");
+
+        assertArrayEquals(error.toJSON().toString().getBytes(StandardCharsets.UTF_8), codec.encode(error));
+    }
+
+    @Test
+    void testEncodeResponseMatchesResponse() throws ProtocolException {
+        JSONObject data = new JSONObject()
+                .put("int", 7)
+                .put("long", 1L << 40)
+                .put("double", 2.0)
+                .put("decimal", new BigDecimal("1.50"))
+                .put("list", new JSONArray().put(1).put(JSONObject.NULL).put("x"))
+                .put("map", Map.of("k", List.of(true, false)))
+                .put("nested", new JSONObject().put("a", "b"));
+
+        OutputBuffer out = new OutputBuffer(16);
+        codec.encodeResponse("1", data, out);
+
+        JSONObject written = new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        JSONObject expected = new JSONObject(new Response("1", data).toJSON().toString());
+
+        assertTrue(expected.similar(written), written.toString());
+        assertEquals("2", written.getJSONObject("params").get("double").toString());
+        assertEquals(MessageType.RESPONSE, codec.decode(out.toByteArray()).getType());
+    }
+
+    @Test
+    void testEncodeResponseAppendsToBuffer() {
+        OutputBuffer out = new OutputBuffer(16);
+        out.write('>');
+
+        codec.encodeResponse("1", null, out);
+
+        assertEquals(">{\"id\":\"1\",\"type\":\"RESPONSE\"}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testEncodeNonFiniteNumberThrows() {
+        JSONObject data = new JSONObject().put("n", new double[]{Double.NaN});
+
+        assertThrows(IllegalArgumentException.class, () -> codec.encodeResponse("1", data, new OutputBuffer()));
+    }
+
+    @Test
+    void testPrepareResponseMatchesEncodeResponse() {
+        JSONObject data = new JSONObject().put("n", 3).put("s", "text");
+        PreparedResponse prepared = codec.prepareResponse(data);
+
+        for (String id : new String[]{"1", "a \"quoted\" id"}) {
+            OutputBuffer expected = new OutputBuffer(16);
+            codec.encodeResponse(id, data, expected);
+
+            OutputBuffer written = new OutputBuffer(16);
+            prepared.write(id, written);
+
+            assertArrayEquals(expected.toByteArray(), written.toByteArray());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> prepared.write("", new OutputBuffer()));
+    }
+
+    @Test
+    void testEncodePartsMatchesMessage() {
+        Error error = new Error("7", "Something failed");
+
+        OutputBuffer out = new OutputBuffer(16);
+        codec.encode(MessageType.ERROR, "7", error.getParams(), out);
+
+        assertArrayEquals(codec.encode(error), out.toByteArray());
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(MessageType.ERROR, "7", null, out));
+    }
+
+    @Test
+    void testDefaultEncodePartsBuildsMessage() throws ProtocolException {
+        MessageCodec fallback = new MessageCodec() {
+            @Override
+            public String getName() {
+                return "fallback";
+            }
+
+            @Override
+            public boolean isBinary() {
+                return false;
+            }
+
+            @Override
+            public byte[] encode(Message message) {
+                return codec.encode(message);
+            }
+
+            @Override
+            public DecodedMessage decode(byte[] payload) throws ProtocolException {
+                return codec.decode(payload);
+            }
+        };
+
+        OutputBuffer out = new OutputBuffer(16);
+        fallback.encode(MessageType.REQUEST, "3", Map.of("command", "Help"), out);
+
+        DecodedMessage decoded = codec.decode(out.toByteArray());
+        assertEquals("3", decoded.getId());
+        assertEquals("Help", decoded.getParams().get("command"));
+    }
+}
\ No newline at end of file
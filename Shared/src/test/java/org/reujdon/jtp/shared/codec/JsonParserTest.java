@@ -0,0 +1,108 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.MessageType;
+import org.reujdon.jtp.shared.Parse;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonParserTest {
+    @Test
+    void testMatchesOrgJson() throws ProtocolException {
+        String[] messages = {
+                "{\"type\":\"REQUEST\",\"id\":\"1\",\"params\":{\"command\":\"Help\",\"token\":\"abc\"}}",
+                "{ \"id\" : 5 , \"type\" : \"RESPONSE\" , \"params\" : { } }",
+                "{\"type\":\"RESPONSE\",\"id\":\"2\",\"params\":{\"a\":1,\"b\":-20,\"c\":12345678901,\"d\":99999999999999999999,"
+                        + "\"e\":1.5,\"f\":-0,\"g\":1e3,\"h\":-0.0,\"i\":true,\"j\":false,\"k\":null,\"l\":-9223372036854775808}}",
+                "{\"type\":\"RESPONSE\",\"id\":\"3\",\"params\":{\"o\":{\"k\":[1,\"x\",{\"n\":null}],\"e\":{}},\"a\":[]}}",
+                "{\"type\":\"ERROR\",\"id\":\"4\",\"params\":{\"message\":\"tab\\there \\\"quoted\\\" \\u00e9\\ud83d\\ude00 h\u00e9llo\"}}",
+                "{\"type\":\"UNKNOWN\",\"extra\":[1,{\"x\":2}],\"params\":{\"x\":\"y\"}}",
+        };
+
+        for (String message : messages) {
+            JSONObject json = new JSONObject(message);
+            DecodedMessage parsed = parse(message);
+
+            assertEquals(json.optEnum(MessageType.class, "type"), parsed.getType(), message);
+            assertEquals(json.optString("id", null), parsed.getId(), message);
+
+            Map<String, Object> expected = Parse.Params(json);
+            assertEquals(expected.keySet(), parsed.getParams().keySet(), message);
+
+            for (String key : expected.keySet()) {
+                Object value = parsed.getParams().get(key);
+                assertEquals(expected.get(key).getClass(), value.getClass(), key);
+                assertEquals(JSONObject.valueToString(expected.get(key)), JSONObject.valueToString(value), key);
+            }
+        }
+    }
+
+    @Test
+    void testEmptyMessage() throws ProtocolException {
+        DecodedMessage parsed = parse("{}");
+
+        assertNull(parsed.getType());
+        assertNull(parsed.getId());
+        assertTrue(parsed.getParams().isEmpty());
+    }
+
+    @Test
+    void testParseSlice() throws ProtocolException {
+        byte[] data = "xx{\"id\":\"7\"}yy".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("7", JsonParser.parseMessage(data, 2, data.length - 4).getId());
+    }
+
+    @Test
+    void testInvalidMessagesThrow() {
+        String[] messages = {
+                "", "[]", "{", "{\"id\":}", "{\"id\":\"1\"", "{\"id\":\"1\"}x", "{id:\"1\"}", "{'id':'1'}",
+                "{\"params\":[]}", "{\"params\":{\"a\":01}}", "{\"params\":{\"a\":1.}}",
+                "{\"params\":{\"a\":\"\\x\"}}", "{\"params\":{\"a\":\"\\u12\"}}", "{\"params\":{\"a\":tru}}",
+                "{\"params\":{\"a\":\"line\nbreak\"}}", "{\"params\":{\"a\":[1,]}}",
+        };
+
+        for (String message : messages)
+            assertThrows(ProtocolException.class, () -> parse(message), message);
+    }
+
+    @Test
+    void testParamsDecodedOnAccess() throws ProtocolException {
+        DecodedMessage parsed = parse("{\"id\":\"1\",\"params\":{\"data\":[1,2,{\"x\":\"y\"}],\"command\":\"Upload\",\"token\":\"t\"}}");
+
+        assertEquals("Upload", parsed.getCommand());
+        assertEquals("t", parsed.getToken());
+
+        LazyParams params = assertInstanceOf(LazyParams.class, parsed.getParams());
+        assertFalse(params.isDecoded());
+
+        assertEquals(3, params.size());
+        assertTrue(params.isDecoded());
+        assertEquals("Upload", params.get("command"));
+    }
+
+    @Test
+    void testDuplicateParamThrowsOnAccess() throws ProtocolException {
+        DecodedMessage parsed = parse("{\"params\":{\"command\":\"Help\",\"a\":1,\"a\":2}}");
+
+        assertEquals("Help", parsed.getCommand());
+        assertThrows(IllegalStateException.class, () -> parsed.getParams().get("a"));
+    }
+
+    @Test
+    void testDeepNestingThrows() {
+        String message = "{\"params\":{\"a\":" + "[".repeat(100) + "]".repeat(100) + "}}";
+
+        assertThrows(ProtocolException.class, () -> parse(message));
+    }
+
+    private static DecodedMessage parse(String message) throws ProtocolException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        return JsonParser.parseMessage(data, 0, data.length);
+    }
+}
\ No newline at end of file
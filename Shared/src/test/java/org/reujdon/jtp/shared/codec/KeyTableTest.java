@@ -0,0 +1,138 @@
+package org.reujdon.jtp.shared.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyTableTest {
+    @Test
+    void testInitializationInvalidSizeThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyTable(0));
+        assertThrows(IllegalArgumentException.class, () -> new KeyTable(KeyTable.MAX_SIZE + 1));
+        assertEquals(KeyTable.MAX_SIZE, new KeyTable(KeyTable.MAX_SIZE).getSize());
+    }
+
+    @Test
+    void testKeysDefinedFirstTimeValuesSecondTime() {
+        KeyTable table = new KeyTable(16);
+        table.lock();
+
+        assertEquals(0, table.define("command", true));
+        assertEquals(-1, table.define("Echo", false));
+        assertEquals(1, table.define("Echo", false));
+        assertEquals(-1, table.define("command", true));
+        assertEquals(-1, table.define("x".repeat(KeyTable.MAX_LENGTH + 1), true));
+
+        table.unlock();
+    }
+
+    @Test
+    void testEntriesUsableOnceDefinitionsRun() {
+        KeyTable table = new KeyTable(16);
+        table.lock();
+        table.define("command", true);
+
+        Runnable defined = table.takeDefinitions();
+        assertEquals(-1, table.indexOf("command"));
+
+        defined.run();
+        table.unlock();
+
+        assertEquals(0, table.indexOf("command"));
+    }
+
+    @Test
+    void testDefinitionsNotTakenAreDropped() {
+        KeyTable table = new KeyTable(16);
+
+        table.lock();
+        table.define("command", true);
+        table.unlock();
+
+        // The dropped index was never sent, so it is given out again
+        table.lock();
+        assertEquals(0, table.define("command", true));
+        table.takeDefinitions().run();
+        table.unlock();
+
+        assertEquals(0, table.indexOf("command"));
+    }
+
+    @Test
+    void testDroppedIndicesReusedWhenFull() {
+        KeyTable table = new KeyTable(2);
+
+        table.lock();
+        assertEquals(0, table.define("outer", true));
+
+        table.lock();
+        assertEquals(1, table.define("inner", true));
+        table.takeDefinitions().run();
+        table.unlock();
+
+        table.unlock();
+
+        // Full without the dropped definition, which left its index free
+        table.lock();
+        assertEquals(0, table.define("next", true));
+        assertEquals(-1, table.define("more", true));
+        table.takeDefinitions().run();
+        table.unlock();
+
+        assertEquals(0, table.indexOf("next"));
+        assertEquals(1, table.indexOf("inner"));
+        assertEquals(-1, table.indexOf("outer"));
+    }
+
+    @Test
+    void testNestedMessageTakesOnlyItsOwnDefinitions() {
+        KeyTable table = new KeyTable(16);
+
+        table.lock();
+        table.define("outer", true);
+
+        table.lock();
+        table.define("inner", true);
+        table.takeDefinitions().run();
+        table.unlock();
+
+        table.unlock();
+
+        assertEquals(1, table.indexOf("inner"));
+        assertEquals(-1, table.indexOf("outer"));
+    }
+
+    @Test
+    void testFullTableDefinesNothing() {
+        KeyTable table = new KeyTable(2);
+        table.lock();
+
+        assertEquals(0, table.define("a", true));
+        assertEquals(1, table.define("b", true));
+        assertEquals(-1, table.define("c", true));
+
+        table.unlock();
+    }
+
+    @Test
+    void testTakeDefinitionsWithoutLockDoesNothing() {
+        KeyTable table = new KeyTable(16);
+        assertDoesNotThrow(() -> table.takeDefinitions().run());
+        assertThrows(IllegalMonitorStateException.class, table::unlock);
+    }
+
+    @Test
+    void testReceivedEntries() throws ProtocolException {
+        KeyTable table = new KeyTable(4);
+        table.put(2, "command");
+        table.put(2, "command");
+
+        assertEquals("command", table.get(2));
+        assertThrows(ProtocolException.class, () -> table.put(2, "token"));
+        assertThrows(ProtocolException.class, () -> table.put(4, "token"));
+        assertThrows(ProtocolException.class, () -> table.get(1));
+        assertThrows(ProtocolException.class, () -> table.get(-1));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteScannersTest {
+    @Test
+    void testDefaultUsesVectorWhenModuleResolved() {
+        boolean resolved = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+        assertEquals(resolved ? "vector" : "scalar", ByteScanners.getDefault().getName());
+        assertEquals("scalar", ByteScanners.scalar().getName());
+    }
+
+    @Test
+    void testScannersMatchNaiveSearch() {
+        Random random = new Random(42);
+        byte[] alphabet = {'a', 'z', ' ', '"', '\\', '\n', 0x01, 0x1f, 0x20, (byte) 0xc3, (byte) 0xa9, (byte) 0x80, (byte) 0xff};
+
+        for (ByteScanner scanner : scanners()) {
+            for (int length : new int[]{0, 1, 15, 16, 31, 32, 33, 64, 100, 257}) {
+                for (int trial = 0; trial < 50; trial++) {
+                    byte[] data = new byte[length];
+                    for (int i = 0; i < length; i++)
+                        data[i] = random.nextInt(4) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) 'x';
+
+                    int from = length == 0 ? 0 : random.nextInt(length);
+                    int to = from + random.nextInt(length - from + 1);
+
+                    assertEquals(naiveIndexOf(data, from, to), scanner.indexOf(data, from, to, (byte) '\n'), scanner.getName());
+                    assertEquals(naiveDelimiter(data, from, to), scanner.indexOfStringDelimiter(data, from, to), scanner.getName());
+                }
+            }
+        }
+    }
+
+    private static List<ByteScanner> scanners() {
+        List<ByteScanner> scanners = new ArrayList<>();
+        scanners.add(ByteScanners.scalar());
+
+        if (ByteScanners.getDefault() != ByteScanners.scalar())
+            scanners.add(ByteScanners.getDefault());
+
+        return scanners;
+    }
+
+    private static int naiveIndexOf(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (data[i] == '\n')
+                return i;
+
+        return -1;
+    }
+
+    private static int naiveDelimiter(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (data[i] == '"' || data[i] == '\\' || (data[i] & 0xff) < 0x20)
+                return i;
+
+        return -1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+    @Test
+    void testInitializationInvalidArgumentsThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new Compression(-1, 1024));
+        assertThrows(IllegalArgumentException.class, () -> new Compression(0, 0));
+    }
+
+    @Test
+    void testIsSupported() {
+        assertTrue(Compression.isSupported("deflate"));
+        assertTrue(Compression.isSupported(" DEFLATE "));
+        assertFalse(Compression.isSupported("lz4"));
+        assertFalse(Compression.isSupported(null));
+    }
+
+    @Test
+    void testRoundTrip() throws ProtocolException {
+        Compression sender = new Compression(64, 1 << 20);
+        Compression receiver = new Compression(64, 1 << 20);
+
+        byte[] payload = rows(500);
+        byte[] packed = sender.compress(payload, 0, payload.length);
+
+        assertNotNull(packed);
+        assertTrue(packed.length < payload.length / 4);
+
+        Frame frame = receiver.decompress(new Frame(MessageType.RESPONSE, Frame.FLAG_COMPRESSED | Frame.FLAG_END, 3, packed));
+
+        assertArrayEquals(payload, frame.getPayload());
+        assertEquals(Frame.FLAG_END, frame.getFlags());
+        assertEquals(3, frame.getStream());
+        assertFalse(frame.isCompressed());
+    }
+
+    @Test
+    void testCompressorReusedAcrossMessages() throws ProtocolException {
+        Compression compression = new Compression(0, 1 << 20);
+
+        for (int i = 1; i <= 5; i++) {
+            byte[] payload = rows(i * 40);
+            byte[] packed = compression.compress(payload, 0, payload.length);
+
+            Frame frame = compression.decompress(new Frame(MessageType.RESPONSE, Frame.FLAG_COMPRESSED, packed));
+            assertArrayEquals(payload, frame.getPayload());
+        }
+    }
+
+    @Test
+    void testOutputGrowsPastReusedBuffer() throws ProtocolException {
+        Compression compression = new Compression(0, 1 << 24);
+        Random random = new Random(11);
+
+        // Small, large and small again, so the large one outgrows the buffer kept from the first
+        for (int size : new int[]{2000, 400_000, 2000}) {
+            byte[] payload = new byte[size];
+            for (int i = 0; i < size; i++)
+                payload[i] = (byte) ('a' + random.nextInt(4));
+
+            byte[] packed = compression.compress(payload, 0, payload.length);
+            assertNotNull(packed);
+
+            Frame frame = compression.decompress(new Frame(MessageType.RESPONSE, Frame.FLAG_COMPRESSED, packed));
+            assertArrayEquals(payload, frame.getPayload());
+        }
+    }
+
+    @Test
+    void testCompressesRangeOfArray() throws ProtocolException {
+        Compression compression = new Compression(0, 1 << 20);
+        byte[] payload = rows(100);
+        byte[] framed = new byte[payload.length + Frame.HEADER_SIZE];
+        System.arraycopy(payload, 0, framed, Frame.HEADER_SIZE, payload.length);
+
+        byte[] packed = compression.compress(framed, Frame.HEADER_SIZE, payload.length);
+
+        assertArrayEquals(payload, compression.decompress(new Frame(MessageType.REQUEST, Frame.FLAG_COMPRESSED, packed)).getPayload());
+    }
+
+    @Test
+    void testSmallOrIncompressiblePayloadNotCompressed() {
+        Compression compression = new Compression(1024, 1 << 20);
+
+        byte[] small = rows(5);
+        assertTrue(small.length < 1024);
+        assertNull(compression.compress(small, 0, small.length));
+
+        byte[] random = new byte[4096];
+        new Random(7).nextBytes(random);
+        assertNull(compression.compress(random, 0, random.length));
+    }
+
+    @Test
+    void testUncompressedFrameReturnedAsIs() throws ProtocolException {
+        Frame frame = new Frame(MessageType.REQUEST, 0, new byte[]{1, 2, 3});
+
+        assertSame(frame, new Compression(0, 1024).decompress(frame));
+    }
+
+    @Test
+    void testOversizedMessageThrows() {
+        Compression compression = new Compression(0, 1 << 20);
+        byte[] zeros = new byte[100_000];
+        byte[] packed = compression.compress(zeros, 0, zeros.length);
+
+        Compression receiver = new Compression(0, 50_000);
+        assertThrows(ProtocolException.class, () -> receiver.decompress(new Frame(MessageType.REQUEST, Frame.FLAG_COMPRESSED, packed)));
+    }
+
+    @Test
+    void testInvalidDataThrows() {
+        Compression compression = new Compression(0, 1024);
+        byte[] payload = rows(50);
+        byte[] packed = compression.compress(payload, 0, payload.length);
+        byte[] truncated = Arrays.copyOf(packed, packed.length / 2);
+
+        assertThrows(ProtocolException.class, () -> compression.decompress(new Frame(MessageType.REQUEST, Frame.FLAG_COMPRESSED, new byte[]{1, 2, 3, 4})));
+        assertThrows(ProtocolException.class, () -> compression.decompress(new Frame(MessageType.REQUEST, Frame.FLAG_COMPRESSED, truncated)));
+    }
+
+    @Test
+    void testClosedCompressionSendsUncompressed() {
+        Compression compression = new Compression(0, 1024);
+        compression.close();
+
+        byte[] payload = rows(50);
+        assertNull(compression.compress(payload, 0, payload.length));
+        assertThrows(ProtocolException.class, () -> compression.decompress(new Frame(MessageType.REQUEST, Frame.FLAG_COMPRESSED, new byte[1])));
+    }
+
+    private static byte[] rows(int count) {
+        StringBuilder json = new StringBuilder("{\"type\":\"RESPONSE\",\"id\":\"42\",\"params\":{\"rows\":[");
+        for (int i = 0; i < count; i++)
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"row ").append(i).append("\",\"active\":true}");
+
+        return json.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,310 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameDecoderTest {
+    @Test
+    void testInitializationInvalidArgumentsThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new FrameDecoder(null, 10));
+        assertThrows(IllegalArgumentException.class, () -> new FrameDecoder(Framing.LINE, 0));
+    }
+
+    @Test
+    void testLinesSplitAcrossReads() throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder();
+
+        feed(decoder, "{\"a\":");
+        assertNull(decoder.next());
+
+        feed(decoder, "1}\r\n\n  \n{\"b\":2}\n{\"c\"");
+
+        assertEquals("{\"a\":1}", decoder.next().text());
+        assertEquals("{\"b\":2}", decoder.next().text());
+        assertNull(decoder.next());
+        assertEquals(4, decoder.buffered());
+    }
+
+    @Test
+    void testLengthPrefixedFramesSplitAcrossReads() throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder(Framing.LENGTH, 1024);
+
+        byte[] first = encode(MessageType.REQUEST, "first");
+        byte[] second = encode(MessageType.RESPONSE, "second");
+        byte[] stream = new byte[first.length + second.length];
+        System.arraycopy(first, 0, stream, 0, first.length);
+        System.arraycopy(second, 0, stream, first.length, second.length);
+
+        // Feed one byte at a time to split both the header and the payload
+        int frames = 0;
+        for (byte b : stream) {
+            decoder.feed(new byte[]{b}, 0, 1);
+
+            Frame frame = decoder.next();
+            if (frame == null)
+                continue;
+
+            if (frames++ == 0) {
+                assertEquals(MessageType.REQUEST, frame.getType());
+                assertEquals("first", frame.text());
+            } else {
+                assertEquals(MessageType.RESPONSE, frame.getType());
+                assertEquals("second", frame.text());
+            }
+        }
+
+        assertEquals(2, frames);
+        assertEquals(0, decoder.buffered());
+    }
+
+    @Test
+    void testSwitchFramingBetweenFrames() throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder();
+
+        byte[] line = "hello\n".getBytes(StandardCharsets.UTF_8);
+        byte[] frame = encode(MessageType.REQUEST, "framed");
+        byte[] stream = new byte[line.length + frame.length];
+        System.arraycopy(line, 0, stream, 0, line.length);
+        System.arraycopy(frame, 0, stream, line.length, frame.length);
+
+        decoder.feed(stream, 0, stream.length);
+
+        assertEquals("hello", decoder.next().text());
+        decoder.setFraming(Framing.LENGTH);
+        assertEquals("framed", decoder.next().text());
+    }
+
+    @Test
+    void testSwitchFramingMidFrameThrows() throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder(Framing.LENGTH, 1024);
+
+        byte[] frame = encode(MessageType.REQUEST, "partial");
+        decoder.feed(frame, 0, frame.length - 1);
+
+        assertNull(decoder.next());
+        assertThrows(IllegalStateException.class, () -> decoder.setFraming(Framing.LINE));
+    }
+
+    @Test
+    void testOversizedFrameThrows() {
+        FrameDecoder decoder = new FrameDecoder(Framing.LENGTH, 4);
+        byte[] frame = encode(MessageType.REQUEST, "too long");
+        decoder.feed(frame, 0, frame.length);
+
+        assertThrows(ProtocolException.class, decoder::next);
+
+        FrameDecoder lines = new FrameDecoder(Framing.LINE, 4);
+        feed(lines, "too long");
+
+        assertThrows(ProtocolException.class, lines::next);
+    }
+
+    @Test
+    void testPayloadGrowsAsBytesArrive() throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder(Framing.LENGTH, 4 * 1024 * 1024);
+        byte[] payload = new byte[1024 * 1024];
+        for (int i = 0; i < payload.length; i++)
+            payload[i] = (byte) i;
+        byte[] frame = Frame.encode(Framing.LENGTH, MessageType.REQUEST, payload);
+
+        // A header alone does not allocate the length it announces
+        decoder.feed(frame, 0, Frame.HEADER_SIZE);
+        assertNull(decoder.next());
+        assertTrue(decoder.capacity() < 128 * 1024, "Allocated " + decoder.capacity() + " bytes");
+
+        for (int offset = Frame.HEADER_SIZE; offset < frame.length; offset += 10_000) {
+            int length = Math.min(10_000, frame.length - offset);
+            decoder.feed(frame, offset, length);
+
+            if (offset + length < frame.length)
+                assertNull(decoder.next());
+        }
+
+        assertArrayEquals(payload, decoder.next().getPayload());
+        assertEquals(0, decoder.buffered());
+    }
+
+    @Test
+    void testBufferShrinksOnceEmpty() throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder();
+        int initial = decoder.capacity();
+
+        String line = "x".repeat(100_000);
+        feed(decoder, line + "\n");
+
+        assertEquals(line, decoder.next().text());
+        assertEquals(initial, decoder.capacity());
+    }
+
+    @Test
+    void testUnknownTypeThrows() {
+        FrameDecoder decoder = new FrameDecoder(Framing.LENGTH, 1024);
+        byte[] frame = encode(MessageType.REQUEST, "x");
+        frame[4] = (byte) 0xFF;
+        decoder.feed(frame, 0, frame.length);
+
+        assertThrows(ProtocolException.class, decoder::next);
+    }
+
+    @Test
+    void testBeginEndFramesInPlace() throws ProtocolException {
+        for (Framing framing : new Framing[]{Framing.LINE, Framing.LENGTH}) {
+            OutputBuffer out = new OutputBuffer(4);
+            out.write(Frame.encode(framing, MessageType.REQUEST, "{\"a\":1}".getBytes(StandardCharsets.UTF_8)));
+
+            int start = Frame.begin(framing, MessageType.RESPONSE, out);
+            out.write("{\"b\":2}".getBytes(StandardCharsets.UTF_8));
+            Frame.end(framing, out, start);
+
+            FrameDecoder decoder = new FrameDecoder(framing, 1024);
+            decoder.feed(out.array(), 0, out.size());
+
+            assertEquals("{\"a\":1}", decoder.next().text());
+            Frame frame = decoder.next();
+            assertEquals("{\"b\":2}", frame.text());
+            if (framing == Framing.LENGTH)
+                assertEquals(MessageType.RESPONSE, frame.getType());
+            assertEquals(0, decoder.buffered());
+        }
+    }
+
+    @Test
+    void testBeginEndLeavesBarePayloadInMux() {
+        OutputBuffer out = new OutputBuffer(4);
+
+        int start = Frame.begin(Framing.MUX, MessageType.RESPONSE, out);
+        out.write("{\"b\":2}".getBytes(StandardCharsets.UTF_8));
+        Frame.end(Framing.MUX, out, start);
+
+        assertEquals("{\"b\":2}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testMuxFramesCarryStreamAndFlags() throws ProtocolException {
+        OutputBuffer out = new OutputBuffer(64);
+        byte[] payload = "abcdef".getBytes(StandardCharsets.UTF_8);
+        Frame.writeChunk(out, MessageType.REQUEST, 0, 7, payload, 0, 4);
+        out.write(Frame.windowUpdate(0, 1000));
+        Frame.writeChunk(out, MessageType.REQUEST, Frame.FLAG_END, 7, payload, 4, 2);
+
+        FrameDecoder decoder = new FrameDecoder(Framing.MUX, 1024);
+
+        // Feed one byte at a time to split the headers
+        byte[] bytes = out.toByteArray();
+        List<Frame> frames = new ArrayList<>();
+        for (byte b : bytes) {
+            decoder.feed(new byte[]{b}, 0, 1);
+
+            Frame frame = decoder.next();
+            if (frame != null)
+                frames.add(frame);
+        }
+
+        assertEquals(3, frames.size());
+
+        assertEquals(MessageType.REQUEST, frames.get(0).getType());
+        assertEquals(7, frames.get(0).getStream());
+        assertEquals(0, frames.get(0).getFlags());
+        assertEquals("abcd", frames.get(0).text());
+
+        assertEquals(MessageType.WINDOW_UPDATE, frames.get(1).getType());
+        assertEquals(0, frames.get(1).getStream());
+        assertEquals(4, frames.get(1).getPayload().length);
+
+        assertEquals(7, frames.get(2).getStream());
+        assertEquals(Frame.FLAG_END, frames.get(2).getFlags());
+        assertEquals("ef", frames.get(2).text());
+        assertEquals(0, decoder.buffered());
+    }
+
+    @Test
+    void testAttachmentsFollowMessage() throws ProtocolException {
+        ByteBuffer direct = ByteBuffer.allocateDirect(3).put(new byte[]{7, 8, 9}).flip();
+        ByteBuffer heap = ByteBuffer.wrap(new byte[]{0, 1, 2, 3}, 1, 2);
+
+        OutputBuffer out = new OutputBuffer(4);
+        int start = Frame.begin(Framing.LENGTH, MessageType.RESPONSE, Frame.FLAG_ATTACHMENTS, out);
+        out.write("{\"b\":2}".getBytes(StandardCharsets.UTF_8));
+        Frame.writeAttachments(out, List.of(direct, ByteBuffer.allocate(0), heap));
+        Frame.end(Framing.LENGTH, out, start);
+
+        assertEquals(0, direct.position());
+        assertEquals(1, heap.position());
+
+        FrameDecoder decoder = new FrameDecoder(Framing.LENGTH, 1024);
+        decoder.feed(out.array(), 0, out.size());
+        Frame frame = decoder.next();
+
+        assertTrue(frame.hasAttachments());
+        assertEquals("{\"b\":2}", new String(frame.getMessage(), StandardCharsets.UTF_8));
+
+        List<ByteBuffer> attachments = frame.getAttachments();
+        assertEquals(3, attachments.size());
+        assertEquals(ByteBuffer.wrap(new byte[]{7, 8, 9}), attachments.get(0));
+        assertEquals(0, attachments.get(1).remaining());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2}), attachments.get(2));
+        assertTrue(attachments.get(0).isReadOnly());
+    }
+
+    @Test
+    void testFrameWithoutAttachments() throws ProtocolException {
+        Frame frame = new Frame(MessageType.REQUEST, 0, new byte[]{1, 2});
+
+        assertFalse(frame.hasAttachments());
+        assertSame(frame.getPayload(), frame.getMessage());
+        assertTrue(frame.getAttachments().isEmpty());
+    }
+
+    @Test
+    void testMalformedAttachmentTrailerThrows() {
+        // Too short for a count, a negative count, and a segment longer than the payload
+        byte[][] payloads = {
+                {0, 1},
+                {0, 0, 0, 0, -1, -1, -1, -1},
+                {1, 2, 0, 0, 0, 5, 0, 0, 0, 1}
+        };
+
+        for (byte[] payload : payloads) {
+            Frame frame = new Frame(MessageType.REQUEST, Frame.FLAG_ATTACHMENTS, payload);
+            assertThrows(ProtocolException.class, frame::getAttachments);
+            assertThrows(ProtocolException.class, frame::getMessage);
+        }
+    }
+
+    @Test
+    void testLineFramesCannotCarryFlags() {
+        OutputBuffer out = new OutputBuffer(4);
+
+        assertThrows(IllegalArgumentException.class, () -> Frame.begin(Framing.LINE, MessageType.REQUEST, Frame.FLAG_ATTACHMENTS, out));
+        assertThrows(IllegalArgumentException.class, () -> Frame.writeAttachments(out, null));
+    }
+
+    @Test
+    void testMuxInvalidStreamThrows() {
+        OutputBuffer out = new OutputBuffer(64);
+        Frame.writeChunk(out, MessageType.REQUEST, Frame.FLAG_END, -1, new byte[1], 0, 1);
+
+        FrameDecoder decoder = new FrameDecoder(Framing.MUX, 1024);
+        decoder.feed(out.array(), 0, out.size());
+
+        assertThrows(ProtocolException.class, decoder::next);
+    }
+
+    private static void feed(FrameDecoder decoder, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        decoder.feed(bytes, 0, bytes.length);
+    }
+
+    private static byte[] encode(MessageType type, String payload) {
+        return Frame.encode(Framing.LENGTH, type, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,213 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamAssemblerTest {
+    @Test
+    void testInitializationInvalidArgumentsThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamAssembler(0, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> new StreamAssembler(10, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new StreamAssembler(10, 10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new StreamAssembler(10, 10, 10, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new StreamAssembler(10, 10, 10, 1, 9));
+    }
+
+    @Test
+    void testSingleFrameReturnedAsIs() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(1024);
+        Frame frame = new Frame(MessageType.REQUEST, Frame.FLAG_END, 1, bytes("whole"));
+
+        assertSame(frame, assembler.accept(frame));
+        assertNull(assembler.takeWindowUpdates());
+        assertEquals(0, assembler.partialStreams());
+    }
+
+    @Test
+    void testInterleavedStreamsJoined() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(1024);
+
+        assertNull(assembler.accept(new Frame(MessageType.REQUEST, 0, 1, bytes("hel"))));
+        assertNull(assembler.accept(new Frame(MessageType.RESPONSE, 0, 2, bytes("wor"))));
+        assertEquals(2, assembler.partialStreams());
+
+        Frame second = assembler.accept(new Frame(MessageType.RESPONSE, Frame.FLAG_END, 2, bytes("ld")));
+        assertEquals("world", second.text());
+        assertEquals(MessageType.RESPONSE, second.getType());
+        assertEquals(2, second.getStream());
+
+        Frame first = assembler.accept(new Frame(MessageType.REQUEST, Frame.FLAG_END, 1, bytes("lo")));
+        assertEquals("hello", first.text());
+        assertEquals(0, assembler.partialStreams());
+    }
+
+    @Test
+    void testWindowUpdatesAtHalfWindow() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(10, 30, 1024);
+
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[4]));
+        assertNull(assembler.takeWindowUpdates());
+
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[4]));
+        List<Frame> updates = decode(assembler.takeWindowUpdates());
+        assertEquals(1, updates.size());
+        assertEquals(1, updates.get(0).getStream());
+        assertEquals(8, Frame.readInt(updates.get(0).getPayload(), 0));
+
+        // Completing the stream grants no stream credit, but the connection reaches half its window
+        assembler.accept(new Frame(MessageType.REQUEST, Frame.FLAG_END, 1, new byte[8]));
+        updates = decode(assembler.takeWindowUpdates());
+        assertEquals(1, updates.size());
+        assertEquals(0, updates.get(0).getStream());
+        assertEquals(16, Frame.readInt(updates.get(0).getPayload(), 0));
+    }
+
+    @Test
+    void testStreamZeroNotFlowControlled() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(4, 4, 1024);
+
+        assertEquals(100, assembler.accept(new Frame(MessageType.ERROR, Frame.FLAG_END, 0, new byte[100])).getPayload().length);
+        assertNull(assembler.takeWindowUpdates());
+    }
+
+    @Test
+    void testExceededWindowThrows() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(10, 100, 1024);
+        assertThrows(ProtocolException.class, () -> assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[11])));
+
+        StreamAssembler connection = new StreamAssembler(10, 12, 1024);
+        connection.accept(new Frame(MessageType.REQUEST, Frame.FLAG_END, 1, new byte[5]));
+        assertThrows(ProtocolException.class, () -> connection.accept(new Frame(MessageType.REQUEST, Frame.FLAG_END, 2, new byte[8])));
+    }
+
+    @Test
+    void testOversizedMessageThrows() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(1024, 1024, 6);
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[4]));
+
+        assertThrows(ProtocolException.class, () -> assembler.accept(new Frame(MessageType.REQUEST, Frame.FLAG_END, 1, new byte[4])));
+    }
+
+    @Test
+    void testTooManyPartialStreamsThrows() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(1024, 1024, 100, 2, 200);
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[4]));
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 2, new byte[4]));
+
+        // Complete messages still pass
+        assertNotNull(assembler.accept(new Frame(MessageType.REQUEST, Frame.FLAG_END, 3, new byte[4])));
+
+        assertThrows(ProtocolException.class, () -> assembler.accept(new Frame(MessageType.REQUEST, 0, 3, new byte[4])));
+    }
+
+    @Test
+    void testBufferedBytesLimitedAcrossStreams() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(1024, 1024, 100, 10, 150);
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[80]));
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 2, new byte[60]));
+        assertEquals(140, assembler.bufferedBytes());
+
+        assertThrows(ProtocolException.class, () -> assembler.accept(new Frame(MessageType.REQUEST, 0, 3, new byte[20])));
+    }
+
+    @Test
+    void testCompletedMessageReleasesBufferedBytes() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(1024, 1024, 100, 10, 100);
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[60]));
+        assembler.accept(new Frame(MessageType.REQUEST, Frame.FLAG_END, 1, new byte[40]));
+        assertEquals(0, assembler.bufferedBytes());
+
+        assertNull(assembler.accept(new Frame(MessageType.REQUEST, 0, 2, new byte[90])));
+    }
+
+    @Test
+    void testChangedTypeThrows() throws ProtocolException {
+        StreamAssembler assembler = new StreamAssembler(1024);
+        assembler.accept(new Frame(MessageType.REQUEST, 0, 1, new byte[4]));
+
+        assertThrows(ProtocolException.class, () -> assembler.accept(new Frame(MessageType.BATCH, Frame.FLAG_END, 1, new byte[4])));
+    }
+
+    @Test
+    void testSchedulerRoundTrip() throws ProtocolException {
+        StreamScheduler scheduler = new StreamScheduler(64, 128, 16);
+        StreamAssembler assembler = new StreamAssembler(64, 128, 4096);
+
+        byte[] large = new byte[1000];
+        for (int i = 0; i < large.length; i++)
+            large[i] = (byte) i;
+
+        scheduler.enqueue(1, MessageType.REQUEST, large);
+        scheduler.enqueue(2, MessageType.REQUEST, bytes("small"));
+
+        // Feed the frames back and return the credit until both messages are through
+        List<Frame> messages = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder(Framing.MUX, 4096);
+        for (int round = 0; round < 100 && messages.size() < 2; round++) {
+            scheduler.pump(bytes -> decoder.feed(bytes, 0, bytes.length));
+
+            Frame frame;
+            while ((frame = decoder.next()) != null) {
+                Frame message = assembler.accept(frame);
+                if (message != null)
+                    messages.add(message);
+            }
+
+            byte[] updates = assembler.takeWindowUpdates();
+            if (updates != null)
+                for (Frame update : decode(updates))
+                    scheduler.windowUpdate(update);
+        }
+
+        assertEquals(2, messages.size());
+        assertEquals("small", messages.get(0).text());
+        assertArrayEquals(large, messages.get(1).getPayload());
+    }
+
+    @Test
+    void testSchedulerKeepsFlagsOfSplitMessage() throws ProtocolException {
+        StreamScheduler scheduler = new StreamScheduler(4096, 4096, 16);
+        StreamAssembler assembler = new StreamAssembler(4096, 4096, 4096);
+
+        scheduler.enqueue(3, MessageType.RESPONSE, Frame.FLAG_ATTACHMENTS, new byte[100]);
+
+        FrameDecoder decoder = new FrameDecoder(Framing.MUX, 4096);
+        scheduler.pump(bytes -> decoder.feed(bytes, 0, bytes.length));
+
+        Frame message = null;
+        Frame frame;
+        while ((frame = decoder.next()) != null) {
+            assertTrue(frame.hasAttachments());
+            message = assembler.accept(frame);
+        }
+
+        assertNotNull(message);
+        assertEquals(Frame.FLAG_ATTACHMENTS | Frame.FLAG_END, message.getFlags());
+        assertEquals(100, message.getPayload().length);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<Frame> decode(byte[] bytes) throws ProtocolException {
+        assertNotNull(bytes);
+
+        FrameDecoder decoder = new FrameDecoder(Framing.MUX, 1024);
+        decoder.feed(bytes, 0, bytes.length);
+
+        List<Frame> frames = new ArrayList<>();
+        Frame frame;
+        while ((frame = decoder.next()) != null)
+            frames.add(frame);
+
+        return frames;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,196 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.junit.jupiter.api.Test;
+import org.reujdon.jtp.shared.MessageType;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamSchedulerTest {
+    @Test
+    void testInitializationInvalidArgumentsThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamScheduler(0, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> new StreamScheduler(10, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new StreamScheduler(10, 10, 0));
+    }
+
+    @Test
+    void testEnqueueInvalidArgumentsThrows() {
+        StreamScheduler scheduler = new StreamScheduler();
+
+        assertThrows(IllegalArgumentException.class, () -> scheduler.enqueue(-1, MessageType.REQUEST, new byte[1]));
+        assertThrows(IllegalArgumentException.class, () -> scheduler.enqueue(1, null, new byte[1]));
+        assertThrows(IllegalArgumentException.class, () -> scheduler.enqueue(1, MessageType.REQUEST, null));
+    }
+
+    @Test
+    void testLargeMessageInterleavedWithSmallOne() throws ProtocolException {
+        StreamScheduler scheduler = new StreamScheduler(1000, 1000, 10);
+        scheduler.enqueue(1, MessageType.REQUEST, new byte[35]);
+        scheduler.enqueue(2, MessageType.REQUEST, new byte[5]);
+
+        List<Frame> frames = drain(scheduler);
+
+        assertEquals(5, frames.size());
+        assertEquals(1, frames.get(0).getStream());
+        assertEquals(2, frames.get(1).getStream());
+        assertEquals(Frame.FLAG_END, frames.get(1).getFlags());
+        assertEquals(0, frames.get(0).getFlags());
+        assertEquals(Frame.FLAG_END, frames.get(4).getFlags());
+        assertEquals(5, frames.get(4).getPayload().length);
+        assertEquals(0, scheduler.pendingStreams());
+    }
+
+    @Test
+    void testStreamWindowBlocksUntilUpdated() throws ProtocolException {
+        StreamScheduler scheduler = new StreamScheduler(8, 1000, 100);
+        scheduler.enqueue(1, MessageType.REQUEST, new byte[20]);
+
+        List<Frame> frames = drain(scheduler);
+        assertEquals(1, frames.size());
+        assertEquals(8, frames.get(0).getPayload().length);
+        assertFalse(scheduler.hasSendable());
+
+        // Other streams keep flowing while one waits for credit
+        scheduler.enqueue(2, MessageType.REQUEST, new byte[3]);
+        assertEquals(2, drain(scheduler).get(0).getStream());
+
+        scheduler.windowUpdate(1, 12);
+        frames = drain(scheduler);
+        assertEquals(1, frames.size());
+        assertEquals(12, frames.get(0).getPayload().length);
+        assertEquals(Frame.FLAG_END, frames.get(0).getFlags());
+    }
+
+    @Test
+    void testConnectionWindowBlocksAllStreams() throws ProtocolException {
+        StreamScheduler scheduler = new StreamScheduler(100, 10, 100);
+        scheduler.enqueue(1, MessageType.REQUEST, new byte[6]);
+        scheduler.enqueue(2, MessageType.REQUEST, new byte[6]);
+
+        List<Frame> frames = drain(scheduler);
+        assertEquals(2, frames.size());
+        assertEquals(10, frames.get(0).getPayload().length + frames.get(1).getPayload().length);
+        assertFalse(scheduler.hasSendable());
+
+        // Stream 0 is not flow controlled
+        scheduler.enqueue(0, MessageType.ERROR, new byte[50]);
+        assertEquals(0, drain(scheduler).get(0).getStream());
+
+        scheduler.windowUpdate(0, 10);
+        assertEquals(2, drain(scheduler).stream().mapToInt(frame -> frame.getPayload().length).sum());
+    }
+
+    @Test
+    void testMessagesQueuedOnOneStreamStartWithFullWindow() {
+        StreamScheduler scheduler = new StreamScheduler(8, 1000, 100);
+        scheduler.enqueue(1, MessageType.CHUNK, new byte[6]);
+        scheduler.enqueue(1, MessageType.CHUNK, new byte[6]);
+
+        List<Frame> frames = drain(scheduler);
+        assertEquals(2, frames.size());
+        assertEquals(6, frames.get(1).getPayload().length);
+        assertEquals(Frame.FLAG_END, frames.get(1).getFlags());
+        assertEquals(0, scheduler.pendingStreams());
+    }
+
+    @Test
+    void testWindowsStayInStepWithAssembler() throws ProtocolException {
+        StreamScheduler scheduler = new StreamScheduler(16, 1000, 4);
+        StreamAssembler assembler = new StreamAssembler(16, 1000, 1000);
+        for (int i = 0; i < 3; i++)
+            scheduler.enqueue(1, MessageType.CHUNK, new byte[20]);
+
+        int messages = 0;
+        List<Frame> frames;
+        while (!(frames = drain(scheduler)).isEmpty()) {
+            for (Frame frame : frames)
+                if (assembler.accept(frame) != null)
+                    messages++;
+
+            byte[] updates = assembler.takeWindowUpdates();
+            if (updates == null)
+                continue;
+
+            FrameDecoder decoder = new FrameDecoder(Framing.MUX, 1024);
+            decoder.feed(updates, 0, updates.length);
+            for (Frame update; (update = decoder.next()) != null; )
+                scheduler.windowUpdate(update);
+        }
+
+        assertEquals(3, messages);
+        assertEquals(0, scheduler.pendingStreams());
+    }
+
+    @Test
+    void testEmptyMessageSentWithoutCredit() {
+        StreamScheduler scheduler = new StreamScheduler(1, 1, 10);
+        scheduler.enqueue(1, MessageType.REQUEST, new byte[1]);
+        scheduler.enqueue(2, MessageType.REQUEST, new byte[0]);
+
+        List<Frame> frames = drain(scheduler);
+        assertEquals(2, frames.size());
+        assertEquals(0, frames.get(1).getPayload().length);
+        assertEquals(Frame.FLAG_END, frames.get(1).getFlags());
+    }
+
+    @Test
+    void testInvalidWindowUpdateThrows() {
+        StreamScheduler scheduler = new StreamScheduler();
+
+        assertThrows(ProtocolException.class, () -> scheduler.windowUpdate(0, 0));
+        assertThrows(ProtocolException.class, () -> scheduler.windowUpdate(0, Integer.MAX_VALUE));
+        assertThrows(ProtocolException.class, () -> scheduler.windowUpdate(new Frame(MessageType.WINDOW_UPDATE, 0, 0, new byte[3])));
+    }
+
+    @Test
+    void testWindowUpdateFrameParsed() throws ProtocolException {
+        StreamScheduler scheduler = new StreamScheduler(4, 1000, 100);
+        scheduler.enqueue(3, MessageType.REQUEST, new byte[10]);
+        drain(scheduler);
+
+        FrameDecoder decoder = new FrameDecoder(Framing.MUX, 1024);
+        byte[] update = Frame.windowUpdate(3, 6);
+        decoder.feed(update, 0, update.length);
+        scheduler.windowUpdate(decoder.next());
+
+        assertEquals(6, drain(scheduler).get(0).getPayload().length);
+    }
+
+    @Test
+    void testSentCallbackRunsWithLastFrame() {
+        StreamScheduler scheduler = new StreamScheduler(1000, 1000, 10);
+        AtomicInteger sent = new AtomicInteger();
+        scheduler.enqueue(1, MessageType.REQUEST, 0, new byte[25], sent::incrementAndGet);
+
+        assertNotNull(scheduler.poll(10));
+        assertNotNull(scheduler.poll(10));
+        assertEquals(0, sent.get());
+
+        assertNotNull(scheduler.poll(10));
+        assertEquals(1, sent.get());
+    }
+
+    /**
+     * Pumps the scheduler and decodes the written frames.
+     */
+    private static List<Frame> drain(StreamScheduler scheduler) {
+        FrameDecoder decoder = new FrameDecoder(Framing.MUX, 1024);
+        scheduler.pump(bytes -> decoder.feed(bytes, 0, bytes.length));
+
+        List<Frame> frames = new ArrayList<>();
+        try {
+            Frame frame;
+            while ((frame = decoder.next()) != null)
+                frames.add(frame);
+        } catch (ProtocolException e) {
+            fail(e);
+        }
+
+        return frames;
+    }
+}
\ No newline at end of file
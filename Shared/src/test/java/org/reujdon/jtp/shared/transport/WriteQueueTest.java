@@ -0,0 +1,102 @@
+package org.reujdon.jtp.shared.transport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteQueueTest {
+    @Test
+    void testInitializationNullStreamThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new WriteQueue(null));
+    }
+
+    @Test
+    void testEnqueueWritesAndFlushes() throws IOException {
+        CountingStream stream = new CountingStream();
+        WriteQueue queue = new WriteQueue(stream);
+
+        queue.enqueue("hello\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("hello\n", stream.toString(StandardCharsets.UTF_8));
+        assertEquals(1, stream.flushes.get());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void testAddWaitsForDrain() throws IOException {
+        CountingStream stream = new CountingStream();
+        WriteQueue queue = new WriteQueue(stream);
+
+        queue.add("a\n".getBytes(StandardCharsets.UTF_8));
+        queue.add("b\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(0, stream.size());
+        assertEquals(2, queue.size());
+
+        queue.drain();
+
+        assertEquals("a\nb\n", stream.toString(StandardCharsets.UTF_8));
+        assertEquals(1, stream.flushes.get());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void testConcurrentEnqueueWritesEveryMessageOnce() throws Exception {
+        CountingStream stream = new CountingStream();
+        WriteQueue queue = new WriteQueue(stream);
+
+        int threads = 8;
+        int perThread = 500;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++)
+                        queue.enqueue((id + ":" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+
+        start.countDown();
+        for (Thread writer : writers)
+            writer.join();
+
+        String[] lines = stream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(threads * perThread, lines.length);
+        assertTrue(stream.flushes.get() <= threads * perThread);
+    }
+
+    @Test
+    void testEnqueueAfterCloseThrows() {
+        WriteQueue queue = new WriteQueue(new CountingStream());
+        queue.close();
+
+        assertThrows(IllegalStateException.class, () -> queue.enqueue(new byte[]{1}));
+        assertThrows(IllegalStateException.class, () -> queue.add(new byte[]{1}));
+    }
+
+    private static class CountingStream extends ByteArrayOutputStream {
+        private final AtomicInteger flushes = new AtomicInteger();
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+}
\ No newline at end of file